@@ -0,0 +1,91 @@
+package com.s4apps.processlog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The synthetic lines and rule sets the benchmarks run on. Lines come from
+ * SyntheticLogGenerator with a fixed seed, so every run measures the same
+ * input.
+ *
+ * @author mat
+ */
+final class Corpus {
+
+    // Enough distinct lines to defeat branch prediction on any one of them
+    static final int LINES = 16_384;
+
+    private static final long SEED = 20260322L;
+
+    private Corpus() {
+    }
+
+    /**
+     * @return the benchmark lines
+     */
+    static String[] lines() {
+        return SyntheticLogGenerator.typical(SEED).nextLines(LINES);
+    }
+
+    /**
+     * Parse the lines.
+     *
+     * @param config the rules the rows should carry
+     * @return a row per line
+     */
+    static RowStringStorage[] rows(ConfigData config) {
+        ProcessLog processLog = processLog(config);
+        String[] lines = lines();
+        RowStringStorage[] rows = new RowStringStorage[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            rows[i] = new RowStringStorage(config);
+            processLog.process1Line(rows[i], lines[i]);
+        }
+        return rows;
+    }
+
+    /**
+     * @param config the rules to parse with
+     * @return a ProcessLog that writes nowhere, to call the parser on
+     */
+    static ProcessLog processLog(ConfigData config) {
+        return new ProcessLog(new CliOptions(new String[]{"--null", "benchmark.log"}), config);
+    }
+
+    /**
+     * A rule set of about the given size per list, in the shape ConfigRepository
+     * loads it (IPs, URLs and servers lowercase, methods uppercase). The
+     * first entries match the corpus the way our own rules match our traffic
+     * (WordPress paths deleted, the staging server ignored); the rest are
+     * made-up values that only cost time to check.
+     *
+     * @param size how many entries in each IP, URL and server list
+     * @return the rules
+     */
+    static ConfigData rules(int size) {
+        List<String> ipsToIgnore = new ArrayList<>();
+        List<String> urlsToIgnore = new ArrayList<>(List.of("/wp-login.php", "/xmlrpc.php"));
+        List<String> serversToIgnore = new ArrayList<>(List.of("staging."));
+        List<String> ipsToDelete = new ArrayList<>();
+        List<String> urlsToDelete = new ArrayList<>(List.of("/wp-content/", "/wp-includes/", "/wp-cron.php"));
+        List<String> serversToDelete = new ArrayList<>();
+        for (int i = 0; ipsToIgnore.size() < size; i++) {
+            ipsToIgnore.add("192.0.2." + (i % 256) + (i >= 256 ? "." + i : ""));
+            ipsToDelete.add("198.51.100." + (i % 256) + (i >= 256 ? "." + i : ""));
+        }
+        for (int i = 0; urlsToIgnore.size() < size; i++) {
+            urlsToIgnore.add("/ignored-" + i + "/");
+        }
+        for (int i = 0; urlsToDelete.size() < size; i++) {
+            urlsToDelete.add("/deleted-" + i + "/");
+        }
+        for (int i = 0; serversToIgnore.size() < size; i++) {
+            serversToIgnore.add("ignored-" + i + ".example.com");
+        }
+        for (int i = 0; serversToDelete.size() < size; i++) {
+            serversToDelete.add("deleted-" + i + ".example.com");
+        }
+        return new ConfigData(ipsToIgnore, List.of("OPTIONS", "PROPFIND"), serversToIgnore, urlsToIgnore,
+                ipsToDelete, List.of("TRACE", "CONNECT"), serversToDelete, urlsToDelete);
+    }
+}
@@ -0,0 +1,64 @@
+package com.s4apps.processlog;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What every written row costs on the way out: the SHA-256 row id, CSV
+ * escaping and the whole CSV line (which includes the id and the ignore
+ * reason).
+ *
+ * @author mat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+
+    private String[] lines;
+    private String[] browsers;
+    private RowStringStorage[] rows;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        lines = Corpus.lines();
+        rows = Corpus.rows(Corpus.rules(10));
+        browsers = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            browsers[i] = rows[i].getBrowser();
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (Corpus.LINES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public String hash() {
+        return ToolsAndConstants.hash(lines[nextIndex()]);
+    }
+
+    @Benchmark
+    public String escapeCSV() {
+        return ToolsAndConstants.escapeCSV(browsers[nextIndex()]);
+    }
+
+    @Benchmark
+    public String rowToString() {
+        return rows[nextIndex()].toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.s4apps.processlog;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The line parser: a whole line into a row as the tests see it, and the
+ * reusable LogLine view that ProcessLog uses, on its own, with the delete
+ * rules checked on its slices, with a row made and hashed (as every kept row
+ * is), and with the date converted to UTC.
+ *
+ * @author mat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    private final ConfigData config = ConfigData.empty();
+    private final ConfigData rules = Corpus.rules(10);
+    private final LogLine logLine = new LogLine();
+    private ProcessLog processLog;
+    private String[] lines;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        processLog = Corpus.processLog(config);
+        lines = Corpus.lines();
+    }
+
+    private String nextLine() {
+        next = (next + 1) & (Corpus.LINES - 1);
+        return lines[next];
+    }
+
+    @Benchmark
+    public RowStringStorage process1Line() {
+        RowStringStorage row = new RowStringStorage(config);
+        processLog.process1Line(row, nextLine());
+        return row;
+    }
+
+    @Benchmark
+    public LogLine parse() {
+        logLine.parse(nextLine());
+        return logLine;
+    }
+
+    @Benchmark
+    public boolean parseAndCheck() {
+        logLine.parse(nextLine());
+        return logLine.isDeleteRow(rules);
+    }
+
+    @Benchmark
+    public String parseAndMaterialize() {
+        logLine.parse(nextLine());
+        return logLine.toRow(config).getId();
+    }
+
+    @Benchmark
+    public String date() {
+        logLine.parse(nextLine());
+        return logLine.getDate();
+    }
+}
@@ -0,0 +1,56 @@
+package com.s4apps.processlog;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The delete and ignore rules, run on parsed rows for rule sets of different
+ * sizes. Our own rules have tens of entries per list; the larger sizes show
+ * how the linear scans grow.
+ *
+ * @author mat
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RulesBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int rules;
+
+    private RowStringStorage[] rows;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        rows = Corpus.rows(Corpus.rules(rules));
+    }
+
+    private RowStringStorage nextRow() {
+        next = (next + 1) & (Corpus.LINES - 1);
+        return rows[next];
+    }
+
+    @Benchmark
+    public boolean isDeleteRow() {
+        return nextRow().isDeleteRow();
+    }
+
+    @Benchmark
+    public int getIgnoreReason() {
+        return nextRow().getIgnoreReason();
+    }
+}
@@ -27,6 +27,7 @@ RUN_CMD=$PROJECT_DIR/run.sh
 LEAD_MANAGER_DIR=/home/mat/Projects/lead-manager
 LEAD_MANAGER_RUN_CMD=$LEAD_MANAGER_DIR/run.sh
 CLASS_ROOT=com.s4apps.processlog
+IMPORT_REGISTRY=/home/mat/logs/import-registry.tsv
 
 log_msg() {
 	if [ ${QUIET} -eq "1" ] && [ ${LOG} -eq "0" ]; then
@@ -202,7 +203,7 @@ fi
 if [ ${IMPORT} -eq "1" ]; then
 	log_msg "************************"
 	log_msg "Importing files"
-	run ${RUN_CMD} ${CLASS_ROOT}.ProcessLog -v --database *
+	run ${RUN_CMD} ${CLASS_ROOT}.ProcessLog -v --registry "${IMPORT_REGISTRY}" --database *
 fi
 
 ### Rebuild the ignore flags the new way
@@ -0,0 +1,260 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Exports ApacheLogs to archive segments, one file per day, streaming each
+ * day straight from the database into a SegmentWriter. A day that already
+ * has a segment is skipped, so the export can be re-run safely. Rows imported
+ * into a day after it was exported can be added with exportMissing, which
+ * writes them to another segment of the day (2026-01-31-1.seg and so on).
+ *
+ * @author mat
+ */
+public class ArchiveExport {
+
+    private final JpaAccess jpaAccess;
+    private final Path dir;
+
+    /**
+     * Entry point for exporting a range of days.
+     *
+     * @param args the command line arguments, see ArchiveExportOptions
+     */
+    public static void main(String[] args) {
+        ArchiveExportOptions options = new ArchiveExportOptions(args);
+
+        JpaAccess jpa = new JpaAccess();
+        try {
+            ArchiveExport export = new ArchiveExport(jpa, Paths.get(options.getDir()));
+            LocalDate from = options.getFrom();
+            if (from == null) {
+                LocalDateTime first = jpa.getDateRange()[0];
+                if (first == null) {
+                    System.out.println("Nothing to export.");
+                    return;
+                }
+                from = first.toLocalDate();
+            }
+            export.exportRange(from, options.getTo());
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Unable to export, got error: " + ex.getMessage());
+            System.exit(1);
+        } finally {
+            jpa.close();
+        }
+    }
+
+    /**
+     * @param jpaAccess the database access object to read the rows with
+     * @param dir       the archive directory, created if need be
+     */
+    public ArchiveExport(JpaAccess jpaAccess, Path dir) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+        this.dir = dir;
+    }
+
+    /**
+     * Export every day from first to last inclusive.
+     *
+     * @param first the first day
+     * @param last  the last day
+     * @return the number of rows exported
+     * @throws IOException
+     */
+    public long exportRange(LocalDate first, LocalDate last) throws IOException {
+        ProgressReporter progress = new ProgressReporter("days", Math.max(0, ChronoUnit.DAYS.between(first, last) + 1));
+        long total = 0;
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            total += exportDay(day);
+            progress.add(1);
+            progress.maybePrint();
+        }
+        progress.printFinal();
+        System.out.printf("Exported %,d rows to %s.%n", total, dir);
+        return total;
+    }
+
+    /**
+     * Export one day, unless it already has a segment.
+     *
+     * @param day the day
+     * @return the number of rows exported
+     * @throws IOException
+     */
+    public long exportDay(LocalDate day) throws IOException {
+        Files.createDirectories(dir);
+        if (isArchived(day)) {
+            return 0;
+        }
+        return writeSegment(day, dir.resolve(day + SegmentFormat.EXTENSION), row -> true);
+    }
+
+    /**
+     * Add the rows of a day that none of its segments hold, as after rows
+     * were imported into the day since it was exported, to a segment of their
+     * own.
+     *
+     * @param day the day
+     * @return the number of rows exported, or -1 if a segment is too old to
+     *         tell which rows it holds
+     * @throws IOException
+     */
+    public long exportMissing(LocalDate day) throws IOException {
+        Set<Long> idHashes = archivedIdHashes(day);
+        if (idHashes == null) {
+            return -1;
+        }
+        return writeSegment(day, SegmentFormat.newSegmentFile(dir, day.toString()),
+                row -> !idHashes.contains(SegmentFormat.idHash(row.getId())));
+    }
+
+    /**
+     * Write the day's rows that pass the filter to a segment, if there are
+     * any.
+     */
+    private long writeSegment(LocalDate day, Path file, Predicate<RowStringStorage> filter) throws IOException {
+        // Write to a temporary name so a failed export leaves no segment behind
+        Path partial = SegmentFormat.partialFile(file);
+        long rows;
+        try (SegmentWriter writer = new SegmentWriter(partial, day)) {
+            try {
+                jpaAccess.scanDay(ConfigData.empty(), day, row -> {
+                    if (!filter.test(row)) {
+                        return;
+                    }
+                    try {
+                        writer.add(row);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            rows = writer.getRowCount();
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+
+        if (rows == 0) {
+            Files.delete(partial);
+        } else {
+            Files.move(partial, file);
+        }
+        return rows;
+    }
+
+    /**
+     * @param day the day
+     * @return the number of rows in the day's segments, read back from their
+     *         footers, or 0 if there are none
+     * @throws IOException if a segment can't be read
+     */
+    public long archivedRows(LocalDate day) throws IOException {
+        long rows = 0;
+        for (Path file : segments(day)) {
+            try (SegmentReader reader = new SegmentReader(file)) {
+                rows += reader.getRowCount();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @param day the day
+     * @return true if the export has already written a segment for the day;
+     *         segments written by ArchiveSink don't count
+     */
+    public boolean isArchived(LocalDate day) {
+        return Files.exists(dir.resolve(day + SegmentFormat.EXTENSION));
+    }
+
+    /**
+     * Check that every row the table still has for the day is in one of the
+     * day's segments, as after a purge that was stopped part way through
+     * deleting the day.
+     *
+     * @param day the day
+     * @return true if the segments hold every remaining row, false if some
+     *         row isn't in them or a segment is too old to tell
+     * @throws IOException if a segment can't be read
+     */
+    public boolean coversRemainingRows(LocalDate day) throws IOException {
+        if (!isArchived(day)) {
+            return false;
+        }
+        Set<Long> idHashes = archivedIdHashes(day);
+        if (idHashes == null) {
+            return false;
+        }
+
+        boolean[] covered = {true};
+        jpaAccess.scanDay(ConfigData.empty(), day, row -> {
+            if (!idHashes.contains(SegmentFormat.idHash(row.getId()))) {
+                covered[0] = false;
+            }
+        });
+        return covered[0];
+    }
+
+    /**
+     * The id hashes of every row in the day's segments, or null if a segment
+     * is too old to have them.
+     */
+    private Set<Long> archivedIdHashes(LocalDate day) throws IOException {
+        Set<Long> idHashes = new HashSet<>();
+        for (Path file : segments(day)) {
+            try (SegmentReader reader = new SegmentReader(file)) {
+                if (!reader.hasIdHashes()) {
+                    return null;
+                }
+                for (SegmentFormat.BlockInfo block : reader.getBlocks()) {
+                    for (long idHash : reader.readBlock(block).getIdHashes()) {
+                        idHashes.add(idHash);
+                    }
+                }
+            }
+        }
+        return idHashes;
+    }
+
+    /**
+     * The export's segments of a day: 2026-01-31.seg, 2026-01-31-1.seg and so
+     * on, but not ArchiveSink's 2026-01-31-import.seg.
+     */
+    private List<Path> segments(LocalDate day) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        String pattern = Pattern.quote(day.toString()) + "(-\\d+)?"
+                + Pattern.quote(SegmentFormat.EXTENSION);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, day + "*" + SegmentFormat.EXTENSION)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().matches(pattern)) {
+                    segments.add(file);
+                }
+            }
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,115 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for ArchiveExport.
+ *
+ * @author mat
+ */
+public class ArchiveExportOptions {
+
+    private String dir = null;
+    private LocalDate from = null;
+    private LocalDate to = LocalDate.now().minusDays(1);
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public ArchiveExportOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Where the segments go
+        opt = new Option("a", "dir", true, "the archive directory");
+        opt.setArgName("dir");
+        opt.setRequired(true);
+        options.addOption(opt);
+
+        // The days to export
+        opt = new Option("f", "from", true, "the first day to export (default the earliest row)");
+        opt.setArgName("yyyy-MM-dd");
+        options.addOption(opt);
+
+        opt = new Option("t", "to", true, "the last day to export (default yesterday)");
+        opt.setArgName("yyyy-MM-dd");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        dir = cmd.getOptionValue("a");
+        try {
+            if (cmd.hasOption("f")) {
+                from = LocalDate.parse(cmd.getOptionValue("f"));
+            }
+            if (cmd.hasOption("t")) {
+                to = LocalDate.parse(cmd.getOptionValue("t"));
+            }
+        } catch (DateTimeParseException ex) {
+            System.err.println("Dates must be yyyy-MM-dd: " + ex.getParsedString());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("ArchiveExport --dir <dir> [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the archive directory
+     */
+    public String getDir() {
+        return dir;
+    }
+
+    /**
+     * @return the first day to export, or null for the earliest row
+     */
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the last day to export
+     */
+    public LocalDate getTo() {
+        return to;
+    }
+}
@@ -0,0 +1,137 @@
+package com.s4apps.processlog;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The filters of an ArchiveQuery, with the tests that let it skip whole
+ * segments and blocks. Every filter is optional (null, or empty/false) and
+ * they are ANDed together.
+ *
+ * String filters use the same semantics as the rules in RowStringStorage: IPs
+ * match exactly and servers and URLs by prefix, all case-insensitively.
+ *
+ * @param from         the earliest time to include, or null
+ * @param to           the time to stop at (exclusive), or null
+ * @param minResponse  the lowest response code to include, or null
+ * @param maxResponse  the highest response code to include, or null
+ * @param ips          the IPs to include, or empty for any
+ * @param serverPrefix the server prefix to include, or null
+ * @param urlPrefix    the URL prefix to include, or null
+ * @param notIgnored   only include rows that the current ignore rules pass
+ *
+ * @author mat
+ */
+public record ArchivePredicate(
+        LocalDateTime from,
+        LocalDateTime to,
+        Integer minResponse,
+        Integer maxResponse,
+        Set<String> ips,
+        String serverPrefix,
+        String urlPrefix,
+        boolean notIgnored) {
+
+    public ArchivePredicate {
+        ips = ips == null ? Set.of() : Set.copyOf(ips.stream().map(String::toLowerCase).toList());
+        serverPrefix = serverPrefix == null ? null : serverPrefix.toLowerCase();
+        urlPrefix = urlPrefix == null ? null : urlPrefix.toLowerCase();
+    }
+
+    /**
+     * @return a predicate that matches every row
+     */
+    public static ArchivePredicate all() {
+        return new ArchivePredicate(null, null, null, null, null, null, null, false);
+    }
+
+    /**
+     * @param minTime the segment or block's earliest time, in epoch seconds
+     * @param maxTime its latest time
+     * @return true if no row in the range can match the date filter
+     */
+    public boolean excludesTimes(long minTime, long maxTime) {
+        return (from != null && maxTime < epochSeconds(from))
+                || (to != null && minTime >= epochSeconds(to));
+    }
+
+    /**
+     * @param min the segment or block's lowest response code
+     * @param max its highest
+     * @return true if no row in the range can match the response filter
+     */
+    public boolean excludesResponses(int min, int max) {
+        return (minResponse != null && max < minResponse)
+                || (maxResponse != null && min > maxResponse);
+    }
+
+    /**
+     * @param block a block's zone map
+     * @return true if the block can be skipped without reading it
+     */
+    public boolean excludesBlock(SegmentFormat.BlockInfo block) {
+        return excludesTimes(block.minTime(), block.maxTime())
+                || excludesResponses(block.minResponse(), block.maxResponse());
+    }
+
+    /**
+     * @param column a string column, COL_IP to COL_BROWSER
+     * @return true if there is a filter on the column
+     */
+    public boolean filters(int column) {
+        return switch (column) {
+            case SegmentFormat.COL_IP -> !ips.isEmpty();
+            case SegmentFormat.COL_SERVER -> serverPrefix != null;
+            case SegmentFormat.COL_URL -> urlPrefix != null;
+            default -> false;
+        };
+    }
+
+    /**
+     * Test each value of a block's dictionary against the filter on its
+     * column, so each row then costs a single array lookup.
+     *
+     * @param column     a column that filters() is true for
+     * @param dictionary the block's dictionary for the column
+     * @return whether each dictionary entry matches
+     */
+    public boolean[] matchDictionary(int column, List<String> dictionary) {
+        boolean[] matches = new boolean[dictionary.size()];
+        for (int i = 0; i < matches.length; i++) {
+            String value = dictionary.get(i).toLowerCase();
+            matches[i] = switch (column) {
+                case SegmentFormat.COL_IP -> ips.contains(value);
+                case SegmentFormat.COL_SERVER -> value.startsWith(serverPrefix);
+                case SegmentFormat.COL_URL -> value.startsWith(urlPrefix);
+                default -> true;
+            };
+        }
+        return matches;
+    }
+
+    /**
+     * @param time a row's time, in epoch seconds
+     * @return true if it passes the date filter
+     */
+    public boolean matchesTime(long time) {
+        return !excludesTimes(time, time);
+    }
+
+    /**
+     * @param response a row's response code plus 1, or 0 for null, as
+     *                 returned by SegmentBlock.getNumbers()
+     * @return true if it passes the response filter
+     */
+    public boolean matchesResponse(long response) {
+        if (minResponse == null && maxResponse == null) {
+            return true;
+        }
+        return response != 0 && !excludesResponses((int) response - 1, (int) response - 1);
+    }
+
+    static long epochSeconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+}
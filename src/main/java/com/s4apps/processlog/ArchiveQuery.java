@@ -0,0 +1,455 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Queries archive segments without loading them back into the database. The
+ * segments are scanned in parallel, one day per task, and the filters are
+ * pushed down as far as they go:
+ * - a segment or block whose zone map (min/max time and response) can't
+ *   match is never read;
+ * - a block whose dictionary for a filtered column (ip, server, url) has no
+ *   matching value is skipped after decompressing just that column;
+ * - the remaining rows are filtered on the encoded columns, with string
+ *   filters tested once per dictionary entry rather than once per row.
+ * Only when --not-ignored is given are rows decoded, so the current ignore
+ * rules can be applied through RowStringStorage exactly as on import.
+ *
+ * A day can have more than one segment: ArchiveExport's (more than one if
+ * rows were added after the day was exported), and one for each import that
+ * saw the day. A file imported again writes its rows again, so
+ * where a day has several segments the id hashes of its matching rows are
+ * kept and a row seen before isn't counted twice.
+ *
+ * The result is a count of the matching rows, and optionally the count per
+ * value of one field.
+ *
+ * @author mat
+ */
+public class ArchiveQuery {
+
+    /**
+     * The fields that can be grouped on.
+     */
+    public enum Field {
+        IP(SegmentFormat.COL_IP),
+        METHOD(SegmentFormat.COL_METHOD),
+        URL(SegmentFormat.COL_URL),
+        URL_PREFIX(SegmentFormat.COL_URL),
+        SERVER(SegmentFormat.COL_SERVER),
+        REFERER(SegmentFormat.COL_SERVER2),
+        BROWSER(SegmentFormat.COL_BROWSER),
+        RESPONSE(SegmentFormat.COL_RESPONSE),
+        DAY(SegmentFormat.COL_TIME),
+        HOUR(SegmentFormat.COL_TIME);
+
+        private final int column;
+
+        Field(int column) {
+            this.column = column;
+        }
+
+        /**
+         * @param name a field name, in any case, with - or _ between words
+         * @return the field
+         * @throws IllegalArgumentException if there is no such field
+         */
+        public static Field parse(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * What a query found. Each task fills in its own and they are merged at
+     * the end.
+     */
+    public static class Result {
+        private long rows = 0;
+        private long segmentsRead = 0;
+        private long segmentsSkipped = 0;
+        private long blocksRead = 0;
+        private long blocksSkipped = 0;
+        private final Map<String, Long> groups = new HashMap<>();
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getSegmentsRead() {
+            return segmentsRead;
+        }
+
+        public long getSegmentsSkipped() {
+            return segmentsSkipped;
+        }
+
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        public long getBlocksSkipped() {
+            return blocksSkipped;
+        }
+
+        /**
+         * @return the count per value of the group field, ordered by value
+         */
+        public Map<String, Long> getGroups() {
+            return new TreeMap<>(groups);
+        }
+
+        /**
+         * @param limit how many to return
+         * @return the values of the group field with the most rows, most first
+         */
+        public List<Map.Entry<String, Long>> getTop(int limit) {
+            return groups.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(limit)
+                    .toList();
+        }
+
+        private void merge(Result other) {
+            rows += other.rows;
+            segmentsRead += other.segmentsRead;
+            segmentsSkipped += other.segmentsSkipped;
+            blocksRead += other.blocksRead;
+            blocksSkipped += other.blocksSkipped;
+            other.groups.forEach((key, count) -> groups.merge(key, count, Long::sum));
+        }
+    }
+
+    private static final int[] FILTER_COLUMNS = {SegmentFormat.COL_IP, SegmentFormat.COL_SERVER, SegmentFormat.COL_URL};
+    private static final String NO_VALUE = "-";
+
+    // Segment names start with their day, yyyy-MM-dd
+    private static final int DAY_LENGTH = 10;
+    private static final DateTimeFormatter KEY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH");
+
+    private final ArchivePredicate predicate;
+    private final ConfigData config;
+    private final Field groupBy;
+
+    /**
+     * Entry point for querying an archive directory.
+     *
+     * @param args the command line arguments, see ArchiveQueryOptions
+     */
+    public static void main(String[] args) {
+        ArchiveQueryOptions options = new ArchiveQueryOptions(args);
+
+        ConfigData cd = ConfigData.empty();
+        if (options.getPredicate().notIgnored()) {
+            try {
+                cd = new ConfigRepository().load();
+            } catch (ConfigRepository.ConfigurationException ex) {
+                System.err.println("FATAL: Unable to load configuration from database");
+                System.err.println("Error: " + ex.getMessage());
+                System.exit(1);
+            }
+        }
+
+        try {
+            List<Path> segments = listSegments(Paths.get(options.getDir()));
+            Result result = new ArchiveQuery(options.getPredicate(), cd, options.getGroupBy())
+                    .run(segments, options.getThreads());
+            print(result, options);
+        } catch (IOException ex) {
+            System.err.println("Unable to query " + options.getDir() + ": " + ex.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param predicate the rows to count
+     * @param config    the rules for predicate.notIgnored()
+     * @param groupBy   the field to count per value of, or null for the total
+     *                  only
+     */
+    public ArchiveQuery(ArchivePredicate predicate, ConfigData config, Field groupBy) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("ArchivePredicate cannot be null");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("ConfigData cannot be null");
+        }
+        this.predicate = predicate;
+        this.config = config;
+        this.groupBy = groupBy;
+    }
+
+    /**
+     * @param dir an archive directory
+     * @return its segment files, in name order
+     * @throws IOException
+     */
+    public static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SegmentFormat.EXTENSION)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(Comparator.naturalOrder());
+        return segments;
+    }
+
+    /**
+     * Run the query over the segments.
+     *
+     * @param segments the segment files
+     * @param threads  how many to scan at once
+     * @return the merged result
+     * @throws IOException if a segment can't be read
+     */
+    public Result run(List<Path> segments, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (List<Path> day : byDay(segments).values()) {
+                futures.add(executor.submit(() -> scanDay(day)));
+            }
+
+            Result result = new Result();
+            for (Future<Result> future : futures) {
+                try {
+                    result.merge(future.get());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException io) {
+                        throw io;
+                    }
+                    throw new IllegalStateException("Error scanning a segment", ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for query workers", ex);
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Group segments by the day their names start with.
+     *
+     * @param segments the segment files
+     * @return the segments of each day, in name order
+     */
+    static Map<String, List<Path>> byDay(List<Path> segments) {
+        Map<String, List<Path>> days = new TreeMap<>();
+        for (Path segment : segments) {
+            String name = segment.getFileName().toString();
+            String day = name.length() >= DAY_LENGTH ? name.substring(0, DAY_LENGTH) : name;
+            days.computeIfAbsent(day, d -> new ArrayList<>()).add(segment);
+        }
+        return days;
+    }
+
+    /**
+     * Scan the segments of one day, counting a row found in more than one of
+     * them once.
+     *
+     * @param files the day's segment files
+     * @return what they held
+     * @throws IOException
+     */
+    Result scanDay(List<Path> files) throws IOException {
+        if (files.size() == 1) {
+            return scanSegment(files.get(0), null);
+        }
+        Set<Long> seen = new HashSet<>();
+        Result result = new Result();
+        for (Path file : files) {
+            result.merge(scanSegment(file, seen));
+        }
+        return result;
+    }
+
+    /**
+     * Scan one segment.
+     *
+     * @param file the segment file
+     * @param seen the id hashes of the rows already counted for the day,
+     *             added to as rows match, or null if it is the day's only
+     *             segment
+     * @return what it found
+     * @throws IOException
+     */
+    Result scanSegment(Path file, Set<Long> seen) throws IOException {
+        Result result = new Result();
+        try (SegmentReader reader = new SegmentReader(file)) {
+            if (reader.getRowCount() == 0
+                    || predicate.excludesTimes(reader.getMinTime(), reader.getMaxTime())
+                    || predicate.excludesResponses(reader.getMinResponse(), reader.getMaxResponse())) {
+                result.segmentsSkipped++;
+                result.blocksSkipped += reader.getBlocks().size();
+                return result;
+            }
+            result.segmentsRead++;
+            for (SegmentFormat.BlockInfo info : reader.getBlocks()) {
+                if (predicate.excludesBlock(info)) {
+                    result.blocksSkipped++;
+                } else if (!scanBlock(reader.readBlock(info), result, seen)) {
+                    result.blocksSkipped++;
+                } else {
+                    result.blocksRead++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return false if the block was skipped on its dictionaries
+     */
+    private boolean scanBlock(SegmentBlock block, Result result, Set<Long> seen) throws IOException {
+        int rows = block.getRowCount();
+
+        // Test the dictionaries first, as one with no match saves the rest
+        List<int[]> filterIndexes = new ArrayList<>();
+        List<boolean[]> filterMatches = new ArrayList<>();
+        for (int column : FILTER_COLUMNS) {
+            if (predicate.filters(column)) {
+                boolean[] matches = predicate.matchDictionary(column, block.getDictionary(column));
+                if (!anyTrue(matches)) {
+                    return false;
+                }
+                filterIndexes.add(block.getIndexes(column));
+                filterMatches.add(matches);
+            }
+        }
+
+        boolean[] selected = new boolean[rows];
+        Arrays.fill(selected, true);
+        for (int f = 0; f < filterIndexes.size(); f++) {
+            int[] indexes = filterIndexes.get(f);
+            boolean[] matches = filterMatches.get(f);
+            for (int i = 0; i < rows; i++) {
+                selected[i] &= indexes[i] != 0 && matches[indexes[i] - 1];
+            }
+        }
+
+        long[] times = null;
+        if (predicate.from() != null || predicate.to() != null || groupBy == Field.DAY || groupBy == Field.HOUR) {
+            times = block.getTimes();
+            for (int i = 0; i < rows; i++) {
+                selected[i] &= predicate.matchesTime(times[i]);
+            }
+        }
+
+        long[] responses = null;
+        if (predicate.minResponse() != null || predicate.maxResponse() != null || groupBy == Field.RESPONSE) {
+            responses = block.getNumbers(SegmentFormat.COL_RESPONSE);
+            for (int i = 0; i < rows; i++) {
+                selected[i] &= predicate.matchesResponse(responses[i]);
+            }
+        }
+
+        if (predicate.notIgnored()) {
+            List<RowStringStorage> decoded = block.toRows(config);
+            for (int i = 0; i < rows; i++) {
+                if (selected[i]) {
+                    selected[i] = decoded.get(i).getIgnoreReason() == 0;
+                }
+            }
+        }
+
+        // A duplicate has the same values, so it matches wherever the row does
+        long[] idHashes = seen == null ? null : block.getIdHashes();
+        if (idHashes != null) {
+            for (int i = 0; i < rows; i++) {
+                if (selected[i]) {
+                    selected[i] = seen.add(idHashes[i]);
+                }
+            }
+        }
+
+        String[] keys = groupBy == null ? null : groupKeys(block, times, responses);
+        for (int i = 0; i < rows; i++) {
+            if (selected[i]) {
+                result.rows++;
+                if (keys != null) {
+                    result.groups.merge(keys[i], 1L, Long::sum);
+                }
+            }
+        }
+        return true;
+    }
+
+    private String[] groupKeys(SegmentBlock block, long[] times, long[] responses) throws IOException {
+        int rows = block.getRowCount();
+        String[] keys = new String[rows];
+        switch (groupBy) {
+            case DAY, HOUR -> {
+                int length = groupBy == Field.DAY ? 10 : 13;
+                for (int i = 0; i < rows; i++) {
+                    keys[i] = LocalDateTime.ofEpochSecond(times[i], 0, ZoneOffset.UTC).format(KEY_FORMAT)
+                            .substring(0, length);
+                }
+            }
+            case RESPONSE -> {
+                for (int i = 0; i < rows; i++) {
+                    keys[i] = responses[i] == 0 ? NO_VALUE : Long.toString(responses[i] - 1);
+                }
+            }
+            default -> {
+                // Work out each dictionary entry's key once
+                List<String> dictionary = block.getDictionary(groupBy.column);
+                String[] entryKeys = new String[dictionary.size()];
+                for (int e = 0; e < entryKeys.length; e++) {
+                    entryKeys[e] = groupBy == Field.URL_PREFIX ? HourlyRollups.urlPrefix(dictionary.get(e)) : dictionary.get(e);
+                }
+                int[] indexes = block.getIndexes(groupBy.column);
+                for (int i = 0; i < rows; i++) {
+                    keys[i] = indexes[i] == 0 ? NO_VALUE : entryKeys[indexes[i] - 1];
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static boolean anyTrue(boolean[] values) {
+        for (boolean value : values) {
+            if (value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void print(Result result, ArchiveQueryOptions options) {
+        if (options.getGroupBy() != null) {
+            List<Map.Entry<String, Long>> entries = options.isTop()
+                    ? result.getTop(options.getLimit())
+                    : new ArrayList<>(result.getGroups().entrySet());
+            for (Map.Entry<String, Long> entry : entries) {
+                System.out.printf("%,15d  %s%n", entry.getValue(), entry.getKey());
+            }
+            System.out.println();
+        }
+        System.out.printf("Matched %,d rows.%n", result.getRows());
+        System.out.printf("Read %,d segments and %,d blocks, skipped %,d segments and %,d blocks.%n",
+                result.getSegmentsRead(), result.getBlocksRead(), result.getSegmentsSkipped(), result.getBlocksSkipped());
+    }
+}
@@ -0,0 +1,224 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for ArchiveQuery.
+ *
+ * @author mat
+ */
+public class ArchiveQueryOptions {
+
+    private static final int MAX_THREADS = 32;
+
+    private String dir = null;
+    private ArchivePredicate predicate;
+    private ArchiveQuery.Field groupBy = null;
+    private boolean top = false;
+    private int limit = 10;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public ArchiveQueryOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Where the segments are
+        opt = new Option("a", "dir", true, "the archive directory");
+        opt.setArgName("dir");
+        opt.setRequired(true);
+        options.addOption(opt);
+
+        // ** The filters, all of which must match **
+
+        opt = new Option("f", "from", true, "the first day to include");
+        opt.setArgName("yyyy-MM-dd");
+        options.addOption(opt);
+
+        opt = new Option("t", "to", true, "the last day to include");
+        opt.setArgName("yyyy-MM-dd");
+        options.addOption(opt);
+
+        opt = new Option("r", "response", true, "a response code, or a range such as 400-499");
+        opt.setArgName("code[-code]");
+        options.addOption(opt);
+
+        opt = new Option("i", "ip", true, "IP addresses to include, comma separated");
+        opt.setArgName("ip[,ip...]");
+        options.addOption(opt);
+
+        opt = new Option("s", "server", true, "only servers starting with this");
+        opt.setArgName("prefix");
+        options.addOption(opt);
+
+        opt = new Option("u", "url", true, "only URLs starting with this");
+        opt.setArgName("prefix");
+        options.addOption(opt);
+
+        opt = new Option("n", "not-ignored", false, "only rows that pass the current ignore rules");
+        options.addOption(opt);
+
+        // ** What to report: the count per value, or just the top few **
+        OptionGroup report = new OptionGroup();
+        opt = new Option("g", "group-by", true, "count the rows per value of a field, one of "
+                + Arrays.toString(ArchiveQuery.Field.values()).toLowerCase());
+        opt.setArgName("field");
+        report.addOption(opt);
+        opt = new Option("T", "top", true, "the values of a field with the most rows");
+        opt.setArgName("field");
+        report.addOption(opt);
+        options.addOptionGroup(report);
+
+        opt = new Option("l", "limit", true, "how many values --top shows (default " + limit + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option("j", "threads", true, "segments to scan at once (default " + threads + ")");
+        opt.setArgName("threads");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        dir = cmd.getOptionValue("a");
+        try {
+            LocalDateTime from = cmd.hasOption("f") ? LocalDate.parse(cmd.getOptionValue("f")).atStartOfDay() : null;
+            LocalDateTime to = cmd.hasOption("t") ? LocalDate.parse(cmd.getOptionValue("t")).plusDays(1).atStartOfDay() : null;
+
+            Integer minResponse = null;
+            Integer maxResponse = null;
+            if (cmd.hasOption("r")) {
+                String[] range = cmd.getOptionValue("r").split("-", 2);
+                minResponse = Integer.parseInt(range[0].trim());
+                maxResponse = range.length == 1 ? minResponse : Integer.parseInt(range[1].trim());
+            }
+
+            Set<String> ips = new HashSet<>();
+            if (cmd.hasOption("i")) {
+                for (String ip : cmd.getOptionValue("i").split(",")) {
+                    if (!ip.isBlank()) {
+                        ips.add(ip.trim());
+                    }
+                }
+            }
+
+            predicate = new ArchivePredicate(from, to, minResponse, maxResponse, ips,
+                    cmd.getOptionValue("s"), cmd.getOptionValue("u"), cmd.hasOption("n"));
+
+            if (cmd.hasOption("g")) {
+                groupBy = ArchiveQuery.Field.parse(cmd.getOptionValue("g"));
+            } else if (cmd.hasOption("T")) {
+                groupBy = ArchiveQuery.Field.parse(cmd.getOptionValue("T"));
+                top = true;
+            }
+            if (cmd.hasOption("l")) {
+                limit = Integer.parseInt(cmd.getOptionValue("l"));
+            }
+            if (cmd.hasOption("j")) {
+                threads = Integer.parseInt(cmd.getOptionValue("j"));
+            }
+        } catch (DateTimeParseException ex) {
+            System.err.println("Dates must be yyyy-MM-dd: " + ex.getParsedString());
+            displayHelpMessage(options);
+            System.exit(1);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Invalid value: " + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (limit < 1 || threads < 1 || threads > MAX_THREADS) {
+            System.err.println("--limit must be at least 1 and --threads between 1 and " + MAX_THREADS);
+            System.exit(1);
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("ArchiveQuery --dir <dir> [filters] [--group-by <field> | --top <field>]",
+                    null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the archive directory
+     */
+    public String getDir() {
+        return dir;
+    }
+
+    /**
+     * @return the filters
+     */
+    public ArchivePredicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return the field to count per value of, or null for the total only
+     */
+    public ArchiveQuery.Field getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @return true to show only the values with the most rows
+     */
+    public boolean isTop() {
+        return top;
+    }
+
+    /**
+     * @return how many values --top shows
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return how many segments to scan at once
+     */
+    public int getThreads() {
+        return threads;
+    }
+}
@@ -0,0 +1,107 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the import stream to archive segments, one per day seen in each
+ * flush (see SegmentWriter). A segment is only complete once its footer is
+ * written, so it is written under a .partial name and renamed on flush or
+ * close; readers never see half a segment, even after a killed import.
+ *
+ * The segments are named 2026-01-31-import.seg, then 2026-01-31-import-1.seg
+ * and so on, apart from ArchiveExport's 2026-01-31.seg and 2026-01-31-1.seg,
+ * so they never count as the day having been exported. Rows an earlier import
+ * already wrote are written again, and ArchiveQuery counts them once by their
+ * id hashes.
+ *
+ * @author mat
+ */
+public class ArchiveSink implements LogSink {
+
+    private static final LocalDate NO_DATE = LocalDate.of(1970, 1, 1);
+    private static final String NAME_SUFFIX = "-import";
+
+    private final Path dir;
+    private final Map<LocalDate, OpenSegment> open = new TreeMap<>();
+
+    /**
+     * A segment being written, and the name it gets once finished.
+     */
+    private record OpenSegment(SegmentWriter writer, Path partial, Path file) {
+    }
+
+    /**
+     * @param dir the archive directory, created if need be
+     * @throws IOException
+     */
+    public ArchiveSink(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    @Override
+    public int accept(List<RowStringStorage> rows) throws IOException {
+        for (RowStringStorage row : rows) {
+            LocalDate day = dayOf(row);
+            OpenSegment segment = open.get(day);
+            if (segment == null) {
+                Path file = SegmentFormat.newSegmentFile(dir, day + NAME_SUFFIX);
+                Path partial = SegmentFormat.partialFile(file);
+                segment = new OpenSegment(new SegmentWriter(partial, day), partial, file);
+                open.put(day, segment);
+            }
+            segment.writer().add(row);
+        }
+        return rows.size();
+    }
+
+    /**
+     * Finish the open segments, so the rows so far are on disk under their
+     * final names. Later rows go to new segments.
+     */
+    @Override
+    public void flush() throws IOException {
+        finishAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finishAll();
+    }
+
+    private void finishAll() throws IOException {
+        IOException failure = null;
+        for (OpenSegment segment : open.values()) {
+            try {
+                segment.writer().close();
+                Files.move(segment.partial(), segment.file());
+            } catch (IOException ex) {
+                try {
+                    Files.deleteIfExists(segment.partial());
+                } catch (IOException deleteEx) {
+                    ex.addSuppressed(deleteEx);
+                }
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        open.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static LocalDate dayOf(RowStringStorage row) {
+        LocalDate day = row.getDay();
+        return day == null ? NO_DATE : day;
+    }
+}
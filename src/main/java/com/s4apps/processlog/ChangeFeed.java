@@ -0,0 +1,245 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends the id of every newly inserted row to the ApacheLogFeed table,
+ * where it gets an increasing sequence number. ApacheLog ids are content
+ * hashes with no order, so without it a consumer such as the lead manager
+ * (which records its work in ProcessedLogs) has to anti-join the whole table
+ * to find new rows. With it, a consumer keeps a watermark in FeedConsumers
+ * and reads "everything after N" as a primary key range.
+ *
+ * The tables are optional and the feed is only written once they exist:
+ *
+ * CREATE TABLE ApacheLogFeed (
+ *     seq BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+ *     apacheLogId VARCHAR(64) NOT NULL,
+ *     insertedAt DATETIME NOT NULL
+ * );
+ * CREATE TABLE FeedConsumers (
+ *     consumer VARCHAR(64) NOT NULL PRIMARY KEY,
+ *     watermark BIGINT NOT NULL,
+ *     updatedAt DATETIME NOT NULL
+ * );
+ *
+ * The feed is written in the same transaction as the rows. Only inserts are
+ * recorded, so a consumer should expect some ids to have been deleted since.
+ *
+ * seq values are handed out as the entries are inserted but only become
+ * visible when their transaction commits, so two importers committing out of
+ * order could let a consumer read past an entry that then appears below its
+ * watermark. To stop that each flush first locks the end of the feed (the
+ * last entry and the gap after it) with FOR UPDATE, so only one transaction
+ * at a time appends to it and entries become visible in seq order. The lock
+ * is held from the flush to the commit, which follows straight after.
+ *
+ * The feed is kept short: entries every consumer has handled are pruned when
+ * a watermark is committed (see prune), and entries imported before the
+ * retention cutoff go when their rows do, as those rows are older still.
+ *
+ * @author mat
+ */
+public class ChangeFeed implements RowWriteListener {
+
+    public static final String TABLE = "ApacheLogFeed";
+    public static final String CONSUMERS_TABLE = "FeedConsumers";
+
+    /**
+     * One entry of the feed.
+     */
+    public record Entry(long seq, String apacheLogId) {
+    }
+
+    private final List<String> inserted = new ArrayList<>();
+    private LocalDateTime droppedBefore = null;
+
+    @Override
+    public void rowInserted(RowStringStorage row) {
+        inserted.add(row.getId());
+    }
+
+    @Override
+    public void rowDeleted(RowStringStorage row) {
+        // The feed only records inserts
+    }
+
+    @Override
+    public void rowFlagsChanged(RowStringStorage row, int ignoreReason) {
+        // The feed only records inserts
+    }
+
+    @Override
+    public void rowsDroppedBefore(LocalDateTime bound) {
+        if (droppedBefore == null || bound.isAfter(droppedBefore)) {
+            droppedBefore = bound;
+        }
+    }
+
+    @Override
+    public void flush(Connection connection) throws SQLException {
+        if (droppedBefore != null) {
+            pruneBefore(connection, droppedBefore);
+            droppedBefore = null;
+        }
+        if (inserted.isEmpty()) {
+            return;
+        }
+        // Wait for any other writer to commit, so entries appear in seq order
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT seq FROM " + TABLE + " ORDER BY seq DESC LIMIT 1 FOR UPDATE");
+                ResultSet rs = ps.executeQuery()) {
+            rs.next();
+        }
+        try (PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " (apacheLogId, insertedAt) VALUES (?, ?)")) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            for (String id : inserted) {
+                ps.setString(1, id);
+                ps.setTimestamp(2, now);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        inserted.clear();
+    }
+
+    /**
+     * @param connection
+     * @param after the sequence to read after
+     * @param limit the most entries to return
+     * @return the entries after the sequence, in order
+     * @throws SQLException
+     */
+    public static List<Entry> readAfter(Connection connection, long after, int limit) throws SQLException {
+        List<Entry> entries = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT seq, apacheLogId FROM " + TABLE + " WHERE seq > ? ORDER BY seq LIMIT ?")) {
+            ps.setLong(1, after);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(new Entry(rs.getLong(1), rs.getString(2)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param connection
+     * @return the last sequence written, or 0 if the feed is empty
+     * @throws SQLException
+     */
+    public static long getHead(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COALESCE(MAX(seq), 0) FROM " + TABLE);
+                ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * @param connection
+     * @param consumer   the consumer's name
+     * @return its watermark, or 0 if it hasn't committed one
+     * @throws SQLException
+     */
+    public static long getWatermark(Connection connection, String consumer) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT watermark FROM " + CONSUMERS_TABLE + " WHERE consumer = ?")) {
+            ps.setString(1, consumer);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * @param connection
+     * @return every consumer's watermark, by name
+     * @throws SQLException
+     */
+    public static Map<String, Long> getWatermarks(Connection connection) throws SQLException {
+        Map<String, Long> watermarks = new LinkedHashMap<>();
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT consumer, watermark FROM " + CONSUMERS_TABLE + " ORDER BY consumer");
+                ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                watermarks.put(rs.getString(1), rs.getLong(2));
+            }
+        }
+        return watermarks;
+    }
+
+    /**
+     * Record that a consumer has handled everything up to a sequence. A
+     * watermark only moves forward, so a consumer that replays old entries
+     * can't lose its place.
+     *
+     * @param connection
+     * @param consumer   the consumer's name
+     * @param watermark  the last sequence it has handled
+     * @throws SQLException
+     */
+    public static void commitWatermark(Connection connection, String consumer, long watermark) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(ToolsAndConstants.upsert(connection,
+                "INSERT INTO " + CONSUMERS_TABLE + " (consumer, watermark, updatedAt) VALUES (?, ?, ?)",
+                "watermark = GREATEST(watermark, incoming.watermark), updatedAt = incoming.updatedAt"))) {
+            ps.setString(1, consumer);
+            ps.setLong(2, watermark);
+            ps.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the entries every consumer has handled. Nothing is deleted until
+     * there is a consumer, and a consumer added later starts from what is
+     * left.
+     *
+     * @param connection
+     * @return the number of entries deleted
+     * @throws SQLException
+     */
+    public static int prune(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + TABLE
+                + " WHERE seq <= (SELECT MIN(watermark) FROM " + CONSUMERS_TABLE + ")")) {
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the entries imported before the retention cutoff. A row is
+     * imported after the time it is dated, so their rows have already been
+     * purged.
+     *
+     * @param connection
+     * @param cutoff     the retention cutoff
+     * @return the number of entries deleted
+     * @throws SQLException
+     */
+    public static int pruneBefore(Connection connection, LocalDateTime cutoff) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(
+                "DELETE FROM " + TABLE + " WHERE insertedAt < ?")) {
+            ps.setTimestamp(1, Timestamp.valueOf(cutoff));
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * The ids collected since the last flush, for testing.
+     */
+    List<String> getInserted() {
+        return inserted;
+    }
+}
@@ -1,11 +1,22 @@
 package com.s4apps.processlog;
 
+import java.util.Map;
+import java.util.TreeSet;
+
 /**
  * Validates database integrity by checking that:
  * - No records exist that should have been deleted.
  * - Ignore flags match the data they describe.
  * - The ignoreReason bitmask is consistent with the individual flags.
  *
+ * With --scan the same checks are made row by row in a single pass over the
+ * table instead (see IntegrityScan).
+ *
+ * When the FlagCounts table exists the flagged totals and the ignoreReason
+ * check are read from it instead of counting ApacheLogs. --verify-counters
+ * makes sure it hasn't drifted, and --rebuild-counters refills it (and
+ * HourlyRollups, if that exists).
+ *
  * @author mat
  */
 public class Check {
@@ -16,6 +27,7 @@ public class Check {
     private static final String MATCHED_PREFIX = "Ok - Matched on ";
     private static final String ROWS_SUFFIX = " rows";
     private static final String OK = "Ok";
+    private static final int MAX_DRIFT_SHOWN = 20;
 
     private final JpaAccess jpaAccess;
 
@@ -35,12 +47,34 @@ public class Check {
      * Main entry point - creates an instance and runs it.
      * This is the ONLY static method we need.
      *
-     * @param args the command line arguments (not used)
+     * @param args the command line arguments, see CheckOptions
      */
     public static void main(String[] args) {
+        CheckOptions options = new CheckOptions(args);
+
+        ConfigData cd = null;
+        if (options.isScan()) {
+            try {
+                cd = new ConfigRepository().load();
+            } catch (ConfigRepository.ConfigurationException ex) {
+                System.err.println("FATAL: Unable to load configuration from database");
+                System.err.println("Error: " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+
         JpaAccess jpa = new JpaAccess();
         try {
-            new Check(jpa).run();
+            if (options.isRebuildCounters()) {
+                new Check(jpa).rebuildCounters();
+            } else if (options.isVerifyCounters()) {
+                new Check(jpa).verifyCounters();
+            } else if (options.isScan()) {
+                new IntegrityScan(jpa, cd, options.getDumpFile()).run();
+            } else {
+                new Check(jpa).run();
+            }
         } finally {
             jpa.close();
         }
@@ -63,16 +97,92 @@ public class Check {
         printDeleteCheck("Methods", jpaAccess.countDeleteMethodMatches());
     }
 
+    /**
+     * Compare FlagCounts with a full count of ApacheLogs and report every cell
+     * that differs.
+     *
+     * @return the number of cells that differ
+     */
+    public int verifyCounters() {
+        if (!jpaAccess.tableExists(FlagCounters.TABLE)) {
+            System.err.println(FlagCounters.TABLE + " does not exist");
+            return 0;
+        }
+        System.out.println("Counting ApacheLogs from scratch ...");
+        Map<FlagCounters.Key, Long> expected = jpaAccess.doReturningWork(FlagCounters::countFromScratch);
+        Map<FlagCounters.Key, Long> actual = jpaAccess.doReturningWork(FlagCounters::readCounts);
+
+        TreeSet<FlagCounters.Key> keys = new TreeSet<>(expected.keySet());
+        keys.addAll(actual.keySet());
+        int drift = 0;
+        for (FlagCounters.Key key : keys) {
+            long want = expected.getOrDefault(key, 0L);
+            long got = actual.getOrDefault(key, 0L);
+            if (want != got) {
+                if (drift < MAX_DRIFT_SHOWN) {
+                    System.err.println("**" + key.day() + " ignoreReason " + key.ignoreReason() + " flags "
+                            + key.flags() + ": counted " + want + " but " + FlagCounters.TABLE + " has " + got);
+                }
+                drift++;
+            }
+        }
+
+        if (drift != 0) {
+            System.err.println("\n**" + drift + " counters have drifted, run Check --rebuild-counters");
+        } else {
+            System.out.println(OK + " - " + keys.size() + " counters match");
+        }
+        return drift;
+    }
+
+    /**
+     * Refill FlagCounts and HourlyRollups, whichever exist, from ApacheLogs.
+     */
+    public void rebuildCounters() {
+        boolean any = false;
+        if (jpaAccess.tableExists(FlagCounters.TABLE)) {
+            System.out.println("Rebuilding " + FlagCounters.TABLE + " ...");
+            int cells = jpaAccess.doReturningWork(FlagCounters::rebuild);
+            jpaAccess.commit();
+            System.out.println("Wrote " + cells + " counters");
+            any = true;
+        }
+        if (jpaAccess.tableExists(HourlyRollups.TABLE)) {
+            System.out.println("Rebuilding " + HourlyRollups.TABLE + " ...");
+            boolean normalized = jpaAccess.getDimensions() != null;
+            int rows = jpaAccess.doReturningWork(connection -> HourlyRollups.rebuild(connection, normalized));
+            jpaAccess.commit();
+            System.out.println("Wrote " + rows + " rollups");
+            any = true;
+        }
+        if (!any) {
+            System.err.println("Neither " + FlagCounters.TABLE + " nor " + HourlyRollups.TABLE + " exists");
+        }
+    }
+
     private void runIgnoreChecks() {
+        Map<FlagCounters.Key, Long> counts = null;
+        if (jpaAccess.tableExists(FlagCounters.TABLE)) {
+            counts = jpaAccess.doReturningWork(FlagCounters::readCounts);
+        }
+
         System.out.println("\n\nChecking: Do we have any ignore flags set wrong?");
-        printMatchCheck("IPs", jpaAccess.countIgnoreIpMatches(), jpaAccess.countIgnoreIpFlagged());
-        printMatchCheck("URLs", jpaAccess.countIgnoreUrlMatches(), jpaAccess.countIgnoreUrlFlagged());
-        printMatchCheck("Servers", jpaAccess.countIgnoreServerMatches(), jpaAccess.countIgnoreServerFlagged());
-        printMatchCheck("Methods", jpaAccess.countIgnoreMethodMatches(), jpaAccess.countIgnoreMethodFlagged());
-        System.out.println("- Bot records flagged: " + jpaAccess.countIgnoreBotFlagged());
+        printMatchCheck("IPs", jpaAccess.countIgnoreIpMatches(), counts == null
+                ? jpaAccess.countIgnoreIpFlagged() : FlagCounters.countFlagged(counts, ToolsAndConstants.REASON_IP));
+        printMatchCheck("URLs", jpaAccess.countIgnoreUrlMatches(), counts == null
+                ? jpaAccess.countIgnoreUrlFlagged() : FlagCounters.countFlagged(counts, ToolsAndConstants.REASON_URL));
+        printMatchCheck("Servers", jpaAccess.countIgnoreServerMatches(), counts == null
+                ? jpaAccess.countIgnoreServerFlagged()
+                : FlagCounters.countFlagged(counts, ToolsAndConstants.REASON_SERVER));
+        printMatchCheck("Methods", jpaAccess.countIgnoreMethodMatches(), counts == null
+                ? jpaAccess.countIgnoreMethodFlagged()
+                : FlagCounters.countFlagged(counts, ToolsAndConstants.REASON_METHOD));
+        System.out.println("- Bot records flagged: " + (counts == null
+                ? jpaAccess.countIgnoreBotFlagged() : FlagCounters.countFlagged(counts, ToolsAndConstants.REASON_BOT)));
 
         System.out.print("Checking ignoreReason adds up ... ");
-        long mismatch = jpaAccess.countIgnoreReasonMismatch();
+        long mismatch = counts == null
+                ? jpaAccess.countIgnoreReasonMismatch() : FlagCounters.countReasonMismatches(counts);
         if (mismatch != 0) {
             System.err.println("\n**There are " + mismatch + " ignoreReasons that don't add up");
         } else {
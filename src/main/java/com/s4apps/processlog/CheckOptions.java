@@ -0,0 +1,124 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for Check.
+ *
+ * @author mat
+ */
+public class CheckOptions {
+
+    private boolean scan = false;
+    private String dumpFile = null;
+    private boolean verifyCounters = false;
+    private boolean rebuildCounters = false;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public CheckOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Single pass in the JVM instead of the SQL checks
+        opt = new Option("s", "scan", false, "check every row in one pass using the in-memory rules");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Where to put the failing ids
+        opt = new Option("D", "dump", true, "with --scan, write the ids of failing rows to this file");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        // Compare the FlagCounts table with a full count
+        opt = new Option(null, "verify-counters", false, "count ApacheLogs from scratch and compare with FlagCounts");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Refill the summary tables
+        opt = new Option(null, "rebuild-counters", false, "refill FlagCounts and HourlyRollups from ApacheLogs");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        scan = cmd.hasOption("s");
+        if (cmd.hasOption("D")) {
+            if (!scan) {
+                System.err.println("--dump needs --scan");
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+            dumpFile = cmd.getOptionValue("D");
+        }
+        verifyCounters = cmd.hasOption("verify-counters");
+        rebuildCounters = cmd.hasOption("rebuild-counters");
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("Check [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return true to run the single-pass scan instead of the SQL checks
+     */
+    public boolean isScan() {
+        return scan;
+    }
+
+    /**
+     * @return the file to write failing ids to, or null
+     */
+    public String getDumpFile() {
+        return dumpFile;
+    }
+
+    /**
+     * @return true to compare FlagCounts with a full count of ApacheLogs
+     */
+    public boolean isVerifyCounters() {
+        return verifyCounters;
+    }
+
+    /**
+     * @return true to refill FlagCounts and HourlyRollups from ApacheLogs
+     */
+    public boolean isRebuildCounters() {
+        return rebuildCounters;
+    }
+}
@@ -0,0 +1,108 @@
+package com.s4apps.processlog;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Deletes old rows a slice at a time, oldest first, committing after every
+ * slice so that no single transaction holds many locks or much undo log.
+ *
+ * Two optional throttles let it run alongside other work: a fixed pause
+ * between slices, and a target latency per slice. With a target latency the
+ * slice size is halved whenever a slice takes longer than the target and
+ * grown again (up to the starting size) while slices are comfortably quicker.
+ *
+ * @author mat
+ */
+public class ChunkedDeleter {
+
+    private static final int MIN_CHUNK_SIZE = 100;
+
+    private final JpaAccess jpaAccess;
+    private final int maxChunkSize;
+    private final long pauseMillis;
+    private final long targetLatencyMillis;
+
+    /**
+     * @param jpaAccess           the database access object to delete with
+     * @param chunkSize           rows per slice (the most, if throttling by latency)
+     * @param pauseMillis         how long to sleep between slices, 0 for none
+     * @param targetLatencyMillis how long a slice should take, 0 to not adapt
+     */
+    public ChunkedDeleter(JpaAccess jpaAccess, int chunkSize, long pauseMillis, long targetLatencyMillis) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        this.jpaAccess = jpaAccess;
+        this.maxChunkSize = chunkSize;
+        this.pauseMillis = pauseMillis;
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    /**
+     * Delete every row dated before the cutoff.
+     *
+     * @param cutoff the retention cutoff
+     * @return the number of rows deleted
+     */
+    public long deleteBefore(LocalDateTime cutoff) {
+        ProgressReporter progress = new ProgressReporter("rows", jpaAccess.countBefore(cutoff));
+        long startNanos = System.nanoTime();
+        long deleted = 0;
+        int chunkSize = maxChunkSize;
+
+        List<String> ids = jpaAccess.getIdsBefore(cutoff, chunkSize);
+        while (!ids.isEmpty()) {
+            long sliceStart = System.nanoTime();
+            int rows = jpaAccess.delIds(ids);
+            jpaAccess.commit();
+            jpaAccess.clear();
+            long sliceMillis = (System.nanoTime() - sliceStart) / 1_000_000;
+
+            deleted += rows;
+            progress.add(rows);
+            progress.maybePrint();
+
+            chunkSize = nextChunkSize(chunkSize, sliceMillis);
+            pause();
+            ids = jpaAccess.getIdsBefore(cutoff, chunkSize);
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        System.out.printf("Deleted %,d rows in %.1f seconds (%,.0f rows/s).%n",
+                deleted, seconds, seconds > 0 ? deleted / seconds : 0);
+        return deleted;
+    }
+
+    /**
+     * The size of the next slice, given how long the last one took.
+     * Package-private for the tests.
+     */
+    int nextChunkSize(int chunkSize, long sliceMillis) {
+        if (targetLatencyMillis <= 0) {
+            return chunkSize;
+        }
+        if (sliceMillis > targetLatencyMillis) {
+            return Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+        }
+        if (sliceMillis < targetLatencyMillis / 2) {
+            return Math.min(maxChunkSize, chunkSize + chunkSize / 4 + 1);
+        }
+        return chunkSize;
+    }
+
+    private void pause() {
+        if (pauseMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while pausing between slices", ex);
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package com.s4apps.processlog;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.help.HelpFormatter;
 import org.apache.commons.cli.Option;
-import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
@@ -21,6 +23,12 @@ public class CliOptions {
     private boolean writeStdOut = false;
     private boolean writeDatabase = false;
     private boolean writeNull = false;
+    private String embeddedFile = null;
+    private String archiveDir = null;
+    private boolean writeSessions = false;
+    private String registryFile = null;
+    private String metricsFile = null;
+    private String jfrFile = null;
     private String[] inFileNames;
     private boolean verbose = false;
 
@@ -35,8 +43,6 @@ public class CliOptions {
         // Prepare the options that are available
         Options options = new Options();
         Option opt;
-        OptionGroup outputOptions = new OptionGroup();
-        outputOptions.setRequired(true); // Can only have one destination
 
         // Help message
         opt = new Option("?", "help", false, "display this help message");
@@ -49,35 +55,64 @@ public class CliOptions {
         opt.setRequired(false);
         options.addOption(opt);
 
-        // ** Build an option group so that we get one output **
+        // ** The outputs, any number of which can be combined **
 
         // Output to Standard err
         opt = new Option("e", "err", false, "write the output in CSV format to Std Err");
         opt.setRequired(false);
-        outputOptions.addOption(opt);
+        options.addOption(opt);
 
         // Output to Standard out
         opt = new Option("o", "out", false, "write the output in CSV format to Std Out");
         opt.setRequired(false);
-        outputOptions.addOption(opt);
+        options.addOption(opt);
 
         // Output to null, i.e. nowhere
         opt = new Option("n", "null", false, "write the output to null, i.e. nowhere");
         opt.setRequired(false);
-        outputOptions.addOption(opt);
+        options.addOption(opt);
 
         // Output to a database
         opt = new Option("d", "database", false, "write the output to the database");
         opt.setRequired(false);
-        outputOptions.addOption(opt);
+        options.addOption(opt);
 
         // Output to file
-        opt = new Option("f", "outfile", true, "write the output in CSV format to specified file");
+        opt = new Option("f", "outfile", true, "write the output in CSV format to specified file, compressed if it ends .gz or .zst");
         opt.setArgName("output file");
-        outputOptions.addOption(opt);
+        options.addOption(opt);
+
+        // Output to an embedded database file
+        opt = new Option("E", "embedded", true, "write the output to an embedded H2 database file");
+        opt.setArgName("database file");
+        options.addOption(opt);
+
+        // Output to archive segments
+        opt = new Option("A", "archive", true, "write the output as columnar archive segments, one per day");
+        opt.setArgName("directory");
+        options.addOption(opt);
 
-        // Add the group to the options
-        options.addOptionGroup(outputOptions);
+        // Output to the Sessions table
+        opt = new Option("S", "sessions", false, "group the rows into visits and write them to the Sessions table");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Skip files that are already in the import registry
+        opt = new Option("R", "registry", true, "skip files already imported according to the registry file,"
+                + " and record the ones imported");
+        opt.setArgName("registry file");
+        options.addOption(opt);
+
+        // Write metrics for node_exporter's textfile collector
+        opt = new Option("m", "metrics", true, "write metrics in the Prometheus text format to this file,"
+                + " every minute and at the end");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        // Record a JFR profile of the run
+        opt = new Option("J", "jfr", true, "record the run with Java Flight Recorder and write it to this file");
+        opt.setArgName("file");
+        options.addOption(opt);
 
         // Prepare what we have
         CommandLineParser parser = new DefaultParser();
@@ -115,6 +150,11 @@ public class CliOptions {
             writeDatabase = true;
         }
 
+        // Set some internal flags based on the output of the parse
+        if (cmd.hasOption("S")) {
+            writeSessions = true;
+        }
+
         // Set some internal flags based on the outpu of the parse
         if (cmd.hasOption("v")) {
             verbose = true;
@@ -133,6 +173,39 @@ public class CliOptions {
             outFile = cmd.getOptionValue("outfile");
         }
 
+        // See if an embedded database was specified
+        if (cmd.hasOption("E")) {
+            embeddedFile = cmd.getOptionValue("embedded");
+        }
+
+        // See if an archive directory was specified
+        if (cmd.hasOption("A")) {
+            archiveDir = cmd.getOptionValue("archive");
+        }
+
+        // See if an import registry was specified
+        if (cmd.hasOption("R")) {
+            registryFile = cmd.getOptionValue("registry");
+        }
+
+        if (cmd.hasOption("m")) {
+            metricsFile = cmd.getOptionValue("m");
+        }
+
+        if (cmd.hasOption("J")) {
+            jfrFile = cmd.getOptionValue("J");
+        }
+
+        // There has to be somewhere to write to
+        if (!writeStdErr && !writeStdOut && !writeNull && !writeDatabase && outFile == null && embeddedFile == null
+                && archiveDir == null && !writeSessions) {
+            System.err.println("Missing output specifier.");
+            displayHelpMessage(options);
+
+            // Exit with error
+            System.exit(1);
+        }
+
         // Process what is left which should be one or more input file names
         inFileNames = cmd.getArgs();
         if (inFileNames.length < 1) {
@@ -149,7 +222,7 @@ public class CliOptions {
         HelpFormatter formatter = HelpFormatter.builder().get();
         try {
             formatter.printHelp(
-                "ProcessLog [options] <one output specifier> <input file1> [input file2 [input file3 ...]]\n"
+                "ProcessLog [options] <output specifiers> <input file1> [input file2 [input file3 ...]]\n"
                     + "ProcessLog --help",
                 null,
                 options,
@@ -189,6 +262,34 @@ public class CliOptions {
         return outFile;
     }
 
+    /**
+     * @return the embedded database file, or null
+     */
+    public String getEmbeddedFile() {
+        return embeddedFile;
+    }
+
+    /**
+     * @return the archive directory, or null
+     */
+    public String getArchiveDir() {
+        return archiveDir;
+    }
+
+    /**
+     * @return the writeSessions
+     */
+    public boolean isWriteSessions() {
+        return writeSessions;
+    }
+
+    /**
+     * @return the import registry file, or null
+     */
+    public String getRegistryFile() {
+        return registryFile;
+    }
+
     /**
      * @return the inFileNames
      */
@@ -209,4 +310,53 @@ public class CliOptions {
     public boolean isVerbose() {
         return verbose;
     }
+
+    /**
+     * Describe where the rows go, so the import registry can tell an import
+     * to one output from an import to another.
+     *
+     * @return the outputs, e.g. "database,outfile=/data/logs.csv"
+     */
+    public String getOutputTarget() {
+        List<String> targets = new ArrayList<>();
+        if (writeDatabase) {
+            targets.add("database");
+        }
+        if (embeddedFile != null) {
+            targets.add("embedded=" + Paths.get(embeddedFile).toAbsolutePath().normalize());
+        }
+        if (writeStdErr) {
+            targets.add("stderr");
+        }
+        if (writeStdOut) {
+            targets.add("stdout");
+        }
+        if (outFile != null) {
+            targets.add("outfile=" + Paths.get(outFile).toAbsolutePath().normalize());
+        }
+        if (archiveDir != null) {
+            targets.add("archive=" + Paths.get(archiveDir).toAbsolutePath().normalize());
+        }
+        if (writeSessions) {
+            targets.add("sessions");
+        }
+        if (writeNull) {
+            targets.add("null");
+        }
+        return String.join(",", targets);
+    }
+
+    /**
+     * @return the metrics file, or null
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return the flight recording file, or null
+     */
+    public String getJfrFile() {
+        return jfrFile;
+    }
 }
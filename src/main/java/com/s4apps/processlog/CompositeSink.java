@@ -0,0 +1,63 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes every batch to several sinks in turn, e.g. the database and a CSV
+ * file in one pass over the input.
+ *
+ * @author mat
+ */
+public class CompositeSink implements LogSink {
+
+    private final List<LogSink> sinks;
+
+    /**
+     * @param sinks the sinks to write to, in order
+     */
+    public CompositeSink(List<LogSink> sinks) {
+        this.sinks = List.copyOf(sinks);
+    }
+
+    /**
+     * @return the most rows any one sink wrote
+     */
+    @Override
+    public int accept(List<RowStringStorage> rows) throws IOException {
+        int written = 0;
+        for (LogSink sink : sinks) {
+            written = Math.max(written, sink.accept(rows));
+        }
+        return written;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (LogSink sink : sinks) {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Close every sink, even if an earlier one fails.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (LogSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException | RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex instanceof IOException io ? io : new IOException(ex);
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -29,7 +29,38 @@ public class ConfigRepository {
         JpaAccess jpa = null;
         try {
             jpa = new JpaAccess();
-            
+            return load(jpa);
+        } catch (ConfigurationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Failed to load configuration from database", ex);
+            throw new ConfigurationException("Unable to load configuration from database", ex);
+        } finally {
+            // Ensure the database connection is always closed
+            if (jpa != null) {
+                try {
+                    jpa.close();
+                } catch (Exception ex) {
+                    logger.log(Level.WARNING, "Error closing JPA connection", ex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Loads the rules through a JpaAccess that is already open, which is left
+     * open. Callers that already have one (such as the load test) use this to
+     * load the rules without starting another connection pool.
+     *
+     * @param jpa the database access object to read the rules with
+     * @return ConfigData object containing all configuration rules
+     * @throws ConfigurationException if there's an error loading the configuration
+     */
+    public ConfigData load(JpaAccess jpa) {
+        if (jpa == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        try {
             // Load all the ignore rules. Methods are normalised to uppercase so
             // comparisons in RowStringStorage can use a simple equals() check.
             List<String> ipsToIgnore = jpa.getIgnoreIps();
@@ -58,22 +89,12 @@ public class ConfigRepository {
                     serversToDelete,
                     urlsToDelete
             );
-            
-        } catch (Exception ex) {
+        } catch (RuntimeException ex) {
             logger.log(Level.SEVERE, "Failed to load configuration from database", ex);
             throw new ConfigurationException("Unable to load configuration from database", ex);
-        } finally {
-            // Ensure the database connection is always closed
-            if (jpa != null) {
-                try {
-                    jpa.close();
-                } catch (Exception ex) {
-                    logger.log(Level.WARNING, "Error closing JPA connection", ex);
-                }
-            }
         }
     }
-    
+
     /**
      * Loads configuration with verbose logging for debugging purposes.
      * 
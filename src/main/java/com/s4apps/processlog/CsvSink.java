@@ -0,0 +1,85 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes rows in CSV format (see RowStringStorage.toString()) to a file or
+ * to stdout/stderr. Files ending .gz or .zst are compressed on the fly (see
+ * ParallelCompressedOutputStream).
+ *
+ * @author mat
+ */
+public class CsvSink implements LogSink {
+
+    // Big enough that writes to the file or compressor are few and large
+    private static final int FILE_BUFFER_SIZE = 1 << 20;
+
+    private final BufferedWriter writer;
+    private final boolean closeWriter;
+
+    /**
+     * @param writer      where to write
+     * @param closeWriter false for stdout and stderr, which are only flushed
+     */
+    public CsvSink(Writer writer, boolean closeWriter) {
+        this.writer = writer instanceof BufferedWriter buffered ? buffered : new BufferedWriter(writer);
+        this.closeWriter = closeWriter;
+    }
+
+    /**
+     * Open a CSV file, compressed if its name ends with the extension of one
+     * of the ParallelCompressedOutputStream codecs.
+     *
+     * @param file the file to create or replace
+     * @return the sink
+     * @throws IOException
+     */
+    public static CsvSink forFile(String file) throws IOException {
+        return new CsvSink(openFile(file), true);
+    }
+
+    /**
+     * Open a file for writing CSV, compressed if its name ends with the
+     * extension of one of the ParallelCompressedOutputStream codecs.
+     *
+     * @param file the file to create or replace
+     * @return a buffered writer
+     * @throws IOException
+     */
+    static BufferedWriter openFile(String file) throws IOException {
+        ParallelCompressedOutputStream.Codec codec = ParallelCompressedOutputStream.Codec.forFile(file);
+        Writer writer = codec == null
+                ? new FileWriter(file)
+                : new OutputStreamWriter(new ParallelCompressedOutputStream(Paths.get(file), codec));
+        return new BufferedWriter(writer, FILE_BUFFER_SIZE);
+    }
+
+    @Override
+    public int accept(List<RowStringStorage> rows) throws IOException {
+        for (RowStringStorage row : rows) {
+            writer.write(row.toString());
+            writer.newLine();
+        }
+        return rows.size();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeWriter) {
+            writer.close();
+        } else {
+            writer.flush();
+        }
+    }
+}
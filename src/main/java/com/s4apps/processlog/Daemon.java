@@ -0,0 +1,525 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps one JVM, connection pool and rule set warm and runs the import,
+ * rebuild, check and delete jobs in it, instead of get-logs.sh starting a
+ * JVM (and a Hibernate EntityManagerFactory or two) for each step.
+ *
+ * Log files that arrive in the --watch directory are imported once they have
+ * gone --settle seconds without changing, and then moved to --done if given.
+ * A file that fails to import is left where it is and tried again once it has
+ * settled again.
+ * Commands are taken one per connection on a Unix socket, which only the
+ * owner can use; see execute() for the list. Jobs are run one at a time, in
+ * the order they were asked for, each with its own JpaAccess from the shared
+ * pool so nothing is held in memory between jobs.
+ *
+ * @author mat
+ */
+public class Daemon {
+
+    private static final Logger logger = Logger.getLogger(Daemon.class.getName());
+
+    // How often the watch loop looks for files that have settled
+    private static final long POLL_MILLIS = 1000;
+
+    // How long a shutdown (e.g. SIGTERM) waits for the current job
+    private static final long SHUTDOWN_WAIT_SECONDS = 60;
+
+    private static final String COMMANDS = "import <file>, rebuild, check, delete-old, reload, status, stop";
+
+    private final JpaAccess jpaAccess;
+    private final DaemonOptions options;
+    private final ExecutorService jobs = Executors.newSingleThreadExecutor(r -> new Thread(r, "daemon-jobs"));
+    private final Set<Path> queued = ConcurrentHashMap.newKeySet();   // Files waiting for or in an import
+    private final Map<Path, Long> settling = new HashMap<>();         // File -> when it last changed, watch loop only
+    private final Queue<Path> retries = new ConcurrentLinkedQueue<>(); // Failed imports for the watch loop to settle again
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong jobsDone = new AtomicLong();
+    private final AtomicLong jobsFailed = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private volatile ConfigData config;
+    private volatile boolean running = true;
+    private volatile String currentJob = null;
+    private volatile String lastError = null;
+    private ServerSocketChannel server = null;
+
+    /**
+     * Constructor that takes all dependencies.
+     *
+     * @param jpaAccess the database access object whose pool every job shares;
+     *                  left open
+     * @param config    the rules to import and rebuild with, until a reload
+     * @param options   the directories, socket and job settings
+     */
+    public Daemon(JpaAccess jpaAccess, ConfigData config, DaemonOptions options) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("ConfigData cannot be null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("DaemonOptions cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+        this.config = config;
+        this.options = options;
+    }
+
+    /**
+     * @param args the command line arguments, see DaemonOptions
+     */
+    public static void main(String[] args) {
+        DaemonOptions options = new DaemonOptions(args);
+
+        if (options.getCommand() != null) {
+            String reply;
+            try {
+                reply = send(Paths.get(options.getSocket()), options.getCommand());
+            } catch (IOException ex) {
+                System.err.println("Unable to reach the daemon on " + options.getSocket() + ": " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+            System.out.print(reply);
+            System.exit(reply.startsWith("error") ? 1 : 0);
+        }
+
+        Metrics metrics = null;
+        if (options.getMetricsFile() != null) {
+            metrics = new Metrics("Daemon");
+            metrics.startWriting(Paths.get(options.getMetricsFile()), Metrics.DEFAULT_PERIOD_SECONDS);
+        }
+
+        JpaAccess jpa = new JpaAccess();
+        try {
+            ConfigData cd;
+            try {
+                cd = new ConfigRepository().load(jpa);
+                logger.info("Configuration loaded: " + cd.toString());
+            } catch (ConfigRepository.ConfigurationException ex) {
+                System.err.println("FATAL: Unable to load configuration from database");
+                System.err.println("Error: " + ex.getMessage());
+                System.exit(1);
+                return;
+            }
+            if (metrics != null) {
+                jpa.setMetrics(metrics);
+            }
+
+            Daemon daemon = new Daemon(jpa, cd, options);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                daemon.stop();
+                daemon.awaitStopped(SHUTDOWN_WAIT_SECONDS);
+            }));
+            daemon.run();
+        } finally {
+            jpa.close();
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
+    }
+
+    /**
+     * Send one command to a running daemon.
+     *
+     * @param socket  the daemon's socket
+     * @param command the command line, see execute()
+     * @return the reply, one or more lines
+     * @throws IOException if the daemon can't be reached
+     */
+    public static String send(Path socket, String command) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            out.write(command + "\n");
+            out.flush();
+            channel.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            StringBuilder reply = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                reply.append(line).append('\n');
+            }
+            return reply.toString();
+        }
+    }
+
+    /**
+     * Take commands and watch for files until stopped, then finish the jobs
+     * already queued.
+     */
+    public void run() {
+        try {
+            openSocket();
+            System.out.println("Listening on " + options.getSocket());
+            if (options.getWatchDir() != null) {
+                watch(Paths.get(options.getWatchDir()));
+            } else {
+                while (running) {
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            closeSocket();
+            jobs.shutdown();
+            try {
+                while (!jobs.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // Let the queued jobs finish
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Daemon stopped after " + jobsDone.get() + " jobs, " + jobsFailed.get() + " failed.");
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Stop taking commands and files. run() returns once the queued jobs are
+     * done.
+     */
+    public void stop() {
+        running = false;
+        closeSocket();
+    }
+
+    /**
+     * Wait for run() to finish.
+     *
+     * @param seconds the longest to wait
+     * @return true if it finished
+     */
+    public boolean awaitStopped(long seconds) {
+        try {
+            return stopped.await(seconds, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Carry out one command. Jobs are queued and the reply says so; their
+     * output goes to the daemon's own stdout.
+     *
+     * <ul>
+     * <li>import &lt;file&gt; - import a log file</li>
+     * <li>rebuild - re-evaluate the rules against every row, as Rebuild</li>
+     * <li>check - check the database, as Check</li>
+     * <li>delete-old - remove the expired rows, as DeleteOld</li>
+     * <li>reload - read the rules from the database again</li>
+     * <li>status - the current job and counts, answered at once</li>
+     * <li>stop - finish the queued jobs and exit</li>
+     * </ul>
+     *
+     * @param line the command line
+     * @return the reply, starting "ok" or "error"
+     */
+    String execute(String line) {
+        String[] words = line.trim().split("\\s+", 2);
+        String argument = words.length > 1 ? words[1].trim() : null;
+        switch (words[0]) {
+            case "import":
+                if (argument == null) {
+                    return "error import needs a file";
+                }
+                Path file = Paths.get(argument).toAbsolutePath();
+                if (!Files.isRegularFile(file)) {
+                    return "error no such file " + file;
+                }
+                return submitImport(file);
+            case "rebuild":
+                return submit("rebuild", jpa -> new Rebuild(jpa, config, options.getThreads(),
+                        RebuildOptions.PARTITION_ID).run());
+            case "check":
+                return submit("check", jpa -> new Check(jpa).run());
+            case "delete-old":
+                return submit("delete-old", jpa -> new DeleteOld(jpa, new DeleteOldOptions(new String[0])).run());
+            case "reload":
+                return submit("reload", jpa -> {
+                    config = new ConfigRepository().load(jpa);
+                    System.out.println("Configuration reloaded: " + config.toString());
+                });
+            case "status":
+                return status();
+            case "stop":
+                stop();
+                return "ok stopping";
+            default:
+                return "error unknown command '" + words[0] + "', expected one of: " + COMMANDS;
+        }
+    }
+
+    private String status() {
+        String job = currentJob;
+        String error = lastError;
+        return "ok " + (job == null ? "idle" : "running " + job) + ", " + waiting.get() + " queued, "
+                + jobsDone.get() + " done, " + jobsFailed.get() + " failed"
+                + (error == null ? "" : "\nlast error: " + error);
+    }
+
+    /**
+     * Whether a file in the drop directory should be imported: not hidden,
+     * and not a partial download.
+     */
+    static boolean isLogFile(Path file) {
+        String name = file.getFileName().toString();
+        return !name.startsWith(".") && !name.endsWith(".part") && !name.endsWith(".tmp")
+                && !name.endsWith(".crdownload");
+    }
+
+    private interface Job {
+        void run(JpaAccess jpa) throws Exception;
+    }
+
+    private String submit(String name, Job job) {
+        if (!running) {
+            return "error stopping";
+        }
+        waiting.incrementAndGet();
+        jobs.execute(() -> runJob(name, job));
+        return "ok queued " + name;
+    }
+
+    private String submitImport(Path file) {
+        if (!queued.add(file)) {
+            return "ok already queued " + file;
+        }
+        String reply = submit("import " + file, jpa -> {
+            boolean imported = false;
+            try {
+                importFile(jpa, file);
+                imported = true;
+            } finally {
+                queued.remove(file);
+                if (!imported && isWatched(file)) {
+                    retries.add(file);
+                }
+            }
+        });
+        if (!reply.startsWith("ok")) {
+            queued.remove(file);
+        }
+        return reply;
+    }
+
+    private void runJob(String name, Job job) {
+        waiting.decrementAndGet();
+        currentJob = name;
+        long start = System.nanoTime();
+        System.out.println("Starting " + name);
+        // A worker of its own for each job, so a failed job can't leave the
+        // next one a broken transaction and rows don't build up in memory
+        JpaAccess worker = jpaAccess.newWorker();
+        try {
+            job.run(worker);
+            worker.close();
+            jobsDone.incrementAndGet();
+            System.out.printf("Finished %s in %.1f s%n", name, (System.nanoTime() - start) / 1e9);
+        } catch (Exception ex) {
+            jobsFailed.incrementAndGet();
+            lastError = name + ": " + ex.getMessage();
+            logger.log(Level.SEVERE, "Job " + name + " failed", ex);
+            try {
+                worker.close();
+            } catch (RuntimeException closeEx) {
+                logger.log(Level.WARNING, "Error closing the job's database access", closeEx);
+            }
+        } finally {
+            currentJob = null;
+        }
+    }
+
+    private void importFile(JpaAccess jpa, Path file) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("--database");
+        if (options.getRegistryFile() != null) {
+            args.add("--registry");
+            args.add(options.getRegistryFile());
+        }
+        args.add(file.toString());
+
+        // The sink closes the worker, which commits the last of the rows
+        CliOptions cliOptions = new CliOptions(args.toArray(new String[0]));
+        if (new ProcessLog(cliOptions, config, new DatabaseSink(jpa)).run() > 0) {
+            throw new IOException("Unable to read " + file);
+        }
+
+        if (options.getDoneDir() != null) {
+            Path doneDir = Paths.get(options.getDoneDir());
+            Files.createDirectories(doneDir);
+            Files.move(file, doneDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Queue the files in the directory as they settle, until stopped.
+     */
+    private void watch(Path dir) throws IOException, InterruptedException {
+        try (WatchService watcher = dir.getFileSystem().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + dir.toAbsolutePath());
+
+            // Anything dropped while we weren't running
+            noticeAll(dir);
+            while (running) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            noticeAll(dir);
+                        } else {
+                            notice(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                Path retry;
+                while ((retry = retries.poll()) != null) {
+                    notice(retry);
+                }
+                queueSettled();
+            }
+        }
+    }
+
+    private boolean isWatched(Path file) {
+        return options.getWatchDir() != null
+                && Paths.get(options.getWatchDir()).toAbsolutePath().equals(file.getParent());
+    }
+
+    private void noticeAll(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                notice(file);
+            }
+        }
+    }
+
+    private void notice(Path file) {
+        Path absolute = file.toAbsolutePath();
+        if (isLogFile(absolute) && !queued.contains(absolute)) {
+            settling.put(absolute, System.currentTimeMillis());
+        }
+    }
+
+    private void queueSettled() {
+        long settledBefore = System.currentTimeMillis() - options.getSettleSeconds() * 1000L;
+        Iterator<Map.Entry<Path, Long>> it = settling.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() <= settledBefore) {
+                it.remove();
+                if (Files.isRegularFile(entry.getKey())) {
+                    submitImport(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void openSocket() throws IOException {
+        Path socket = Paths.get(options.getSocket());
+        if (Files.exists(socket)) {
+            try {
+                send(socket, "status");
+                throw new IllegalStateException("A daemon is already listening on " + socket);
+            } catch (IOException ex) {
+                // Left behind by one that didn't stop cleanly
+                Files.delete(socket);
+            }
+        }
+
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+
+        ServerSocketChannel channel = server;
+        Thread acceptor = new Thread(() -> acceptCommands(channel), "daemon-commands");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptCommands(ServerSocketChannel server) {
+        while (running) {
+            try (SocketChannel channel = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                        StandardCharsets.UTF_8));
+                String line = in.readLine();
+                String reply = line == null || line.isBlank() ? "error expected one of: " + COMMANDS : execute(line);
+                Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+                out.write(reply + "\n");
+                out.flush();
+            } catch (ClosedChannelException ex) {
+                // Closed by stop()
+                return;
+            } catch (IOException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Error handling a command", ex);
+            }
+        }
+    }
+
+    private synchronized void closeSocket() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+            Files.deleteIfExists(Paths.get(options.getSocket()));
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error closing the command socket", ex);
+        } finally {
+            server = null;
+        }
+    }
+}
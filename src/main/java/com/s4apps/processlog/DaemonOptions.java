@@ -0,0 +1,206 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for Daemon.
+ *
+ * @author mat
+ */
+public class DaemonOptions {
+
+    public static final String DEFAULT_SOCKET = Paths.get(System.getProperty("java.io.tmpdir"),
+            "process-logs.sock").toString();
+
+    private String watchDir = null;
+    private String doneDir = null;
+    private String socket = DEFAULT_SOCKET;
+    private String registryFile = null;
+    private String metricsFile = null;
+    private String command = null;
+    private int settleSeconds = 5;
+    private int threads = Math.min(Runtime.getRuntime().availableProcessors(), RebuildOptions.MAX_THREADS);
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public DaemonOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Drop directory
+        opt = new Option("w", "watch", true, "import log files as they arrive in this directory");
+        opt.setArgName("dir");
+        options.addOption(opt);
+
+        // Where imported files go
+        opt = new Option("d", "done", true, "move each file here once it has been imported");
+        opt.setArgName("dir");
+        options.addOption(opt);
+
+        // How long a file has to be left alone before it's imported
+        opt = new Option("q", "settle", true, "seconds a new file must go unchanged before it is imported"
+                + " (default " + settleSeconds + ")");
+        opt.setArgName("seconds");
+        options.addOption(opt);
+
+        // Command socket
+        opt = new Option("s", "socket", true, "the Unix socket to take commands on (default " + DEFAULT_SOCKET + ")");
+        opt.setArgName("path");
+        options.addOption(opt);
+
+        // Skip files already imported
+        opt = new Option("R", "registry", true, "record imported files here and skip any seen before");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        // Worker threads for rebuild
+        opt = new Option("t", "threads", true, "number of rebuild worker threads (default " + threads
+                + ", at most " + RebuildOptions.MAX_THREADS + ")");
+        opt.setArgName("threads");
+        options.addOption(opt);
+
+        // Write metrics for node_exporter's textfile collector
+        opt = new Option("m", "metrics", true, "write metrics in the Prometheus text format to this file,"
+                + " every minute");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        // Talk to a running daemon instead of starting one
+        opt = new Option("c", "command", true, "send a command to the running daemon, print the reply and exit");
+        opt.setArgName("command");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        watchDir = cmd.getOptionValue("w");
+        doneDir = cmd.getOptionValue("d");
+        registryFile = cmd.getOptionValue("R");
+        metricsFile = cmd.getOptionValue("m");
+        command = cmd.getOptionValue("c");
+        if (cmd.hasOption("s")) {
+            socket = cmd.getOptionValue("s");
+        }
+
+        if (cmd.hasOption("q")) {
+            try {
+                settleSeconds = Integer.parseInt(cmd.getOptionValue("q"));
+            } catch (NumberFormatException ex) {
+                settleSeconds = -1;
+            }
+            if (settleSeconds < 0) {
+                System.err.println("--settle must be a whole number of seconds");
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+        }
+
+        if (cmd.hasOption("t")) {
+            try {
+                threads = Integer.parseInt(cmd.getOptionValue("t"));
+            } catch (NumberFormatException ex) {
+                threads = 0;
+            }
+            if (threads < 1 || threads > RebuildOptions.MAX_THREADS) {
+                System.err.println("--threads must be between 1 and " + RebuildOptions.MAX_THREADS);
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("Daemon [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the drop directory, or null to take commands only
+     */
+    public String getWatchDir() {
+        return watchDir;
+    }
+
+    /**
+     * @return where to move imported files, or null to leave them in place
+     */
+    public String getDoneDir() {
+        return doneDir;
+    }
+
+    /**
+     * @return how long a file must go unchanged before it is imported
+     */
+    public int getSettleSeconds() {
+        return settleSeconds;
+    }
+
+    /**
+     * @return the command socket
+     */
+    public String getSocket() {
+        return socket;
+    }
+
+    /**
+     * @return the import registry file, or null
+     */
+    public String getRegistryFile() {
+        return registryFile;
+    }
+
+    /**
+     * @return the number of rebuild worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the metrics file, or null
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return the command to send to a running daemon, or null to start one
+     */
+    public String getCommand() {
+        return command;
+    }
+}
@@ -0,0 +1,42 @@
+package com.s4apps.processlog;
+
+import java.util.List;
+
+/**
+ * Writes rows to ApacheLogs through JpaAccess, committing on flush.
+ *
+ * @author mat
+ */
+public class DatabaseSink implements LogSink {
+
+    private final JpaAccess jpaAccess;
+
+    /**
+     * @param jpaAccess the database access object to write with; closed with the sink
+     */
+    public DatabaseSink(JpaAccess jpaAccess) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+    }
+
+    @Override
+    public int accept(List<RowStringStorage> rows) {
+        int written = 0;
+        for (RowStringStorage row : rows) {
+            written += jpaAccess.insertRow(row);
+        }
+        return written;
+    }
+
+    @Override
+    public void flush() {
+        jpaAccess.commit();
+    }
+
+    @Override
+    public void close() {
+        jpaAccess.close();
+    }
+}
@@ -1,38 +1,189 @@
 package com.s4apps.processlog;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
+ * Purges rows older than MAX_AGE days. The rows are deleted a slice at a time
+ * by ChunkedDeleter, optionally throttled so that retention can run while
+ * other work is using the database.
+ *
+ * If ApacheLogs is partitioned by date (see PartitionManager) whole expired
+ * partitions are dropped first, leaving the chunked delete only the rows in
+ * the partition that straddles the cutoff. Partitions are also created ahead
+ * of time on each run.
+ *
+ * The change feed's entries for the purged rows are pruned at the end (see
+ * ChangeFeed).
+ *
+ * With --archive each whole expired day is first streamed to an archive
+ * segment (see ArchiveExport) before it is deleted. A day exported before,
+ * by an earlier purge stopped part way through or by ArchiveExport, has any
+ * rows its segments lack (those imported since) exported to another segment
+ * first. The first day that can't be archived stops the purge there, so
+ * nothing is deleted that hasn't been kept.
  *
  * @author mat
  */
 public class DeleteOld {
-    private static final int MAX_AGE = 180;
+    static final int MAX_AGE = 180;
+
+    // How many days ahead to keep partitions created
+    private static final int PARTITION_DAYS_AHEAD = 7;
+
+    private final JpaAccess jpaAccess;
+    private final DeleteOldOptions options;
+    private long archivedAndDeleted = 0;
 
     /**
-     * @param args the command line arguments
+     * Constructor that takes all dependencies.
+     *
+     * @param jpaAccess the database access object to delete with
+     * @param options   the slice size and throttling options
+     */
+    public DeleteOld(JpaAccess jpaAccess, DeleteOldOptions options) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("DeleteOldOptions cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+        this.options = options;
+    }
+
+    /**
+     * @param args the command line arguments, see DeleteOldOptions
      */
     public static void main(String[] args) {
+        DeleteOldOptions options = new DeleteOldOptions(args);
         System.out.println("Deleteing old rows ...\n");
 
-        JpaAccess msa = new JpaAccess();
-
-        // When is now
-        LocalDateTime now = LocalDateTime.now();
+        Metrics metrics = null;
+        if (options.getMetricsFile() != null) {
+            metrics = new Metrics("DeleteOld");
+            metrics.startWriting(Paths.get(options.getMetricsFile()), Metrics.DEFAULT_PERIOD_SECONDS);
+        }
 
-        // Get the earliest rerocd allowed
-        LocalDateTime earliestRecord = now.minusDays(MAX_AGE);
-        int rowsDeleted;
+        JpaAccess msa = new JpaAccess();
         try {
-            rowsDeleted = msa.delOld(earliestRecord);
-            msa.commit();
-            System.out.println("Deleted " + rowsDeleted + " rows.");
+            if (metrics != null) {
+                // Each slice is a commit, so the commit latency is the slice latency
+                msa.setMetrics(metrics);
+            }
+            new DeleteOld(msa, options).run();
         } catch (RuntimeException ex) {
             System.err.println("Unable to run delete statement, got error: " + ex.getMessage());
         } finally {
             msa.close();
+            if (metrics != null) {
+                metrics.close();
+            }
         }
+    }
 
+    /**
+     * Delete everything older than MAX_AGE days.
+     *
+     * @return the number of rows deleted
+     */
+    public long run() {
+        // Get the earliest record allowed
+        LocalDateTime earliestRecord = LocalDateTime.now().minusDays(MAX_AGE);
+        if (options.getArchiveDir() != null) {
+            earliestRecord = archiveExpired(earliestRecord);
+        }
+
+        PartitionManager partitionManager = new PartitionManager(jpaAccess);
+        if (partitionManager.isPartitioned()) {
+            PartitionManager.Granularity granularity = partitionManager.getGranularity();
+            int created = partitionManager.ensureFuturePartitions(
+                    granularity == null ? PartitionManager.Granularity.DAY : granularity, PARTITION_DAYS_AHEAD);
+            if (created > 0) {
+                System.out.println("Created " + created + " new partitions.");
+            }
+
+            List<String> dropped = partitionManager.dropExpired(earliestRecord);
+            System.out.println("Dropped " + dropped.size() + " expired partitions" + (dropped.isEmpty() ? "." : ": " + dropped));
+        }
+
+        ChunkedDeleter deleter = new ChunkedDeleter(jpaAccess, options.getChunkSize(),
+                options.getPauseMillis(), options.getTargetLatencyMillis());
+        long deleted = archivedAndDeleted + deleter.deleteBefore(earliestRecord);
+
+        if (jpaAccess.tableExists(ChangeFeed.TABLE)) {
+            LocalDateTime cutoff = earliestRecord;
+            int pruned = jpaAccess.doReturningWork(connection -> ChangeFeed.pruneBefore(connection, cutoff));
+            jpaAccess.commit();
+            System.out.printf("Pruned %,d change feed entries of purged rows.%n", pruned);
+        }
+        return deleted;
     }
 
+    /**
+     * Archive, check and delete each whole day before the cutoff, oldest
+     * first. The rows of the day the cutoff falls in are kept until the day
+     * has passed.
+     *
+     * @param cutoff the retention cutoff
+     * @return the start of the first expired day not archived, which becomes
+     *         the cutoff for the rest of the purge
+     */
+    private LocalDateTime archiveExpired(LocalDateTime cutoff) {
+        LocalDate lastDay = cutoff.toLocalDate();
+        LocalDateTime first = jpaAccess.getDateRange()[0];
+        if (first == null) {
+            return lastDay.atStartOfDay();
+        }
+
+        ArchiveExport export = new ArchiveExport(jpaAccess, Paths.get(options.getArchiveDir()));
+        ChunkedDeleter deleter = new ChunkedDeleter(jpaAccess, options.getChunkSize(),
+                options.getPauseMillis(), options.getTargetLatencyMillis());
+        for (LocalDate day = first.toLocalDate(); day.isBefore(lastDay); day = day.plusDays(1)) {
+            LocalDateTime end = day.plusDays(1).atStartOfDay();
+            long expected = jpaAccess.countBetween(day.atStartOfDay(), end);
+            if (expected == 0) {
+                continue;
+            }
+
+            long archived;
+            long added = 0;
+            boolean checkCount = true;
+            try {
+                if (export.isArchived(day)) {
+                    // Rows imported since the day was exported, if any; a
+                    // run stopped part way through deleting the day leaves
+                    // none to add
+                    added = export.exportMissing(day);
+                    // Every row left is now in a segment, unless the segments
+                    // are too old to have id hashes
+                    checkCount = added < 0;
+                } else {
+                    export.exportDay(day);
+                }
+                archived = export.archivedRows(day);
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Unable to archive " + day + ", stopping there: " + ex.getMessage());
+                return day.atStartOfDay();
+            }
+            if (checkCount && archived != expected) {
+                System.err.printf("The archive of %s has %,d rows but ApacheLogs has %,d, stopping there.%n",
+                        day, archived, expected);
+                return day.atStartOfDay();
+            }
+
+            if (added > 0) {
+                System.out.printf("Archived %,d rows of %s imported since it was exported.%n", added, day);
+            } else if (archived > expected) {
+                System.out.printf("Archived %,d rows of %s earlier, deleting the %,d left.%n", archived, day, expected);
+            } else {
+                System.out.printf("Archived %,d rows of %s.%n", archived, day);
+            }
+            archivedAndDeleted += deleter.deleteBefore(end);
+        }
+        return lastDay.atStartOfDay();
+    }
 }
@@ -0,0 +1,153 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for DeleteOld.
+ *
+ * @author mat
+ */
+public class DeleteOldOptions {
+
+    private int chunkSize = 5000;
+    private long pauseMillis = 0;
+    private long targetLatencyMillis = 0;
+    private String archiveDir = null;
+    private String metricsFile = null;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public DeleteOldOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Rows per slice
+        opt = new Option("c", "chunk", true, "rows to delete per transaction (default " + chunkSize + ")");
+        opt.setArgName("rows");
+        options.addOption(opt);
+
+        // Fixed pause between slices
+        opt = new Option("p", "pause-ms", true, "milliseconds to sleep between slices (default 0)");
+        opt.setArgName("ms");
+        options.addOption(opt);
+
+        // Adaptive slice size
+        opt = new Option("l", "target-latency-ms", true,
+                "shrink or grow the slice so each takes about this long (default off)");
+        opt.setArgName("ms");
+        options.addOption(opt);
+
+        // Keep the rows in archive segments before deleting them
+        opt = new Option("a", "archive", true, "archive each expired day to this directory before deleting it");
+        opt.setArgName("dir");
+        options.addOption(opt);
+
+        // Write metrics for node_exporter's textfile collector
+        opt = new Option("m", "metrics", true, "write metrics in the Prometheus text format to this file,"
+                + " every minute and at the end");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        chunkSize = (int) parsePositive(cmd, "c", chunkSize, 1, options);
+        pauseMillis = parsePositive(cmd, "p", pauseMillis, 0, options);
+        targetLatencyMillis = parsePositive(cmd, "l", targetLatencyMillis, 0, options);
+        archiveDir = cmd.getOptionValue("a");
+        metricsFile = cmd.getOptionValue("m");
+    }
+
+    private long parsePositive(CommandLine cmd, String name, long defaultValue, long min, Options options) {
+        if (!cmd.hasOption(name)) {
+            return defaultValue;
+        }
+        long value;
+        try {
+            value = Long.parseLong(cmd.getOptionValue(name));
+        } catch (NumberFormatException ex) {
+            value = min - 1;
+        }
+        if (value < min || value > Integer.MAX_VALUE) {
+            System.err.println("Invalid value for --" + options.getOption(name).getLongOpt()
+                    + ": " + cmd.getOptionValue(name));
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+        return value;
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("DeleteOld [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the rows to delete per transaction
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the pause between slices in milliseconds, 0 for none
+     */
+    public long getPauseMillis() {
+        return pauseMillis;
+    }
+
+    /**
+     * @return the target slice latency in milliseconds, 0 for none
+     */
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    /**
+     * @return the directory to archive expired days to, or null to just
+     *         delete them
+     */
+    public String getArchiveDir() {
+        return archiveDir;
+    }
+
+    /**
+     * @return the metrics file, or null
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+}
@@ -0,0 +1,166 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory copy of one dimension table (id, value), looked up in both
+ * directions: value to id when writing rows and id to value when reading
+ * them. It is loaded whole when JpaAccess starts and extended a batch of new
+ * values at a time, once the transaction that added them has committed.
+ * Thread-safe, so all the Rebuild workers share one.
+ *
+ * @author mat
+ */
+public class DimensionDictionary {
+
+    // How many values go into each SELECT ... WHERE value IN (...) statement
+    static final int IN_LIST_SIZE = 1000;
+
+    private final String table;
+    private final int maxLength;
+    private final Map<String, Integer> idsByValue = new HashMap<>();
+    private final Map<Integer, String> valuesById = new HashMap<>();
+
+    /**
+     * @param table     the dimension table
+     * @param maxLength the width of its value column
+     */
+    public DimensionDictionary(String table, int maxLength) {
+        this.table = table;
+        this.maxLength = maxLength;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @param value the value
+     * @return its id, or null if it isn't in the table yet
+     */
+    public synchronized Integer getId(String value) {
+        return idsByValue.get(value);
+    }
+
+    /**
+     * @param id the id
+     * @return its value, or null if it wasn't in the table when last loaded
+     */
+    public synchronized String getValue(Integer id) {
+        return valuesById.get(id);
+    }
+
+    /**
+     * Find the values that start with any of the prefixes, comparing in lower
+     * case as RowStringStorage does.
+     *
+     * @param prefixes lowercase prefixes
+     * @return the ids of the matching values
+     */
+    public synchronized List<Integer> getIdsWithPrefix(Collection<String> prefixes) {
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, String> entry : valuesById.entrySet()) {
+            String value = entry.getValue().toLowerCase();
+            for (String prefix : prefixes) {
+                if (value.startsWith(prefix)) {
+                    ids.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return ids;
+    }
+
+    public synchronized int size() {
+        return valuesById.size();
+    }
+
+    /**
+     * Read the whole table.
+     *
+     * @param connection
+     * @throws SQLException
+     */
+    public void load(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT id, value FROM " + table)) {
+            while (rs.next()) {
+                put(rs.getInt(1), rs.getString(2));
+            }
+        }
+    }
+
+    /**
+     * Add new values to the table in one batch and learn their ids. Uses
+     * INSERT IGNORE and reads the ids back, IN_LIST_SIZE values at a time, so
+     * a value another process added meanwhile just gets that process's id. The ids aren't added to the
+     * dictionary: pass them to publish() once the transaction has committed,
+     * as until then they may yet be rolled back.
+     *
+     * @param connection the connection of the current transaction
+     * @param values     values not yet in the table, at most maxLength long
+     * @return the ids of the values
+     * @throws SQLException
+     */
+    public Map<String, Integer> addValues(Connection connection, Collection<String> values) throws SQLException {
+        Map<String, Integer> ids = new HashMap<>();
+        if (values.isEmpty()) {
+            return ids;
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT IGNORE INTO " + table + " (value) VALUES (?)")) {
+            for (String value : values) {
+                ps.setString(1, value);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        // Short lists are padded by repeating their last value, so every
+        // chunk uses the same statement
+        List<String> list = new ArrayList<>(values);
+        int size = Math.min(list.size(), IN_LIST_SIZE);
+        try (PreparedStatement ps = connection.prepareStatement("SELECT id, value FROM " + table
+                + " WHERE value IN (?" + ", ?".repeat(size - 1) + ")")) {
+            for (int start = 0; start < list.size(); start += size) {
+                for (int i = 0; i < size; i++) {
+                    ps.setString(i + 1, list.get(Math.min(start + i, list.size() - 1)));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.put(rs.getString(2), rs.getInt(1));
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Add values whose rows have been committed.
+     *
+     * @param ids the ids from addValues
+     */
+    public synchronized void publish(Map<String, Integer> ids) {
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    synchronized void put(int id, String value) {
+        idsByValue.put(value, id);
+        valuesById.put(id, value);
+    }
+}
@@ -0,0 +1,206 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalized storage of the three wide, low-cardinality ApacheLogs columns:
+ * the server (vhost), referer and user agent are stored once each in the
+ * Server, Referer and UserAgent tables and the row holds only their ids. A
+ * row then takes well under 200 bytes instead of about 1.5 KB.
+ *
+ * The mode is used once the tables exist:
+ *
+ * CREATE TABLE Server (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+ *     value VARCHAR(200) COLLATE utf8mb4_bin NOT NULL, UNIQUE KEY uk_value (value));
+ * CREATE TABLE Referer (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+ *     value VARCHAR(300) COLLATE utf8mb4_bin NOT NULL, UNIQUE KEY uk_value (value));
+ * CREATE TABLE UserAgent (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+ *     value VARCHAR(500) COLLATE utf8mb4_bin NOT NULL, UNIQUE KEY uk_value (value));
+ *
+ * The binary collation keeps values that differ only in case apart, so rows
+ * read back exactly as they were written. Rows stored before the switch keep
+ * their inline values and are read as before.
+ *
+ * The id columns on ApacheLogs are mapped on the entity, so every install
+ * needs them whether or not it uses the mode; see the README for adding them
+ * without rebuilding the table.
+ *
+ * @author mat
+ */
+public class Dimensions {
+
+    public static final String SERVER_TABLE = "Server";
+    public static final String REFERER_TABLE = "Referer";
+    public static final String USER_AGENT_TABLE = "UserAgent";
+
+    private final DimensionDictionary servers = new DimensionDictionary(SERVER_TABLE, 200);
+    private final DimensionDictionary referers = new DimensionDictionary(REFERER_TABLE, 300);
+    private final DimensionDictionary userAgents = new DimensionDictionary(USER_AGENT_TABLE, 500);
+
+    public DimensionDictionary getServers() {
+        return servers;
+    }
+
+    public DimensionDictionary getReferers() {
+        return referers;
+    }
+
+    public DimensionDictionary getUserAgents() {
+        return userAgents;
+    }
+
+    /**
+     * Read all three tables.
+     *
+     * @param connection
+     * @throws SQLException
+     */
+    public void load(Connection connection) throws SQLException {
+        servers.load(connection);
+        referers.load(connection);
+        userAgents.load(connection);
+    }
+
+    /**
+     * The ids of values added in a transaction that hasn't committed yet.
+     * They are only published to the shared dictionaries after the commit,
+     * so that a rollback can't leave ids behind that other rows then point
+     * at.
+     */
+    public static final class NewValues {
+        private final Map<String, Integer> servers;
+        private final Map<String, Integer> referers;
+        private final Map<String, Integer> userAgents;
+
+        NewValues(Map<String, Integer> servers, Map<String, Integer> referers, Map<String, Integer> userAgents) {
+            this.servers = servers;
+            this.referers = referers;
+            this.userAgents = userAgents;
+        }
+    }
+
+    /**
+     * Replace the inline values of a new row with their ids, where the values
+     * are already known.
+     *
+     * @param entity the row, with its values set inline
+     * @return true if every value was replaced, false if some are new and
+     *         have to be added with addValues first
+     */
+    public boolean normalize(ApacheLog entity) {
+        return normalize(entity, null);
+    }
+
+    /**
+     * Replace the inline values of a new row with their ids, looking in the
+     * values added by this transaction as well as the known ones.
+     *
+     * @param entity the row, with its values set inline
+     * @param added  the values added by addValues, or null
+     * @return true if every value was replaced
+     */
+    public boolean normalize(ApacheLog entity, NewValues added) {
+        boolean complete = true;
+
+        Integer id = lookup(servers, added == null ? null : added.servers, entity.getServer());
+        if (id != null) {
+            entity.setServerId(id);
+            entity.setServer(null);
+        } else {
+            complete &= entity.getServer() == null;
+        }
+
+        id = lookup(referers, added == null ? null : added.referers, entity.getServer2());
+        if (id != null) {
+            entity.setServer2Id(id);
+            entity.setServer2(null);
+        } else {
+            complete &= entity.getServer2() == null;
+        }
+
+        id = lookup(userAgents, added == null ? null : added.userAgents, entity.getBrowser());
+        if (id != null) {
+            entity.setBrowserId(id);
+            entity.setBrowser(null);
+        } else {
+            complete &= entity.getBrowser() == null;
+        }
+
+        return complete;
+    }
+
+    /**
+     * Add the values of these rows that aren't in the tables yet, a batch per
+     * table, so that normalize() can then replace them all. Pass the result to
+     * publish() once the transaction has committed.
+     *
+     * @param connection the connection of the current transaction
+     * @param entities   rows for which normalize() returned false
+     * @return the ids of the values added
+     * @throws SQLException
+     */
+    public NewValues addValues(Connection connection, Collection<ApacheLog> entities) throws SQLException {
+        Set<String> newServers = new LinkedHashSet<>();
+        Set<String> newReferers = new LinkedHashSet<>();
+        Set<String> newUserAgents = new LinkedHashSet<>();
+        for (ApacheLog entity : entities) {
+            if (entity.getServer() != null) {
+                newServers.add(entity.getServer());
+            }
+            if (entity.getServer2() != null) {
+                newReferers.add(entity.getServer2());
+            }
+            if (entity.getBrowser() != null) {
+                newUserAgents.add(entity.getBrowser());
+            }
+        }
+        return new NewValues(servers.addValues(connection, newServers), referers.addValues(connection, newReferers),
+                userAgents.addValues(connection, newUserAgents));
+    }
+
+    /**
+     * Make values added by a transaction that has now committed known to
+     * every JpaAccess.
+     *
+     * @param added the values from addValues
+     */
+    public void publish(NewValues added) {
+        servers.publish(added.servers);
+        referers.publish(added.referers);
+        userAgents.publish(added.userAgents);
+    }
+
+    /**
+     * Fill in the values of a row read from the database.
+     *
+     * @param row       the row
+     * @param serverId  its serverId column, or null
+     * @param server2Id its server2Id column, or null
+     * @param browserId its browserId column, or null
+     * @return false if an id wasn't found, meaning another process has added
+     *         values since the tables were loaded
+     */
+    public boolean resolve(RowStringStorage row, Integer serverId, Integer server2Id, Integer browserId) {
+        String server = serverId == null ? null : servers.getValue(serverId);
+        String server2 = server2Id == null ? null : referers.getValue(server2Id);
+        String browser = browserId == null ? null : userAgents.getValue(browserId);
+        row.setDimensionValues(server, server2, browser);
+        return (serverId == null || server != null)
+                && (server2Id == null || server2 != null)
+                && (browserId == null || browser != null);
+    }
+
+    private static Integer lookup(DimensionDictionary dictionary, Map<String, Integer> added, String value) {
+        if (value == null) {
+            return null;
+        }
+        Integer id = dictionary.getId(value);
+        return id != null || added == null ? id : added.get(value);
+    }
+}
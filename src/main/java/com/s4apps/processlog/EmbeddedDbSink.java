@@ -0,0 +1,127 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Writes rows to an ApacheLogs table in an embedded H2 database file, so the
+ * whole pipeline can be run (and timed) without a MySQL server. The table is
+ * created if it doesn't exist. Rows are merged on their id, so importing a
+ * file twice leaves one copy of each row.
+ *
+ * @author mat
+ */
+public class EmbeddedDbSink implements LogSink {
+
+    private static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS ApacheLogs ("
+            + "id VARCHAR(64) NOT NULL PRIMARY KEY, ip VARCHAR, date TIMESTAMP, method VARCHAR, url VARCHAR, "
+            + "queryString VARCHAR, response INT, size BIGINT, server VARCHAR, server2 VARCHAR, browser VARCHAR, "
+            + "ignoreReason INT, ignoreIp BOOLEAN NOT NULL, ignoreUrl BOOLEAN NOT NULL, "
+            + "ignoreServer BOOLEAN NOT NULL, ignoreMethod BOOLEAN NOT NULL, ignoreBot BOOLEAN NOT NULL)";
+
+    private static final String MERGE_SQL = "MERGE INTO ApacheLogs (id, ip, date, method, url, queryString, "
+            + "response, size, server, server2, browser, ignoreReason, ignoreIp, ignoreUrl, ignoreServer, "
+            + "ignoreMethod, ignoreBot) KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final Connection connection;
+    private final PreparedStatement merge;
+
+    /**
+     * Open, and if need be create, the database.
+     *
+     * @param file the database file, without H2's .mv.db extension
+     * @throws IOException if the database can't be opened
+     */
+    public EmbeddedDbSink(String file) throws IOException {
+        try {
+            connection = DriverManager.getConnection("jdbc:h2:file:" + file);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_SQL);
+            }
+            merge = connection.prepareStatement(MERGE_SQL);
+        } catch (SQLException ex) {
+            throw new IOException("Unable to open embedded database " + file, ex);
+        }
+    }
+
+    @Override
+    public int accept(List<RowStringStorage> rows) throws IOException {
+        try {
+            for (RowStringStorage row : rows) {
+                merge.setString(1, row.getId());
+                merge.setString(2, blankToNull(row.getIp()));
+                merge.setTimestamp(3, toTimestamp(row.getDateTime()));
+                merge.setString(4, blankToNull(row.getMethod()));
+                merge.setString(5, blankToNull(row.getUrl()));
+                merge.setString(6, blankToNull(row.getQueryString()));
+                setNumber(merge, 7, row.getResponseCode());
+                setNumber(merge, 8, row.getSizeBytes());
+                merge.setString(9, blankToNull(row.getServer()));
+                merge.setString(10, blankToNull(row.getServer2()));
+                merge.setString(11, blankToNull(row.getBrowser()));
+                merge.setInt(12, row.getIgnoreReason());
+                merge.setBoolean(13, row.ignoreIp());
+                merge.setBoolean(14, row.ignoreUrl());
+                merge.setBoolean(15, row.ignoreServer());
+                merge.setBoolean(16, row.ignoreMethod());
+                merge.setBoolean(17, row.ignoreBot());
+                merge.addBatch();
+            }
+            merge.executeBatch();
+            return rows.size();
+        } catch (SQLException ex) {
+            throw new IOException("Unable to write to embedded database", ex);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            connection.commit();
+        } catch (SQLException ex) {
+            throw new IOException("Unable to commit embedded database", ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            connection.commit();
+            merge.close();
+            connection.close();
+        } catch (SQLException ex) {
+            throw new IOException("Unable to close embedded database", ex);
+        }
+    }
+
+    private static String blankToNull(String value) {
+        if (value == null || value.isBlank() || value.equals("-")) {
+            return null;
+        }
+        return value;
+    }
+
+    private static Timestamp toTimestamp(LocalDateTime date) {
+        return date == null ? null : Timestamp.valueOf(date);
+    }
+
+    /**
+     * Set a response or size, which are negative when missing.
+     */
+    private static void setNumber(PreparedStatement ps, int index, long value) throws SQLException {
+        if (value < 0) {
+            ps.setNull(index, Types.BIGINT);
+        } else {
+            ps.setLong(index, value);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command-line access to the change feed (see ChangeFeed): show where the
+ * feed and its consumers are, list the entries a consumer hasn't handled,
+ * commit a consumer's watermark, or export the feed's rows from any point to
+ * replay them elsewhere.
+ *
+ * @author mat
+ */
+public class Feed {
+
+    private final JpaAccess jpaAccess;
+    private final FeedOptions options;
+
+    /**
+     * @param args the command line arguments, see FeedOptions
+     */
+    public static void main(String[] args) {
+        FeedOptions options = new FeedOptions(args);
+
+        JpaAccess jpa = new JpaAccess();
+        try {
+            if (!jpa.tableExists(ChangeFeed.TABLE) || !jpa.tableExists(ChangeFeed.CONSUMERS_TABLE)) {
+                System.err.println("There are no " + ChangeFeed.TABLE + " and " + ChangeFeed.CONSUMERS_TABLE
+                        + " tables, see the README.");
+                System.exit(1);
+            }
+            new Feed(jpa, options).run();
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Unable to read the feed, got error: " + ex.getMessage());
+            System.exit(1);
+        } finally {
+            jpa.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param jpaAccess the database access object to use
+     * @param options   what to do
+     */
+    public Feed(JpaAccess jpaAccess, FeedOptions options) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+        this.options = options;
+    }
+
+    /**
+     * Do what the options ask.
+     *
+     * @throws IOException if the export can't be written
+     */
+    public void run() throws IOException {
+        switch (options.getMode()) {
+            case STATUS -> status();
+            case PULL -> pull();
+            case COMMIT -> commit(options.getCommitAt());
+            case EXPORT -> export();
+        }
+    }
+
+    private void status() {
+        long head = jpaAccess.doReturningWork(ChangeFeed::getHead);
+        Map<String, Long> watermarks = jpaAccess.doReturningWork(ChangeFeed::getWatermarks);
+        System.out.printf("Feed head: %,d%n", head);
+        for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+            System.out.printf("%-30s %,15d (%,d behind)%n", entry.getKey(), entry.getValue(), head - entry.getValue());
+        }
+    }
+
+    private void pull() {
+        String consumer = options.getConsumer();
+        long watermark = jpaAccess.doReturningWork(connection -> ChangeFeed.getWatermark(connection, consumer));
+        List<ChangeFeed.Entry> entries = jpaAccess.doReturningWork(
+                connection -> ChangeFeed.readAfter(connection, watermark, options.getLimit()));
+        for (ChangeFeed.Entry entry : entries) {
+            System.out.println(entry.seq() + "," + entry.apacheLogId());
+        }
+        System.err.printf("%,d entries after watermark %,d.%n", entries.size(), watermark);
+    }
+
+    private void commit(long watermark) {
+        int pruned = jpaAccess.doReturningWork(connection -> {
+            ChangeFeed.commitWatermark(connection, options.getConsumer(), watermark);
+            return ChangeFeed.prune(connection);
+        });
+        jpaAccess.commit();
+        if (pruned > 0) {
+            System.err.printf("Pruned %,d entries every consumer has handled.%n", pruned);
+        }
+    }
+
+    private void export() throws IOException {
+        String consumer = options.getConsumer();
+        long after;
+        if (options.getFrom() != null) {
+            after = options.getFrom() - 1;
+        } else if (consumer != null) {
+            after = jpaAccess.doReturningWork(connection -> ChangeFeed.getWatermark(connection, consumer));
+        } else {
+            after = 0;
+        }
+        // Fix the end now, so rows imported during the export wait for the next one
+        long upTo = options.getTo() != null ? options.getTo() : jpaAccess.doReturningWork(ChangeFeed::getHead);
+
+        boolean toStdOut = "-".equals(options.getOutFile());
+        BufferedWriter out = toStdOut
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : CsvSink.openFile(options.getOutFile());
+        long[] last = {after};
+        long[] rows = {0};
+        try {
+            jpaAccess.scanFeed(ConfigData.empty(), after, upTo, (seq, row) -> {
+                try {
+                    out.write(Long.toString(seq));
+                    out.write(',');
+                    out.write(row.toString());
+                    out.newLine();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                last[0] = seq;
+                rows[0]++;
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            if (toStdOut) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+
+        System.err.printf("Exported %,d rows, seq %,d to %,d.%n", rows[0], after + 1, upTo);
+        if (consumer != null && upTo > after) {
+            commit(upTo);
+            System.err.printf("Watermark of %s is now %,d.%n", consumer, upTo);
+        }
+    }
+}
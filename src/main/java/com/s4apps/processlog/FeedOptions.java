@@ -0,0 +1,190 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for Feed.
+ *
+ * @author mat
+ */
+public class FeedOptions {
+
+    public enum Mode {
+        STATUS, PULL, COMMIT, EXPORT
+    }
+
+    private Mode mode = Mode.STATUS;
+    private String consumer = null;
+    private Long from = null;
+    private Long to = null;
+    private long commitAt = 0;
+    private int limit = 1000;
+    private String outFile = null;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public FeedOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // ** What to do, the status by default **
+        OptionGroup modes = new OptionGroup();
+        opt = new Option("s", "status", false, "show the head of the feed and every consumer's watermark");
+        modes.addOption(opt);
+        opt = new Option("p", "pull", false, "list the seq and id of the entries after the consumer's watermark");
+        modes.addOption(opt);
+        opt = new Option("C", "commit", true, "move the consumer's watermark up to seq");
+        opt.setArgName("seq");
+        modes.addOption(opt);
+        opt = new Option("x", "export", true, "write the feed's rows as CSV, prefixed with their seq, to a file"
+                + " (.gz/.zst compressed) or - for stdout");
+        opt.setArgName("file");
+        modes.addOption(opt);
+        options.addOptionGroup(modes);
+
+        opt = new Option("c", "consumer", true, "the consumer's name; --export then starts at its watermark and"
+                + " commits the last seq written");
+        opt.setArgName("name");
+        options.addOption(opt);
+
+        opt = new Option("f", "from", true, "the first seq to export (default 1, or after the consumer's watermark)");
+        opt.setArgName("seq");
+        options.addOption(opt);
+
+        opt = new Option("t", "to", true, "the last seq to export (default the head)");
+        opt.setArgName("seq");
+        options.addOption(opt);
+
+        opt = new Option("l", "limit", true, "the most entries --pull lists (default " + limit + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        consumer = cmd.getOptionValue("c");
+        try {
+            if (cmd.hasOption("p")) {
+                mode = Mode.PULL;
+            } else if (cmd.hasOption("C")) {
+                mode = Mode.COMMIT;
+                commitAt = Long.parseLong(cmd.getOptionValue("C"));
+            } else if (cmd.hasOption("x")) {
+                mode = Mode.EXPORT;
+                outFile = cmd.getOptionValue("x");
+            }
+            if (cmd.hasOption("f")) {
+                from = Long.parseLong(cmd.getOptionValue("f"));
+            }
+            if (cmd.hasOption("t")) {
+                to = Long.parseLong(cmd.getOptionValue("t"));
+            }
+            if (cmd.hasOption("l")) {
+                limit = Integer.parseInt(cmd.getOptionValue("l"));
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid number: " + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if ((mode == Mode.PULL || mode == Mode.COMMIT) && consumer == null) {
+            System.err.println("--pull and --commit need a --consumer.");
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+        if (limit < 1) {
+            System.err.println("--limit must be at least 1");
+            System.exit(1);
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("Feed [--status | --pull | --commit <seq> | --export <file>] [options]",
+                    null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return what to do
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the consumer's name, or null
+     */
+    public String getConsumer() {
+        return consumer;
+    }
+
+    /**
+     * @return the first seq to export, or null for the default
+     */
+    public Long getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the last seq to export, or null for the head
+     */
+    public Long getTo() {
+        return to;
+    }
+
+    /**
+     * @return the seq to move the watermark to
+     */
+    public long getCommitAt() {
+        return commitAt;
+    }
+
+    /**
+     * @return the most entries to pull
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the export file, or - for stdout
+     */
+    public String getOutFile() {
+        return outFile;
+    }
+}
@@ -0,0 +1,77 @@
+package com.s4apps.processlog;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, per ignore flag, how many rows had that flag turned on or off. Safe
+ * to share between Rebuild workers.
+ *
+ * @author mat
+ */
+public class FlagChangeCounts {
+
+    private static final int[] FLAGS = {
+        ToolsAndConstants.REASON_IP,
+        ToolsAndConstants.REASON_URL,
+        ToolsAndConstants.REASON_SERVER,
+        ToolsAndConstants.REASON_METHOD,
+        ToolsAndConstants.REASON_BOT
+    };
+    private static final String[] LABELS = {"ignoreIp", "ignoreUrl", "ignoreServer", "ignoreMethod", "ignoreBot"};
+
+    private final LongAdder[] turnedOn = new LongAdder[FLAGS.length];
+    private final LongAdder[] turnedOff = new LongAdder[FLAGS.length];
+    private final LongAdder rowsChanged = new LongAdder();
+    private final LongAdder rowsUnchanged = new LongAdder();
+
+    public FlagChangeCounts() {
+        for (int i = 0; i < FLAGS.length; i++) {
+            turnedOn[i] = new LongAdder();
+            turnedOff[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a row whose flags are being rewritten.
+     *
+     * @param oldFlags the stored boolean columns as a bitmask
+     * @param newFlags the new ignoreReason
+     */
+    public void recordChanged(int oldFlags, int newFlags) {
+        rowsChanged.increment();
+        for (int i = 0; i < FLAGS.length; i++) {
+            boolean wasSet = (oldFlags & FLAGS[i]) != 0;
+            boolean isSet = (newFlags & FLAGS[i]) != 0;
+            if (isSet && !wasSet) {
+                turnedOn[i].increment();
+            } else if (wasSet && !isSet) {
+                turnedOff[i].increment();
+            }
+        }
+    }
+
+    /**
+     * Record a row whose flags were already correct.
+     */
+    public void recordUnchanged() {
+        rowsUnchanged.increment();
+    }
+
+    public long getRowsChanged() {
+        return rowsChanged.sum();
+    }
+
+    public long getRowsUnchanged() {
+        return rowsUnchanged.sum();
+    }
+
+    /**
+     * Print the totals, one line per flag.
+     */
+    public void print() {
+        System.out.printf("Rows with changed flags: %,d (%,d unchanged)%n", getRowsChanged(), getRowsUnchanged());
+        for (int i = 0; i < FLAGS.length; i++) {
+            System.out.printf("- %-12s +%,d -%,d%n", LABELS[i], turnedOn[i].sum(), turnedOff[i].sum());
+        }
+    }
+}
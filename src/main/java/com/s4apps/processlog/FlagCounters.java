@@ -0,0 +1,236 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the FlagCounts summary table up to date: how many rows there are for
+ * each day, ignoreReason and combination of boolean ignore flags. From it
+ * Check can get every flagged count and the ignoreReason mismatch count
+ * without reading ApacheLogs.
+ *
+ * The table is optional and only maintained once it exists:
+ *
+ * CREATE TABLE FlagCounts (
+ *     day DATE NOT NULL,
+ *     ignoreReason INT NOT NULL,
+ *     flags INT NOT NULL,
+ *     rowCount BIGINT NOT NULL,
+ *     PRIMARY KEY (day, ignoreReason, flags)
+ * );
+ *
+ * then fill it with Check --rebuild-counters. Rows without a date are counted
+ * against 1970-01-01 and rows without an ignoreReason against -1.
+ *
+ * @author mat
+ */
+public class FlagCounters implements RowWriteListener {
+
+    public static final String TABLE = "FlagCounts";
+
+    private static final LocalDate NO_DATE = LocalDate.of(1970, 1, 1);
+    private static final int NO_REASON = -1;
+
+    private static final String FLAGS_SQL = "(CASE WHEN ignoreIp THEN " + ToolsAndConstants.REASON_IP + " ELSE 0 END"
+            + " + CASE WHEN ignoreUrl THEN " + ToolsAndConstants.REASON_URL + " ELSE 0 END"
+            + " + CASE WHEN ignoreServer THEN " + ToolsAndConstants.REASON_SERVER + " ELSE 0 END"
+            + " + CASE WHEN ignoreMethod THEN " + ToolsAndConstants.REASON_METHOD + " ELSE 0 END"
+            + " + CASE WHEN ignoreBot THEN " + ToolsAndConstants.REASON_BOT + " ELSE 0 END)";
+
+    private static final String GROUP_SQL = "SELECT COALESCE(CAST(date AS DATE), DATE '1970-01-01'), "
+            + "COALESCE(ignoreReason, " + NO_REASON + "), " + FLAGS_SQL + ", COUNT(*) FROM ApacheLogs "
+            + "GROUP BY COALESCE(CAST(date AS DATE), DATE '1970-01-01'), COALESCE(ignoreReason, " + NO_REASON + "), "
+            + FLAGS_SQL;
+
+    /**
+     * One cell of the table.
+     */
+    public record Key(LocalDate day, int ignoreReason, int flags) implements Comparable<Key> {
+        @Override
+        public int compareTo(Key other) {
+            int c = day.compareTo(other.day);
+            if (c == 0) {
+                c = Integer.compare(ignoreReason, other.ignoreReason);
+            }
+            if (c == 0) {
+                c = Integer.compare(flags, other.flags);
+            }
+            return c;
+        }
+    }
+
+    // Sorted so that every writer locks the table's rows in the same order
+    private final Map<Key, Long> deltas = new TreeMap<>();
+    private LocalDateTime droppedBefore = null;
+
+    @Override
+    public void rowInserted(RowStringStorage row) {
+        int ignoreReason = row.getIgnoreReason();
+        add(new Key(day(row), ignoreReason, ignoreReason), 1);
+    }
+
+    @Override
+    public void rowDeleted(RowStringStorage row) {
+        add(storedKey(row), -1);
+    }
+
+    @Override
+    public void rowFlagsChanged(RowStringStorage row, int ignoreReason) {
+        add(storedKey(row), -1);
+        add(new Key(day(row), ignoreReason, ignoreReason), 1);
+    }
+
+    @Override
+    public void rowsDroppedBefore(LocalDateTime bound) {
+        if (droppedBefore == null || bound.isAfter(droppedBefore)) {
+            droppedBefore = bound;
+        }
+    }
+
+    @Override
+    public void flush(Connection connection) throws SQLException {
+        if (droppedBefore != null) {
+            // Partitions are whole days, so so are the counts to remove. The
+            // rows without a date are never dropped.
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + TABLE
+                    + " WHERE day < ? AND day <> ?")) {
+                ps.setDate(1, Date.valueOf(droppedBefore.toLocalDate()));
+                ps.setDate(2, Date.valueOf(NO_DATE));
+                ps.executeUpdate();
+            }
+            droppedBefore = null;
+        }
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(ToolsAndConstants.upsert(connection,
+                "INSERT INTO " + TABLE + " (day, ignoreReason, flags, rowCount) VALUES (?, ?, ?, ?)",
+                "rowCount = rowCount + incoming.rowCount"))) {
+            for (Map.Entry<Key, Long> entry : deltas.entrySet()) {
+                if (entry.getValue() == 0) {
+                    continue;
+                }
+                ps.setDate(1, Date.valueOf(entry.getKey().day()));
+                ps.setInt(2, entry.getKey().ignoreReason());
+                ps.setInt(3, entry.getKey().flags());
+                ps.setLong(4, entry.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        deltas.clear();
+    }
+
+    /**
+     * Read the whole table.
+     *
+     * @param connection
+     * @return the row count for every cell
+     * @throws SQLException
+     */
+    public static Map<Key, Long> readCounts(Connection connection) throws SQLException {
+        return readGroups(connection, "SELECT day, ignoreReason, flags, rowCount FROM " + TABLE);
+    }
+
+    /**
+     * Count ApacheLogs from scratch, the slow way, for comparison with the
+     * table.
+     *
+     * @param connection
+     * @return the row count for every cell
+     * @throws SQLException
+     */
+    public static Map<Key, Long> countFromScratch(Connection connection) throws SQLException {
+        return readGroups(connection, GROUP_SQL);
+    }
+
+    /**
+     * Replace the contents of the table with a fresh count of ApacheLogs. Use
+     * to fill the table when it is first created, or to repair drift; imports
+     * should be paused while it runs.
+     *
+     * @param connection
+     * @return the number of cells written
+     * @throws SQLException
+     */
+    public static int rebuild(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + TABLE);
+            return statement.executeUpdate("INSERT INTO " + TABLE + " (day, ignoreReason, flags, rowCount) " + GROUP_SQL);
+        }
+    }
+
+    /**
+     * @param counts the table, as read by readCounts()
+     * @param flag   one of the REASON_* bits
+     * @return the number of rows with that ignore flag set
+     */
+    public static long countFlagged(Map<Key, Long> counts, int flag) {
+        long total = 0;
+        for (Map.Entry<Key, Long> entry : counts.entrySet()) {
+            if ((entry.getKey().flags() & flag) != 0) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param counts the table, as read by readCounts()
+     * @return the number of rows whose ignoreReason isn't the sum of their flags
+     */
+    public static long countReasonMismatches(Map<Key, Long> counts) {
+        long total = 0;
+        for (Map.Entry<Key, Long> entry : counts.entrySet()) {
+            if (entry.getKey().ignoreReason() != entry.getKey().flags()) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * The changes collected since the last flush, for testing.
+     */
+    Map<Key, Long> getDeltas() {
+        return deltas;
+    }
+
+    private static Map<Key, Long> readGroups(Connection connection, String sql) throws SQLException {
+        Map<Key, Long> counts = new TreeMap<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(sql)) {
+            while (rs.next()) {
+                Key key = new Key(rs.getDate(1).toLocalDate(), rs.getInt(2), rs.getInt(3));
+                long count = rs.getLong(4);
+                if (count != 0) {
+                    counts.merge(key, count, Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private void add(Key key, long delta) {
+        deltas.merge(key, delta, Long::sum);
+    }
+
+    private static Key storedKey(RowStringStorage row) {
+        Integer ignoreReason = row.getStoredIgnoreReason();
+        return new Key(day(row), ignoreReason == null ? NO_REASON : ignoreReason, row.getStoredFlags());
+    }
+
+    private static LocalDate day(RowStringStorage row) {
+        LocalDate day = row.getDay();
+        return day == null ? NO_DATE : day;
+    }
+}
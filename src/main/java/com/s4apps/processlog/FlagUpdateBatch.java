@@ -0,0 +1,67 @@
+package com.s4apps.processlog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The ids of rows whose ignore flags need rewriting, grouped by the new
+ * ignoreReason bitmask so that each group can be written with
+ * {@code UPDATE ... WHERE id IN (...)}. Not thread-safe; each Rebuild worker
+ * keeps its own.
+ *
+ * @author mat
+ */
+public class FlagUpdateBatch {
+
+    private final Map<Integer, List<String>> idsByReason = new TreeMap<>();
+    private final List<RowStringStorage> rows = new ArrayList<>();
+    private final List<Integer> reasons = new ArrayList<>();
+
+    /**
+     * Queue a row for rewriting.
+     *
+     * @param row          the row as read from the database
+     * @param ignoreReason the new ignoreReason; the boolean columns are set
+     *                     from its bits
+     */
+    public void add(RowStringStorage row, int ignoreReason) {
+        idsByReason.computeIfAbsent(ignoreReason, k -> new ArrayList<>()).add(row.getId());
+        rows.add(row);
+        reasons.add(ignoreReason);
+    }
+
+    public Map<Integer, List<String>> getIdsByReason() {
+        return idsByReason;
+    }
+
+    /**
+     * @return the queued rows, in the order they were added
+     */
+    public List<RowStringStorage> getRows() {
+        return rows;
+    }
+
+    /**
+     * @param index the position of the row in getRows()
+     * @return the new ignoreReason of that row
+     */
+    public int getReason(int index) {
+        return reasons.get(index);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    public void clear() {
+        idsByReason.clear();
+        rows.clear();
+        reasons.clear();
+    }
+}
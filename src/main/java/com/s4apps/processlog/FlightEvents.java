@@ -0,0 +1,109 @@
+package com.s4apps.processlog;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The custom Java Flight Recorder events, one for each phase that can make an
+ * import or rebuild slow. They cost next to nothing when no recording is
+ * running; see FlightRecording for starting one with --jfr.
+ *
+ * All the events are in the "Process Logs" category of JDK Mission Control.
+ *
+ * @author mat
+ */
+public final class FlightEvents {
+
+    // One row in this many has its rule evaluation recorded
+    public static final int RULE_SAMPLE_RATE = 1000;
+
+    private FlightEvents() {
+    }
+
+    /**
+     * One log file read by ProcessLog, from opening it to committing its rows.
+     */
+    @Name("com.s4apps.processlog.FileImport")
+    @Label("File Import")
+    @Category("Process Logs")
+    @StackTrace(false)
+    public static class FileImport extends Event {
+        @Label("File")
+        public String fileName;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Lines Read")
+        public long linesRead;
+
+        @Label("Rows Written")
+        public long rowsWritten;
+    }
+
+    /**
+     * One JpaAccess.commit. The flush covers the dimension values, the summary
+     * tables and Hibernate's flush of the pending rows; the commit is just the
+     * database's commit.
+     */
+    @Name("com.s4apps.processlog.CommitBatch")
+    @Label("Commit Batch")
+    @Category("Process Logs")
+    @StackTrace(false)
+    public static class CommitBatch extends Event {
+        @Label("Rows")
+        @Description("Rows inserted, updated or deleted since the last commit")
+        public long rows;
+
+        @Label("Flush Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long flushNanos;
+
+        @Label("Commit Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long commitNanos;
+    }
+
+    /**
+     * One row's check against the delete rules, for one row in
+     * RULE_SAMPLE_RATE.
+     */
+    @Name("com.s4apps.processlog.RuleSample")
+    @Label("Rule Evaluation Sample")
+    @Category("Process Logs")
+    @StackTrace(false)
+    public static class RuleSample extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Deleted")
+        public boolean deleted;
+    }
+
+    /**
+     * One page of rows loaded for Rebuild.
+     */
+    @Name("com.s4apps.processlog.PageLoad")
+    @Label("Rebuild Page Load")
+    @Category("Process Logs")
+    @StackTrace(false)
+    public static class PageLoad extends Event {
+        @Label("Partition")
+        public String partition;
+
+        @Label("Rows")
+        public int rows;
+
+        @Label("Query Time")
+        @Description("Time for the query alone, without making the rows")
+        @Timespan(Timespan.NANOSECONDS)
+        public long queryNanos;
+    }
+}
@@ -0,0 +1,78 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * A flight recording started by --jfr. It uses the JDK's "profile" settings
+ * (method sampling every 10 ms, allocation and lock profiling) and adds the
+ * events in FlightEvents with no threshold, so every file, commit and page
+ * is recorded however quick. The recording is written to the file when it is
+ * closed, or if the JVM exits first.
+ *
+ * Open the file in JDK Mission Control, or summarize it with
+ * {@code jfr print --events com.s4apps.processlog.CommitBatch <file>}.
+ *
+ * @author mat
+ */
+public class FlightRecording implements AutoCloseable {
+
+    private static final String[] EVENTS = {
+        "com.s4apps.processlog.FileImport",
+        "com.s4apps.processlog.CommitBatch",
+        "com.s4apps.processlog.RuleSample",
+        "com.s4apps.processlog.PageLoad"
+    };
+
+    private final Recording recording;
+    private final Path file;
+
+    /**
+     * Start recording.
+     *
+     * @param file where to write the recording
+     */
+    public FlightRecording(Path file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null");
+        }
+        this.file = file;
+
+        Map<String, String> settings;
+        try {
+            settings = Configuration.getConfiguration("profile").getSettings();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read the JFR profile settings", ex);
+        } catch (ParseException ex) {
+            throw new IllegalStateException("Unable to parse the JFR profile settings", ex);
+        }
+
+        recording = new Recording(settings);
+        for (String event : EVENTS) {
+            recording.enable(event).withoutThreshold();
+        }
+        recording.setName("process-logs");
+        recording.setDumpOnExit(true);
+        try {
+            recording.setDestination(file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write the recording to " + file, ex);
+        }
+        recording.start();
+    }
+
+    /**
+     * Stop recording and write the file.
+     */
+    @Override
+    public void close() {
+        recording.stop();
+        recording.close();
+        System.out.println("Flight recording written to " + file);
+    }
+}
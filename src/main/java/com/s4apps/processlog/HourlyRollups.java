@@ -0,0 +1,230 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the HourlyRollups table up to date: hits and bytes per hour, server,
+ * URL prefix, response class and ignoreReason, so that reports don't have to
+ * aggregate ApacheLogs.
+ *
+ * The table is optional and only maintained once it exists:
+ *
+ * CREATE TABLE HourlyRollups (
+ *     hour DATETIME NOT NULL,
+ *     server VARCHAR(200) NOT NULL,
+ *     urlPrefix VARCHAR(100) NOT NULL,
+ *     responseClass INT NOT NULL,
+ *     ignoreReason INT NOT NULL,
+ *     hits BIGINT NOT NULL,
+ *     bytes BIGINT NOT NULL,
+ *     PRIMARY KEY (hour, server, urlPrefix, responseClass, ignoreReason)
+ * );
+ *
+ * then fill it with Check --rebuild-counters. The URL prefix is everything
+ * before the URL's second '/', so /wp-admin/index.php counts as /wp-admin,
+ * and the response class is the first digit of the response code. Rows
+ * without a date count against 1970-01-01 00:00, missing values as empty or
+ * 0, and a missing ignoreReason as -1.
+ *
+ * @author mat
+ */
+public class HourlyRollups implements RowWriteListener {
+
+    public static final String TABLE = "HourlyRollups";
+
+    private static final int URL_PREFIX_LENGTH = 100;
+    private static final int SERVER_LENGTH = 200;
+    private static final LocalDateTime NO_DATE = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final int NO_REASON = -1;
+
+    /**
+     * One row of the table.
+     */
+    public record Key(LocalDateTime hour, String server, String urlPrefix, int responseClass, int ignoreReason)
+            implements Comparable<Key> {
+        @Override
+        public int compareTo(Key other) {
+            int c = hour.compareTo(other.hour);
+            if (c == 0) {
+                c = server.compareTo(other.server);
+            }
+            if (c == 0) {
+                c = urlPrefix.compareTo(other.urlPrefix);
+            }
+            if (c == 0) {
+                c = Integer.compare(responseClass, other.responseClass);
+            }
+            if (c == 0) {
+                c = Integer.compare(ignoreReason, other.ignoreReason);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * The change to one row of the table.
+     */
+    static final class Delta {
+        long hits;
+        long bytes;
+    }
+
+    // Sorted so that every writer locks the table's rows in the same order
+    private final Map<Key, Delta> deltas = new TreeMap<>();
+    private LocalDateTime droppedBefore = null;
+
+    @Override
+    public void rowInserted(RowStringStorage row) {
+        add(key(row, row.getIgnoreReason()), row, 1);
+    }
+
+    @Override
+    public void rowDeleted(RowStringStorage row) {
+        add(key(row, storedReason(row)), row, -1);
+    }
+
+    @Override
+    public void rowFlagsChanged(RowStringStorage row, int ignoreReason) {
+        add(key(row, storedReason(row)), row, -1);
+        add(key(row, ignoreReason), row, 1);
+    }
+
+    @Override
+    public void rowsDroppedBefore(LocalDateTime bound) {
+        if (droppedBefore == null || bound.isAfter(droppedBefore)) {
+            droppedBefore = bound;
+        }
+    }
+
+    @Override
+    public void flush(Connection connection) throws SQLException {
+        if (droppedBefore != null) {
+            // The rows without a date are never dropped
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + TABLE
+                    + " WHERE hour < ? AND hour <> ?")) {
+                ps.setTimestamp(1, Timestamp.valueOf(droppedBefore));
+                ps.setTimestamp(2, Timestamp.valueOf(NO_DATE));
+                ps.executeUpdate();
+            }
+            droppedBefore = null;
+        }
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = connection.prepareStatement(ToolsAndConstants.upsert(connection,
+                "INSERT INTO " + TABLE + " (hour, server, urlPrefix, responseClass, ignoreReason, hits, bytes)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?)",
+                "hits = hits + incoming.hits, bytes = bytes + incoming.bytes"))) {
+            for (Map.Entry<Key, Delta> entry : deltas.entrySet()) {
+                Key key = entry.getKey();
+                Delta delta = entry.getValue();
+                if (delta.hits == 0 && delta.bytes == 0) {
+                    continue;
+                }
+                ps.setTimestamp(1, Timestamp.valueOf(key.hour()));
+                ps.setString(2, key.server());
+                ps.setString(3, key.urlPrefix());
+                ps.setInt(4, key.responseClass());
+                ps.setInt(5, key.ignoreReason());
+                ps.setLong(6, delta.hits);
+                ps.setLong(7, delta.bytes);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        deltas.clear();
+    }
+
+    /**
+     * Replace the contents of the table with a fresh aggregation of
+     * ApacheLogs. Imports should be paused while it runs.
+     *
+     * @param connection
+     * @param normalized true if the server may be held in the Server table
+     * @return the number of rows written
+     * @throws SQLException
+     */
+    public static int rebuild(Connection connection, boolean normalized) throws SQLException {
+        String server = normalized ? "COALESCE(al.server, s.value, '')" : "COALESCE(al.server, '')";
+        String hour = "COALESCE(DATE_FORMAT(al.date, '%Y-%m-%d %H:00:00'), '1970-01-01 00:00:00')";
+        String urlPrefix = "LEFT(SUBSTRING_INDEX(COALESCE(al.url, ''), '/', 2), " + URL_PREFIX_LENGTH + ")";
+        String responseClass = "COALESCE(al.response DIV 100, 0)";
+        String ignoreReason = "COALESCE(al.ignoreReason, " + NO_REASON + ")";
+
+        String sql = "INSERT INTO " + TABLE + " (hour, server, urlPrefix, responseClass, ignoreReason, hits, bytes) "
+                + "SELECT " + hour + ", LEFT(" + server + ", " + SERVER_LENGTH + "), " + urlPrefix + ", "
+                + responseClass + ", " + ignoreReason + ", COUNT(*), COALESCE(SUM(al.size), 0) FROM ApacheLogs al "
+                + (normalized ? "LEFT JOIN " + Dimensions.SERVER_TABLE + " s ON s.id = al.serverId " : "")
+                + "GROUP BY 1, 2, 3, 4, 5";
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + TABLE);
+            return statement.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * The same as SUBSTRING_INDEX(url, '/', 2) in the rebuild.
+     *
+     * @param url the URL, without its query string
+     * @return everything before its second '/'
+     */
+    static String urlPrefix(String url) {
+        int first = url.indexOf('/');
+        int second = first < 0 ? -1 : url.indexOf('/', first + 1);
+        String prefix = second < 0 ? url : url.substring(0, second);
+        return prefix.length() > URL_PREFIX_LENGTH ? prefix.substring(0, URL_PREFIX_LENGTH) : prefix;
+    }
+
+    /**
+     * The changes collected since the last flush, for testing.
+     */
+    Map<Key, Delta> getDeltas() {
+        return deltas;
+    }
+
+    private void add(Key key, RowStringStorage row, int sign) {
+        Delta delta = deltas.computeIfAbsent(key, k -> new Delta());
+        delta.hits += sign;
+        delta.bytes += sign * bytes(row);
+    }
+
+    private static Key key(RowStringStorage row, int ignoreReason) {
+        String server = row.getServer();
+        if (server.length() > SERVER_LENGTH) {
+            server = server.substring(0, SERVER_LENGTH);
+        }
+        return new Key(hour(row), server, urlPrefix(row.getUrl()), responseClass(row), ignoreReason);
+    }
+
+    private static int storedReason(RowStringStorage row) {
+        Integer ignoreReason = row.getStoredIgnoreReason();
+        return ignoreReason == null ? NO_REASON : ignoreReason;
+    }
+
+    private static LocalDateTime hour(RowStringStorage row) {
+        long time = row.getEpochSecond();
+        if (time == ToolsAndConstants.NO_DATE) {
+            return NO_DATE;
+        }
+        return LocalDateTime.ofEpochSecond(time - Math.floorMod(time, 3600), 0, ZoneOffset.UTC);
+    }
+
+    private static int responseClass(RowStringStorage row) {
+        int response = row.getResponseCode();
+        return response == ToolsAndConstants.NO_RESPONSE ? 0 : response / 100;
+    }
+
+    private static long bytes(RowStringStorage row) {
+        long size = row.getSizeBytes();
+        return size == ToolsAndConstants.NO_SIZE ? 0 : size;
+    }
+}
@@ -0,0 +1,193 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Remembers which log files have already been imported, so ProcessLog can
+ * skip them without reading them. get-logs.sh clears the download directory
+ * and fetches every rotated file again each day, and rotation renames them
+ * (access.log.2 becomes access.log.3), so files are known by a fingerprint of
+ * their content rather than their name: the size plus a SHA-256 of the first
+ * and of the last 64 KB. Taking the fingerprint reads at most 128 KB whatever
+ * the size of the file. A file that has grown since (the live access.log)
+ * has a new fingerprint and is imported again in full. The database skips the
+ * rows it already has by their ids and ArchiveQuery counts a row found in
+ * more than one segment of a day once, but a CSV output gets them again.
+ *
+ * A file is only skipped if it was imported to the same outputs (see
+ * CliOptions.getOutputTarget), so one registry can serve a database import
+ * and a --outfile or --null run without either hiding files from the other.
+ *
+ * The registry is a tab-separated text file, one line per file and output
+ * imported to, appended to as each file completes so an interrupted run
+ * keeps what it has done:
+ *
+ * size  headHash  tailHash  linesRead  rowsWritten  importedAt  target  fileName
+ *
+ * Lines written before the target was recorded have seven columns. They
+ * match no output, so those files are imported once more.
+ *
+ * @author mat
+ */
+public class ImportRegistry {
+
+    // How much of each end of a file the fingerprint covers
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern(ToolsAndConstants.DATE_FORMAT_STRING);
+
+    /**
+     * What identifies a file's content.
+     */
+    public record Fingerprint(long size, String headHash, String tailHash) {
+    }
+
+    /**
+     * A file that has been imported, where to, and what it produced.
+     */
+    public record Entry(Fingerprint fingerprint, String target, long linesRead, long rowsWritten,
+            String importedAt, String fileName) {
+    }
+
+    private record Key(Fingerprint fingerprint, String target) {
+    }
+
+    private final Path file;
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /**
+     * Load the registry, which is created on the first record if it doesn't
+     * exist.
+     *
+     * @param file the registry file
+     * @throws IOException if it exists but can't be read
+     */
+    public ImportRegistry(Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("Registry file cannot be null");
+        }
+        this.file = file;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] cols = line.split("\t", 8);
+                if (cols.length < 7) {
+                    throw new IOException("Invalid line " + lineNumber + " in " + file);
+                }
+                String target = cols.length == 8 ? cols[6] : "";
+                String fileName = cols[cols.length - 1];
+                try {
+                    Fingerprint fingerprint = new Fingerprint(Long.parseLong(cols[0]), cols[1], cols[2]);
+                    entries.put(new Key(fingerprint, target), new Entry(fingerprint, target,
+                            Long.parseLong(cols[3]), Long.parseLong(cols[4]), cols[5], fileName));
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Invalid line " + lineNumber + " in " + file, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fingerprint a file.
+     *
+     * @param path the file
+     * @return its fingerprint
+     * @throws IOException if it can't be read
+     */
+    public static Fingerprint fingerprint(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            String head = hashBlock(channel, 0, buffer);
+            String tail = size <= BLOCK_SIZE ? head : hashBlock(channel, size - BLOCK_SIZE, buffer);
+            return new Fingerprint(size, head, tail);
+        }
+    }
+
+    private static String hashBlock(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(buffer);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * @param fingerprint a file's fingerprint
+     * @param target      the outputs it is to be imported to
+     * @return the entry for a file with the same content imported to the
+     *         same outputs, or null if there isn't one
+     */
+    public Entry find(Fingerprint fingerprint, String target) {
+        return entries.get(new Key(fingerprint, target));
+    }
+
+    /**
+     * Record that a file has been imported.
+     *
+     * @param fingerprint the file's fingerprint, taken before it was read
+     * @param target      the outputs it was imported to
+     * @param fileName    the name it was imported under
+     * @param linesRead   the lines read from it
+     * @param rowsWritten the rows written to the output
+     * @throws IOException if the registry can't be written
+     */
+    public void record(Fingerprint fingerprint, String target, String fileName, long linesRead, long rowsWritten)
+            throws IOException {
+        Entry entry = new Entry(fingerprint, clean(target), linesRead, rowsWritten,
+                LocalDateTime.now().format(DATE_FORMAT), clean(fileName));
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(fingerprint.size() + "\t" + fingerprint.headHash() + "\t" + fingerprint.tailHash()
+                    + "\t" + linesRead + "\t" + rowsWritten + "\t" + entry.importedAt() + "\t" + entry.target()
+                    + "\t" + entry.fileName());
+            writer.newLine();
+        }
+        entries.put(new Key(fingerprint, entry.target()), entry);
+    }
+
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * @return the number of files recorded
+     */
+    public int size() {
+        return entries.size();
+    }
+}
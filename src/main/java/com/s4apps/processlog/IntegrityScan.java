@@ -0,0 +1,229 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The single-pass alternative to Check's SQL queries. Streams ApacheLogs once
+ * and re-evaluates every row with the in-memory rules, counting in the same
+ * pass:
+ * - rows that match a delete rule, per rule type;
+ * - rows whose stored ignore flag disagrees with the rules, per flag;
+ * - rows whose ignoreReason isn't the sum of their ignore flags.
+ *
+ * Because each row is compared with itself, a count of zero means every row
+ * is right, which the SQL checks (comparing two totals) can't promise.
+ *
+ * @author mat
+ */
+public class IntegrityScan {
+
+    private static final int[] FLAGS = {
+        ToolsAndConstants.REASON_IP,
+        ToolsAndConstants.REASON_URL,
+        ToolsAndConstants.REASON_SERVER,
+        ToolsAndConstants.REASON_METHOD,
+        ToolsAndConstants.REASON_BOT
+    };
+    private static final String[] FLAG_LABELS = {"IPs", "URLs", "Servers", "Methods", "Bots"};
+    private static final String[] DELETE_LABELS = {"IPs", "URLs", "Servers", "Methods"};
+
+    private final JpaAccess jpaAccess;
+    private final ConfigData config;
+    private final String dumpFile;
+
+    private final long[] deleteMatches = new long[DELETE_LABELS.length];
+    private final long[] flagsMissing = new long[FLAGS.length];
+    private final long[] flagsExtra = new long[FLAGS.length];
+    private final long[] flagged = new long[FLAGS.length];
+    private long reasonMismatches = 0;
+    private long rows = 0;
+    private BufferedWriter dump;
+
+    /**
+     * Constructor that takes all dependencies.
+     *
+     * @param jpaAccess the database access object to read the rows with
+     * @param config    the current filtering rules
+     * @param dumpFile  where to write the ids of the rows that fail, or null
+     */
+    public IntegrityScan(JpaAccess jpaAccess, ConfigData config, String dumpFile) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("ConfigData cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+        this.config = config;
+        this.dumpFile = dumpFile;
+    }
+
+    /**
+     * Scan the table and print the results in the same form as Check.
+     *
+     * @return the total number of problems found
+     */
+    public long run() {
+        System.out.println("Scanning all rows ...");
+        ProgressReporter progress = new ProgressReporter("rows", jpaAccess.countRows());
+
+        try {
+            if (dumpFile != null) {
+                dump = new BufferedWriter(new FileWriter(dumpFile));
+            }
+            jpaAccess.scanAllRows(config, row -> {
+                checkRow(row);
+                progress.add(1);
+                if (rows % ToolsAndConstants.PROGRESS_FREQUENCY_SLOW == 0) {
+                    progress.maybePrint();
+                }
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open " + dumpFile, ex);
+        } finally {
+            closeDump();
+        }
+        progress.printFinal();
+
+        return printResults();
+    }
+
+    /**
+     * @return per delete rule type (ip, url, server, method), the rows that
+     *         match it
+     */
+    long[] getDeleteMatches() {
+        return deleteMatches.clone();
+    }
+
+    /**
+     * @return per flag (ip, url, server, method, bot), the rows that have it
+     *         set
+     */
+    long[] getFlagged() {
+        return flagged.clone();
+    }
+
+    /**
+     * @return per flag, the rows the rules match that don't have it set
+     */
+    long[] getFlagsMissing() {
+        return flagsMissing.clone();
+    }
+
+    /**
+     * @return per flag, the rows that have it set but the rules don't match
+     */
+    long[] getFlagsExtra() {
+        return flagsExtra.clone();
+    }
+
+    long getReasonMismatches() {
+        return reasonMismatches;
+    }
+
+    private void checkRow(RowStringStorage row) {
+        rows++;
+
+        boolean[] deletes = {row.deleteIp(), row.deleteUrl(), row.deleteServer(), row.deleteMethod()};
+        for (int i = 0; i < deletes.length; i++) {
+            if (deletes[i]) {
+                deleteMatches[i]++;
+                writeDump(row, "delete" + DELETE_LABELS[i]);
+            }
+        }
+
+        int expected = row.getIgnoreReason();
+        int stored = row.getStoredFlags();
+        for (int i = 0; i < FLAGS.length; i++) {
+            boolean shouldBeSet = (expected & FLAGS[i]) != 0;
+            boolean isSet = (stored & FLAGS[i]) != 0;
+            if (isSet) {
+                flagged[i]++;
+            }
+            if (shouldBeSet && !isSet) {
+                flagsMissing[i]++;
+                writeDump(row, "missing" + FLAG_LABELS[i]);
+            } else if (isSet && !shouldBeSet) {
+                flagsExtra[i]++;
+                writeDump(row, "extra" + FLAG_LABELS[i]);
+            }
+        }
+
+        Integer storedReason = row.getStoredIgnoreReason();
+        if (storedReason == null || storedReason != stored) {
+            reasonMismatches++;
+            writeDump(row, "ignoreReason");
+        }
+    }
+
+    private long printResults() {
+        long problems = 0;
+
+        System.out.println("\n\nChecking: Do we have any records that should have been deleted?");
+        for (int i = 0; i < DELETE_LABELS.length; i++) {
+            System.out.print("- Checking " + DELETE_LABELS[i] + " ... ");
+            if (deleteMatches[i] != 0) {
+                System.err.println("\n**There were " + deleteMatches[i] + " " + DELETE_LABELS[i]
+                        + " that should have been deleted.");
+            } else {
+                System.out.println("Ok");
+            }
+            problems += deleteMatches[i];
+        }
+
+        System.out.println("\n\nChecking: Do we have any ignore flags set wrong?");
+        for (int i = 0; i < FLAGS.length; i++) {
+            System.out.print("- Checking " + FLAG_LABELS[i] + " ... ");
+            if (flagsMissing[i] != 0 || flagsExtra[i] != 0) {
+                System.err.println("\n**There were " + flagsMissing[i] + " rows missing the flag and "
+                        + flagsExtra[i] + " rows with it set wrongly");
+            } else {
+                System.out.println("Ok - Matched on " + flagged[i] + " rows");
+            }
+            problems += flagsMissing[i] + flagsExtra[i];
+        }
+
+        System.out.print("Checking ignoreReason adds up ... ");
+        if (reasonMismatches != 0) {
+            System.err.println("\n**There are " + reasonMismatches + " ignoreReasons that don't add up");
+        } else {
+            System.out.println("Ok");
+        }
+        problems += reasonMismatches;
+
+        System.out.printf("%nScanned %,d rows, found %,d problems.%n", rows, problems);
+        if (dumpFile != null && problems != 0) {
+            System.out.println("The ids of the rows at fault are in " + dumpFile);
+        }
+        return problems;
+    }
+
+    private void writeDump(RowStringStorage row, String problem) {
+        if (dump == null) {
+            return;
+        }
+        try {
+            dump.write(row.getId());
+            dump.write(',');
+            dump.write(problem);
+            dump.newLine();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write to " + dumpFile, ex);
+        }
+    }
+
+    private void closeDump() {
+        if (dump == null) {
+            return;
+        }
+        try {
+            dump.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to close " + dumpFile, ex);
+        }
+    }
+}
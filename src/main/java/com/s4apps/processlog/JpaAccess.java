@@ -4,38 +4,100 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.Persistence;
+import jakarta.persistence.Query;
 import jakarta.persistence.TypedQuery;
-import java.text.SimpleDateFormat;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 
 import com.s4apps.processlog.model.ApacheLog;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
 
 public class JpaAccess {
 
     private static final int BATCH_SIZE = 1000;
 
+    // How many ids go into each UPDATE ... WHERE id IN (...) statement
+    static final int IN_LIST_SIZE = 100;
+
     private final EntityManagerFactory emf;
     private final EntityManager em;
 
-    private List<ApacheLog> allRowsBatch = null;
-    private int allRowsIndex = 0;
-    private int allRowsOffset = 0;
+    // Workers share the factory (and its connection pool) of the JpaAccess that
+    // created them, so only the owner may close it.
+    private final boolean ownsEmf;
+
+    // Summary tables kept up to date from this JpaAccess's writes; each
+    // JpaAccess makes its own listeners from the shared factories.
+    private final List<Supplier<RowWriteListener>> listenerFactories;
+    private final List<RowWriteListener> listeners = new ArrayList<>();
+    private boolean listenersPending = false;
+
+    // Normalized storage of server, referer and user agent, or null when the
+    // dimension tables don't exist. Shared with the workers.
+    private final Dimensions dimensions;
+
+    // New rows with dimension values not yet in the tables, persisted once
+    // the values have been added at commit
+    private final Map<String, ApacheLog> awaitingDimensions = new LinkedHashMap<>();
+
+    // How long each commit takes, or null when no one is measuring. Shared
+    // with the workers created after it is set.
+    private LatencyHistogram commitLatency = null;
+
+    // Row counters, or null when no one is measuring. Shared with the
+    // workers created after they are set.
+    private Metrics.Counter rowsInserted = null;
+    private Metrics.Counter rowsSkipped = null;
+    private Metrics.Counter rowsDeleted = null;
+    private Metrics.Counter rowsFlagsUpdated = null;
+
+    // Rows written since the last commit, for the CommitBatch event
+    private long rowsPending = 0;
+    private Metrics.Counter[] rowsIgnored = null;
 
     public JpaAccess() {
+        this(new DbConfig());
+    }
+
+    private JpaAccess(DbConfig cfg) {
+        this(cfg.getUrl(), cfg.getUser(), cfg.getPassword(), "validate");
+    }
+
+    /**
+     * Connect to a database other than the one in secrets.properties, such as
+     * the embedded one the load test uses.
+     *
+     * @param url          the JDBC URL; the MySQL driver is used for jdbc:mysql
+     *                     URLs, otherwise the driver is found from the URL
+     * @param user         the database user
+     * @param password     the user's password
+     * @param schemaAction what Hibernate does to the schema at startup:
+     *                     validate, or create for an empty database
+     */
+    public JpaAccess(String url, String user, String password, String schemaAction) {
         LoggingConfig.configure();
-        DbConfig cfg = new DbConfig();
         Map<String, Object> props = new HashMap<>();
-        props.put("jakarta.persistence.jdbc.url", cfg.getUrl());
-        props.put("jakarta.persistence.jdbc.user", cfg.getUser());
-        props.put("jakarta.persistence.jdbc.password", cfg.getPassword());
-        props.put("jakarta.persistence.jdbc.driver", "com.mysql.cj.jdbc.Driver");
-        props.put("hibernate.hbm2ddl.auto", "validate");
+        props.put("jakarta.persistence.jdbc.url", url);
+        props.put("jakarta.persistence.jdbc.user", user);
+        props.put("jakarta.persistence.jdbc.password", password);
+        if (url.startsWith("jdbc:mysql:")) {
+            props.put("jakarta.persistence.jdbc.driver", "com.mysql.cj.jdbc.Driver");
+        }
+        props.put("hibernate.hbm2ddl.auto", schemaAction);
         props.put("hibernate.hikari.minimumIdle", "2");
         props.put("hibernate.hikari.maximumPoolSize", "10");
         props.put("hibernate.hikari.idleTimeout", "30000");
@@ -44,19 +106,179 @@ public class JpaAccess {
 
         emf = Persistence.createEntityManagerFactory("processlog", props);
         em = emf.createEntityManager();
+        ownsEmf = true;
+
+        listenerFactories = new ArrayList<>();
+        if (tableExists(FlagCounters.TABLE)) {
+            addListener(FlagCounters::new);
+        }
+        if (tableExists(HourlyRollups.TABLE)) {
+            addListener(HourlyRollups::new);
+        }
+        if (tableExists(TrafficSketches.TABLE)) {
+            addListener(TrafficSketches::new);
+        }
+        if (tableExists(ChangeFeed.TABLE)) {
+            addListener(ChangeFeed::new);
+        }
+
+        if (tableExists(Dimensions.SERVER_TABLE) && tableExists(Dimensions.REFERER_TABLE)
+                && tableExists(Dimensions.USER_AGENT_TABLE)) {
+            dimensions = new Dimensions();
+            reloadDimensions();
+        } else {
+            dimensions = null;
+        }
+    }
+
+    private JpaAccess(EntityManagerFactory sharedEmf, List<Supplier<RowWriteListener>> sharedFactories,
+            Dimensions sharedDimensions) {
+        emf = sharedEmf;
+        em = emf.createEntityManager();
+        ownsEmf = false;
+        dimensions = sharedDimensions;
+
+        listenerFactories = sharedFactories;
+        for (Supplier<RowWriteListener> factory : listenerFactories) {
+            listeners.add(factory.get());
+        }
+    }
+
+    /**
+     * Create another JpaAccess with its own EntityManager (and so its own
+     * connection and transaction) that shares this one's connection pool. Each
+     * worker thread needs its own, as an EntityManager is not thread-safe.
+     * Closing the worker leaves the shared pool open.
+     *
+     * @return a new JpaAccess for use on a single worker thread
+     */
+    public JpaAccess newWorker() {
+        JpaAccess worker = new JpaAccess(emf, listenerFactories, dimensions);
+        worker.commitLatency = commitLatency;
+        worker.rowsInserted = rowsInserted;
+        worker.rowsSkipped = rowsSkipped;
+        worker.rowsDeleted = rowsDeleted;
+        worker.rowsFlagsUpdated = rowsFlagsUpdated;
+        worker.rowsIgnored = rowsIgnored;
+        return worker;
+    }
+
+    /**
+     * Record how long each commit takes, including the dimension values and
+     * summary tables written with it. Workers created afterwards record into
+     * the same histogram.
+     *
+     * @param commitLatency the histogram to record into, or null to stop
+     */
+    public void setCommitLatency(LatencyHistogram commitLatency) {
+        this.commitLatency = commitLatency;
+    }
+
+    /**
+     * Record commit latency and the rows inserted, skipped as duplicates,
+     * deleted and re-flagged in a metrics registry, with the inserted rows
+     * that are ignored counted by reason. Workers created afterwards record
+     * into the same registry.
+     *
+     * @param metrics the registry to record into
+     */
+    public void setMetrics(Metrics metrics) {
+        commitLatency = metrics.histogram("db_commit_seconds", "Time to commit a transaction");
+        rowsInserted = metrics.counter("rows_inserted_total", "Rows inserted into ApacheLogs");
+        rowsSkipped = metrics.counter("rows_skipped_total", "Rows not inserted because they were already there");
+        rowsDeleted = metrics.counter("rows_deleted_total", "Rows deleted from ApacheLogs");
+        rowsFlagsUpdated = metrics.counter("rows_flags_updated_total", "Rows whose ignore flags were rewritten");
+        rowsIgnored = new Metrics.Counter[ToolsAndConstants.REASON_NAMES.length];
+        for (int bit = 0; bit < rowsIgnored.length; bit++) {
+            rowsIgnored[bit] = metrics.counter("rows_ignored_total", "Rows inserted with an ignore flag set",
+                    "reason", ToolsAndConstants.REASON_NAMES[bit]);
+        }
+    }
+
+    /**
+     * Keep a summary up to date from every write made through this JpaAccess
+     * and the workers created from it afterwards.
+     *
+     * @param factory makes one listener per JpaAccess
+     */
+    public void addListener(Supplier<RowWriteListener> factory) {
+        listenerFactories.add(factory);
+        listeners.add(factory.get());
+    }
+
+    /**
+     * Check for an optional table, such as a summary table that has to be
+     * created by hand before it is maintained.
+     *
+     * @param table the table name
+     * @return true if the table exists in the current database
+     */
+    public boolean tableExists(String table) {
+        return em.unwrap(Session.class).doReturningWork(connection -> {
+            try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+                return rs.next();
+            }
+        });
+    }
+
+    /**
+     * Run some JDBC work in the current transaction, for the summary tables
+     * that have no entity mapping.
+     *
+     * @param work the work to run
+     * @return whatever the work returns
+     */
+    public <T> T doReturningWork(ReturningWork<T> work) {
+        ensureTransaction();
+        return em.unwrap(Session.class).doReturningWork(work);
+    }
+
+    /**
+     * Tell the listeners that rows were removed without JpaAccess seeing them,
+     * by dropping partitions. Written at the next commit.
+     *
+     * @param bound the exclusive upper bound of the dropped dates
+     */
+    public void rowsDroppedBefore(LocalDateTime bound) {
+        for (RowWriteListener listener : listeners) {
+            listener.rowsDroppedBefore(bound);
+            listenersPending = true;
+        }
+    }
+
+    /**
+     * @return the dimension tables of normalized storage, or null if it isn't in use
+     */
+    public Dimensions getDimensions() {
+        return dimensions;
     }
 
     public int insertRow(RowStringStorage rowStringStorage) {
         ensureTransaction();
         // If the record id exists, return.
-        ApacheLog existing = em.find(ApacheLog.class, rowStringStorage.getId());
-        if (existing != null) {
+        if (awaitingDimensions.containsKey(rowStringStorage.getId())
+                || em.find(ApacheLog.class, rowStringStorage.getId()) != null) {
+            if (rowsSkipped != null) {
+                rowsSkipped.inc();
+            }
             return 0;
         }
 
         ApacheLog entity = new ApacheLog();
         toApacheLog(rowStringStorage, entity);
-        em.persist(entity);
+        if (rowsInserted != null) {
+            countInserted(entity);
+        }
+        if (dimensions != null && !dimensions.normalize(entity)) {
+            awaitingDimensions.put(entity.getId(), entity);
+        } else {
+            em.persist(entity);
+        }
+        for (RowWriteListener listener : listeners) {
+            listener.rowInserted(rowStringStorage);
+            listenersPending = true;
+        }
+        rowsPending++;
         return 1;
     }
 
@@ -68,20 +290,75 @@ public class JpaAccess {
         }
 
         toApacheLog(rowStringStorage, entity);
+        if (dimensions != null) {
+            dimensions.normalize(entity);
+        }
         em.merge(entity);
+        rowsPending++;
         return 1;
     }
 
-    public int updateRowFlags(RowStringStorage rowStringStorage) {
-        ensureTransaction();
-        ApacheLog entity = em.find(ApacheLog.class, rowStringStorage.getId());
-        if (entity == null) {
+    /**
+     * Rewrite the ignore flags of every row in the batch using JDBC-batched
+     * {@code UPDATE ... WHERE id IN (...)} statements, one per IN_LIST_SIZE ids
+     * with the same new ignoreReason. Runs in the current transaction.
+     *
+     * Short lists are padded by repeating their last id so that every
+     * statement has the same shape and they can all go in one JDBC batch.
+     *
+     * @param batch the rows to rewrite, grouped by their new ignoreReason
+     * @return the number of rows updated
+     */
+    public int updateRowFlags(FlagUpdateBatch batch) {
+        if (batch.isEmpty()) {
             return 0;
         }
+        ensureTransaction();
 
-        applyFlags(rowStringStorage, entity);
-        em.merge(entity);
-        return 1;
+        StringBuilder sql = new StringBuilder("UPDATE ApacheLogs SET ignoreReason = ?, ignoreIp = ?, "
+                + "ignoreUrl = ?, ignoreServer = ?, ignoreMethod = ?, ignoreBot = ? WHERE id IN (?");
+        sql.append(", ?".repeat(IN_LIST_SIZE - 1)).append(")");
+
+        for (int i = 0; i < batch.size(); i++) {
+            for (RowWriteListener listener : listeners) {
+                listener.rowFlagsChanged(batch.getRows().get(i), batch.getReason(i));
+                listenersPending = true;
+            }
+        }
+
+        int rowsUpdated = em.unwrap(Session.class).doReturningWork(connection -> {
+            int updated = 0;
+            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                for (Map.Entry<Integer, List<String>> entry : batch.getIdsByReason().entrySet()) {
+                    int reason = entry.getKey();
+                    List<String> ids = entry.getValue();
+                    for (int start = 0; start < ids.size(); start += IN_LIST_SIZE) {
+                        ps.setInt(1, reason);
+                        ps.setBoolean(2, (reason & ToolsAndConstants.REASON_IP) != 0);
+                        ps.setBoolean(3, (reason & ToolsAndConstants.REASON_URL) != 0);
+                        ps.setBoolean(4, (reason & ToolsAndConstants.REASON_SERVER) != 0);
+                        ps.setBoolean(5, (reason & ToolsAndConstants.REASON_METHOD) != 0);
+                        ps.setBoolean(6, (reason & ToolsAndConstants.REASON_BOT) != 0);
+                        for (int i = 0; i < IN_LIST_SIZE; i++) {
+                            int index = Math.min(start + i, ids.size() - 1);
+                            ps.setString(7 + i, ids.get(index));
+                        }
+                        ps.addBatch();
+                    }
+                }
+                for (int count : ps.executeBatch()) {
+                    if (count > 0) {
+                        updated += count;
+                    }
+                }
+            }
+            return updated;
+        });
+        if (rowsFlagsUpdated != null) {
+            rowsFlagsUpdated.add(rowsUpdated);
+        }
+        rowsPending += rowsUpdated;
+        return rowsUpdated;
     }
 
     public int delRow(RowStringStorage rowStringStorage) {
@@ -92,26 +369,217 @@ public class JpaAccess {
         }
 
         em.remove(entity);
+        for (RowWriteListener listener : listeners) {
+            listener.rowDeleted(rowStringStorage);
+            listenersPending = true;
+        }
+        if (rowsDeleted != null) {
+            rowsDeleted.inc();
+        }
+        rowsPending++;
         return 1;
     }
 
-    public int delOld(LocalDateTime delBeforeDate) {
+    private void countInserted(ApacheLog entity) {
+        rowsInserted.inc();
+        int reason = entity.getIgnoreReason() == null ? 0 : entity.getIgnoreReason();
+        for (int bit = 0; bit < rowsIgnored.length; bit++) {
+            if ((reason & (1 << bit)) != 0) {
+                rowsIgnored[bit].inc();
+            }
+        }
+    }
+
+    /**
+     * Get the ids of the oldest rows dated before the cutoff, oldest first.
+     * This walks idx_logs_date, which holds the id, so only the index is read.
+     *
+     * @param cutoff the retention cutoff
+     * @param limit  the most ids to return
+     * @return up to limit ids, or an empty list when nothing is left to delete
+     */
+    public List<String> getIdsBefore(LocalDateTime cutoff, int limit) {
+        return em.createQuery(
+                "SELECT a.id FROM ApacheLog a WHERE a.date < :cutoff ORDER BY a.date, a.id",
+                String.class)
+                .setParameter("cutoff", cutoff)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public long countBefore(LocalDateTime cutoff) {
+        return em.createQuery("SELECT COUNT(a) FROM ApacheLog a WHERE a.date < :cutoff", Long.class)
+                .setParameter("cutoff", cutoff)
+                .getSingleResult();
+    }
+
+    /**
+     * @param from the earliest time to count
+     * @param to   the time to stop at (exclusive)
+     * @return the number of rows dated in the range
+     */
+    public long countBetween(LocalDateTime from, LocalDateTime to) {
+        return em.createQuery("SELECT COUNT(a) FROM ApacheLog a WHERE a.date >= :from AND a.date < :to", Long.class)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .getSingleResult();
+    }
+
+    /**
+     * Delete the rows with the given ids in the current transaction. If there
+     * are listeners the rows are read first, so that they can see what went.
+     *
+     * @param ids the ids to delete
+     * @return the number of rows deleted
+     */
+    public int delIds(List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
         ensureTransaction();
-        return em.createQuery("DELETE FROM ApacheLog a WHERE a.date < :cutoff")
-                .setParameter("cutoff", delBeforeDate)
+        if (!listeners.isEmpty()) {
+            String sql = "SELECT * FROM ApacheLogs WHERE id IN (?" + ", ?".repeat(ids.size() - 1) + ")";
+            scanRows(ConfigData.empty(), sql, row -> {
+                for (RowWriteListener listener : listeners) {
+                    listener.rowDeleted(row);
+                    listenersPending = true;
+                }
+            }, ids.toArray());
+        }
+        int deleted = em.createQuery("DELETE FROM ApacheLog a WHERE a.id IN :ids")
+                .setParameter("ids", ids)
                 .executeUpdate();
+        if (rowsDeleted != null) {
+            rowsDeleted.add(deleted);
+        }
+        rowsPending += deleted;
+        return deleted;
     }
 
-    public RowStringStorage getAllRows(ConfigData cd) {
-        if (allRowsBatch == null || allRowsIndex >= allRowsBatch.size()) {
-            loadNextBatch();
-            if (allRowsBatch.isEmpty()) {
-                return null;
-            }
+    /**
+     * Load the next page of rows from a partition, in id order, starting after
+     * the given id. Paging on the id rather than an offset means rows deleted
+     * from earlier pages don't cause later rows to be skipped.
+     *
+     * @param cd        the rules to attach to each row
+     * @param partition the slice of the table to read
+     * @param afterId   the last id of the previous page, or null for the first page
+     * @return the rows, or an empty list when the partition is exhausted
+     */
+    public List<RowStringStorage> getPartitionRows(ConfigData cd, RebuildPartition partition, String afterId) {
+        StringBuilder jpql = new StringBuilder("SELECT a FROM ApacheLog a WHERE ");
+        jpql.append(partitionPredicate(partition));
+        if (afterId != null) {
+            jpql.append(" AND a.id > :afterId");
         }
+        jpql.append(" ORDER BY a.id");
+
+        TypedQuery<ApacheLog> query = em.createQuery(jpql.toString(), ApacheLog.class);
+        bindPartition(query, partition);
+        if (afterId != null) {
+            query.setParameter("afterId", afterId);
+        }
+        query.setMaxResults(BATCH_SIZE);
+
+        FlightEvents.PageLoad event = new FlightEvents.PageLoad();
+        event.begin();
+        long queryStart = System.nanoTime();
+        List<ApacheLog> entities = query.getResultList();
+        event.queryNanos = System.nanoTime() - queryStart;
+
+        List<RowStringStorage> rows = new ArrayList<>();
+        for (ApacheLog entity : entities) {
+            RowStringStorage row = new RowStringStorage(cd, entity);
+            resolveDimensions(row, entity.getServerId(), entity.getServer2Id(), entity.getBrowserId());
+            rows.add(row);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.partition = partition.label();
+            event.rows = rows.size();
+            event.commit();
+        }
+        return rows;
+    }
+
+    /**
+     * Stream every row of ApacheLogs through the consumer in a single pass,
+     * using a forward-only JDBC cursor rather than loading entities, so memory
+     * use stays flat however big the table is.
+     *
+     * @param cd       the rules to attach to each row
+     * @param consumer called once per row, on this thread
+     */
+    public void scanAllRows(ConfigData cd, Consumer<RowStringStorage> consumer) {
+        scanRows(cd, "SELECT * FROM ApacheLogs", consumer);
+    }
+
+    /**
+     * Stream the rows of one day through the consumer, oldest first, in the
+     * same way as scanAllRows.
+     *
+     * @param cd       the rules to attach to each row
+     * @param day      the day
+     * @param consumer called once per row, on this thread
+     */
+    public void scanDay(ConfigData cd, LocalDate day, Consumer<RowStringStorage> consumer) {
+        scanRows(cd, "SELECT * FROM ApacheLogs WHERE date >= ? AND date < ? ORDER BY date", consumer,
+                day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+    }
 
-        ApacheLog entity = allRowsBatch.get(allRowsIndex++);
-        return new RowStringStorage(cd, entity);
+    /**
+     * Called by scanFeed with each feed entry whose row still exists.
+     */
+    @FunctionalInterface
+    public interface FeedRowConsumer {
+        void accept(long seq, RowStringStorage row);
+    }
+
+    /**
+     * Stream the rows of the change feed (see ChangeFeed) in sequence order,
+     * in the same way as scanAllRows. Entries whose row has since been
+     * deleted are skipped.
+     *
+     * @param cd       the rules to attach to each row
+     * @param after    the sequence to start after
+     * @param upTo     the last sequence to include
+     * @param consumer called once per row, on this thread
+     */
+    public void scanFeed(ConfigData cd, long after, long upTo, FeedRowConsumer consumer) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement("SELECT f.seq, a.* FROM " + ChangeFeed.TABLE
+                    + " f JOIN ApacheLogs a ON a.id = f.apacheLogId WHERE f.seq > ? AND f.seq <= ? ORDER BY f.seq",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(streamingFetchSize(connection));
+                ps.setLong(1, after);
+                ps.setLong(2, upTo);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        RowStringStorage row = new RowStringStorage(cd, rs);
+                        if (dimensions != null) {
+                            resolveDimensions(row, rs.getObject("serverId", Integer.class),
+                                    rs.getObject("server2Id", Integer.class), rs.getObject("browserId", Integer.class));
+                        }
+                        consumer.accept(rs.getLong("seq"), row);
+                    }
+                }
+            }
+        });
+    }
+
+    public long countRows() {
+        return em.createQuery("SELECT COUNT(a) FROM ApacheLog a", Long.class)
+                .getSingleResult();
+    }
+
+    /**
+     * @return the earliest and latest row dates, either of which may be null
+     *         when the table is empty
+     */
+    public LocalDateTime[] getDateRange() {
+        Object[] range = em.createQuery("SELECT MIN(a.date), MAX(a.date) FROM ApacheLog a", Object[].class)
+                .getSingleResult();
+        return new LocalDateTime[] {(LocalDateTime) range[0], (LocalDateTime) range[1]};
     }
 
     public List<String> getIgnoreIps() {
@@ -154,41 +622,33 @@ public class JpaAccess {
                 .getResultList();
     }
 
+    /*
+     * The countDelete*Matches and countIgnore*Matches queries match rows the
+     * same way RowStringStorage does: IPs and methods exactly, URLs and servers
+     * by prefix, all case-insensitively. Each rule becomes its own predicate
+     * that MySQL can answer from the index on the column (see
+     * countPrefixMatches), instead of a join that compares a substring of
+     * every row with every rule.
+     */
+
     public long countDeleteIpMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, DeleteIp d WHERE al.ip = d.ip",
-                Long.class)
-                .getSingleResult();
+        return countExactMatches("al.ip", lowercaseRules(getDeleteIps()));
     }
 
     public long countDeleteUrlMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, DeleteUrl d "
-                + "WHERE substring(al.url, 1, length(d.url)) = d.url",
-                Long.class)
-                .getSingleResult();
+        return countPrefixMatches("al.url", getDeleteUrls());
     }
 
     public long countDeleteServerMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, DeleteServer d WHERE al.server = d.server",
-                Long.class)
-                .getSingleResult();
+        return countServerMatches(getDeleteServers());
     }
 
     public long countDeleteMethodMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, DeleteMethod d "
-                + "WHERE substring(al.method, 1, length(d.method)) = d.method",
-                Long.class)
-                .getSingleResult();
+        return countExactMatches("al.method", getDeleteMethods().stream().map(String::toUpperCase).toList());
     }
 
     public long countIgnoreIpMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, IgnoreIp ig WHERE al.ip = ig.ip",
-                Long.class)
-                .getSingleResult();
+        return countExactMatches("al.ip", lowercaseRules(getIgnoreIps()));
     }
 
     public long countIgnoreIpFlagged() {
@@ -199,11 +659,7 @@ public class JpaAccess {
     }
 
     public long countIgnoreUrlMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, IgnoreUrl ig "
-                + "WHERE substring(al.url, 1, length(ig.url)) = ig.url",
-                Long.class)
-                .getSingleResult();
+        return countPrefixMatches("al.url", getIgnoreUrls());
     }
 
     public long countIgnoreUrlFlagged() {
@@ -214,10 +670,7 @@ public class JpaAccess {
     }
 
     public long countIgnoreServerMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, IgnoreServer ig WHERE al.server = ig.server",
-                Long.class)
-                .getSingleResult();
+        return countServerMatches(getIgnoreServers());
     }
 
     public long countIgnoreServerFlagged() {
@@ -228,10 +681,7 @@ public class JpaAccess {
     }
 
     public long countIgnoreMethodMatches() {
-        return em.createQuery(
-                "SELECT COUNT(al) FROM ApacheLog al, IgnoreMethod ig WHERE al.method = ig.method",
-                Long.class)
-                .getSingleResult();
+        return countExactMatches("al.method", getIgnoreMethods().stream().map(String::toUpperCase).toList());
     }
 
     public long countIgnoreMethodFlagged() {
@@ -261,19 +711,136 @@ public class JpaAccess {
                 .getSingleResult();
     }
 
+    /**
+     * List the partitions of the ApacheLogs table.
+     *
+     * @return {name, description} pairs in partition order, where the
+     *         description is the VALUES LESS THAN bound as MySQL shows it; empty
+     *         if the table isn't partitioned or the database isn't MySQL or
+     *         MariaDB, which are the only ones we partition
+     */
+    public List<String[]> getTablePartitions() {
+        List<String[]> partitions = new ArrayList<>();
+        String product = doReturningWork(connection -> connection.getMetaData().getDatabaseProductName());
+        if (!product.equalsIgnoreCase("MySQL") && !product.equalsIgnoreCase("MariaDB")) {
+            return partitions;
+        }
+
+        // Any error here is a real one; treating it as "not partitioned" would
+        // quietly switch retention back to row deletes
+        List<?> rows = em.createNativeQuery(
+                "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'ApacheLogs' "
+                + "AND PARTITION_NAME IS NOT NULL ORDER BY PARTITION_ORDINAL_POSITION")
+                .getResultList();
+        for (Object row : rows) {
+            Object[] cols = (Object[]) row;
+            partitions.add(new String[] {String.valueOf(cols[0]), String.valueOf(cols[1])});
+        }
+        return partitions;
+    }
+
+    /**
+     * Run a DDL statement. Any open transaction is committed first, as MySQL
+     * would commit it implicitly anyway.
+     *
+     * @param sql the statement to run
+     */
+    public void executeDdl(String sql) {
+        commit();
+        em.unwrap(Session.class).doWork(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            }
+        });
+    }
+
+    /**
+     * Run a native insert, update or delete in the current transaction.
+     *
+     * @param sql    the statement, with ? placeholders
+     * @param params the values for the placeholders, in order
+     * @return the number of rows affected
+     */
+    public int executeNativeUpdate(String sql, Object... params) {
+        ensureTransaction();
+        Query query = em.createNativeQuery(sql);
+        for (int i = 0; i < params.length; i++) {
+            query.setParameter(i + 1, params[i]);
+        }
+        return query.executeUpdate();
+    }
+
+    /**
+     * Commit the current transaction, first writing whatever the listeners
+     * have collected so the summaries commit with the rows.
+     */
     public void commit() {
+        long start = System.nanoTime();
+        FlightEvents.CommitBatch event = new FlightEvents.CommitBatch();
+        event.begin();
+        Dimensions.NewValues added = null;
+        if (!awaitingDimensions.isEmpty()) {
+            added = em.unwrap(Session.class).doReturningWork(
+                    connection -> dimensions.addValues(connection, awaitingDimensions.values()));
+            for (ApacheLog entity : awaitingDimensions.values()) {
+                dimensions.normalize(entity, added);
+                em.persist(entity);
+            }
+            awaitingDimensions.clear();
+        }
+        if (listenersPending) {
+            ensureTransaction();
+            em.unwrap(Session.class).doWork(connection -> {
+                for (RowWriteListener listener : listeners) {
+                    listener.flush(connection);
+                }
+            });
+            listenersPending = false;
+        }
         EntityTransaction tx = em.getTransaction();
         if (tx.isActive()) {
+            // Flush first, rather than in commit, so the two can be timed apart
+            em.flush();
+            long commitStart = System.nanoTime();
+            event.flushNanos = commitStart - start;
             tx.commit();
+            event.commitNanos = System.nanoTime() - commitStart;
+        }
+        if (added != null) {
+            // Only now are the new values safe for other rows to point at
+            dimensions.publish(added);
+        }
+        if (commitLatency != null) {
+            commitLatency.recordSince(start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.rows = rowsPending;
+            event.commit();
         }
+        rowsPending = 0;
+    }
+
+    /**
+     * Detach everything loaded so far so a long-running reader doesn't keep
+     * every row it has seen in memory. Call after a commit.
+     */
+    public void clear() {
+        em.clear();
     }
 
     public void close() {
+        if (!em.isOpen()) {
+            return;
+        }
         try {
             commit();
         } finally {
             em.close();
-            emf.close();
+            if (ownsEmf) {
+                emf.close();
+            }
         }
     }
 
@@ -284,26 +851,189 @@ public class JpaAccess {
         }
     }
 
-    private void loadNextBatch() {
-        TypedQuery<ApacheLog> query = em.createQuery(
-                "SELECT a FROM ApacheLog a ORDER BY a.id",
-                ApacheLog.class);
-        query.setFirstResult(allRowsOffset);
-        query.setMaxResults(BATCH_SIZE);
-        allRowsBatch = query.getResultList();
-        allRowsIndex = 0;
-        allRowsOffset += allRowsBatch.size();
+    /**
+     * Count the rows whose column equals one of the values. The column's
+     * case-insensitive collation gives the same result as RowStringStorage
+     * changing the case of the row before comparing.
+     */
+    private long countExactMatches(String column, List<String> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        return em.createQuery("SELECT COUNT(al) FROM ApacheLog al WHERE " + column + " IN :values", Long.class)
+                .setParameter("values", values)
+                .getSingleResult();
+    }
+
+    /**
+     * Count the rows whose column starts with one of the prefixes. Prefixes
+     * covered by a shorter one are dropped first so no row is counted twice,
+     * then each is counted as an index range scan: {@code col >= prefix AND
+     * col < successor} where there is a safe successor, otherwise
+     * {@code col LIKE 'prefix%'}, which MySQL also turns into a range.
+     */
+    private long countPrefixMatches(String column, List<String> rules) {
+        List<String> prefixes = ToolsAndConstants.minimalPrefixes(lowercaseRules(rules));
+        if (prefixes.contains("")) {
+            // An empty rule matches every row
+            return countRows();
+        }
+
+        long total = 0;
+        for (String prefix : prefixes) {
+            String successor = ToolsAndConstants.prefixSuccessor(prefix);
+            if (successor != null) {
+                total += em.createQuery("SELECT COUNT(al) FROM ApacheLog al WHERE "
+                        + column + " >= :prefix AND " + column + " < :successor", Long.class)
+                        .setParameter("prefix", prefix)
+                        .setParameter("successor", successor)
+                        .getSingleResult();
+            } else {
+                total += em.createQuery("SELECT COUNT(al) FROM ApacheLog al WHERE "
+                        + column + " LIKE :pattern ESCAPE '!'", Long.class)
+                        .setParameter("pattern", ToolsAndConstants.escapeLike(prefix) + "%")
+                        .getSingleResult();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Count the server prefix matches in both the inline server column and,
+     * in normalized storage, serverId.
+     */
+    private long countServerMatches(List<String> rules) {
+        List<String> prefixes = ToolsAndConstants.minimalPrefixes(lowercaseRules(rules));
+        if (dimensions == null || prefixes.contains("")) {
+            return countPrefixMatches("al.server", rules);
+        }
+
+        long total = countPrefixMatches("al.server", rules);
+        List<Integer> ids = dimensions.getServers().getIdsWithPrefix(prefixes);
+        if (!ids.isEmpty()) {
+            total += em.createQuery("SELECT COUNT(al) FROM ApacheLog al WHERE al.serverId IN :ids", Long.class)
+                    .setParameter("ids", ids)
+                    .getSingleResult();
+        }
+        return total;
+    }
+
+    /**
+     * Fill in a row's dimension values from their ids. An id that isn't known
+     * was added by another process since the tables were loaded, so they are
+     * loaded again.
+     */
+    private void resolveDimensions(RowStringStorage row, Integer serverId, Integer server2Id, Integer browserId) {
+        if (dimensions == null) {
+            return;
+        }
+        if (!dimensions.resolve(row, serverId, server2Id, browserId)) {
+            reloadDimensions();
+            dimensions.resolve(row, serverId, server2Id, browserId);
+        }
+    }
+
+    /**
+     * Load the dimension tables on a connection of their own, as this one may
+     * be in the middle of streaming a result set.
+     */
+    private void reloadDimensions() {
+        EntityManager loader = emf.createEntityManager();
+        try {
+            loader.unwrap(Session.class).doWork(dimensions::load);
+        } finally {
+            loader.close();
+        }
+    }
+
+    /**
+     * RowStringStorage lowercases the row and compares it with the rule as it
+     * is, so a rule with uppercase letters in can never match anything.
+     */
+    private static List<String> lowercaseRules(List<String> rules) {
+        return rules.stream().filter(rule -> rule.equals(rule.toLowerCase())).distinct().toList();
+    }
+
+    private void scanRows(ConfigData cd, String sql, Consumer<RowStringStorage> consumer, Object... params) {
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(streamingFetchSize(connection));
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        RowStringStorage row = new RowStringStorage(cd, rs);
+                        if (dimensions != null) {
+                            resolveDimensions(row, rs.getObject("serverId", Integer.class),
+                                    rs.getObject("server2Id", Integer.class), rs.getObject("browserId", Integer.class));
+                        }
+                        consumer.accept(row);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * MySQL Connector/J only streams a result set, rather than reading it all
+     * into memory, when the fetch size is Integer.MIN_VALUE. Other drivers
+     * reject that, and honour an ordinary fetch size instead.
+     */
+    private static int streamingFetchSize(Connection connection) throws SQLException {
+        if (connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+            return Integer.MIN_VALUE;
+        }
+        return BATCH_SIZE;
+    }
+
+    private String partitionPredicate(RebuildPartition partition) {
+        List<String> terms = new ArrayList<>();
+        if (partition.idFrom() != null) {
+            terms.add("a.id >= :idFrom");
+        }
+        if (partition.idTo() != null) {
+            terms.add("a.id < :idTo");
+        }
+        if (partition.nullDate()) {
+            terms.add("a.date IS NULL");
+        }
+        if (partition.dateFrom() != null) {
+            terms.add("a.date >= :dateFrom");
+        }
+        if (partition.dateTo() != null) {
+            terms.add("a.date < :dateTo");
+        }
+        return terms.isEmpty() ? "1 = 1" : String.join(" AND ", terms);
+    }
+
+    private void bindPartition(TypedQuery<?> query, RebuildPartition partition) {
+        if (partition.idFrom() != null) {
+            query.setParameter("idFrom", partition.idFrom());
+        }
+        if (partition.idTo() != null) {
+            query.setParameter("idTo", partition.idTo());
+        }
+        if (partition.dateFrom() != null) {
+            query.setParameter("dateFrom", partition.dateFrom());
+        }
+        if (partition.dateTo() != null) {
+            query.setParameter("dateTo", partition.dateTo());
+        }
     }
 
     private void toApacheLog(RowStringStorage rowStringStorage, ApacheLog entity) {
         entity.setId(truncate(rowStringStorage.getId(), 64));
         entity.setIp(truncate(blankToNull(rowStringStorage.getIp()), 32));
-        entity.setDate(parseDateTime(rowStringStorage.getDate()));
+        entity.setDate(rowStringStorage.getDateTime());
         entity.setMethod(truncate(blankToNull(rowStringStorage.getMethod()), 10));
         entity.setUrl(truncate(blankToNull(rowStringStorage.getUrl()), 500));
         entity.setQueryString(truncate(blankToNull(rowStringStorage.getQueryString()), 500));
-        entity.setResponse(parseInteger(rowStringStorage.getResponse()));
-        entity.setSize(parseInteger(rowStringStorage.getSize()));
+        int response = rowStringStorage.getResponseCode();
+        entity.setResponse(response == ToolsAndConstants.NO_RESPONSE ? null : response);
+        long size = rowStringStorage.getSizeBytes();
+        entity.setSize(size == ToolsAndConstants.NO_SIZE ? null : size);
         entity.setServer(truncate(blankToNull(rowStringStorage.getServer()), 200));
         entity.setServer2(truncate(blankToNull(rowStringStorage.getServer2()), 300));
         entity.setBrowser(truncate(blankToNull(rowStringStorage.getBrowser()), 500));
@@ -330,24 +1060,4 @@ public class JpaAccess {
         return value;
     }
 
-    private Integer parseInteger(String value) {
-        if (value == null || value.isBlank() || value.equals("-")) {
-            return null;
-        }
-        return Integer.parseInt(value);
-    }
-
-    private LocalDateTime parseDateTime(String text) {
-        if (text == null || text.isBlank() || text.equals("-")) {
-            return null;
-        }
-
-        try {
-            SimpleDateFormat dateFormat = new SimpleDateFormat(ToolsAndConstants.DATE_FORMAT_STRING);
-            Date parsedDate = dateFormat.parse(text);
-            return parsedDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-        } catch (Exception ex) {
-            return null;
-        }
-    }
 }
@@ -0,0 +1,146 @@
+package com.s4apps.processlog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of durations, for percentiles of batch and commit
+ * latency. Buckets are log-linear, eight to each power of two from 1 µs to
+ * about 1100 s, so a percentile is within 10% of the true value whatever the
+ * range. Recording is lock-free and can be shared between threads.
+ *
+ * @author mat
+ */
+public class LatencyHistogram {
+
+    // Sub-buckets per power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Powers of two above 1 µs covered
+    private static final int MAGNITUDES = 30;
+    private static final long MIN_NANOS = 1_000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Record the time since a start taken with System.nanoTime().
+     *
+     * @param startNanos when the timed work started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the duration in nanoseconds that the given share of the
+     *         recordings were at or below (the top of its bucket), or 0 if
+     *         nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length(); bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the sum of the durations recorded, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * @return the longest duration recorded, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the number of buckets, for exporting the histogram
+     */
+    int getBuckets() {
+        return counts.length();
+    }
+
+    /**
+     * @param bucket a bucket
+     * @return the number of recordings in it
+     */
+    long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @param bucket a bucket
+     * @return the largest duration it holds, in nanoseconds, or
+     *         Long.MAX_VALUE for the last
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket == 0) {
+            return MIN_NANOS;
+        }
+        if (bucket > MAGNITUDES * SUB_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        int magnitude = (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        return (MIN_NANOS << magnitude) + ((MIN_NANOS << magnitude) * (sub + 1) >> SUB_BUCKET_BITS);
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos <= MIN_NANOS) {
+            return 0;
+        }
+        long scaled = (nanos - 1) / MIN_NANOS;
+        int magnitude = 63 - Long.numberOfLeadingZeros(scaled);
+        if (magnitude >= MAGNITUDES) {
+            return MAGNITUDES * SUB_BUCKETS;
+        }
+        long base = MIN_NANOS << magnitude;
+        int sub = (int) (((nanos - 1 - base) << SUB_BUCKET_BITS) / base);
+        return 1 + magnitude * SUB_BUCKETS + Math.min(sub, SUB_BUCKETS - 1);
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return it in milliseconds, for printing
+     */
+    public static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,329 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Runs the whole daily pipeline (ProcessLog, Rebuild, Check and DeleteOld)
+ * on generated logs against an embedded H2 database in MySQL mode, and
+ * reports for each phase the rows per second, the 50th and 99th percentile
+ * batch latency and the heap pool peaks. It gives a baseline for comparing
+ * write strategies without the production MySQL server; absolute numbers are
+ * H2's, so compare runs with each other rather than with production.
+ *
+ * The logs come from SyntheticLogGenerator, split into rotated files
+ * (oldest first) with the start of each file repeating the end of the one
+ * before. They span the DeleteOld retention cutoff, so about half the rows
+ * have expired by the last phase. Each phase opens its own JpaAccess, as the
+ * separate runs from get-logs.sh do, and the time that takes is reported as
+ * its startup.
+ *
+ * @author mat
+ */
+public class LoadTest {
+
+    private static final Logger logger = Logger.getLogger(LoadTest.class.getName());
+
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    /**
+     * What was measured for one phase. poolPeaks is the sum of each heap
+     * pool's own peak, which the pools may reach at different times, so it
+     * is an upper bound on the peak heap rather than the peak itself.
+     */
+    public record Phase(String name, long rows, long startupNanos, long runNanos, LatencyHistogram latency,
+            long poolPeaks) {
+
+        /**
+         * @return the rows handled per second of the run, not counting startup
+         */
+        public double getRowsPerSecond() {
+            return runNanos == 0 ? 0 : rows * 1e9 / runNanos;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PhaseWork {
+        long run(JpaAccess jpa, LatencyHistogram latency) throws IOException;
+    }
+
+    private final LoadTestOptions options;
+    private final Path dir;
+    private final String url;
+    private final List<Phase> phases = new ArrayList<>();
+    private final List<Path> logFiles = new ArrayList<>();
+
+    /**
+     * @param args the command line arguments, see LoadTestOptions
+     */
+    public static void main(String[] args) {
+        LoadTestOptions options = new LoadTestOptions(args);
+
+        Path dir = null;
+        try {
+            dir = options.getDir() == null ? Files.createTempDirectory("loadtest") : Paths.get(options.getDir());
+            Files.createDirectories(dir);
+            LoadTest loadTest = new LoadTest(options, dir);
+            loadTest.run();
+            loadTest.print();
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Load test failed", ex);
+            System.exit(1);
+        } finally {
+            if (options.getDir() == null && dir != null) {
+                deleteTree(dir);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param options what to generate
+     * @param dir     where to put the logs and the database, which is replaced
+     */
+    public LoadTest(LoadTestOptions options, Path dir) {
+        if (options == null) {
+            throw new IllegalArgumentException("LoadTestOptions cannot be null");
+        }
+        if (dir == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        this.options = options;
+        this.dir = dir;
+        this.url = "jdbc:h2:file:" + dir.toAbsolutePath().resolve("loadtest") + ";MODE=MySQL";
+    }
+
+    /**
+     * Generate the logs, create the database and run every phase.
+     *
+     * @throws IOException if the logs can't be written
+     */
+    public void run() throws IOException {
+        generate();
+        createDatabase();
+
+        phase("ProcessLog", (jpa, latency) -> {
+            CliOptions cliOptions = new CliOptions(Stream.concat(Stream.of("--null"),
+                    logFiles.stream().map(Path::toString)).toArray(String[]::new));
+            ConfigData config = new ConfigRepository().load(jpa);
+            new ProcessLog(cliOptions, config, new TimedSink(new DatabaseSink(jpa), latency)).run();
+            return options.getRows();
+        });
+        phase("Rebuild", (jpa, latency) -> {
+            ConfigData config = new ConfigRepository().load(jpa);
+            jpa.setCommitLatency(latency);
+            new Rebuild(jpa, config, options.getThreads(), RebuildOptions.PARTITION_ID).run();
+            return jpa.countRows();
+        });
+        phase("Check", (jpa, latency) -> {
+            new Check(jpa).run();
+            return jpa.countRows();
+        });
+        phase("DeleteOld", (jpa, latency) -> {
+            jpa.setCommitLatency(latency);
+            return new DeleteOld(jpa, new DeleteOldOptions(new String[0])).run();
+        });
+    }
+
+    /**
+     * Write the rotated log files.
+     */
+    private void generate() throws IOException {
+        long perFile = Math.max(1, options.getRows() / options.getFiles());
+        int overlap = (int) (perFile * options.getOverlap());
+        // Start so the retention cutoff falls half way through, at about a line a second
+        Instant start = Instant.now().minus(Duration.ofDays(DeleteOld.MAX_AGE))
+                .minusSeconds(options.getRows() / 2);
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(options.getSeed(), options.getIps(),
+                options.getUrls(), options.getAgents(), options.getBotRatio(), 0.35, start);
+
+        long begin = System.nanoTime();
+        List<String> previousTail = List.of();
+        long written = 0;
+        for (int file = 0; file < options.getFiles(); file++) {
+            long lines = file == options.getFiles() - 1 ? options.getRows() - written : perFile;
+            Path path = dir.resolve("access.log." + (options.getFiles() - 1 - file));
+            ArrayDeque<String> tail = new ArrayDeque<>(overlap + 1);
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                Iterator<String> repeated = previousTail.iterator();
+                for (long i = 0; i < lines; i++) {
+                    String line = repeated.hasNext() ? repeated.next() : generator.nextLine();
+                    writer.write(line);
+                    writer.newLine();
+                    if (overlap > 0) {
+                        if (tail.size() == overlap) {
+                            tail.removeFirst();
+                        }
+                        tail.addLast(line);
+                    }
+                }
+            }
+            previousTail = new ArrayList<>(tail);
+            written += lines;
+            logFiles.add(path);
+        }
+        System.out.printf("Generated %,d lines in %d files in %,.1f s.%n%n", written, logFiles.size(),
+                (System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * Create the schema from the entities and load a rule set like our own.
+     */
+    private void createDatabase() {
+        for (String suffix : new String[]{".mv.db", ".trace.db"}) {
+            try {
+                Files.deleteIfExists(dir.resolve("loadtest" + suffix));
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to delete the old database", ex);
+            }
+        }
+        JpaAccess jpa = new JpaAccess(url, DB_USER, DB_PASSWORD, "create");
+        try {
+            addRules(jpa, "DeleteUrls", "url", "/wp-content/", "/wp-includes/", "/wp-cron.php");
+            addRules(jpa, "DeleteMethods", "method", "TRACE", "CONNECT");
+            addRules(jpa, "IgnoreUrls", "url", "/wp-login.php", "/xmlrpc.php", "/wp-admin/");
+            addRules(jpa, "IgnoreServers", "server", "staging.");
+            addRules(jpa, "IgnoreMethods", "method", "OPTIONS", "PROPFIND");
+            jpa.commit();
+        } finally {
+            jpa.close();
+        }
+    }
+
+    private static void addRules(JpaAccess jpa, String table, String column, String... values) {
+        jpa.doReturningWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO " + table + " (" + column + ", description) VALUES (?, 'load test')")) {
+                for (String value : values) {
+                    ps.setString(1, value);
+                    ps.addBatch();
+                }
+                return ps.executeBatch().length;
+            }
+        });
+    }
+
+    /**
+     * Run one phase with its own JpaAccess, measuring it.
+     */
+    private void phase(String name, PhaseWork work) throws IOException {
+        System.out.println("**** " + name + " ****");
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).toList();
+        System.gc();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long start = System.nanoTime();
+        JpaAccess jpa = new JpaAccess(url, DB_USER, DB_PASSWORD, "none");
+        long startup = System.nanoTime() - start;
+        long rows;
+        try {
+            rows = work.run(jpa, latency);
+        } finally {
+            // A phase may have closed it already, e.g. through a sink; closing again does nothing
+            jpa.close();
+        }
+        long runNanos = System.nanoTime() - start - startup;
+        long poolPeaks = pools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        phases.add(new Phase(name, rows, startup, runNanos, latency, poolPeaks));
+        System.out.println();
+    }
+
+    /**
+     * Print the table of results.
+     */
+    public void print() {
+        System.out.printf("%-12s %12s %10s %10s %12s %10s %10s %10s %13s%n", "Phase", "Rows", "Startup s",
+                "Run s", "Rows/s", "Batches", "p50 ms", "p99 ms", "Pool peaks MB");
+        for (Phase phase : phases) {
+            LatencyHistogram latency = phase.latency();
+            System.out.printf("%-12s %,12d %10.1f %10.1f %,12.0f %,10d %10s %10s %,13d%n", phase.name(),
+                    phase.rows(), phase.startupNanos() / 1e9, phase.runNanos() / 1e9, phase.getRowsPerSecond(),
+                    latency.getCount(), percentile(latency, 50), percentile(latency, 99),
+                    phase.poolPeaks() / (1024 * 1024));
+        }
+        System.out.println("Batches are sink batches of 1000 rows for ProcessLog and commits for the others.");
+        System.out.println("Pool peaks is the sum of each heap pool's peak, an upper bound on the peak heap.");
+    }
+
+    private static String percentile(LatencyHistogram latency, double percentile) {
+        if (latency.getCount() == 0) {
+            return "-";
+        }
+        return String.format("%.2f", LatencyHistogram.toMillis(latency.getPercentile(percentile)));
+    }
+
+    /**
+     * @return the phases measured so far
+     */
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    private static void deleteTree(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ex) {
+            System.err.println("Unable to delete " + dir + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Times each batch handed to a sink.
+     */
+    private static class TimedSink implements LogSink {
+
+        private final LogSink sink;
+        private final LatencyHistogram latency;
+
+        TimedSink(LogSink sink, LatencyHistogram latency) {
+            this.sink = sink;
+            this.latency = latency;
+        }
+
+        @Override
+        public int accept(List<RowStringStorage> rows) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return sink.accept(rows);
+            } finally {
+                latency.recordSince(start);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            try {
+                sink.flush();
+            } finally {
+                latency.recordSince(start);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            sink.close();
+        }
+    }
+}
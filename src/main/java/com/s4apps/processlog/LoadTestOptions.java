@@ -0,0 +1,226 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for LoadTest.
+ *
+ * @author mat
+ */
+public class LoadTestOptions {
+
+    private long rows = 1_000_000;
+    private int files = 4;
+    private int ips = 20_000;
+    private int urls = 5_000;
+    private int agents = 2_000;
+    private double botRatio = 0.3;
+    private double overlap = 0.1;
+    private long seed = 1;
+    private int threads = 1;
+    private String dir = null;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public LoadTestOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        opt = new Option("r", "rows", true, "lines to generate across all the files (default " + rows + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option("f", "files", true, "log files to split the lines into (default " + files + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option(null, "ips", true, "distinct IPs (default " + ips + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option(null, "urls", true, "distinct URLs (default " + urls + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option(null, "agents", true, "distinct user agents (default " + agents + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option("b", "bot-ratio", true, "share of lines from bots, 0 to 1 (default " + botRatio + ")");
+        opt.setArgName("ratio");
+        options.addOption(opt);
+
+        opt = new Option("o", "overlap", true, "share of each file that repeats the end of the one before, as"
+                + " when rotated logs overlap, 0 to 1 (default " + overlap + ")");
+        opt.setArgName("ratio");
+        options.addOption(opt);
+
+        opt = new Option("s", "seed", true, "random seed (default " + seed + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option("j", "threads", true, "Rebuild worker threads (default " + threads + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        opt = new Option("d", "dir", true, "where to put the logs and the database (default a new temporary"
+                + " directory, deleted afterwards)");
+        opt.setArgName("dir");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        try {
+            if (cmd.hasOption("r")) {
+                rows = Long.parseLong(cmd.getOptionValue("r"));
+            }
+            if (cmd.hasOption("f")) {
+                files = Integer.parseInt(cmd.getOptionValue("f"));
+            }
+            if (cmd.hasOption("ips")) {
+                ips = Integer.parseInt(cmd.getOptionValue("ips"));
+            }
+            if (cmd.hasOption("urls")) {
+                urls = Integer.parseInt(cmd.getOptionValue("urls"));
+            }
+            if (cmd.hasOption("agents")) {
+                agents = Integer.parseInt(cmd.getOptionValue("agents"));
+            }
+            if (cmd.hasOption("b")) {
+                botRatio = Double.parseDouble(cmd.getOptionValue("b"));
+            }
+            if (cmd.hasOption("o")) {
+                overlap = Double.parseDouble(cmd.getOptionValue("o"));
+            }
+            if (cmd.hasOption("s")) {
+                seed = Long.parseLong(cmd.getOptionValue("s"));
+            }
+            if (cmd.hasOption("j")) {
+                threads = Integer.parseInt(cmd.getOptionValue("j"));
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println("Invalid number: " + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+        dir = cmd.getOptionValue("d");
+
+        if (rows < 1 || files < 1 || ips < 1 || urls < 1 || agents < 1 || threads < 1) {
+            System.err.println("--rows, --files, --ips, --urls, --agents and --threads must be at least 1");
+            System.exit(1);
+        }
+        if (botRatio < 0 || botRatio > 1 || overlap < 0 || overlap >= 1) {
+            System.err.println("--bot-ratio must be from 0 to 1 and --overlap from 0 to below 1");
+            System.exit(1);
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("LoadTest [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the lines to generate
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of log files
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the number of distinct IPs
+     */
+    public int getIps() {
+        return ips;
+    }
+
+    /**
+     * @return the number of distinct URLs
+     */
+    public int getUrls() {
+        return urls;
+    }
+
+    /**
+     * @return the number of distinct user agents
+     */
+    public int getAgents() {
+        return agents;
+    }
+
+    /**
+     * @return the share of lines from bots
+     */
+    public double getBotRatio() {
+        return botRatio;
+    }
+
+    /**
+     * @return the share of each file repeated from the one before
+     */
+    public double getOverlap() {
+        return overlap;
+    }
+
+    /**
+     * @return the random seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the Rebuild worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the working directory, or null for a temporary one
+     */
+    public String getDir() {
+        return dir;
+    }
+}
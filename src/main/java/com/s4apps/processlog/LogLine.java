@@ -0,0 +1,486 @@
+package com.s4apps.processlog;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A reusable view of one log line that holds where each column is in the
+ * line rather than a copy of it. ProcessLog parses every line into the same
+ * LogLine, checks the delete rules on the slices of the line, and only makes
+ * a RowStringStorage (with toRow) for the rows that are kept, so a deleted
+ * row costs no more than the line itself.
+ *
+ * The columns are the ones RowStringStorage holds: the request is split into
+ * method, URL, query string and HTTP version, and the date is converted to
+ * UTC when it is read. A column whose slice isn't its value, because it has a
+ * backslash escape or a quote or bracket inside it, is copied out as it is
+ * parsed; that's rare in real logs.
+ *
+ * @author mat
+ */
+public class LogLine {
+
+    // The field of the line with the date, and the one with the request
+    private static final int FIELD_DATE = 4;
+    private static final int FIELD_REQUEST = 5;
+
+    // The columns the rules and getters use, numbered as in RowStringStorage
+    private static final int COL_IP = 0;
+    private static final int COL_DATE = 3;
+    private static final int COL_METHOD = 4;
+    private static final int COL_URL = 5;
+    private static final int COL_RESPONSE = 8;
+    private static final int COL_SIZE = 9;
+    private static final int COL_SERVER = 10;
+
+    // The position of each part of a date such as "22/Mar/2026:01:57:33 +0100"
+    private static final int DATE_LENGTH = 26;
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    // Longer sizes than this don't fit a long
+    private static final int MAX_DIGITS = 18;
+
+    private static final DateTimeFormatter INPUT_DATE = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z",
+            Locale.ENGLISH);
+
+    private String line;
+    private int columnCount;
+
+    // Where each column starts and ends in the line
+    private int[] starts = new int[RowStringStorage.MAX_COLUMNS];
+    private int[] ends = new int[RowStringStorage.MAX_COLUMNS];
+
+    // The value of a column that couldn't be sliced, otherwise null
+    private String[] copied = new String[RowStringStorage.MAX_COLUMNS];
+
+    /**
+     * Parse a line, replacing whatever this view held before.
+     *
+     * Sample input line:
+     * 82.165.86.0 - - [22/Mar/2026:01:57:33 +0100] "POST /wp-cron.php?doing_wp_cron=1774141053.2702050209045410156250 HTTP/1.1" 200 - 7upman.com "-" "WordPress/6.9.4; http://7upman.com" "-"
+     *
+     * Fields are split on spaces outside brackets and quotes. The brackets and
+     * quotes themselves are dropped, and a backslash keeps the next character
+     * whatever it is.
+     *
+     * @param line the line
+     */
+    public void parse(String line) {
+        for (int i = 0; i < columnCount; i++) {
+            copied[i] = null;
+        }
+        this.line = line;
+        columnCount = 0;
+
+        boolean inBracket = false;
+        boolean inQuote = false;
+        boolean escaped = false;
+        int fieldNumber = 0;
+        int fieldStart = 0;
+
+        // The kept characters of the current field so far, and whether any
+        // were dropped between them
+        int first = -1;
+        int last = -1;
+        boolean gap = false;
+        boolean sliceable = true;
+
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            boolean kept;
+
+            if (escaped) {
+                kept = true;
+                escaped = false;
+            } else if (ch == '\\') {
+                kept = false;
+                escaped = true;
+                sliceable = false;
+            } else if (ch == ' ' && !inBracket && !inQuote) {
+                fieldNumber++;
+                endField(fieldNumber, fieldStart, i, first, last, sliceable);
+                fieldStart = i + 1;
+                first = -1;
+                last = -1;
+                gap = false;
+                sliceable = true;
+                continue;
+            } else if (ch == '[') {
+                kept = false;
+                inBracket = true;
+            } else if (ch == ']') {
+                kept = false;
+                inBracket = false;
+            } else if (ch == '"') {
+                kept = false;
+                inQuote = !inQuote;
+            } else {
+                kept = true;
+            }
+
+            if (kept) {
+                if (first < 0) {
+                    first = i;
+                } else if (gap) {
+                    sliceable = false;
+                }
+                last = i;
+                gap = false;
+            } else if (first >= 0) {
+                gap = true;
+            }
+        }
+
+        fieldNumber++;
+        endField(fieldNumber, fieldStart, line.length(), first, last, sliceable);
+    }
+
+    /**
+     * Add the columns of the field from fieldStart to fieldEnd, whose kept
+     * characters run from first to last, or -1 if it has none.
+     */
+    private void endField(int fieldNumber, int fieldStart, int fieldEnd, int first, int last, boolean sliceable) {
+        if (!sliceable) {
+            endCopiedField(fieldNumber, fieldText(fieldStart, fieldEnd));
+            return;
+        }
+
+        int start = first < 0 ? fieldEnd : first;
+        int end = first < 0 ? fieldEnd : last + 1;
+        if (fieldNumber != FIELD_REQUEST) {
+            addColumn(start, end);
+            return;
+        }
+
+        // Split the request into method, URL, query string and HTTP version
+        int space = line.indexOf(' ', start, end);
+        if (space < 0) {
+            endCopiedField(fieldNumber, line.substring(start, end));
+            return;
+        }
+        int urlStart = space + 1;
+        int urlEnd = end;
+        int versionStart = end;
+        space = line.indexOf(' ', urlStart, end);
+        if (space > urlStart) {
+            versionStart = space + 1;
+            urlEnd = space;
+        }
+        int queryStart = urlEnd;
+        int question = line.indexOf('?', urlStart, urlEnd);
+        if (question > urlStart) {
+            queryStart = question + 1;
+        }
+
+        addColumn(start, urlStart - 1);
+        addColumn(urlStart, question > urlStart ? question : urlEnd);
+        addColumn(queryStart, urlEnd);
+        addColumn(versionStart, end);
+    }
+
+    /**
+     * Add the columns of a field that can't be sliced from the line.
+     */
+    private void endCopiedField(int fieldNumber, String param) {
+        if (fieldNumber == FIELD_DATE) {
+            addCopiedColumn(toUtc(param));
+            return;
+        }
+        if (fieldNumber != FIELD_REQUEST) {
+            addCopiedColumn(param);
+            return;
+        }
+
+        int spcLoc = param.indexOf(' ');
+        String firstStr = param.substring(0, spcLoc);
+        String secondStr = param.substring(spcLoc + 1);
+        String fourthStr = "";
+        spcLoc = secondStr.indexOf(' ');
+        if (spcLoc > 0) {
+            fourthStr = secondStr.substring(spcLoc + 1);
+            secondStr = secondStr.substring(0, spcLoc);
+        }
+        String thirdStr = "";
+        spcLoc = secondStr.indexOf('?');
+        if (spcLoc > 0) {
+            thirdStr = secondStr.substring(spcLoc + 1);
+            secondStr = secondStr.substring(0, spcLoc);
+        }
+
+        addCopiedColumn(firstStr);
+        addCopiedColumn(secondStr);
+        addCopiedColumn(thirdStr);
+        addCopiedColumn(fourthStr);
+    }
+
+    /**
+     * The text of a field with the brackets, quotes and escapes taken out.
+     */
+    private String fieldText(int fieldStart, int fieldEnd) {
+        StringBuilder field = new StringBuilder();
+        boolean escaped = false;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            char ch = line.charAt(i);
+            if (escaped) {
+                field.append(ch);
+                escaped = false;
+            } else if (ch == '\\') {
+                escaped = true;
+            } else if (ch != '[' && ch != ']' && ch != '"') {
+                field.append(ch);
+            }
+        }
+        return field.toString();
+    }
+
+    private void addColumn(int start, int end) {
+        starts[columnCount] = start;
+        ends[columnCount] = end;
+        columnCount++;
+    }
+
+    private void addCopiedColumn(String value) {
+        copied[columnCount] = value;
+        columnCount++;
+    }
+
+    /**
+     * Get a column, making its String.
+     *
+     * @param column the column, numbered as in RowStringStorage
+     * @return the value, or null if the line has fewer columns
+     */
+    String column(int column) {
+        if (column >= columnCount) {
+            return null;
+        }
+        if (copied[column] != null) {
+            return copied[column];
+        }
+        if (column == COL_DATE) {
+            return ToolsAndConstants.formatEpochSecond(getEpochSecond());
+        }
+        return line.substring(starts[column], ends[column]);
+    }
+
+    /**
+     * Convert a date with a timezone offset, such as "22/Mar/2026:01:57:33 +0100",
+     * to UTC in ToolsAndConstants.DATE_FORMAT_STRING form.
+     */
+    private static String toUtc(String date) {
+        return ToolsAndConstants.formatEpochSecond(OffsetDateTime.parse(date, INPUT_DATE).toEpochSecond());
+    }
+
+    /**
+     * Read the date without making any Strings. Dates that aren't in the
+     * usual form go through a DateTimeFormatter, which throws if they aren't
+     * dates at all.
+     *
+     * @return the time, or ToolsAndConstants.NO_DATE if the line has no date
+     */
+    public long getEpochSecond() {
+        if (COL_DATE >= columnCount) {
+            return ToolsAndConstants.NO_DATE;
+        }
+        if (copied[COL_DATE] != null) {
+            return ToolsAndConstants.parseEpochSecond(copied[COL_DATE]);
+        }
+        int start = starts[COL_DATE];
+        int end = ends[COL_DATE];
+        long epochSecond = end - start == DATE_LENGTH ? parseDate(start) : ToolsAndConstants.NO_DATE;
+        if (epochSecond == ToolsAndConstants.NO_DATE) {
+            epochSecond = OffsetDateTime.parse(line.substring(start, end), INPUT_DATE).toEpochSecond();
+        }
+        return epochSecond;
+    }
+
+    /**
+     * Parse a date in the usual form starting at the given position.
+     *
+     * @return the time, or NO_DATE if it isn't in the usual form
+     */
+    private long parseDate(int start) {
+        int day = ToolsAndConstants.digits(line, start, 2);
+        int month = 0;
+        for (int i = 0; i < 12 && month == 0; i++) {
+            if (line.regionMatches(start + 3, MONTHS, i * 3, 3)) {
+                month = i + 1;
+            }
+        }
+        int year = ToolsAndConstants.digits(line, start + 7, 4);
+        int hour = ToolsAndConstants.digits(line, start + 12, 2);
+        int minute = ToolsAndConstants.digits(line, start + 15, 2);
+        int second = ToolsAndConstants.digits(line, start + 18, 2);
+        int offsetHours = ToolsAndConstants.digits(line, start + 22, 2);
+        int offsetMinutes = ToolsAndConstants.digits(line, start + 24, 2);
+        char sign = line.charAt(start + 21);
+        if (line.charAt(start + 2) != '/' || line.charAt(start + 6) != '/' || line.charAt(start + 11) != ':'
+                || line.charAt(start + 14) != ':' || line.charAt(start + 17) != ':'
+                || line.charAt(start + 20) != ' ' || (sign != '+' && sign != '-')
+                || month < 1 || year < 0 || day < 1
+                || day > ToolsAndConstants.lengthOfMonth(year, month) || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59
+                || offsetHours < 0 || offsetHours > 18 || offsetMinutes < 0 || offsetMinutes > 59) {
+            return ToolsAndConstants.NO_DATE;
+        }
+        int offset = offsetHours * 3600 + offsetMinutes * 60;
+        return ToolsAndConstants.epochSecond(year, month, day, hour, minute, second)
+                - (sign == '+' ? offset : -offset);
+    }
+
+    /**
+     * @return the response code, or ToolsAndConstants.NO_RESPONSE if there
+     *         isn't a number there
+     */
+    public int getResponseCode() {
+        long response = number(COL_RESPONSE);
+        return response < 0 || response > Integer.MAX_VALUE ? ToolsAndConstants.NO_RESPONSE : (int) response;
+    }
+
+    /**
+     * @return the size in bytes, or ToolsAndConstants.NO_SIZE if it is "-" or
+     *         isn't a number
+     */
+    public long getSizeBytes() {
+        return number(COL_SIZE);
+    }
+
+    /**
+     * Read a column of decimal digits without making a String.
+     *
+     * @return the number, or -1 if the column is missing, empty or not a number
+     */
+    private long number(int column) {
+        if (column >= columnCount) {
+            return -1;
+        }
+        String source = copied[column] != null ? copied[column] : line;
+        int start = copied[column] != null ? 0 : starts[column];
+        int end = copied[column] != null ? source.length() : ends[column];
+        if (end == start || end - start > MAX_DIGITS) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char ch = source.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return how many columns the line has
+     */
+    int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return the date as UTC, in ToolsAndConstants.DATE_FORMAT_STRING form
+     */
+    public String getDate() {
+        return column(COL_DATE);
+    }
+
+    /**
+     * @return the URL, without the query string
+     */
+    public String getUrl() {
+        return ToolsAndConstants.nullToEmpty(column(COL_URL));
+    }
+
+    /**
+     * Check the row against the delete rules in the same way as
+     * RowStringStorage.isDeleteRow, but on the slices of the line.
+     *
+     * @param cd the rules
+     * @return true if the row should not be written
+     */
+    public boolean isDeleteRow(ConfigData cd) {
+        return matchesAny(COL_IP, cd.ipsToDelete(), false, false)
+                || matchesAny(COL_URL, cd.urlsToDelete(), true, false)
+                || matchesAny(COL_SERVER, cd.serversToDelete(), true, false)
+                || matchesAny(COL_METHOD, cd.methodsToDelete(), false, true);
+    }
+
+    /**
+     * Does the column, folded to lower (or upper) case, equal or start with
+     * any of the values? Only the column is folded; the values are compared as
+     * stored, as RowStringStorage does. A missing column is empty, as
+     * RowStringStorage's getters give it.
+     */
+    private boolean matchesAny(int column, List<String> values, boolean prefix, boolean upperCase) {
+        if (values.isEmpty()) {
+            return false;
+        }
+        String source;
+        int start;
+        int length;
+        if (column >= columnCount) {
+            source = "";
+            start = 0;
+            length = 0;
+        } else if (copied[column] != null) {
+            source = copied[column];
+            start = 0;
+            length = source.length();
+        } else {
+            source = line;
+            start = starts[column];
+            length = ends[column] - start;
+        }
+
+        for (String value : values) {
+            int valueLength = value.length();
+            if ((prefix ? valueLength <= length : valueLength == length)
+                    && foldedRegionMatches(source, start, value, upperCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean foldedRegionMatches(String source, int start, String value, boolean upperCase) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = source.charAt(start + i);
+            char folded = upperCase ? Character.toUpperCase(c) : Character.toLowerCase(c);
+            if (folded != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make a row of this line that keeps its columns as slices until they are
+     * read, so this view can go on to the next line.
+     *
+     * @param cd the rules the row should carry
+     * @return the row
+     */
+    public RowStringStorage toRow(ConfigData cd) {
+        LogLine copy = new LogLine();
+        copy.line = line;
+        copy.columnCount = columnCount;
+        copy.starts = starts.clone();
+        copy.ends = ends.clone();
+        copy.copied = copied.clone();
+        return new RowStringStorage(cd, copy);
+    }
+
+    /**
+     * Push every column into a row, as the parser used to.
+     *
+     * @param row the row to fill
+     */
+    void pushTo(RowStringStorage row) {
+        for (int i = 0; i < columnCount; i++) {
+            row.pushCol(column(i));
+        }
+    }
+}
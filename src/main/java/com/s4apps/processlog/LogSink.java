@@ -0,0 +1,40 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Somewhere ProcessLog can write parsed rows. Rows are handed over in batches
+ * so that each sink can write them in whatever bulk form suits it best.
+ *
+ * @author mat
+ */
+public interface LogSink extends AutoCloseable {
+
+    /**
+     * Write a batch of rows. Rows matching a delete rule have already been
+     * dropped.
+     *
+     * @param rows the rows, in file order
+     * @return the number of rows written
+     * @throws IOException
+     */
+    int accept(List<RowStringStorage> rows) throws IOException;
+
+    /**
+     * Make everything accepted so far durable, e.g. commit. Called at the end
+     * of each input file, which is recorded in the import registry as soon as
+     * this returns, so no accepted row may be held back past it.
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flush and release the sink.
+     *
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+}
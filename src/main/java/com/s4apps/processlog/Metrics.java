@@ -0,0 +1,266 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small registry of counters, gauges and latency histograms, written in the
+ * Prometheus text format to a file for node_exporter's textfile collector.
+ * Each tool writes its own file (processlog.prom, rebuild.prom, ...) into
+ * the collector's directory, and every series carries a tool label so the
+ * files can share metric names. The file is replaced atomically at the end
+ * of a run and, for long runs, every minute while it goes.
+ *
+ * Recording is lock-free, so one registry can be shared by worker threads.
+ *
+ * @author mat
+ */
+public class Metrics implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    // How often a long run rewrites the file
+    public static final long DEFAULT_PERIOD_SECONDS = 60;
+
+    // Histogram buckets exported: every fourth power of two from 1 µs, which
+    // fall on LatencyHistogram bucket boundaries so the counts are exact
+    private static final int EXPORTED_BUCKET_STEP = 2;
+
+    private static final String PREFIX = "processlog_";
+
+    /**
+     * A count that only goes up.
+     */
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A value that is set.
+     */
+    public static class Gauge {
+        private volatile double value;
+
+        public void set(double value) {
+            this.value = value;
+        }
+
+        public double get() {
+            return value;
+        }
+    }
+
+    // One metric name and the series under it, one per label value
+    private record Family(String type, String help, String labelName, Map<String, Object> series) {
+    }
+
+    private final String tool;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private Path file = null;
+    private ScheduledExecutorService writer = null;
+
+    /**
+     * @param tool the tool label for every series, e.g. ProcessLog
+     */
+    public Metrics(String tool) {
+        if (tool == null) {
+            throw new IllegalArgumentException("Tool cannot be null");
+        }
+        this.tool = tool;
+    }
+
+    /**
+     * @param name the metric name, without the processlog_ prefix
+     * @param help what it counts
+     * @return the counter, created on first use
+     */
+    public Counter counter(String name, String help) {
+        return (Counter) series("counter", name, help, null, "", Counter::new);
+    }
+
+    /**
+     * @param name       the metric name, without the processlog_ prefix
+     * @param help       what it counts
+     * @param labelName  the label that tells the series apart
+     * @param labelValue this series' value of it
+     * @return the counter, created on first use
+     */
+    public Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) series("counter", name, help, labelName, labelValue, Counter::new);
+    }
+
+    /**
+     * @param name the metric name, without the processlog_ prefix
+     * @param help what it measures
+     * @return the gauge, created on first use
+     */
+    public Gauge gauge(String name, String help) {
+        return (Gauge) series("gauge", name, help, null, "", Gauge::new);
+    }
+
+    /**
+     * @param name the metric name, without the processlog_ prefix; exported
+     *             in seconds, so it should end _seconds
+     * @param help what it times
+     * @return the histogram, created on first use
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        return (LatencyHistogram) series("histogram", name, help, null, "", LatencyHistogram::new);
+    }
+
+    private synchronized Object series(String type, String name, String help, String labelName, String labelValue,
+            Supplier<Object> factory) {
+        Family family = families.computeIfAbsent(PREFIX + name,
+                key -> new Family(type, help, labelName, new LinkedHashMap<>()));
+        if (!family.type().equals(type)) {
+            throw new IllegalArgumentException(name + " is already a " + family.type());
+        }
+        return family.series().computeIfAbsent(labelValue, key -> factory.get());
+    }
+
+    /**
+     * Write the file every period from now on, and when closed.
+     *
+     * @param file          the .prom file to replace
+     * @param periodSeconds how often to write it
+     */
+    public synchronized void startWriting(Path file, long periodSeconds) {
+        this.file = file;
+        if (writer != null) {
+            return;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleAtFixedRate(() -> {
+            try {
+                writeFile();
+            } catch (IOException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Unable to write metrics to " + file, ex);
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Replace the file, if there is one, with the current values. The values
+     * are written to a temporary file that is then renamed, so the collector
+     * never reads half a file.
+     *
+     * @throws IOException
+     */
+    public void writeFile() throws IOException {
+        Path target;
+        synchronized (this) {
+            target = file;
+        }
+        if (target == null) {
+            return;
+        }
+        Path temp = target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write every metric in the Prometheus text format.
+     *
+     * @param out where to write them
+     * @throws IOException
+     */
+    public synchronized void write(Writer out) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.write("# HELP " + name + " " + family.help() + "\n");
+            out.write("# TYPE " + name + " " + family.type() + "\n");
+            for (Map.Entry<String, Object> series : family.series().entrySet()) {
+                String labels = "tool=\"" + tool + "\"";
+                if (family.labelName() != null) {
+                    labels += "," + family.labelName() + "=\"" + escape(series.getKey()) + "\"";
+                }
+                Object value = series.getValue();
+                if (value instanceof Counter counter) {
+                    out.write(name + "{" + labels + "} " + counter.get() + "\n");
+                } else if (value instanceof Gauge gauge) {
+                    out.write(name + "{" + labels + "} " + gauge.get() + "\n");
+                } else {
+                    writeHistogram(out, name, labels, (LatencyHistogram) value);
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer out, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        long cumulative = 0;
+        long exportedBound = 1_000;
+        for (int bucket = 0; bucket < histogram.getBuckets(); bucket++) {
+            cumulative += histogram.getBucketCount(bucket);
+            if (LatencyHistogram.upperBoundOf(bucket) == exportedBound) {
+                out.write(name + "_bucket{" + labels + ",le=\"" + exportedBound / 1e9 + "\"} " + cumulative + "\n");
+                exportedBound <<= EXPORTED_BUCKET_STEP;
+            }
+        }
+        out.write(name + "_bucket{" + labels + ",le=\"+Inf\"} " + histogram.getCount() + "\n");
+        out.write(name + "_sum{" + labels + "} " + histogram.getTotalNanos() / 1e9 + "\n");
+        out.write(name + "_count{" + labels + "} " + histogram.getCount() + "\n");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Stop the periodic writes, record how long the run took and write the
+     * file a last time.
+     */
+    @Override
+    public void close() {
+        gauge("run_duration_seconds", "How long the last run took").set((System.nanoTime() - startNanos) / 1e9);
+        gauge("last_run_timestamp_seconds", "When the last run finished")
+                .set(System.currentTimeMillis() / 1000.0);
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = writer;
+            writer = null;
+        }
+        if (stopping != null) {
+            stopping.shutdownNow();
+        }
+        try {
+            writeFile();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Unable to write metrics to " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.s4apps.processlog;
+
+import java.util.List;
+
+/**
+ * Discards every row, for timing the parser on its own.
+ *
+ * @author mat
+ */
+public class NullSink implements LogSink {
+
+    @Override
+    public int accept(List<RowStringStorage> rows) {
+        return 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,275 @@
+package com.s4apps.processlog;
+
+import com.github.luben.zstd.Zstd;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A compressing file output stream that splits what it is given into blocks
+ * and compresses them on a pool of threads, in the same way as pigz. Each
+ * block becomes an independent gzip member or zstd frame, and the file is
+ * their concatenation, which gunzip and zstd -d read as a single stream.
+ *
+ * Blocks are filled in direct buffers, compressed into direct buffers and
+ * written in order with FileChannel writes. The buffers are reused, and at
+ * most twice as many blocks as threads are in flight, so memory use is
+ * bounded whatever the size of the output.
+ *
+ * @author mat
+ */
+public class ParallelCompressedOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+
+    /**
+     * The supported formats.
+     */
+    public enum Codec {
+        GZIP(".gz", Deflater.DEFAULT_COMPRESSION),
+        ZSTD(".zst", 3);
+
+        private final String extension;
+        private final int level;
+
+        Codec(String extension, int level) {
+            this.extension = extension;
+            this.level = level;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * @param fileName a file name
+         * @return the codec its extension asks for, or null for none
+         */
+        public static Codec forFile(String fileName) {
+            for (Codec codec : values()) {
+                if (fileName.toLowerCase().endsWith(codec.extension)) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+    }
+
+    // A gzip member header: deflate, no flags, no time, unknown OS
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<>();
+
+    private final FileChannel channel;
+    private final Codec codec;
+    private final int blockSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Queue<Future<ByteBuffer>> pending = new ArrayDeque<>();
+    private final Queue<ByteBuffer> freeInputs = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> freeOutputs = new ConcurrentLinkedQueue<>();
+    private ByteBuffer current;
+    private long blocksWritten = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file  the file to create or replace
+     * @param codec how to compress it
+     * @throws IOException
+     */
+    public ParallelCompressedOutputStream(Path file, Codec codec) throws IOException {
+        this(file, codec, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param file      the file to create or replace
+     * @param codec     how to compress it
+     * @param blockSize the uncompressed size of each block
+     * @param threads   how many blocks to compress at once
+     * @throws IOException
+     */
+    public ParallelCompressedOutputStream(Path file, Codec codec, int blockSize, int threads) throws IOException {
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec cannot be null");
+        }
+        if (blockSize < 1 || threads < 1) {
+            throw new IllegalArgumentException("blockSize and threads must be positive");
+        }
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.maxPending = 2 * threads;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "compress-" + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.current = ByteBuffer.allocateDirect(blockSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (!current.hasRemaining()) {
+            submitBlock();
+        }
+        current.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                submitBlock();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compress and write everything so far. The partial block becomes a short
+     * member/frame of its own, so don't call this too often.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        if (current.position() > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            // An empty file isn't valid gzip, so there is always one block
+            if (current.position() > 0 || blocksWritten == 0 && pending.isEmpty()) {
+                submitBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeOldest();
+            }
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+            channel.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        ByteBuffer block = current;
+        block.flip();
+        pending.add(executor.submit(() -> compress(block)));
+
+        ByteBuffer next = freeInputs.poll();
+        current = next != null ? next : ByteBuffer.allocateDirect(blockSize);
+        while (pending.size() >= maxPending) {
+            writeOldest();
+        }
+    }
+
+    private void writeOldest() throws IOException {
+        ByteBuffer compressed;
+        try {
+            compressed = pending.remove().get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Unable to compress a block", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for compression", ex);
+        }
+        while (compressed.hasRemaining()) {
+            channel.write(compressed);
+        }
+        compressed.clear();
+        freeOutputs.add(compressed);
+        blocksWritten++;
+    }
+
+    private ByteBuffer compress(ByteBuffer input) throws IOException {
+        int length = input.remaining();
+        int bound = codec == Codec.ZSTD
+                ? (int) Zstd.compressBound(length)
+                : GZIP_HEADER.length + length + (length >> 3) + 64 + GZIP_TRAILER_LENGTH;
+        ByteBuffer output = freeOutputs.poll();
+        if (output == null || output.capacity() < bound) {
+            output = ByteBuffer.allocateDirect(Math.max(bound, blockSize + (blockSize >> 3) + 128));
+        }
+
+        if (codec == Codec.ZSTD) {
+            long size = Zstd.compressDirectByteBuffer(output, 0, output.capacity(), input, 0, length, codec.level);
+            if (Zstd.isError(size)) {
+                throw new IOException("zstd: " + Zstd.getErrorName(size));
+            }
+            output.limit((int) size);
+        } else {
+            gzipMember(input, output);
+        }
+
+        input.clear();
+        freeInputs.add(input);
+        return output;
+    }
+
+    private static void gzipMember(ByteBuffer input, ByteBuffer output) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(input.duplicate());
+        int length = input.remaining();
+
+        Deflater deflater = DEFLATERS.get();
+        if (deflater == null) {
+            deflater = new Deflater(Codec.GZIP.level, true);
+            DEFLATERS.set(deflater);
+        }
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+
+        output.put(GZIP_HEADER);
+        while (!deflater.finished()) {
+            if (output.remaining() <= GZIP_TRAILER_LENGTH) {
+                throw new IOException("Compressed block overflowed its buffer");
+            }
+            deflater.deflate(output);
+        }
+        output.order(ByteOrder.LITTLE_ENDIAN);
+        output.putInt((int) crc.getValue());
+        output.putInt(length);
+        output.order(ByteOrder.BIG_ENDIAN);
+        output.flip();
+    }
+}
@@ -0,0 +1,465 @@
+package com.s4apps.processlog;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps ApacheLogs RANGE COLUMNS partitioned on date, one partition per day or
+ * per month, so that retention can drop whole partitions instead of deleting
+ * rows one by one.
+ *
+ * The partition layout is:
+ * - p_start: LESS THAN '1970-01-02', never dropped.
+ * - p_YYYYMMDD or p_YYYYMM: one per day or month, named for the period they hold.
+ * - p_future: LESS THAN MAXVALUE, catching anything beyond the last period.
+ *
+ * MySQL requires every unique key to include the partitioning column, so a
+ * partitioned ApacheLogs has PRIMARY KEY (id, date). As the id is a hash of
+ * the row, date included, this is just as unique as the id alone.
+ *
+ * @author mat
+ */
+public class PartitionManager {
+
+    public static final String START_PARTITION = "p_start";
+    public static final String FUTURE_PARTITION = "p_future";
+
+    private static final String TABLE = "ApacheLogs";
+    private static final String NEW_TABLE = "ApacheLogs_new";
+    private static final String OLD_TABLE = "ApacheLogs_old";
+    private static final LocalDate START_BOUND = LocalDate.of(1970, 1, 2);
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern(ToolsAndConstants.DATE_FORMAT_STRING);
+
+    /**
+     * How much of the date range each partition holds.
+     */
+    public enum Granularity {
+        DAY("yyyyMMdd"),
+        MONTH("yyyyMM");
+
+        private final DateTimeFormatter nameFormat;
+
+        Granularity(String namePattern) {
+            this.nameFormat = DateTimeFormatter.ofPattern(namePattern);
+        }
+
+        /**
+         * @return the first day of the period holding the given day
+         */
+        LocalDate periodStart(LocalDate day) {
+            return this == DAY ? day : day.withDayOfMonth(1);
+        }
+
+        LocalDate nextPeriod(LocalDate periodStart) {
+            return this == DAY ? periodStart.plusDays(1) : periodStart.plusMonths(1);
+        }
+
+        String partitionName(LocalDate periodStart) {
+            return "p_" + periodStart.format(nameFormat);
+        }
+    }
+
+    /**
+     * One existing partition and its exclusive upper bound, which is null for
+     * p_future.
+     */
+    record Partition(String name, LocalDateTime upperBound) {
+    }
+
+    private final JpaAccess jpaAccess;
+
+    /**
+     * Entry point for migrating to, inspecting and extending the partitions.
+     *
+     * @param args the command line arguments, see PartitionOptions
+     */
+    public static void main(String[] args) {
+        PartitionOptions options = new PartitionOptions(args);
+
+        JpaAccess jpa = new JpaAccess();
+        try {
+            PartitionManager manager = new PartitionManager(jpa);
+            if (options.isMigrate()) {
+                manager.migrate(options.getGranularity(), options.getDaysAhead());
+            } else if (options.isSwap()) {
+                manager.swap(options.getDaysAhead());
+            } else if (options.isEnsure()) {
+                Granularity granularity = manager.getGranularity();
+                int created = manager.ensureFuturePartitions(
+                        granularity == null ? options.getGranularity() : granularity, options.getDaysAhead());
+                System.out.println("Created " + created + " partitions.");
+            }
+            manager.printStatus();
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to manage partitions, got error: " + ex.getMessage());
+            System.exit(1);
+        } finally {
+            jpa.close();
+        }
+    }
+
+    /**
+     * @param jpaAccess the database access object to run the DDL with
+     */
+    public PartitionManager(JpaAccess jpaAccess) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+    }
+
+    /**
+     * @return true if ApacheLogs is partitioned in the layout this class manages
+     */
+    public boolean isPartitioned() {
+        List<Partition> partitions = getPartitions();
+        return !partitions.isEmpty()
+                && partitions.get(partitions.size() - 1).name().equals(FUTURE_PARTITION);
+    }
+
+    /**
+     * Work out the granularity from the names of the existing partitions.
+     *
+     * @return the granularity, or null if there are no period partitions yet
+     */
+    public Granularity getGranularity() {
+        return granularityOf(getPartitions());
+    }
+
+    static Granularity granularityOf(List<Partition> partitions) {
+        for (Partition partition : partitions) {
+            if (isPeriodPartition(partition)) {
+                return partition.name().length() == "p_yyyyMMdd".length() ? Granularity.DAY : Granularity.MONTH;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make sure there are partitions for every period up to and including the
+     * one holding today plus daysAhead, by splitting them off p_future. As
+     * p_future is normally empty this moves no rows.
+     *
+     * @param granularity the granularity to create new partitions with
+     * @param daysAhead   how many days beyond today to cover
+     * @return the number of partitions created
+     */
+    public int ensureFuturePartitions(Granularity granularity, int daysAhead) {
+        List<String> definitions = futurePartitions(getPartitions(), granularity, LocalDate.now(), daysAhead);
+        if (definitions.isEmpty()) {
+            return 0;
+        }
+        jpaAccess.executeDdl(reorganizeFuture(definitions));
+        return definitions.size();
+    }
+
+    /**
+     * The partitions to split off p_future so that every period up to the
+     * one holding today plus daysAhead has one.
+     *
+     * @param partitions  the existing partitions
+     * @param granularity the granularity to create new partitions with
+     * @param today       the current date
+     * @param daysAhead   how many days beyond today to cover
+     * @return the new partitions' definitions, in order
+     */
+    static List<String> futurePartitions(List<Partition> partitions, Granularity granularity, LocalDate today,
+            int daysAhead) {
+        LocalDate next = null;
+        for (Partition partition : partitions) {
+            if (isPeriodPartition(partition)) {
+                next = partition.upperBound().toLocalDate();
+            }
+        }
+        if (next == null) {
+            // Only p_start and p_future so far, so start from now
+            next = granularity.periodStart(today);
+        }
+
+        // If the granularity has changed the first new period may start before
+        // the last bound; its partition then just covers the rest of the period.
+        LocalDate last = granularity.periodStart(today.plusDays(daysAhead));
+        List<String> definitions = new ArrayList<>();
+        for (LocalDate period = granularity.periodStart(next); !period.isAfter(last);
+                period = granularity.nextPeriod(period)) {
+            definitions.add(partitionDefinition(granularity.partitionName(period), granularity.nextPeriod(period)));
+        }
+        return definitions;
+    }
+
+    /**
+     * @param definitions the partitions to split off p_future
+     * @return the statement that does it, keeping p_future at the end
+     */
+    static String reorganizeFuture(List<String> definitions) {
+        return "ALTER TABLE " + TABLE + " REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO ("
+                + String.join(", ", definitions) + ", PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN (MAXVALUE))";
+    }
+
+    /**
+     * Drop every period partition that holds only rows dated before the cutoff.
+     * Rows before the cutoff in the partition that straddles it are left for
+     * ChunkedDeleter.
+     *
+     * @param cutoff the retention cutoff
+     * @return the names of the partitions dropped
+     */
+    public List<String> dropExpired(LocalDateTime cutoff) {
+        List<Partition> expired = expiredPartitions(getPartitions(), cutoff);
+        List<String> names = new ArrayList<>();
+        for (Partition partition : expired) {
+            names.add(partition.name());
+        }
+
+        if (!expired.isEmpty()) {
+            jpaAccess.executeDdl("ALTER TABLE " + TABLE + " DROP PARTITION " + String.join(", ", names));
+            // The rows were never read, so the summaries are told by date
+            jpaAccess.rowsDroppedBefore(expired.get(expired.size() - 1).upperBound());
+            jpaAccess.commit();
+        }
+        return names;
+    }
+
+    /**
+     * @param partitions the existing partitions, in order
+     * @param cutoff     the retention cutoff
+     * @return the period partitions whose upper bound is on or before the
+     *         cutoff, in order; never p_start or p_future
+     */
+    static List<Partition> expiredPartitions(List<Partition> partitions, LocalDateTime cutoff) {
+        List<Partition> expired = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (isPeriodPartition(partition) && !partition.upperBound().isAfter(cutoff)) {
+                expired.add(partition);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * First step of the one-time migration of an unpartitioned ApacheLogs. The
+     * rows are copied a day at a time into a new partitioned table,
+     * ApacheLogs_new, committing after each day so the live table stays
+     * usable. Imports can carry on meanwhile; swap() picks up what they add.
+     *
+     * The partitioned table's primary key needs a date, so this refuses to
+     * start while there are rows without one.
+     *
+     * @param granularity the partition granularity
+     * @param daysAhead   how many days beyond today to create partitions for
+     */
+    public void migrate(Granularity granularity, int daysAhead) {
+        if (isPartitioned()) {
+            throw new IllegalStateException(TABLE + " is already partitioned");
+        }
+        if (jpaAccess.tableExists(NEW_TABLE)) {
+            throw new IllegalStateException(NEW_TABLE + " already exists: run --swap to finish the migration,"
+                    + " or drop it to start again");
+        }
+        checkNoUndatedRows();
+
+        LocalDateTime[] range = jpaAccess.getDateRange();
+        LocalDate first = range[0] == null ? LocalDate.now() : range[0].toLocalDate();
+        LocalDate last = range[1] == null ? LocalDate.now() : range[1].toLocalDate();
+
+        // Build the empty partitioned copy
+        System.out.println("Creating " + NEW_TABLE);
+        jpaAccess.executeDdl("CREATE TABLE " + NEW_TABLE + " LIKE " + TABLE);
+        jpaAccess.executeDdl(partitionNewTable(granularity, first, LocalDate.now(), daysAhead));
+
+        // Copy the rows a day at a time
+        ProgressReporter progress = new ProgressReporter("days", ChronoUnit.DAYS.between(first, last) + 1);
+        for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+            copyDay(day);
+            progress.add(1);
+            progress.maybePrint();
+        }
+        progress.printFinal();
+        System.out.println("Copied. Pause imports, rebuilds and deletes, then run --swap.");
+    }
+
+    /**
+     * @param granularity the partition granularity
+     * @param first       the day of the oldest row
+     * @param today       the current date
+     * @param daysAhead   how many days beyond today to create partitions for
+     * @return the statement that partitions ApacheLogs_new: p_start, a
+     *         partition per period from the one holding first to the one
+     *         holding today plus daysAhead, then p_future
+     */
+    static String partitionNewTable(Granularity granularity, LocalDate first, LocalDate today, int daysAhead) {
+        List<String> definitions = new ArrayList<>();
+        definitions.add(partitionDefinition(START_PARTITION, START_BOUND));
+        LocalDate lastPeriod = granularity.periodStart(today.plusDays(daysAhead));
+        for (LocalDate period = granularity.periodStart(first); !period.isAfter(lastPeriod);
+                period = granularity.nextPeriod(period)) {
+            definitions.add(partitionDefinition(granularity.partitionName(period), granularity.nextPeriod(period)));
+        }
+        definitions.add("PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+        return "ALTER TABLE " + NEW_TABLE
+                + " MODIFY date DATETIME NOT NULL, DROP PRIMARY KEY, ADD PRIMARY KEY (id, date)"
+                + " PARTITION BY RANGE COLUMNS(date) (" + String.join(", ", definitions) + ")";
+    }
+
+    /**
+     * Final step of the migration, to be run with imports, rebuilds and
+     * deletes paused. Every day whose row count differs between the two
+     * tables, because rows were imported or deleted during the copy, is
+     * copied again. If the tables then hold the same number of rows they are
+     * swapped with a single atomic RENAME; otherwise nothing is swapped. The
+     * old table is kept as ApacheLogs_old until it has been checked and
+     * dropped by hand.
+     *
+     * Flags rewritten by a Rebuild during the copy aren't picked up, so run
+     * Rebuild again after the swap if one ran.
+     *
+     * @param daysAhead how many days beyond today to create partitions for
+     */
+    public void swap(int daysAhead) {
+        if (isPartitioned()) {
+            throw new IllegalStateException(TABLE + " is already partitioned");
+        }
+        if (!jpaAccess.tableExists(NEW_TABLE)) {
+            throw new IllegalStateException(NEW_TABLE + " doesn't exist: run --migrate first");
+        }
+        checkNoUndatedRows();
+
+        List<LocalDate> changed = daysToRecopy(countByDay(TABLE), countByDay(NEW_TABLE));
+        System.out.println("Copying " + changed.size() + " changed days again");
+        for (LocalDate day : changed) {
+            jpaAccess.executeNativeUpdate("DELETE FROM " + NEW_TABLE + " WHERE date >= ? AND date < ?",
+                    day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+            copyDay(day);
+        }
+
+        long rows = countRows(TABLE);
+        long copied = countRows(NEW_TABLE);
+        if (rows != copied) {
+            throw new IllegalStateException(TABLE + " has " + rows + " rows but " + NEW_TABLE + " has " + copied
+                    + "; not swapping. Make sure nothing is writing to " + TABLE + " and run --swap again");
+        }
+
+        jpaAccess.executeDdl("RENAME TABLE " + TABLE + " TO " + OLD_TABLE + ", " + NEW_TABLE + " TO " + TABLE);
+        int created = ensureFuturePartitions(getGranularity(), daysAhead);
+        System.out.println("Swapped " + rows + " rows" + (created > 0 ? ", created " + created + " partitions" : "")
+                + ". Check the table, then DROP TABLE " + OLD_TABLE + ".");
+    }
+
+    /**
+     * Work out which days to copy again: those whose counts differ, including
+     * days only one of the tables has.
+     *
+     * @param live   rows per day in the live table
+     * @param copied rows per day in the copy
+     * @return the days to copy again, in order
+     */
+    static List<LocalDate> daysToRecopy(Map<LocalDate, Long> live, Map<LocalDate, Long> copied) {
+        TreeSet<LocalDate> days = new TreeSet<>(live.keySet());
+        days.addAll(copied.keySet());
+        List<LocalDate> changed = new ArrayList<>();
+        for (LocalDate day : days) {
+            if (!live.getOrDefault(day, 0L).equals(copied.getOrDefault(day, 0L))) {
+                changed.add(day);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Print the partitions and their bounds.
+     */
+    public void printStatus() {
+        List<Partition> partitions = getPartitions();
+        if (partitions.isEmpty()) {
+            System.out.println(TABLE + " is not partitioned");
+            return;
+        }
+        for (Partition partition : partitions) {
+            System.out.println(partition.name() + " < "
+                    + (partition.upperBound() == null ? "MAXVALUE" : partition.upperBound().format(BOUND_FORMAT)));
+        }
+    }
+
+    List<Partition> getPartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        for (String[] partition : jpaAccess.getTablePartitions()) {
+            partitions.add(new Partition(partition[0], parseBound(partition[1])));
+        }
+        return partitions;
+    }
+
+    private void checkNoUndatedRows() {
+        long undated = jpaAccess.doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + TABLE + " WHERE date IS NULL")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+        if (undated > 0) {
+            throw new IllegalStateException(TABLE + " has " + undated + " rows without a date, which a partitioned"
+                    + " table can't hold. Delete them or give them a date first");
+        }
+    }
+
+    private Map<LocalDate, Long> countByDay(String table) {
+        return jpaAccess.doReturningWork(connection -> {
+            Map<LocalDate, Long> counts = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("SELECT CAST(date AS DATE), COUNT(*) FROM " + table
+                            + " WHERE date IS NOT NULL GROUP BY CAST(date AS DATE)")) {
+                while (rs.next()) {
+                    counts.put(rs.getObject(1, LocalDate.class), rs.getLong(2));
+                }
+            }
+            return counts;
+        });
+    }
+
+    private long countRows(String table) {
+        return jpaAccess.doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    private void copyDay(LocalDate day) {
+        jpaAccess.executeNativeUpdate("INSERT IGNORE INTO " + NEW_TABLE + " SELECT * FROM " + TABLE
+                + " WHERE date >= ? AND date < ?", day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+        jpaAccess.commit();
+    }
+
+    private static boolean isPeriodPartition(Partition partition) {
+        return partition.upperBound() != null && !partition.name().equals(START_PARTITION);
+    }
+
+    private static String partitionDefinition(String name, LocalDate upperBound) {
+        return "PARTITION " + name + " VALUES LESS THAN ('" + upperBound.atStartOfDay().format(BOUND_FORMAT) + "')";
+    }
+
+    /**
+     * MySQL shows a RANGE COLUMNS bound quoted, e.g. '2026-10-20 00:00:00'.
+     */
+    static LocalDateTime parseBound(String description) {
+        if (description == null || description.equals("MAXVALUE")) {
+            return null;
+        }
+        String bound = description.replace("'", "").trim();
+        if (bound.length() == 10) {
+            return LocalDate.parse(bound).atStartOfDay();
+        }
+        return LocalDateTime.parse(bound, BOUND_FORMAT);
+    }
+}
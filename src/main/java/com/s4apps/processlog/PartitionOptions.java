@@ -0,0 +1,153 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for PartitionManager.
+ *
+ * @author mat
+ */
+public class PartitionOptions {
+
+    private boolean migrate = false;
+    private boolean swap = false;
+    private boolean ensure = false;
+    private PartitionManager.Granularity granularity = PartitionManager.Granularity.DAY;
+    private int daysAhead = 7;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public PartitionOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+        OptionGroup actions = new OptionGroup();
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // One-time migration
+        opt = new Option("m", "migrate", false, "copy ApacheLogs into a new partitioned table, ApacheLogs_new");
+        actions.addOption(opt);
+
+        // Last step of the migration
+        opt = new Option("s", "swap", false, "with imports paused, copy the days changed since --migrate and"
+                + " swap the tables if the row counts match");
+        actions.addOption(opt);
+
+        // Create partitions ahead of time
+        opt = new Option("e", "ensure", false, "create partitions up to --ahead days from now");
+        actions.addOption(opt);
+        options.addOptionGroup(actions);
+
+        // Day or month partitions
+        opt = new Option("g", "granularity", true, "'day' (default) or 'month' partitions");
+        opt.setArgName("day|month");
+        options.addOption(opt);
+
+        // How far ahead
+        opt = new Option("a", "ahead", true, "days ahead to create partitions for (default " + daysAhead + ")");
+        opt.setArgName("days");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        migrate = cmd.hasOption("m");
+        swap = cmd.hasOption("s");
+        ensure = cmd.hasOption("e");
+
+        if (cmd.hasOption("g")) {
+            try {
+                granularity = PartitionManager.Granularity.valueOf(cmd.getOptionValue("g").toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("--granularity must be 'day' or 'month'");
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+        }
+
+        if (cmd.hasOption("a")) {
+            try {
+                daysAhead = Integer.parseInt(cmd.getOptionValue("a"));
+            } catch (NumberFormatException ex) {
+                daysAhead = -1;
+            }
+            if (daysAhead < 0) {
+                System.err.println("--ahead must be zero or more");
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("PartitionManager [--migrate | --swap | --ensure] [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return true to migrate an unpartitioned table
+     */
+    public boolean isMigrate() {
+        return migrate;
+    }
+
+    /**
+     * @return true to finish a migration by swapping in the partitioned table
+     */
+    public boolean isSwap() {
+        return swap;
+    }
+
+    /**
+     * @return true to create partitions ahead of time
+     */
+    public boolean isEnsure() {
+        return ensure;
+    }
+
+    /**
+     * @return the granularity for a migration or a table with no period partitions
+     */
+    public PartitionManager.Granularity getGranularity() {
+        return granularity;
+    }
+
+    /**
+     * @return how many days ahead to create partitions for
+     */
+    public int getDaysAhead() {
+        return daysAhead;
+    }
+}
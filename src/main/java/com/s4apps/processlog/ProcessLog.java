@@ -1,16 +1,13 @@
 package com.s4apps.processlog;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,12 +26,32 @@ import java.util.logging.Logger;
 public class ProcessLog {
     
     private static final Logger logger = Logger.getLogger(ProcessLog.class.getName());
+
+    // How many rows are handed to the sink at a time
+    private static final int SINK_BATCH_SIZE = 1000;
     
     // Instance fields instead of static fields
     private final CliOptions options;
     private final ConfigData config;
-    private JpaAccess jpaAccess;      // Created when needed
-    private BufferedWriter outFile;    // Created when needed
+    private LogSink sink;              // Created when needed
+    private ImportRegistry registry;   // Null unless --registry was given
+    private final LogSink givenSink;   // Used instead of the options' outputs if not null
+    private Metrics metrics;           // Null unless --metrics was given
+
+    // What is recorded in metrics, set with it
+    private Metrics.Counter linesRead;
+    private Metrics.Counter rowsDropped;
+    private Metrics.Counter rowsWritten;
+    private Metrics.Counter filesImported;
+    private Metrics.Counter filesSkipped;
+    private LatencyHistogram parseLatency;
+    private LatencyHistogram ruleLatency;
+    private LatencyHistogram batchLatency;
+    private Metrics.Gauge linesPerSecond;
+
+    // Rows checked against the delete rules, to pick which are sampled for JFR
+    private long rowsChecked = 0;
+    private final List<RowStringStorage> batch = new ArrayList<>(SINK_BATCH_SIZE);
     
     /**
      * Constructor that takes all dependencies.
@@ -44,6 +61,19 @@ public class ProcessLog {
      * @param config Configuration data (filtering rules)
      */
     public ProcessLog(CliOptions options, ConfigData config) {
+        this(options, config, null);
+    }
+
+    /**
+     * Constructor for writing to a sink made by the caller, such as the load
+     * test's timed database sink, instead of the outputs in the options. The
+     * sink is closed at the end of run().
+     *
+     * @param options Command-line options
+     * @param config Configuration data (filtering rules)
+     * @param sink where to write the rows, or null to use the options
+     */
+    public ProcessLog(CliOptions options, ConfigData config, LogSink sink) {
         if (options == null) {
             throw new IllegalArgumentException("CliOptions cannot be null");
         }
@@ -53,6 +83,7 @@ public class ProcessLog {
         
         this.options = options;
         this.config = config;
+        this.givenSink = sink;
     }
     
     /**
@@ -79,24 +110,44 @@ public class ProcessLog {
         
         // Create an instance and run it
         ProcessLog processor = new ProcessLog(options, config);
-        processor.run();
+        if (processor.run() > 0) {
+            System.exit(1);
+        }
     }
     
     /**
      * Main processing method - instance method, not static!
      * This is where the actual work happens.
+     *
+     * @return the number of files that couldn't be read, and so weren't
+     *         imported
      */
-    public void run() {
+    public int run() {
+        FlightRecording recording = null;
+        int failed = 0;
         try {
+            if (options.getJfrFile() != null) {
+                recording = new FlightRecording(Paths.get(options.getJfrFile()));
+            }
+            openMetrics();
+            openRegistry();
             openOutput();
             
             for (String inFile : options.getInFileNames()) {
-                processFile(inFile);
+                if (!processFile(inFile)) {
+                    failed++;
+                }
             }
-            
+            return failed;
         } finally {
             // Always clean up, even if there's an error
             closeOutput();
+            if (metrics != null) {
+                metrics.close();
+            }
+            if (recording != null) {
+                recording.close();
+            }
         }
     }
     
@@ -104,33 +155,69 @@ public class ProcessLog {
      * Process a single file.
      * Note: This is now an instance method with no parameters for config!
      * It uses the instance fields instead.
+     *
+     * @return false if the file couldn't be read
      */
-    private void processFile(String inFile) {
+    private boolean processFile(String inFile) {
+        ImportRegistry.Fingerprint fingerprint = null;
+        if (registry != null) {
+            try {
+                fingerprint = ImportRegistry.fingerprint(Paths.get(inFile));
+            } catch (IOException ex) {
+                System.err.format("%nException occurred trying to read '%s'.%n", inFile);
+                System.err.println("Error message:" + ex.getMessage());
+                return false;
+            }
+            ImportRegistry.Entry entry = registry.find(fingerprint, options.getOutputTarget());
+            if (entry != null) {
+                System.out.printf("Skipping file: %s, already imported as %s at %s (%,d records written).%n%n",
+                        inFile, entry.fileName(), entry.importedAt(), entry.rowsWritten());
+                if (metrics != null) {
+                    filesSkipped.inc();
+                }
+                return true;
+            }
+        }
+
         System.out.print("Processing file: " + inFile + " ");
         
         String lowDate = null;
         String hiDate = null;
         int inLineCounter = 0;
         int outLineCounter = 0;
+        long fileStart = System.nanoTime();
+        FlightEvents.FileImport event = new FlightEvents.FileImport();
+        event.begin();
         
+        // Every line is parsed into the same view; only kept rows get a RowStringStorage
+        LogLine logLine = new LogLine();
+
         try (BufferedReader reader = new BufferedReader(new FileReader(inFile))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                // Use instance field 'config' instead of parameter
-                RowStringStorage rowStringStorage = new RowStringStorage(config);
                 inLineCounter++;
                 
-                process1Line(rowStringStorage, line);
-                
-                // Track date range
-                if (lowDate == null || rowStringStorage.getDate().compareTo(lowDate) < 0) {
-                    lowDate = rowStringStorage.getDate();
+                if (metrics == null) {
+                    logLine.parse(line);
+                } else {
+                    long parseStart = System.nanoTime();
+                    logLine.parse(line);
+                    parseLatency.recordSince(parseStart);
+                    linesRead.inc();
                 }
-                if (hiDate == null || rowStringStorage.getDate().compareTo(hiDate) > 0) {
-                    hiDate = rowStringStorage.getDate();
+                
+                // Track date range, which is only printed when verbose
+                if (options.isVerbose()) {
+                    String date = logLine.getDate();
+                    if (lowDate == null || date.compareTo(lowDate) < 0) {
+                        lowDate = date;
+                    }
+                    if (hiDate == null || date.compareTo(hiDate) > 0) {
+                        hiDate = date;
+                    }
                 }
                 
-                outLineCounter += writeRow(rowStringStorage);
+                outLineCounter += addRow(logLine);
                 
                 // Display progress
                 if (inLineCounter % ToolsAndConstants.PROGRESS_FREQUENCY == 0) {
@@ -140,12 +227,26 @@ public class ProcessLog {
         } catch (IOException ex) {
             System.err.format("%nException occurred trying to read '%s'.%n", inFile);
             System.err.println("Error message:" + ex.getMessage());
-            return;
+            // The rest of this file's rows mustn't go out with the next file's
+            batch.clear();
+            return false;
         }
         
-        // Commit if writing to database
-        if (options.isWriteDatabase() && jpaAccess != null) {
-            jpaAccess.commit();
+        // Write what's left and commit
+        outLineCounter += writeBatch();
+        flushOutput();
+        recordImport(fingerprint, inFile, inLineCounter, outLineCounter);
+        event.end();
+        if (event.shouldCommit()) {
+            event.fileName = inFile;
+            event.bytes = fileSize(inFile);
+            event.linesRead = inLineCounter;
+            event.rowsWritten = outLineCounter;
+            event.commit();
+        }
+        if (metrics != null) {
+            filesImported.inc();
+            linesPerSecond.set(inLineCounter * 1e9 / (System.nanoTime() - fileStart));
         }
         
         // Print summary
@@ -155,164 +256,234 @@ public class ProcessLog {
             System.out.printf("Date range from %s to %s.%n", lowDate, hiDate);
         }
         System.out.println();
+        return true;
     }
     
+    private static long fileSize(String inFile) {
+        try {
+            return Files.size(Paths.get(inFile));
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
     /**
-     * Write a row to the output.
-     * Uses instance fields instead of static fields.
+     * Set up the metrics, if a file was given, and start writing them.
      */
-    private int writeRow(RowStringStorage rowStringStorage) {
-        if (rowStringStorage.isDeleteRow()) {
+    private void openMetrics() {
+        if (options.getMetricsFile() == null) {
+            return;
+        }
+        metrics = new Metrics("ProcessLog");
+        linesRead = metrics.counter("lines_read_total", "Log lines read");
+        rowsDropped = metrics.counter("rows_dropped_total", "Lines dropped by a delete rule");
+        rowsWritten = metrics.counter("rows_written_total", "Rows the output accepted");
+        filesImported = metrics.counter("files_total", "Log files", "result", "imported");
+        filesSkipped = metrics.counter("files_total", "Log files", "result", "skipped");
+        parseLatency = metrics.histogram("parse_seconds", "Time to parse a line");
+        ruleLatency = metrics.histogram("rule_evaluation_seconds", "Time to check a row against the delete rules");
+        batchLatency = metrics.histogram("sink_batch_seconds", "Time to write a batch of rows to the output");
+        linesPerSecond = metrics.gauge("lines_per_second", "Lines read per second in the last file");
+        metrics.startWriting(Paths.get(options.getMetricsFile()), Metrics.DEFAULT_PERIOD_SECONDS);
+    }
+
+    /**
+     * Load the import registry, if one was given.
+     */
+    private void openRegistry() {
+        if (options.getRegistryFile() == null) {
+            return;
+        }
+        try {
+            registry = new ImportRegistry(Paths.get(options.getRegistryFile()));
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to load import registry " + options.getRegistryFile(), ex);
+        }
+        if (options.isVerbose()) {
+            System.out.printf("Import registry has %,d files.%n", registry.size());
+        }
+    }
+
+    /**
+     * Add a file to the import registry once every sink has flushed its rows,
+     * see LogSink.flush.
+     */
+    private void recordImport(ImportRegistry.Fingerprint fingerprint, String inFile, int linesRead,
+            int rowsWritten) {
+        if (registry == null) {
+            return;
+        }
+        try {
+            registry.record(fingerprint, options.getOutputTarget(), inFile, linesRead, rowsWritten);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Unable to record " + inFile + " in the import registry", ex);
+        }
+    }
+
+    /**
+     * Queue a row for the output, writing the batch once it is full.
+     *
+     * @return the number of rows written
+     */
+    private int addRow(LogLine logLine) {
+        boolean delete;
+        if (rowsChecked++ % FlightEvents.RULE_SAMPLE_RATE == 0) {
+            delete = sampleRules(logLine);
+        } else if (metrics == null) {
+            delete = logLine.isDeleteRow(config);
+        } else {
+            long ruleStart = System.nanoTime();
+            delete = logLine.isDeleteRow(config);
+            ruleLatency.recordSince(ruleStart);
+        }
+        if (delete && metrics != null) {
+            rowsDropped.inc();
+        }
+        if (delete) {
             return 0;
         }
-        
+
+        batch.add(logLine.toRow(config));
+        if (batch.size() < SINK_BATCH_SIZE) {
+            return 0;
+        }
+        return writeBatch();
+    }
+
+    /**
+     * Check a row against the delete rules, recording it in a JFR event if a
+     * recording is running.
+     */
+    private boolean sampleRules(LogLine logLine) {
+        FlightEvents.RuleSample event = new FlightEvents.RuleSample();
+        long ruleStart = System.nanoTime();
+        event.begin();
+        boolean delete = logLine.isDeleteRow(config);
+        event.end();
+        if (metrics != null) {
+            ruleLatency.recordSince(ruleStart);
+        }
+        if (event.shouldCommit()) {
+            event.url = logLine.getUrl();
+            event.deleted = delete;
+            event.commit();
+        }
+        return delete;
+    }
+
+    /**
+     * Hand the queued rows to the sink.
+     *
+     * @return the number of rows written
+     */
+    private int writeBatch() {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
         try {
-            if (options.isWriteDatabase()) {
-                return jpaAccess.insertRow(rowStringStorage);
-            } else if (options.isWriteNull()) {
-                return 0;
-            } else {
-                outFile.write(rowStringStorage.toString());
-                outFile.newLine();
-                return 1;
+            int written = sink.accept(batch);
+            if (metrics != null) {
+                batchLatency.recordSince(start);
+                rowsWritten.add(written);
             }
+            return written;
         } catch (IOException | RuntimeException ex) {
-            logger.log(Level.SEVERE, "Error writing row", ex);
+            logger.log(Level.SEVERE, "Error writing rows", ex);
             closeOutput();
-            throw new RuntimeException("Failed to write row", ex);
+            throw new RuntimeException("Failed to write rows", ex);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private void flushOutput() {
+        try {
+            sink.flush();
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Error flushing output", ex);
+            closeOutput();
+            throw new RuntimeException("Failed to flush output", ex);
         }
     }
     
     /**
-     * Open the output destination based on options.
-     * Uses instance fields instead of static fields.
+     * Open the output destinations based on options. Each one becomes a
+     * LogSink, and several are combined in a CompositeSink.
      */
     private void openOutput() {
-        // Open database if needed
-        if (options.isWriteDatabase()) {
-            jpaAccess = new JpaAccess();
+        if (givenSink != null) {
+            sink = givenSink;
+            return;
         }
-        
-        // Open file output if needed
+        List<LogSink> sinks = new ArrayList<>();
+        JpaAccess jpaAccess = null;
         try {
-            if (options.isWriteStdErr()) {
-                outFile = new BufferedWriter(new OutputStreamWriter(System.err));
-            } else if (options.isWriteStdOut()) {
-                outFile = new BufferedWriter(new OutputStreamWriter(System.out));
-            } else if (options.getOutFile() != null) {
-                File file = new File(options.getOutFile());
-                if (!file.exists()) {
-                    file.createNewFile();
+            if (options.isWriteDatabase()) {
+                jpaAccess = new JpaAccess();
+                if (metrics != null) {
+                    jpaAccess.setMetrics(metrics);
                 }
-                outFile = new BufferedWriter(new FileWriter(file));
+                sinks.add(new DatabaseSink(jpaAccess));
             }
-        } catch (IOException ex) {
+            if (options.getEmbeddedFile() != null) {
+                sinks.add(new EmbeddedDbSink(options.getEmbeddedFile()));
+            }
+            if (options.isWriteStdErr()) {
+                sinks.add(new CsvSink(new OutputStreamWriter(System.err), false));
+            }
+            if (options.isWriteStdOut()) {
+                sinks.add(new CsvSink(new OutputStreamWriter(System.out), false));
+            }
+            if (options.getOutFile() != null) {
+                sinks.add(CsvSink.forFile(options.getOutFile()));
+            }
+            if (options.getArchiveDir() != null) {
+                sinks.add(new ArchiveSink(Paths.get(options.getArchiveDir())));
+            }
+            if (options.isWriteSessions()) {
+                // Share the database sink's pool if there is one. The session
+                // sink goes first so it is closed before that pool is.
+                sinks.add(0, new SessionSink(jpaAccess != null ? jpaAccess.newWorker() : new JpaAccess()));
+            }
+            if (options.isWriteNull()) {
+                sinks.add(new NullSink());
+            }
+        } catch (IOException | RuntimeException ex) {
+            sink = new CompositeSink(sinks);
+            closeOutput();
             logger.log(Level.SEVERE, "Failed to open output", ex);
             throw new RuntimeException("Failed to open output", ex);
         }
+
+        sink = sinks.size() == 1 ? sinks.get(0) : new CompositeSink(sinks);
     }
     
     /**
      * Close all outputs and clean up resources.
-     * Uses instance fields instead of static fields.
      */
     private void closeOutput() {
-        if (jpaAccess != null) {
-            try {
-                jpaAccess.close();
-            } catch (Exception ex) {
-                logger.log(Level.WARNING, "Error closing database connection", ex);
-            }
-        }
-        
-        if (outFile != null) {
-            try {
-                outFile.flush();
-                outFile.close();
-            } catch (IOException ex) {
-                logger.log(Level.WARNING, "Error closing output file", ex);
-            }
+        if (sink == null) {
+            return;
         }
-    }
-    
-    /**
-     * Parse one line from the log file.
-     * 
-     * Sample input line:
-     * 82.165.86.0 - - [22/Mar/2026:01:57:33 +0100] "POST /wp-cron.php?doing_wp_cron=1774141053.2702050209045410156250 HTTP/1.1" 200 - 7upman.com "-" "WordPress/6.9.4; http://7upman.com" "-"
-     */
-    private void process1Line(RowStringStorage rowStringStorage, String line) {
-        boolean inBracket = false;
-        boolean inQuote = false;
-        int fieldNumber = 0;
-        boolean escaped = false;
-        
-        StringBuilder field = new StringBuilder();
-        
-        for (int i = 0; i < line.length(); i++) {
-            char ch = line.charAt(i);
-            
-            if (escaped) {
-                field.append(ch);
-                escaped = false;
-            } else if (ch == '\\') {
-                escaped = true;
-            } else if (ch == ' ' && !inBracket && !inQuote) {
-                fieldNumber++;
-                process1Field(rowStringStorage, field.toString(), fieldNumber);
-                field = new StringBuilder();
-            } else if (ch == '[') {
-                inBracket = true;
-            } else if (ch == ']') {
-                inBracket = false;
-            } else if (ch == '"') {
-                inQuote = !inQuote;
-            } else {
-                field.append(ch);
-            }
+        try {
+            sink.close();
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Error closing output", ex);
+        } finally {
+            sink = null;
         }
-        
-        fieldNumber++;
-        process1Field(rowStringStorage, field.toString(), fieldNumber);
     }
     
     /**
-     * Process one field from the log line.
+     * Parse one line from the log file into a row, see LogLine.parse.
+     *
+     * Package-private for the benchmarks.
      */
-    private void process1Field(RowStringStorage rowStringStorage, String param, int fieldNumber) {
-        // Field 4 is a date with timezone offset - convert to UTC
-        // Data sample: "22/Mar/2026:01:57:33 +0100"
-        if (fieldNumber == 4) {
-            DateTimeFormatter inputFormatter = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
-            DateTimeFormatter outputFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            OffsetDateTime odt = OffsetDateTime.parse(param, inputFormatter);
-            param = odt.withOffsetSameInstant(ZoneOffset.UTC).format(outputFormatter);
-        }
-        
-        // Field 5 is the URL which we want in 4 parts
-        if (fieldNumber == 5) {
-            int spcLoc = param.indexOf(' ');
-            String firstStr = param.substring(0, spcLoc);
-            String secondStr = param.substring(spcLoc + 1);
-            String fourthStr = "";
-            spcLoc = secondStr.indexOf(' ');
-            if (spcLoc > 0) {
-                fourthStr = secondStr.substring(spcLoc + 1);
-                secondStr = secondStr.substring(0, spcLoc);
-            }
-            String thirdStr = "";
-            spcLoc = secondStr.indexOf('?');
-            if (spcLoc > 0) {
-                thirdStr = secondStr.substring(spcLoc + 1);
-                secondStr = secondStr.substring(0, spcLoc);
-            }
-            
-            rowStringStorage.pushCol(firstStr);
-            rowStringStorage.pushCol(secondStr);
-            rowStringStorage.pushCol(thirdStr);
-            rowStringStorage.pushCol(fourthStr);
-        } else {
-            rowStringStorage.pushCol(param);
-        }
+    void process1Line(RowStringStorage rowStringStorage, String line) {
+        LogLine logLine = new LogLine();
+        logLine.parse(line);
+        logLine.pushTo(rowStringStorage);
     }
 }
@@ -0,0 +1,89 @@
+package com.s4apps.processlog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects progress from any number of worker threads and prints a single
+ * combined progress line with a rate and an estimated time to finish.
+ *
+ * @author mat
+ */
+public class ProgressReporter {
+
+    // Don't print more often than this, however many workers are reporting
+    private static final long PRINT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final String label;
+    private final long total;
+    private final long startNanos;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong lastPrintNanos;
+
+    /**
+     * @param label what is being counted, e.g. "rows"
+     * @param total how many are expected in all; used for the percentage and ETA
+     */
+    public ProgressReporter(String label, long total) {
+        this.label = label;
+        this.total = total;
+        this.startNanos = System.nanoTime();
+        this.lastPrintNanos = new AtomicLong(startNanos);
+    }
+
+    /**
+     * Record more completed work. Safe to call from any thread.
+     *
+     * @param count how many more have been completed
+     */
+    public void add(long count) {
+        done.addAndGet(count);
+    }
+
+    /**
+     * Print the progress line if enough time has passed since the last one.
+     * Only one of several threads calling at the same moment will print.
+     */
+    public void maybePrint() {
+        long now = System.nanoTime();
+        long last = lastPrintNanos.get();
+        if (now - last >= PRINT_INTERVAL_NANOS && lastPrintNanos.compareAndSet(last, now)) {
+            print(now);
+        }
+    }
+
+    /**
+     * Print the final totals.
+     */
+    public void printFinal() {
+        print(System.nanoTime());
+    }
+
+    public long getDone() {
+        return done.get();
+    }
+
+    private void print(long now) {
+        long completed = done.get();
+        double seconds = (now - startNanos) / 1_000_000_000.0;
+        double rate = seconds > 0 ? completed / seconds : 0;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%,d of %,d %s", completed, total, label));
+        if (total > 0) {
+            sb.append(String.format(" (%.1f%%)", 100.0 * completed / total));
+        }
+        sb.append(String.format(", %,.0f %s/s", rate, label));
+        if (rate > 0 && completed < total) {
+            sb.append(", ETA ").append(formatDuration((long) ((total - completed) / rate)));
+        }
+        System.out.println(sb);
+        System.out.flush();
+    }
+
+    static String formatDuration(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%dh %02dm %02ds", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+        }
+        return String.format("%dm %02ds", seconds / 60, seconds % 60);
+    }
+}
@@ -1,7 +1,14 @@
 package com.s4apps.processlog;
 
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -10,6 +17,13 @@ import java.util.logging.Logger;
  * current ignore/delete rules.  Rows that now match a delete rule are removed;
  * all other rows have their ignore flags updated in place.
  *
+ * The table is split into disjoint partitions (see RebuildPartition) which
+ * are processed concurrently, each worker using its own EntityManager and
+ * committing every COMMIT_FREQUENCY rows.
+ *
+ * Only rows whose flags actually change are written, and those are written
+ * in batches grouped by their new ignoreReason (see FlagUpdateBatch).
+ *
  * @author mat
  */
 public class Rebuild {
@@ -18,31 +32,57 @@ public class Rebuild {
 
     private final JpaAccess jpaAccess;
     private final ConfigData config;
+    private final int threads;
+    private final String partitionMode;
+    private final FlagChangeCounts flagChangeCounts = new FlagChangeCounts();
+
+    // Set by setMetrics, otherwise null
+    private LatencyHistogram pageLoadLatency = null;
+    private Metrics.Counter rowsProcessed = null;
 
     /**
-     * Constructor that takes all dependencies.
+     * Constructor for a single-threaded rebuild partitioned by id.
      *
      * @param jpaAccess the database access object to use for all queries
      * @param config    the current filtering rules to apply during rebuild
      */
     public Rebuild(JpaAccess jpaAccess, ConfigData config) {
+        this(jpaAccess, config, 1, RebuildOptions.PARTITION_ID);
+    }
+
+    /**
+     * Constructor that takes all dependencies.
+     *
+     * @param jpaAccess     the database access object to use for all queries;
+     *                      each worker gets its own from newWorker()
+     * @param config        the current filtering rules to apply during rebuild
+     * @param threads       how many partitions to process at once
+     * @param partitionMode RebuildOptions.PARTITION_ID or PARTITION_DAY
+     */
+    public Rebuild(JpaAccess jpaAccess, ConfigData config, int threads, String partitionMode) {
         if (jpaAccess == null) {
             throw new IllegalArgumentException("JpaAccess cannot be null");
         }
         if (config == null) {
             throw new IllegalArgumentException("ConfigData cannot be null");
         }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
         this.jpaAccess = jpaAccess;
         this.config = config;
+        this.threads = threads;
+        this.partitionMode = partitionMode;
     }
 
     /**
      * Main entry point - creates an instance and runs it.
      * This is the ONLY static method we need.
      *
-     * @param args the command line arguments (not used)
+     * @param args the command line arguments, see RebuildOptions
      */
     public static void main(String[] args) {
+        RebuildOptions options = new RebuildOptions(args);
         System.out.println("Rebuilding the database ...\n");
 
         ConfigRepository configRepo = new ConfigRepository();
@@ -58,16 +98,49 @@ public class Rebuild {
             return; // keeps compiler happy
         }
 
+        Metrics metrics = null;
+        if (options.getMetricsFile() != null) {
+            metrics = new Metrics("Rebuild");
+            metrics.startWriting(Paths.get(options.getMetricsFile()), Metrics.DEFAULT_PERIOD_SECONDS);
+        }
+
+        FlightRecording recording = null;
+        if (options.getJfrFile() != null) {
+            recording = new FlightRecording(Paths.get(options.getJfrFile()));
+        }
+
         JpaAccess jpa = new JpaAccess();
         try {
-            new Rebuild(jpa, cd).run();
+            Rebuild rebuild = new Rebuild(jpa, cd, options.getThreads(), options.getPartition());
+            if (metrics != null) {
+                rebuild.setMetrics(metrics);
+            }
+            rebuild.run();
         } finally {
             jpa.close();
+            if (metrics != null) {
+                metrics.close();
+            }
+            if (recording != null) {
+                recording.close();
+            }
         }
 
         System.exit(0);
     }
 
+    /**
+     * Record the page loads, the rows processed and the database writes in a
+     * metrics registry. Call before run().
+     *
+     * @param metrics the registry to record into
+     */
+    public void setMetrics(Metrics metrics) {
+        jpaAccess.setMetrics(metrics);
+        pageLoadLatency = metrics.histogram("rebuild_page_load_seconds", "Time to load a page of rows");
+        rowsProcessed = metrics.counter("rebuild_rows_total", "Rows checked against the rules");
+    }
+
     /**
      * Runs the full rebuild, then prints how long it took.
      */
@@ -87,39 +160,116 @@ public class Rebuild {
     }
 
     private void processRows() {
-        int rowCounter = 0;
-        RowStringStorage rowStringStorage = jpaAccess.getAllRows(config);
-
-        while (rowStringStorage != null) {
-            applyRowChange(rowStringStorage);
-            rowCounter++;
-
-            if (rowCounter % ToolsAndConstants.COMMIT_FREQUENCY == 0) {
-                jpaAccess.commit();
-                System.out.print("*");
-                System.out.flush();
-                if (rowCounter % ToolsAndConstants.PROGRESS_FREQUENCY_SLOW == 0) {
-                    System.out.print("\n");
+        List<RebuildPartition> partitions = buildPartitions();
+        ProgressReporter progress = new ProgressReporter("rows", jpaAccess.countRows());
+        System.out.println("Processing " + partitions.size() + " partitions on " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (RebuildPartition partition : partitions) {
+                futures.add(executor.submit(() -> processPartition(partition, progress)));
+            }
+
+            // Wait for them all, reporting every failure rather than just the first
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    logger.log(Level.SEVERE, "Error processing partition " + partitions.get(i).label(), ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for rebuild workers", ex);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        progress.printFinal();
+        flagChangeCounts.print();
+    }
+
+    private List<RebuildPartition> buildPartitions() {
+        if (RebuildOptions.PARTITION_DAY.equals(partitionMode)) {
+            LocalDateTime[] range = jpaAccess.getDateRange();
+            return RebuildPartition.byDay(
+                    range[0] == null ? null : range[0].toLocalDate(),
+                    range[1] == null ? null : range[1].toLocalDate());
+        }
+        return RebuildPartition.byIdPrefix();
+    }
+
+    private void processPartition(RebuildPartition partition, ProgressReporter progress) {
+        JpaAccess worker = jpaAccess.newWorker();
+        FlagUpdateBatch flagUpdates = new FlagUpdateBatch();
+        try {
+            int rowCounter = 0;
+            String lastId = null;
+            List<RowStringStorage> rows = loadPage(worker, partition, null);
+
+            while (!rows.isEmpty()) {
+                for (RowStringStorage rowStringStorage : rows) {
+                    applyRowChange(worker, rowStringStorage, flagUpdates);
+                    lastId = rowStringStorage.getId();
+                    rowCounter++;
+
+                    if (rowCounter % ToolsAndConstants.COMMIT_FREQUENCY == 0) {
+                        writeFlagUpdates(worker, flagUpdates);
+                        worker.commit();
+                        progress.add(ToolsAndConstants.COMMIT_FREQUENCY);
+                        progress.maybePrint();
+                    }
+                }
+
+                // Nothing loaded so far is needed again, so don't let it pile up
+                writeFlagUpdates(worker, flagUpdates);
+                worker.commit();
+                worker.clear();
+                if (rowsProcessed != null) {
+                    rowsProcessed.add(rows.size());
                 }
+                rows = loadPage(worker, partition, lastId);
             }
+            progress.add(rowCounter % ToolsAndConstants.COMMIT_FREQUENCY);
+        } finally {
+            worker.close();
+        }
+    }
 
-            rowStringStorage = jpaAccess.getAllRows(config);
+    private List<RowStringStorage> loadPage(JpaAccess worker, RebuildPartition partition, String afterId) {
+        long start = System.nanoTime();
+        List<RowStringStorage> rows = worker.getPartitionRows(config, partition, afterId);
+        if (pageLoadLatency != null) {
+            pageLoadLatency.recordSince(start);
         }
-        System.out.println();
+        return rows;
     }
 
-    private void applyRowChange(RowStringStorage rowStringStorage) {
+    private void applyRowChange(JpaAccess worker, RowStringStorage rowStringStorage, FlagUpdateBatch flagUpdates) {
         if (rowStringStorage.isDeleteRow()) {
-            int rowsDeleted = jpaAccess.delRow(rowStringStorage);
+            int rowsDeleted = worker.delRow(rowStringStorage);
             if (rowsDeleted != 1) {
                 System.err.println("Error deleting row: " + rowStringStorage.toString());
             }
             return;
         }
 
-        int rowsWritten = jpaAccess.updateRowFlags(rowStringStorage);
-        if (rowsWritten != 1) {
-            System.err.println("Error " + rowsWritten + " with row: " + rowStringStorage.toString());
+        if (!rowStringStorage.flagsChanged()) {
+            flagChangeCounts.recordUnchanged();
+            return;
+        }
+
+        int ignoreReason = rowStringStorage.getIgnoreReason();
+        flagChangeCounts.recordChanged(rowStringStorage.getStoredFlags(), ignoreReason);
+        flagUpdates.add(rowStringStorage, ignoreReason);
+    }
+
+    private void writeFlagUpdates(JpaAccess worker, FlagUpdateBatch flagUpdates) {
+        int rowsWritten = worker.updateRowFlags(flagUpdates);
+        if (rowsWritten != flagUpdates.size()) {
+            System.err.println("Error: expected to update " + flagUpdates.size()
+                    + " rows but updated " + rowsWritten);
         }
+        flagUpdates.clear();
     }
 }
@@ -0,0 +1,146 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for Rebuild.
+ *
+ * @author mat
+ */
+public class RebuildOptions {
+
+    public static final String PARTITION_ID = "id";
+    public static final String PARTITION_DAY = "day";
+
+    // Stay well inside the Hikari pool (maximumPoolSize in JpaAccess)
+    public static final int MAX_THREADS = 8;
+
+    private int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+    private String partition = PARTITION_ID;
+    private String metricsFile = null;
+    private String jfrFile = null;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public RebuildOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // Number of worker threads
+        opt = new Option("t", "threads", true, "number of worker threads (default " + threads
+                + ", at most " + MAX_THREADS + ")");
+        opt.setArgName("threads");
+        options.addOption(opt);
+
+        // How to split the table between the workers
+        opt = new Option("p", "partition", true, "split the table by '" + PARTITION_ID
+                + "' prefix (default) or by '" + PARTITION_DAY + "'");
+        opt.setArgName("id|day");
+        options.addOption(opt);
+
+        // Write metrics for node_exporter's textfile collector
+        opt = new Option("m", "metrics", true, "write metrics in the Prometheus text format to this file,"
+                + " every minute and at the end");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        // Record a JFR profile of the run
+        opt = new Option("J", "jfr", true, "record the run with Java Flight Recorder and write it to this file");
+        opt.setArgName("file");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        metricsFile = cmd.getOptionValue("m");
+        jfrFile = cmd.getOptionValue("J");
+
+        if (cmd.hasOption("t")) {
+            try {
+                threads = Integer.parseInt(cmd.getOptionValue("t"));
+            } catch (NumberFormatException ex) {
+                threads = 0;
+            }
+            if (threads < 1 || threads > MAX_THREADS) {
+                System.err.println("--threads must be between 1 and " + MAX_THREADS);
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+        }
+
+        if (cmd.hasOption("p")) {
+            partition = cmd.getOptionValue("p");
+            if (!PARTITION_ID.equals(partition) && !PARTITION_DAY.equals(partition)) {
+                System.err.println("--partition must be '" + PARTITION_ID + "' or '" + PARTITION_DAY + "'");
+                displayHelpMessage(options);
+                System.exit(1);
+            }
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("Rebuild [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return how to partition the table, PARTITION_ID or PARTITION_DAY
+     */
+    public String getPartition() {
+        return partition;
+    }
+
+    /**
+     * @return the metrics file, or null
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return the flight recording file, or null
+     */
+    public String getJfrFile() {
+        return jfrFile;
+    }
+}
@@ -0,0 +1,77 @@
+package com.s4apps.processlog;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A disjoint slice of the ApacheLogs table that one Rebuild worker processes
+ * on its own. A partition is either a range of ids or a range of dates; any
+ * bound that is null is open.
+ *
+ * @param label    a short name for progress and error messages
+ * @param idFrom   inclusive lower bound on the id, or null
+ * @param idTo     exclusive upper bound on the id, or null
+ * @param dateFrom inclusive lower bound on the date, or null
+ * @param dateTo   exclusive upper bound on the date, or null
+ * @param nullDate true if this partition holds the rows with no date
+ *
+ * @author mat
+ */
+public record RebuildPartition(
+        String label,
+        String idFrom,
+        String idTo,
+        LocalDateTime dateFrom,
+        LocalDateTime dateTo,
+        boolean nullDate) {
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    /**
+     * Split the table by the first two characters of the id. Ids are SHA-256
+     * hex strings, so the 256 partitions come out roughly the same size and
+     * between them cover every row whatever its date.
+     *
+     * @return the partitions in id order
+     */
+    public static List<RebuildPartition> byIdPrefix() {
+        List<RebuildPartition> partitions = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (char first : HEX_DIGITS.toCharArray()) {
+            for (char second : HEX_DIGITS.toCharArray()) {
+                prefixes.add("" + first + second);
+            }
+        }
+
+        for (int i = 0; i < prefixes.size(); i++) {
+            // The first and last partitions are left open so that an id that
+            // isn't lowercase hex still lands somewhere.
+            String from = i == 0 ? null : prefixes.get(i);
+            String to = i == prefixes.size() - 1 ? null : prefixes.get(i + 1);
+            partitions.add(new RebuildPartition("id " + prefixes.get(i), from, to, null, null, false));
+        }
+        return partitions;
+    }
+
+    /**
+     * Split the table into one partition per day between the two dates
+     * (inclusive), plus one for rows with no date.
+     *
+     * @param first the earliest day holding data, or null if the table is empty
+     * @param last  the latest day holding data, or null if the table is empty
+     * @return the partitions in date order
+     */
+    public static List<RebuildPartition> byDay(LocalDate first, LocalDate last) {
+        List<RebuildPartition> partitions = new ArrayList<>();
+        if (first != null && last != null) {
+            for (LocalDate day = first; !day.isAfter(last); day = day.plusDays(1)) {
+                partitions.add(new RebuildPartition(day.toString(), null, null,
+                        day.atStartOfDay(), day.plusDays(1).atStartOfDay(), false));
+            }
+        }
+        partitions.add(new RebuildPartition("no date", null, null, null, null, true));
+        return partitions;
+    }
+}
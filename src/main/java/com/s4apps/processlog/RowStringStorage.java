@@ -2,9 +2,9 @@ package com.s4apps.processlog;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneOffset;
 import com.s4apps.processlog.model.ApacheLog;
 
 /**
@@ -33,15 +33,44 @@ public class RowStringStorage {
     private static final int IDX_SERVER2 = 11;
     private static final int IDX_BROWSER = 12;
 
-    
+    // The columns that are kept when a row is stored, in the order of
+    // getStoredValues()
+    private static final int[] STORED_INDEXES = {
+        IDX_IP, IDX_DATE, IDX_METHOD, IDX_URL, IDX_QUERY_STRING, IDX_HTTP_VER,
+        IDX_RESPONSE, IDX_SIZE, IDX_SERVER, IDX_SERVER2, IDX_BROWSER
+    };
+    public static final int STORED_COLUMN_COUNT = STORED_INDEXES.length;
+
+    // The most columns a line can have
+    static final int MAX_COLUMNS = 15;
 
     // Where to store the array. Use the IDX methods above to
     // get the different items out of the array.
-    private final String[] rowColumns = new String[15];
+    private final String[] rowColumns = new String[MAX_COLUMNS];
+
+    // If the row was parsed by LogLine, the line it came from; each column is
+    // copied into rowColumns the first time it is read
+    private final LogLine source;
+
+    // The date, response and size as numbers, worked out the first time one
+    // is asked for unless the constructor had them already
+    private boolean typed = false;
+    private long epochSecond;
+    private int response;
+    private long size;
+
+    // The referer cut to its stored length, once it has been asked for
+    private String server2;
 
     // If the record was read, hold the existing id
     private String existingId = null;
 
+    // If the record was read, hold the flags it was stored with. The reason is
+    // null if it was never set; the flags are the boolean columns as a bitmask.
+    private boolean hasStoredFlags = false;
+    private Integer storedIgnoreReason = null;
+    private int storedFlags = 0;
+
     // When using the pushCol function, holds current value
     private int nextCol = 0;
 
@@ -50,6 +79,20 @@ public class RowStringStorage {
 
     public RowStringStorage(ConfigData configData) {
         cd = configData;
+        source = null;
+    }
+
+    /**
+     * Create a row whose columns are read from a parsed line when they are
+     * first needed. See LogLine.toRow.
+     *
+     * @param configData the rules to evaluate the row with
+     * @param source     the parsed line, which must not be reused
+     */
+    RowStringStorage(ConfigData configData, LogLine source) {
+        cd = configData;
+        this.source = source;
+        nextCol = source.getColumnCount();
     }
 
     /**
@@ -62,26 +105,43 @@ public class RowStringStorage {
      */
     public RowStringStorage(ConfigData configData, ResultSet rs) throws SQLException {
         cd = configData;
+        source = null;
         existingId = rs.getString("id");
 
+        LocalDateTime date = rs.getObject("date", LocalDateTime.class);
+        int responseValue = rs.getInt("response");
+        boolean noResponse = rs.wasNull();
+        long sizeValue = rs.getLong("size");
+        boolean noSize = rs.wasNull();
+        setTyped(date, noResponse ? null : responseValue, noSize ? null : sizeValue);
+
         rowColumns[IDX_IP] = rs.getString("ip");
-        rowColumns[IDX_DATE] = new SimpleDateFormat(ToolsAndConstants.DATE_FORMAT_STRING).format(rs.getTimestamp("date"));
+        rowColumns[IDX_DATE] = ToolsAndConstants.formatEpochSecond(epochSecond);
         rowColumns[IDX_METHOD] = rs.getString("method");
         rowColumns[IDX_URL] = rs.getString("url");
         rowColumns[IDX_QUERY_STRING] = rs.getString("queryString");
-        rowColumns[IDX_RESPONSE] = rs.getString("response");
-        rowColumns[IDX_SIZE] = rs.getString("size");
+        rowColumns[IDX_RESPONSE] = noResponse ? null : Integer.toString(responseValue);
+        rowColumns[IDX_SIZE] = noSize ? null : Long.toString(sizeValue);
         rowColumns[IDX_SERVER] = rs.getString("server");
         rowColumns[IDX_SERVER2] = rs.getString("server2");
         rowColumns[IDX_BROWSER] = rs.getString("browser");
+
+        hasStoredFlags = true;
+        int ignoreReason = rs.getInt("ignoreReason");
+        storedIgnoreReason = rs.wasNull() ? null : ignoreReason;
+        storedFlags = toFlags(rs.getBoolean("ignoreIp"), rs.getBoolean("ignoreUrl"), rs.getBoolean("ignoreServer"),
+                rs.getBoolean("ignoreMethod"), rs.getBoolean("ignoreBot"));
     }
 
     public RowStringStorage(ConfigData configData, ApacheLog log) {
         cd = configData;
+        source = null;
         existingId = log.getId();
 
+        setTyped(log.getDate(), log.getResponse(), log.getSize());
+
         rowColumns[IDX_IP] = log.getIp();
-        rowColumns[IDX_DATE] = formatDate(log.getDate());
+        rowColumns[IDX_DATE] = ToolsAndConstants.formatEpochSecond(epochSecond);
         rowColumns[IDX_METHOD] = log.getMethod();
         rowColumns[IDX_URL] = log.getUrl();
         rowColumns[IDX_QUERY_STRING] = log.getQueryString();
@@ -90,6 +150,50 @@ public class RowStringStorage {
         rowColumns[IDX_SERVER] = log.getServer();
         rowColumns[IDX_SERVER2] = log.getServer2();
         rowColumns[IDX_BROWSER] = log.getBrowser();
+
+        hasStoredFlags = true;
+        storedIgnoreReason = log.getIgnoreReason();
+        storedFlags = toFlags(log.isIgnoreIp(), log.isIgnoreUrl(), log.isIgnoreServer(),
+                log.isIgnoreMethod(), log.isIgnoreBot());
+    }
+
+    /**
+     * Create a row from the values returned by getStoredValues(), e.g. as read
+     * back from an archive segment. There is no stored id, so getId() hashes
+     * the values the row has.
+     *
+     * @param configData   the rules to evaluate the row with
+     * @param values       the stored columns, see getStoredValues()
+     * @param ignoreReason the ignoreReason it was stored with, or null
+     * @return the row
+     */
+    public static RowStringStorage fromStoredValues(ConfigData configData, String[] values, Integer ignoreReason) {
+        if (values.length != STORED_COLUMN_COUNT) {
+            throw new IllegalArgumentException("Expected " + STORED_COLUMN_COUNT + " values, got " + values.length);
+        }
+        RowStringStorage row = new RowStringStorage(configData);
+        for (int i = 0; i < STORED_COLUMN_COUNT; i++) {
+            row.rowColumns[STORED_INDEXES[i]] = values[i];
+        }
+        row.hasStoredFlags = true;
+        row.storedIgnoreReason = ignoreReason;
+        row.storedFlags = ignoreReason == null ? 0 : ignoreReason & ~ToolsAndConstants.REASON_UNKNOWN;
+        return row;
+    }
+
+    /**
+     * The columns that are kept when a row is stored, as they are held: ip,
+     * date, method, url, queryString, httpVer, response, size, server,
+     * server2 and browser, any of which may be null.
+     *
+     * @return a new array of STORED_COLUMN_COUNT values
+     */
+    public String[] getStoredValues() {
+        String[] values = new String[STORED_COLUMN_COUNT];
+        for (int i = 0; i < STORED_COLUMN_COUNT; i++) {
+            values[i] = column(STORED_INDEXES[i]);
+        }
+        return values;
     }
 
     /**
@@ -208,6 +312,47 @@ public class RowStringStorage {
         return (ignoreReasons);
     }
 
+    /**
+     * @return true if this row was read from the database, so the stored flag
+     *         getters are meaningful
+     */
+    public boolean hasStoredFlags() {
+        return hasStoredFlags;
+    }
+
+    /**
+     * @return the ignoreReason the row was stored with, or null if it was
+     *         never set
+     */
+    public Integer getStoredIgnoreReason() {
+        return storedIgnoreReason;
+    }
+
+    /**
+     * @return the boolean ignore columns the row was stored with, as a bitmask
+     *         of the REASON_* constants
+     */
+    public int getStoredFlags() {
+        return storedFlags;
+    }
+
+    /**
+     * Does the stored ignoreReason or any stored ignore column differ from what
+     * the current rules give? Rows not read from the database always need
+     * writing.
+     *
+     * @return true if the row needs its flags rewriting
+     */
+    public boolean flagsChanged() {
+        if (!hasStoredFlags) {
+            return true;
+        }
+        int ignoreReason = getIgnoreReason();
+        return storedIgnoreReason == null
+                || storedIgnoreReason != ignoreReason
+                || storedFlags != ignoreReason;
+    }
+
     /**
      * Store the given column into the next available space.
      *
@@ -217,52 +362,174 @@ public class RowStringStorage {
         rowColumns[nextCol++] = val;
     }
 
+    /**
+     * Fill in the values of a row read in normalized storage, where the
+     * server, referer and user agent are held in dimension tables. Only
+     * columns that are still empty are set.
+     *
+     * @param server  the server (vhost), or null
+     * @param server2 the referer, or null
+     * @param browser the user agent, or null
+     */
+    public void setDimensionValues(String server, String server2, String browser) {
+        if (column(IDX_SERVER) == null) {
+            rowColumns[IDX_SERVER] = server;
+        }
+        if (column(IDX_SERVER2) == null) {
+            rowColumns[IDX_SERVER2] = server2;
+            this.server2 = null;
+        }
+        if (column(IDX_BROWSER) == null) {
+            rowColumns[IDX_BROWSER] = browser;
+        }
+    }
+
+    /**
+     * Get a column, reading it from the source line the first time.
+     */
+    private String column(int index) {
+        String value = rowColumns[index];
+        if (value == null && source != null) {
+            if (index == IDX_DATE && index < source.getColumnCount()) {
+                value = ToolsAndConstants.formatEpochSecond(getEpochSecond());
+            } else {
+                value = source.column(index);
+            }
+            rowColumns[index] = value;
+        }
+        return value;
+    }
+
+    private void setTyped(LocalDateTime date, Integer response, Long size) {
+        epochSecond = date == null ? ToolsAndConstants.NO_DATE : date.toEpochSecond(ZoneOffset.UTC);
+        this.response = response == null ? ToolsAndConstants.NO_RESPONSE : response;
+        this.size = size == null ? ToolsAndConstants.NO_SIZE : size;
+        typed = true;
+    }
+
+    /**
+     * Work out the typed columns, from the source line if there is one, or
+     * else from the strings.
+     */
+    private void resolveTyped() {
+        if (typed) {
+            return;
+        }
+        if (source != null) {
+            epochSecond = source.getEpochSecond();
+            response = source.getResponseCode();
+            size = source.getSizeBytes();
+        } else {
+            epochSecond = ToolsAndConstants.parseEpochSecond(rowColumns[IDX_DATE]);
+            long number = parseNumber(rowColumns[IDX_RESPONSE]);
+            response = number > Integer.MAX_VALUE ? ToolsAndConstants.NO_RESPONSE : (int) number;
+            size = parseNumber(rowColumns[IDX_SIZE]);
+        }
+        typed = true;
+    }
+
+    /**
+     * @return the number, or -1 if the value is missing or isn't a number
+     */
+    private static long parseNumber(String value) {
+        if (value == null || value.isEmpty() || !Character.isDigit(value.charAt(0))) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the date as seconds since the epoch, or ToolsAndConstants.NO_DATE
+     */
+    public long getEpochSecond() {
+        resolveTyped();
+        return epochSecond;
+    }
+
+    /**
+     * @return the date, which is UTC, or null if there isn't one
+     */
+    public LocalDateTime getDateTime() {
+        long time = getEpochSecond();
+        return time == ToolsAndConstants.NO_DATE ? null : LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * @return the day of the date, which is UTC, or null if there isn't one
+     */
+    public LocalDate getDay() {
+        long time = getEpochSecond();
+        return time == ToolsAndConstants.NO_DATE ? null : LocalDate.ofEpochDay(Math.floorDiv(time, 86400));
+    }
+
+    /**
+     * @return the response code, or ToolsAndConstants.NO_RESPONSE
+     */
+    public int getResponseCode() {
+        resolveTyped();
+        return response;
+    }
+
+    /**
+     * @return the size in bytes, or ToolsAndConstants.NO_SIZE if it was "-"
+     */
+    public long getSizeBytes() {
+        resolveTyped();
+        return size;
+    }
+
     public String getIp() {
-        return rowColumns[IDX_IP];
+        return ToolsAndConstants.nullToEmpty(column(IDX_IP));
     }
 
     public String getDate() {
-        return rowColumns[IDX_DATE];
+        return column(IDX_DATE);
     }
 
     public String getMethod() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_METHOD]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_METHOD));
     }
 
     public String getUrl() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_URL]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_URL));
     }
 
     public String getQueryString() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_QUERY_STRING]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_QUERY_STRING));
     }
 
     public String getHttpVer() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_HTTP_VER]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_HTTP_VER));
     }
 
     public String getResponse() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_RESPONSE]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_RESPONSE));
     }
 
     public String getSize() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_SIZE]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_SIZE));
     }
 
     public String getServer() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_SERVER]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_SERVER));
     }
 
     public String getServer2() {
-        String server2 = ToolsAndConstants.nullToEmpty(rowColumns[IDX_SERVER2]);
-        if (server2.length() > 200) {
-            return server2.substring(0, 200);
+        if (server2 == null) {
+            server2 = ToolsAndConstants.nullToEmpty(column(IDX_SERVER2));
+            if (server2.length() > 200) {
+                server2 = server2.substring(0, 200);
+            }
         }
         return server2;
     }
 
     public String getBrowser() {
-        return ToolsAndConstants.nullToEmpty(rowColumns[IDX_BROWSER]);
+        return ToolsAndConstants.nullToEmpty(column(IDX_BROWSER));
     }
 
     /**
@@ -274,43 +541,80 @@ public class RowStringStorage {
      * @return
      */
     public boolean isDeleteRow() {
-        // Check IPs - needs to match exactly.
-        if (cd.ipsToDelete().contains(getIp().toLowerCase())) {
-            return true;
-        }
+        return deleteIp() || deleteUrl() || deleteServer() || deleteMethod();
+    }
+
+    /**
+     * Should this row be deleted because of its IP address? Needs to match
+     * exactly.
+     *
+     * @return
+     */
+    public boolean deleteIp() {
+        return cd.ipsToDelete().contains(getIp().toLowerCase());
+    }
 
-        // Check URLs, needs to match the beginning of the URL
+    /**
+     * Should this row be deleted because of its URL? Needs to match the
+     * beginning of the URL.
+     *
+     * @return
+     */
+    public boolean deleteUrl() {
         for (String findUrl : cd.urlsToDelete()) {
             if (getUrl().toLowerCase().startsWith(findUrl)) {
                 return true;
             }
         }
+        return false;
+    }
 
-        // Check servers, needs to match the beginning of the server
+    /**
+     * Should this row be deleted because of its server? Needs to match the
+     * beginning of the server.
+     *
+     * @return
+     */
+    public boolean deleteServer() {
         for (String findServer : cd.serversToDelete()) {
             if (getServer().toLowerCase().startsWith(findServer)) {
                 return true;
             }
         }
-
-        // Check the methods - uppercase on both sides for a consistent exact match
-        if (cd.methodsToDelete().contains(getMethod().toUpperCase())) {
-            return true;
-        }
-
-        // Otherwise, not a delete row
         return false;
     }
 
-    private String formatDate(LocalDateTime dateTime) {
-        if (dateTime == null) {
-            return null;
+    /**
+     * Should this row be deleted because of its method? Uppercase on both
+     * sides for a consistent exact match.
+     *
+     * @return
+     */
+    public boolean deleteMethod() {
+        return cd.methodsToDelete().contains(getMethod().toUpperCase());
+    }
+
+    private static int toFlags(boolean ip, boolean url, boolean server, boolean method, boolean bot) {
+        int flags = 0;
+        if (ip) {
+            flags |= ToolsAndConstants.REASON_IP;
+        }
+        if (url) {
+            flags |= ToolsAndConstants.REASON_URL;
+        }
+        if (server) {
+            flags |= ToolsAndConstants.REASON_SERVER;
+        }
+        if (method) {
+            flags |= ToolsAndConstants.REASON_METHOD;
+        }
+        if (bot) {
+            flags |= ToolsAndConstants.REASON_BOT;
         }
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(ToolsAndConstants.DATE_FORMAT_STRING);
-        return dateTime.format(formatter);
+        return flags;
     }
 
-    private String toStringOrNull(Integer value) {
+    private String toStringOrNull(Number value) {
         if (value == null) {
             return null;
         }
@@ -332,9 +636,9 @@ public class RowStringStorage {
         sb.append("\"");
 
         // Add in everything within the array
-        for (String rowColumn : rowColumns) {
+        for (int i = 0; i < MAX_COLUMNS; i++) {
             sb.append(",\"");
-            sb.append(ToolsAndConstants.escapeCSV(rowColumn));
+            sb.append(ToolsAndConstants.escapeCSV(column(i)));
             sb.append('"');
         }
 
@@ -359,8 +663,8 @@ public class RowStringStorage {
             StringBuilder sb = new StringBuilder();
 
             // Put everything into 1 string
-            for (String rowColumn : rowColumns) {
-                sb.append(rowColumn);
+            for (int i = 0; i < MAX_COLUMNS; i++) {
+                sb.append(column(i));
             }
 
             // Return the hash
@@ -0,0 +1,58 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+/**
+ * Told about every change JpaAccess makes to ApacheLogs, so that summary
+ * tables can be kept up to date incrementally. A listener collects the
+ * changes in memory and writes them in flush(), which JpaAccess calls just
+ * before each commit so the summary changes in the same transaction as the
+ * rows.
+ *
+ * Each JpaAccess has its own listener instances, so a listener is only ever
+ * used by one thread.
+ *
+ * @author mat
+ */
+public interface RowWriteListener {
+
+    /**
+     * A new row was inserted.
+     *
+     * @param row the row, with its flags from the current rules
+     */
+    void rowInserted(RowStringStorage row);
+
+    /**
+     * A stored row was deleted.
+     *
+     * @param row the row as it was stored, see RowStringStorage.getStoredFlags()
+     */
+    void rowDeleted(RowStringStorage row);
+
+    /**
+     * A stored row's flags were rewritten.
+     *
+     * @param row          the row as it was stored
+     * @param ignoreReason its new ignoreReason
+     */
+    void rowFlagsChanged(RowStringStorage row, int ignoreReason);
+
+    /**
+     * Every row dated before the bound was removed at once, without the rows
+     * being read, by dropping partitions.
+     *
+     * @param bound the exclusive upper bound of the dropped dates
+     */
+    void rowsDroppedBefore(LocalDateTime bound);
+
+    /**
+     * Write everything collected since the last flush.
+     *
+     * @param connection the connection of the transaction about to commit
+     * @throws SQLException
+     */
+    void flush(Connection connection) throws SQLException;
+}
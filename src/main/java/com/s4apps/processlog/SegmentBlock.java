@@ -0,0 +1,190 @@
+package com.s4apps.processlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One block of an archive segment. Each column is decompressed the first
+ * time it is asked for, so a query only pays for the columns it uses; a
+ * string column's dictionary can be read without decoding its rows.
+ *
+ * @author mat
+ */
+public class SegmentBlock {
+
+    private final byte[] data;
+    private final int rows;
+    private final int[] columnOffsets;
+    private final byte[][] decoded;
+    private final List<List<String>> dictionaries = new ArrayList<>();
+
+    SegmentBlock(byte[] data, int rows, int columnCount) {
+        this.data = data;
+        this.rows = rows;
+        columnOffsets = new int[columnCount];
+        decoded = new byte[columnCount][];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int i = 0; i < columnCount; i++) {
+            columnOffsets[i] = buffer.position();
+            buffer.getInt();
+            int compressedLength = buffer.getInt();
+            buffer.position(buffer.position() + compressedLength);
+            dictionaries.add(null);
+        }
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return each row's time, in seconds since the epoch (UTC)
+     * @throws IOException
+     */
+    public long[] getTimes() throws IOException {
+        DataInputStream in = column(SegmentFormat.COL_TIME);
+        long[] times = new long[rows];
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            previous += SegmentFormat.unzigzag(SegmentFormat.readVarLong(in));
+            times[i] = previous;
+        }
+        return times;
+    }
+
+    /**
+     * @param column COL_RESPONSE, COL_SIZE or COL_REASON
+     * @return each row's value plus 1, or 0 where it is null
+     * @throws IOException
+     */
+    public long[] getNumbers(int column) throws IOException {
+        if (column != SegmentFormat.COL_RESPONSE && column != SegmentFormat.COL_SIZE
+                && column != SegmentFormat.COL_REASON) {
+            throw new IllegalArgumentException("Not a number column: " + column);
+        }
+        return SegmentFormat.readPacked(column(column), rows);
+    }
+
+    /**
+     * @return each row's SegmentFormat.idHash, or null if the segment is too
+     *         old to have them
+     * @throws IOException
+     */
+    public long[] getIdHashes() throws IOException {
+        if (columnOffsets.length <= SegmentFormat.COL_ID_HASH) {
+            return null;
+        }
+        return SegmentFormat.readPacked(column(SegmentFormat.COL_ID_HASH), rows);
+    }
+
+    /**
+     * @param column one of the string columns, COL_IP to COL_BROWSER
+     * @return the distinct values in this block
+     * @throws IOException
+     */
+    public List<String> getDictionary(int column) throws IOException {
+        checkStringColumn(column);
+        List<String> dictionary = dictionaries.get(column);
+        if (dictionary == null) {
+            DataInputStream in = column(column);
+            int size = (int) SegmentFormat.readVarLong(in);
+            dictionary = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte[] utf8 = new byte[(int) SegmentFormat.readVarLong(in)];
+                in.readFully(utf8);
+                dictionary.add(new String(utf8, StandardCharsets.UTF_8));
+            }
+            dictionaries.set(column, dictionary);
+        }
+        return dictionary;
+    }
+
+    /**
+     * @param column one of the string columns, COL_IP to COL_BROWSER
+     * @return each row's index into getDictionary(column) plus 1, or 0 for null
+     * @throws IOException
+     */
+    public int[] getIndexes(int column) throws IOException {
+        checkStringColumn(column);
+        DataInputStream in = column(column);
+        int size = (int) SegmentFormat.readVarLong(in);
+        for (int i = 0; i < size; i++) {
+            in.skipNBytes(SegmentFormat.readVarLong(in));
+        }
+        long[] packed = SegmentFormat.readPacked(in, rows);
+        int[] indexes = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            indexes[i] = (int) packed[i];
+        }
+        return indexes;
+    }
+
+    /**
+     * @param column one of the string columns, COL_IP to COL_BROWSER
+     * @return each row's value, or null
+     * @throws IOException
+     */
+    public String[] getStrings(int column) throws IOException {
+        List<String> dictionary = getDictionary(column);
+        int[] indexes = getIndexes(column);
+        String[] values = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = indexes[i] == 0 ? null : dictionary.get(indexes[i] - 1);
+        }
+        return values;
+    }
+
+    /**
+     * Decode every row of the block.
+     *
+     * @param cd the rules to attach to each row
+     * @return the rows, in the order they were written
+     * @throws IOException
+     */
+    public List<RowStringStorage> toRows(ConfigData cd) throws IOException {
+        long[] times = getTimes();
+        long[] responses = getNumbers(SegmentFormat.COL_RESPONSE);
+        long[] sizes = getNumbers(SegmentFormat.COL_SIZE);
+        long[] reasons = getNumbers(SegmentFormat.COL_REASON);
+        String[][] strings = new String[SegmentFormat.STRING_VALUE_INDEXES.length][];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getStrings(SegmentFormat.FIRST_STRING_COLUMN + i);
+        }
+
+        List<RowStringStorage> list = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            String[] values = new String[RowStringStorage.STORED_COLUMN_COUNT];
+            values[SegmentFormat.VALUE_DATE] = ToolsAndConstants.formatEpochSecond(times[row]);
+            values[SegmentFormat.VALUE_RESPONSE] = responses[row] == 0 ? null : Long.toString(responses[row] - 1);
+            values[SegmentFormat.VALUE_SIZE] = sizes[row] == 0 ? null : Long.toString(sizes[row] - 1);
+            for (int i = 0; i < strings.length; i++) {
+                values[SegmentFormat.STRING_VALUE_INDEXES[i]] = strings[i][row];
+            }
+            Integer reason = reasons[row] == 0 ? null : (int) (reasons[row] - 1);
+            list.add(RowStringStorage.fromStoredValues(cd, values, reason));
+        }
+        return list;
+    }
+
+    private void checkStringColumn(int column) {
+        if (column < SegmentFormat.FIRST_STRING_COLUMN || column > SegmentFormat.LAST_STRING_COLUMN) {
+            throw new IllegalArgumentException("Not a string column: " + column);
+        }
+    }
+
+    private DataInputStream column(int column) throws IOException {
+        if (decoded[column] == null) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, columnOffsets[column], 2 * Integer.BYTES);
+            int rawLength = buffer.getInt();
+            int compressedLength = buffer.getInt();
+            decoded[column] = SegmentFormat.inflate(data, columnOffsets[column] + 2 * Integer.BYTES,
+                    compressedLength, rawLength);
+        }
+        return new DataInputStream(new ByteArrayInputStream(decoded[column]));
+    }
+}
@@ -0,0 +1,278 @@
+package com.s4apps.processlog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The layout of an archive segment file, and the encodings it uses. A segment
+ * holds the rows of one day, column by column, so that each column can be
+ * encoded to suit its data and compressed with similar values next to each
+ * other.
+ *
+ * File:    MAGIC, VERSION, block..., footer, footer offset (long), MAGIC
+ * Block:   for each of the COLUMN_COUNT columns: raw length, compressed
+ *          length, the Deflate-compressed encoded column
+ * Footer:  day, row count, min/max time, min/max response, block count, then
+ *          for each block its offset, length, row count, min/max time and
+ *          min/max response (the zone maps)
+ *
+ * Column encodings, before compression:
+ * - time: seconds since the epoch (UTC), the first as is and then the
+ *   difference from the previous row, zigzag varints;
+ * - response, size and ignoreReason: value + 1 (0 for null) less the block
+ *   minimum, bit-packed at the width of the largest;
+ * - strings: a dictionary of the block's distinct values, then each row's
+ *   dictionary index (0 for null), bit-packed;
+ * - id hash: a 64-bit hash of the row's id (see idHash), bit-packed, so that
+ *   a row written to more than one segment of a day is only counted once.
+ *
+ * Rows without a date are kept as 1970-01-01 00:00:00. Version 1 segments
+ * have no id hash column and are still read.
+ *
+ * @author mat
+ */
+public final class SegmentFormat {
+
+    public static final int MAGIC = 0x504c5347; // "PLSG"
+    public static final int VERSION = 2;
+    public static final String EXTENSION = ".seg";
+
+    // Added to a segment's name while it is written, so readers never see it
+    public static final String PARTIAL_SUFFIX = ".partial";
+
+    // Rows per block; the unit of zone-map skipping
+    public static final int BLOCK_ROWS = 16384;
+
+    public static final int COL_TIME = 0;
+    public static final int COL_RESPONSE = 1;
+    public static final int COL_SIZE = 2;
+    public static final int COL_REASON = 3;
+    public static final int COL_IP = 4;
+    public static final int COL_METHOD = 5;
+    public static final int COL_URL = 6;
+    public static final int COL_QUERY_STRING = 7;
+    public static final int COL_HTTP_VER = 8;
+    public static final int COL_SERVER = 9;
+    public static final int COL_SERVER2 = 10;
+    public static final int COL_BROWSER = 11;
+    public static final int COL_ID_HASH = 12;
+    public static final int COLUMN_COUNT = 13;
+
+    public static final int FIRST_STRING_COLUMN = COL_IP;
+    public static final int LAST_STRING_COLUMN = COL_BROWSER;
+
+    // Positions in RowStringStorage.getStoredValues()
+    static final int VALUE_DATE = 1;
+    static final int VALUE_RESPONSE = 6;
+    static final int VALUE_SIZE = 7;
+
+    // Where each string column comes from in RowStringStorage.getStoredValues()
+    static final int[] STRING_VALUE_INDEXES = {0, 2, 3, 4, 5, 8, 9, 10};
+
+    /**
+     * The position of one block in its file, and its zone map. minResponse
+     * is greater than maxResponse if no row in the block has a response.
+     */
+    public record BlockInfo(long offset, int length, int rows, long minTime, long maxTime,
+            int minResponse, int maxResponse) {
+    }
+
+    private SegmentFormat() {
+    }
+
+    /**
+     * Find an unused file name for a new segment, e.g. 2026-01-31.seg, then
+     * 2026-01-31-1.seg and so on. Segment names start with their day. A name
+     * whose segment is still being written counts as used.
+     *
+     * @param dir  the archive directory
+     * @param name the name without the extension, starting with the day
+     * @return the path of the new segment
+     */
+    public static Path newSegmentFile(Path dir, String name) {
+        Path file = dir.resolve(name + EXTENSION);
+        for (int n = 1; Files.exists(file) || Files.exists(partialFile(file)); n++) {
+            file = dir.resolve(name + "-" + n + EXTENSION);
+        }
+        return file;
+    }
+
+    /**
+     * @param file a segment
+     * @return the name to write it under until its footer is written
+     */
+    public static Path partialFile(Path file) {
+        return file.resolveSibling(file.getFileName() + PARTIAL_SUFFIX);
+    }
+
+    /**
+     * @param version a segment's version
+     * @return how many columns each of its blocks has
+     */
+    static int columnCount(int version) {
+        return version == 1 ? COL_ID_HASH : COLUMN_COUNT;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of a row id. At a million rows a day the chance
+     * of two rows of a day sharing one is around one in ten million.
+     *
+     * @param id the row's id
+     * @return its hash
+     */
+    static long idHash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write the first count values less their minimum, packed at the width of
+     * the largest. Values must not be negative.
+     */
+    static void writePacked(DataOutput out, long[] values, int count) throws IOException {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (count == 0) {
+            min = 0;
+        }
+        int width = 64 - Long.numberOfLeadingZeros(max - min);
+        writeVarLong(out, min);
+        out.writeByte(width);
+        if (width == 0) {
+            return;
+        }
+
+        long word = 0;
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            long value = values[i] - min;
+            word |= value << used;
+            used += width;
+            if (used >= 64) {
+                out.writeLong(word);
+                used -= 64;
+                word = used == 0 ? 0 : value >>> (width - used);
+            }
+        }
+        if (used > 0) {
+            out.writeLong(word);
+        }
+    }
+
+    static long[] readPacked(DataInput in, int count) throws IOException {
+        long min = readVarLong(in);
+        int width = in.readUnsignedByte();
+        long[] values = new long[count];
+        if (width == 0) {
+            Arrays.fill(values, min);
+            return values;
+        }
+
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        long word = 0;
+        int available = 0;
+        for (int i = 0; i < count; i++) {
+            long value;
+            if (available >= width) {
+                value = word & mask;
+                word = width == 64 ? 0 : word >>> width;
+                available -= width;
+            } else {
+                long next = in.readLong();
+                value = word;
+                value |= next << available;
+                value &= mask;
+                int taken = width - available;
+                word = taken == 64 ? 0 : next >>> taken;
+                available = 64 - taken;
+            }
+            values[i] = value + min;
+        }
+        return values;
+    }
+
+    static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] compressed, int offset, int length, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, offset, length);
+            byte[] raw = new byte[rawLength];
+            int done = 0;
+            while (done < rawLength) {
+                int n = inflater.inflate(raw, done, rawLength - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                done += n;
+            }
+            if (done != rawLength) {
+                throw new IOException("Column is shorter than its recorded length");
+            }
+            return raw;
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt column", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.s4apps.processlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads an archive segment file written by SegmentWriter. Opening it reads
+ * only the footer, which holds the zone maps, so a caller can decide which
+ * blocks it needs before reading any of them.
+ *
+ * @author mat
+ */
+public class SegmentReader implements AutoCloseable {
+
+    private static final int TRAILER_LENGTH = Long.BYTES + Integer.BYTES;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int version;
+    private final LocalDate day;
+    private final long rowCount;
+    private final long minTime;
+    private final long maxTime;
+    private final int minResponse;
+    private final int maxResponse;
+    private final List<SegmentFormat.BlockInfo> blocks;
+
+    /**
+     * Open a segment and read its footer.
+     *
+     * @param file the segment file
+     * @throws IOException if it can't be read or isn't a segment
+     */
+    public SegmentReader(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, 2 * Integer.BYTES);
+            if (header.getInt() != SegmentFormat.MAGIC) {
+                throw new IOException(file + " is not a segment");
+            }
+            version = header.getInt();
+            if (version < 1 || version > SegmentFormat.VERSION) {
+                throw new IOException(file + " is a version " + version + " segment, newer than this reader");
+            }
+
+            long size = channel.size();
+            ByteBuffer trailer = read(size - TRAILER_LENGTH, TRAILER_LENGTH);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != SegmentFormat.MAGIC) {
+                throw new IOException(file + " is incomplete");
+            }
+
+            DataInputStream footer = new DataInputStream(new ByteArrayInputStream(
+                    read(footerOffset, (int) (size - TRAILER_LENGTH - footerOffset)).array()));
+            day = LocalDate.ofEpochDay(footer.readLong());
+            rowCount = footer.readLong();
+            minTime = footer.readLong();
+            maxTime = footer.readLong();
+            minResponse = footer.readInt();
+            maxResponse = footer.readInt();
+            int blockCount = footer.readInt();
+            List<SegmentFormat.BlockInfo> list = new ArrayList<>(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                list.add(new SegmentFormat.BlockInfo(footer.readLong(), footer.readInt(), footer.readInt(),
+                        footer.readLong(), footer.readLong(), footer.readInt(), footer.readInt()));
+            }
+            blocks = Collections.unmodifiableList(list);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the segment has the id hash column (version 2 on)
+     */
+    public boolean hasIdHashes() {
+        return version >= 2;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    public int getMinResponse() {
+        return minResponse;
+    }
+
+    public int getMaxResponse() {
+        return maxResponse;
+    }
+
+    public List<SegmentFormat.BlockInfo> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Read one block. Its columns are only decompressed when asked for.
+     *
+     * @param block one of getBlocks()
+     * @return the block
+     * @throws IOException
+     */
+    public SegmentBlock readBlock(SegmentFormat.BlockInfo block) throws IOException {
+        return new SegmentBlock(read(block.offset(), block.length()).array(), block.rows(),
+                SegmentFormat.columnCount(version));
+    }
+
+    /**
+     * Read every row of the segment.
+     *
+     * @param cd the rules to attach to each row
+     * @return the rows, in the order they were written
+     * @throws IOException
+     */
+    public List<RowStringStorage> readAll(ConfigData cd) throws IOException {
+        List<RowStringStorage> rows = new ArrayList<>();
+        for (SegmentFormat.BlockInfo block : blocks) {
+            rows.addAll(readBlock(block).toRows(cd));
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(file + " is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
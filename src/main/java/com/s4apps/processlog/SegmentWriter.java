@@ -0,0 +1,288 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes one day of rows to an archive segment file (see SegmentFormat). Rows
+ * are collected into blocks of SegmentFormat.BLOCK_ROWS, and each block is
+ * encoded and compressed column by column as it fills, so memory use is one
+ * block whatever the size of the day.
+ *
+ * @author mat
+ */
+public class SegmentWriter implements AutoCloseable {
+
+    private final Path file;
+    private final LocalDate day;
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+
+    // The block being filled
+    private final long[] times = new long[SegmentFormat.BLOCK_ROWS];
+    private final long[] responses = new long[SegmentFormat.BLOCK_ROWS];
+    private final long[] sizes = new long[SegmentFormat.BLOCK_ROWS];
+    private final long[] reasons = new long[SegmentFormat.BLOCK_ROWS];
+    private final long[] idHashes = new long[SegmentFormat.BLOCK_ROWS];
+    private final String[][] strings = new String[SegmentFormat.STRING_VALUE_INDEXES.length][SegmentFormat.BLOCK_ROWS];
+    private int blockRows = 0;
+
+    private final List<SegmentFormat.BlockInfo> blocks = new ArrayList<>();
+    private long rowCount = 0;
+
+    /**
+     * Create the segment file.
+     *
+     * @param file the file to create, see SegmentFormat.newSegmentFile
+     * @param day  the day the rows belong to
+     * @throws IOException
+     */
+    public SegmentWriter(Path file, LocalDate day) throws IOException {
+        this.file = file;
+        this.day = day;
+        this.counter = new CountingOutputStream(Files.newOutputStream(file));
+        this.out = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+        out.writeInt(SegmentFormat.MAGIC);
+        out.writeInt(SegmentFormat.VERSION);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Add a row. Rows read from the database keep the ignoreReason they were
+     * stored with; new rows get theirs from the current rules.
+     *
+     * @param row the row
+     * @throws IOException
+     */
+    public void add(RowStringStorage row) throws IOException {
+        String[] values = row.getStoredValues();
+        Integer ignoreReason = row.hasStoredFlags() ? row.getStoredIgnoreReason() : Integer.valueOf(row.getIgnoreReason());
+
+        long time = row.getEpochSecond();
+        times[blockRows] = time == ToolsAndConstants.NO_DATE ? 0 : time;
+        responses[blockRows] = toNullableNumber(row.getResponseCode());
+        sizes[blockRows] = toNullableNumber(row.getSizeBytes());
+        reasons[blockRows] = ignoreReason == null ? 0 : ignoreReason + 1L;
+        idHashes[blockRows] = SegmentFormat.idHash(row.getId());
+        for (int i = 0; i < strings.length; i++) {
+            strings[i][blockRows] = values[SegmentFormat.STRING_VALUE_INDEXES[i]];
+        }
+
+        blockRows++;
+        rowCount++;
+        if (blockRows == SegmentFormat.BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Write the last block and the footer.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (blockRows > 0) {
+                writeBlock();
+            }
+            writeFooter();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        out.flush();
+        long offset = counter.getCount();
+
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int minResponse = Integer.MAX_VALUE;
+        int maxResponse = Integer.MIN_VALUE;
+        for (int i = 0; i < blockRows; i++) {
+            minTime = Math.min(minTime, times[i]);
+            maxTime = Math.max(maxTime, times[i]);
+            if (responses[i] != 0) {
+                minResponse = (int) Math.min(minResponse, responses[i] - 1);
+                maxResponse = (int) Math.max(maxResponse, responses[i] - 1);
+            }
+        }
+
+        writeColumn(encodeTimes());
+        writeColumn(encodePacked(responses));
+        writeColumn(encodePacked(sizes));
+        writeColumn(encodePacked(reasons));
+        for (String[] column : strings) {
+            writeColumn(encodeStrings(column));
+        }
+        writeColumn(encodePacked(idHashes));
+
+        out.flush();
+        blocks.add(new SegmentFormat.BlockInfo(offset, (int) (counter.getCount() - offset), blockRows,
+                minTime, maxTime, minResponse, maxResponse));
+        blockRows = 0;
+    }
+
+    private void writeColumn(byte[] raw) throws IOException {
+        byte[] compressed = SegmentFormat.deflate(raw);
+        out.writeInt(raw.length);
+        out.writeInt(compressed.length);
+        out.write(compressed);
+    }
+
+    private byte[] encodeTimes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream column = new DataOutputStream(bytes);
+        long previous = 0;
+        for (int i = 0; i < blockRows; i++) {
+            SegmentFormat.writeVarLong(column, SegmentFormat.zigzag(times[i] - previous));
+            previous = times[i];
+        }
+        column.flush();
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodePacked(long[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream column = new DataOutputStream(bytes);
+        SegmentFormat.writePacked(column, values, blockRows);
+        column.flush();
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodeStrings(String[] values) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        long[] indexes = new long[blockRows];
+        for (int i = 0; i < blockRows; i++) {
+            String value = values[i];
+            if (value == null) {
+                indexes[i] = 0;
+                continue;
+            }
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                entries.add(value);
+                index = entries.size();
+                dictionary.put(value, index);
+            }
+            indexes[i] = index;
+            values[i] = null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream column = new DataOutputStream(bytes);
+        SegmentFormat.writeVarLong(column, entries.size());
+        for (String entry : entries) {
+            byte[] utf8 = entry.getBytes(StandardCharsets.UTF_8);
+            SegmentFormat.writeVarLong(column, utf8.length);
+            column.write(utf8);
+        }
+        SegmentFormat.writePacked(column, indexes, blockRows);
+        column.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeFooter() throws IOException {
+        out.flush();
+        long footerOffset = counter.getCount();
+
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int minResponse = Integer.MAX_VALUE;
+        int maxResponse = Integer.MIN_VALUE;
+        for (SegmentFormat.BlockInfo block : blocks) {
+            minTime = Math.min(minTime, block.minTime());
+            maxTime = Math.max(maxTime, block.maxTime());
+            minResponse = Math.min(minResponse, block.minResponse());
+            maxResponse = Math.max(maxResponse, block.maxResponse());
+        }
+
+        out.writeLong(day.toEpochDay());
+        out.writeLong(rowCount);
+        out.writeLong(minTime);
+        out.writeLong(maxTime);
+        out.writeInt(minResponse);
+        out.writeInt(maxResponse);
+        out.writeInt(blocks.size());
+        for (SegmentFormat.BlockInfo block : blocks) {
+            out.writeLong(block.offset());
+            out.writeInt(block.length());
+            out.writeInt(block.rows());
+            out.writeLong(block.minTime());
+            out.writeLong(block.maxTime());
+            out.writeInt(block.minResponse());
+            out.writeInt(block.maxResponse());
+        }
+        out.writeLong(footerOffset);
+        out.writeInt(SegmentFormat.MAGIC);
+    }
+
+    /**
+     * @return the number plus 1, or 0 for a missing (negative) number
+     */
+    private static long toNullableNumber(long value) {
+        return value < 0 ? 0 : value + 1;
+    }
+
+    /**
+     * Keeps count of the bytes written, for the block offsets.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream target;
+        private long count = 0;
+
+        CountingOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
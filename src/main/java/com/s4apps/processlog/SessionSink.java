@@ -0,0 +1,153 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sessionizes the import stream (see Sessionizer) and writes the sessions to
+ * the Sessions table, a batch at a time:
+ *
+ * CREATE TABLE Sessions (
+ *     id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+ *     ip VARCHAR(45) NOT NULL,
+ *     agentHash BIGINT NOT NULL,
+ *     server VARCHAR(200) NOT NULL,
+ *     startTime DATETIME NOT NULL,
+ *     endTime DATETIME NOT NULL,
+ *     hits INT NOT NULL,
+ *     ignoredHits INT NOT NULL,
+ *     ignoreReason INT NOT NULL,
+ *     entryUrl VARCHAR(500) NOT NULL,
+ *     exitUrl VARCHAR(500) NOT NULL,
+ *     UNIQUE KEY uk_sessions_visit (ip, agentHash, startTime),
+ *     KEY idx_sessions_start (startTime)
+ * );
+ *
+ * Sessions stay open across input files, so a visit split by a log rotation
+ * is still one session, and the ones left open are written on close.
+ *
+ * A visit is known by its IP, user agent and start, so a file imported again
+ * writes the same sessions over the ones it wrote before rather than adding
+ * to them. Where the two differ (the live access.log has grown since) the
+ * one with more hits is kept.
+ *
+ * @author mat
+ */
+public class SessionSink implements LogSink {
+
+    public static final String TABLE = "Sessions";
+
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final int SERVER_LENGTH = 200;
+    private static final int URL_LENGTH = 500;
+
+    private final JpaAccess jpaAccess;
+    private final Sessionizer sessionizer;
+    private final List<Sessionizer.Session> closed = new ArrayList<>();
+    private long written = 0;
+
+    /**
+     * @param jpaAccess the database access object to write with; closed with
+     *                  the sink
+     */
+    public SessionSink(JpaAccess jpaAccess) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        if (!jpaAccess.tableExists(TABLE)) {
+            throw new IllegalStateException("There is no " + TABLE + " table, see the README");
+        }
+        this.jpaAccess = jpaAccess;
+        this.sessionizer = new Sessionizer(Sessionizer.DEFAULT_GAP_SECONDS, Sessionizer.DEFAULT_MAX_OPEN, closed::add);
+    }
+
+    @Override
+    public int accept(List<RowStringStorage> rows) {
+        for (RowStringStorage row : rows) {
+            sessionizer.add(row);
+        }
+        if (closed.size() >= WRITE_BATCH_SIZE) {
+            writeClosed();
+        }
+        return rows.size();
+    }
+
+    @Override
+    public void flush() {
+        writeClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            sessionizer.closeAll();
+            writeClosed();
+            System.out.printf("Wrote %,d sessions", written);
+            if (sessionizer.getEvictedCount() > 0) {
+                System.out.printf(", %,d of them closed early to limit memory", sessionizer.getEvictedCount());
+            }
+            System.out.println(".");
+        } finally {
+            jpaAccess.close();
+        }
+    }
+
+    private void writeClosed() {
+        if (closed.isEmpty()) {
+            return;
+        }
+        jpaAccess.doReturningWork(connection -> insert(connection, closed));
+        jpaAccess.commit();
+        written += closed.size();
+        closed.clear();
+    }
+
+    /**
+     * Insert sessions in one JDBC batch, replacing a stored session with the
+     * same IP, user agent and start if the new one has at least as many hits.
+     *
+     * @param connection
+     * @param sessions   the sessions to write
+     * @return the number written
+     * @throws SQLException
+     */
+    static int insert(Connection connection, List<Sessionizer.Session> sessions) throws SQLException {
+        // hits is compared in every condition, so it has to be updated last
+        String sql = ToolsAndConstants.upsert(connection, "INSERT INTO " + TABLE
+                + " (ip, agentHash, server, startTime, endTime, hits, ignoredHits, ignoreReason, entryUrl, exitUrl)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                replaceIfMoreHits("server") + ", " + replaceIfMoreHits("endTime") + ", "
+                + replaceIfMoreHits("ignoredHits") + ", " + replaceIfMoreHits("ignoreReason") + ", "
+                + replaceIfMoreHits("entryUrl") + ", " + replaceIfMoreHits("exitUrl") + ", "
+                + replaceIfMoreHits("hits"));
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (Sessionizer.Session session : sessions) {
+                ps.setString(1, session.getIp());
+                ps.setLong(2, session.getAgentHash());
+                ps.setString(3, truncate(session.getServer(), SERVER_LENGTH));
+                ps.setTimestamp(4, Timestamp.valueOf(session.getStart()));
+                ps.setTimestamp(5, Timestamp.valueOf(session.getEnd()));
+                ps.setInt(6, session.getHits());
+                ps.setInt(7, session.getIgnoredHits());
+                ps.setInt(8, session.getIgnoreReason());
+                ps.setString(9, truncate(session.getEntryUrl(), URL_LENGTH));
+                ps.setString(10, truncate(session.getExitUrl(), URL_LENGTH));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        return sessions.size();
+    }
+
+    private static String replaceIfMoreHits(String column) {
+        return column + " = CASE WHEN incoming.hits >= hits THEN incoming." + column + " ELSE " + column + " END";
+    }
+
+    private static String truncate(String value, int length) {
+        return value.length() > length ? value.substring(0, length) : value;
+    }
+}
@@ -0,0 +1,233 @@
+package com.s4apps.processlog;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Groups rows into visits as they are imported: the hits of one IP and user
+ * agent with no gap longer than the inactivity gap between them.
+ *
+ * Open sessions are held in a map keyed by IP and user agent hash, and in a
+ * set ordered by their last hit. A session is closed, and handed to the
+ * consumer, once the latest time seen is more than the gap plus
+ * ALLOWED_LATENESS past its last hit. The lateness allowance is there for
+ * the lines either side of a log rotation, which can arrive a little out of
+ * order: a hit older than a session's last hit still joins it, and moves its
+ * start and entry URL back if need be, unless it is more than the gap before
+ * the session's start (as when files are given newest first), which starts a
+ * new session. When more than maxOpen sessions are open the one idle longest
+ * is closed early, so memory is bounded.
+ *
+ * Rows without a date are skipped.
+ *
+ * @author mat
+ */
+public class Sessionizer {
+
+    public static final long DEFAULT_GAP_SECONDS = 30 * 60;
+    public static final int DEFAULT_MAX_OPEN = 200_000;
+    static final long ALLOWED_LATENESS_SECONDS = 5 * 60;
+
+    /**
+     * One visit. The times are in seconds since the epoch, as the log's
+     * local time.
+     */
+    public static final class Session {
+        private final String ip;
+        private final long agentHash;
+        private final String server;
+        private final long sequence;
+        private long start;
+        private long end;
+        private String entryUrl;
+        private String exitUrl;
+        private int hits = 0;
+        private int ignoredHits = 0;
+        private int ignoreReason = 0;
+
+        private Session(String ip, long agentHash, String server, long sequence, long time, String url) {
+            this.ip = ip;
+            this.agentHash = agentHash;
+            this.server = server;
+            this.sequence = sequence;
+            this.start = time;
+            this.end = time;
+            this.entryUrl = url;
+            this.exitUrl = url;
+        }
+
+        private void add(long time, String url, int reason) {
+            if (time < start) {
+                start = time;
+                entryUrl = url;
+            }
+            if (time >= end) {
+                end = time;
+                exitUrl = url;
+            }
+            hits++;
+            if (reason != 0) {
+                ignoredHits++;
+                ignoreReason |= reason;
+            }
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public long getAgentHash() {
+            return agentHash;
+        }
+
+        /**
+         * @return the server of the first hit seen
+         */
+        public String getServer() {
+            return server;
+        }
+
+        public LocalDateTime getStart() {
+            return LocalDateTime.ofEpochSecond(start, 0, ZoneOffset.UTC);
+        }
+
+        public LocalDateTime getEnd() {
+            return LocalDateTime.ofEpochSecond(end, 0, ZoneOffset.UTC);
+        }
+
+        public String getEntryUrl() {
+            return entryUrl;
+        }
+
+        public String getExitUrl() {
+            return exitUrl;
+        }
+
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return how many of the hits were ignored
+         */
+        public int getIgnoredHits() {
+            return ignoredHits;
+        }
+
+        /**
+         * @return the ignore reasons of all the hits ORed together
+         */
+        public int getIgnoreReason() {
+            return ignoreReason;
+        }
+    }
+
+    private record Key(String ip, long agentHash) {
+    }
+
+    private static final Comparator<Session> BY_END = Comparator
+            .comparingLong((Session s) -> s.end)
+            .thenComparingLong(s -> s.sequence);
+
+    private final long gapSeconds;
+    private final int maxOpen;
+    private final Consumer<Session> onClose;
+    private final Map<Key, Session> open = new HashMap<>();
+    private final TreeSet<Session> byEnd = new TreeSet<>(BY_END);
+    private long latest = Long.MIN_VALUE;
+    private long sequence = 0;
+    private long evicted = 0;
+
+    /**
+     * @param gapSeconds the inactivity gap that ends a session
+     * @param maxOpen    the most sessions to hold open at once
+     * @param onClose    given each session as it closes
+     */
+    public Sessionizer(long gapSeconds, int maxOpen, Consumer<Session> onClose) {
+        if (gapSeconds < 1 || maxOpen < 1) {
+            throw new IllegalArgumentException("gapSeconds and maxOpen must be positive");
+        }
+        this.gapSeconds = gapSeconds;
+        this.maxOpen = maxOpen;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Add a hit, closing any sessions it shows have ended.
+     *
+     * @param row the row
+     */
+    public void add(RowStringStorage row) {
+        long time = row.getEpochSecond();
+        if (time == ToolsAndConstants.NO_DATE) {
+            return;
+        }
+        String url = row.getUrl();
+        Key key = new Key(row.getIp(), HyperLogLog.hash64(row.getBrowser()));
+
+        Session session = open.get(key);
+        if (session != null && (time - session.end > gapSeconds || session.start - time > gapSeconds)) {
+            // The new hit is from another visit, after this one or before it
+            close(session);
+            session = null;
+        }
+        if (session == null) {
+            session = new Session(key.ip(), key.agentHash(), row.getServer(), sequence++, time, url);
+            open.put(key, session);
+        } else {
+            byEnd.remove(session);
+        }
+        session.add(time, url, row.getIgnoreReason());
+        byEnd.add(session);
+
+        if (time > latest) {
+            latest = time;
+            expire();
+        }
+        while (open.size() > maxOpen) {
+            evicted++;
+            close(byEnd.first());
+        }
+    }
+
+    /**
+     * Close every open session, at the end of the input.
+     */
+    public void closeAll() {
+        while (!byEnd.isEmpty()) {
+            close(byEnd.first());
+        }
+    }
+
+    /**
+     * @return the number of sessions open
+     */
+    public int getOpenCount() {
+        return open.size();
+    }
+
+    /**
+     * @return the number of sessions closed early to keep within maxOpen
+     */
+    public long getEvictedCount() {
+        return evicted;
+    }
+
+    private void expire() {
+        long closeBefore = latest - gapSeconds - ALLOWED_LATENESS_SECONDS;
+        while (!byEnd.isEmpty() && byEnd.first().end < closeBefore) {
+            close(byEnd.first());
+        }
+    }
+
+    private void close(Session session) {
+        byEnd.remove(session);
+        open.remove(new Key(session.ip, session.agentHash));
+        onClose.accept(session);
+    }
+}
@@ -0,0 +1,210 @@
+package com.s4apps.processlog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Generates realistic Apache combined-format lines, in the form our host
+ * writes them (with the server between the size and the referer), for
+ * benchmarks and load tests. IPs, URLs and user agents are drawn from pools
+ * of a given size with a skew, so a few values are common and most are rare
+ * as in real traffic. A share of the URLs are WordPress paths
+ * (/wp-content/, /wp-admin/, /wp-cron.php) so delete and ignore rules have
+ * something to match, and a share of the user agents are bots. The same seed
+ * always gives the same lines.
+ *
+ * @author mat
+ */
+public class SyntheticLogGenerator {
+
+    private static final DateTimeFormatter LOG_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+    private static final String[] SERVERS = {"7upman.com", "www.7upman.com", "s4apps.com", "www.s4apps.com",
+        "shop.s4apps.com", "staging.s4apps.com"};
+    private static final String[] WORDPRESS_PATHS = {"/wp-content/uploads/", "/wp-content/themes/",
+        "/wp-content/plugins/", "/wp-admin/", "/wp-includes/js/", "/wp-cron.php", "/wp-login.php",
+        "/xmlrpc.php"};
+    private static final String[] SITE_PATHS = {"/", "/blog/", "/products/", "/contact/", "/about/",
+        "/downloads/", "/docs/", "/images/", "/css/", "/js/"};
+    private static final String[] BROWSERS = {
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/%d.0.0.0 Safari/537.36",
+        "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_%d) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.4 Safari/605.1.15",
+        "Mozilla/5.0 (X11; Linux x86_64; rv:%d.0) Gecko/20100101 Firefox/%<d.0",
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 17_%d like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Mobile/15E148",
+        "WordPress/6.%d; http://7upman.com"};
+    private static final String[] BOTS = {
+        "Mozilla/5.0 (compatible; Googlebot/2.%d; +http://www.google.com/bot.html)",
+        "Mozilla/5.0 (compatible; bingbot/2.%d; +http://www.bing.com/bingbot.htm)",
+        "Mozilla/5.0 (compatible; AhrefsBot/7.%d; +http://ahrefs.com/robot/)",
+        "Mozilla/5.0 (compatible; SemrushBot/7~bl; +http://www.semrush.com/bot.html) %d",
+        "Screaming Frog SEO Spider/%d.0",
+        "Mozilla/5.0 (compatible; Bytespider; spider-feedback@bytedance.com) %d"};
+    private static final String[] METHODS = {"GET", "GET", "GET", "GET", "GET", "GET", "GET", "POST", "POST",
+        "HEAD"};
+    private static final int[] RESPONSES = {200, 200, 200, 200, 200, 200, 304, 301, 302, 404, 404, 403, 500};
+
+    private final SplittableRandom random;
+    private final int ipCount;
+    private final int urlCount;
+    private final int agentCount;
+    private final double botRatio;
+    private final double wordPressRatio;
+    private long epochSecond;
+
+    /**
+     * @param seed           the random seed
+     * @param ipCount        how many distinct IPs to draw from
+     * @param urlCount       how many distinct URLs to draw from
+     * @param agentCount     how many distinct user agents to draw from
+     * @param botRatio       the share of lines from bots, 0 to 1
+     * @param wordPressRatio the share of lines for WordPress paths, 0 to 1
+     * @param start          the time of the first line
+     */
+    public SyntheticLogGenerator(long seed, int ipCount, int urlCount, int agentCount, double botRatio,
+            double wordPressRatio, Instant start) {
+        if (ipCount < 1 || urlCount < 1 || agentCount < 1) {
+            throw new IllegalArgumentException("Cardinalities must be at least 1");
+        }
+        if (botRatio < 0 || botRatio > 1 || wordPressRatio < 0 || wordPressRatio > 1) {
+            throw new IllegalArgumentException("Ratios must be between 0 and 1");
+        }
+        this.random = new SplittableRandom(seed);
+        this.ipCount = ipCount;
+        this.urlCount = urlCount;
+        this.agentCount = agentCount;
+        this.botRatio = botRatio;
+        this.wordPressRatio = wordPressRatio;
+        this.epochSecond = start.getEpochSecond();
+    }
+
+    /**
+     * A generator with cardinalities like a day of our own traffic.
+     *
+     * @param seed the random seed
+     * @return the generator
+     */
+    public static SyntheticLogGenerator typical(long seed) {
+        return new SyntheticLogGenerator(seed, 20_000, 5_000, 2_000, 0.3, 0.35,
+                Instant.parse("2026-03-22T00:00:00Z"));
+    }
+
+    /**
+     * @return the next line, without a line terminator
+     */
+    public String nextLine() {
+        // About a line a second, never going backwards
+        epochSecond += random.nextInt(3);
+
+        boolean bot = random.nextDouble() < botRatio;
+        int response = RESPONSES[random.nextInt(RESPONSES.length)];
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(ip(skewed(ipCount)));
+        sb.append(" - - [");
+        LOG_DATE_FORMAT.formatTo(Instant.ofEpochSecond(epochSecond), sb);
+        sb.append("] \"");
+        sb.append(METHODS[random.nextInt(METHODS.length)]).append(' ');
+        appendUrl(sb, skewed(urlCount));
+        sb.append(" HTTP/1.1\" ").append(response).append(' ');
+        if (response == 304 || random.nextInt(20) == 0) {
+            sb.append('-');
+        } else {
+            sb.append(200 + random.nextInt(200_000));
+        }
+        String server = SERVERS[skewed(SERVERS.length)];
+        sb.append(' ').append(server).append(" \"");
+        if (bot || random.nextBoolean()) {
+            sb.append('-');
+        } else {
+            sb.append("https://").append(server).append(SITE_PATHS[random.nextInt(SITE_PATHS.length)]);
+        }
+        sb.append("\" \"");
+        int agent = skewed(agentCount);
+        if (bot) {
+            sb.append(String.format(BOTS[agent % BOTS.length], agent));
+        } else {
+            sb.append(String.format(BROWSERS[agent % BROWSERS.length], 100 + agent));
+        }
+        sb.append("\" \"-\"");
+        return sb.toString();
+    }
+
+    /**
+     * @param count how many lines to generate
+     * @return the lines
+     */
+    public String[] nextLines(int count) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = nextLine();
+        }
+        return lines;
+    }
+
+    /**
+     * Write lines to a file.
+     *
+     * @param file  the file to create or replace
+     * @param count how many lines to write
+     * @throws IOException
+     */
+    public void write(Path file, long count) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (long i = 0; i < count; i++) {
+                writer.write(nextLine());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return the time of the last line generated
+     */
+    public Instant getTime() {
+        return Instant.ofEpochSecond(epochSecond);
+    }
+
+    /**
+     * Pick from 0 to count - 1 with low numbers much more likely.
+     */
+    private int skewed(int count) {
+        double r = random.nextDouble();
+        return (int) (r * r * r * count);
+    }
+
+    private static String ip(int n) {
+        // Spread the pool over the address space, away from the private ranges
+        long address = 0x2D000000L + n * 2_654_435_761L % 0x50000000L;
+        return ((address >> 24) & 255) + "." + ((address >> 16) & 255) + "." + ((address >> 8) & 255) + "."
+                + (address & 255);
+    }
+
+    private void appendUrl(StringBuilder sb, int n) {
+        if (random.nextDouble() < wordPressRatio) {
+            String path = WORDPRESS_PATHS[n % WORDPRESS_PATHS.length];
+            sb.append(path);
+            if (path.endsWith("/")) {
+                sb.append("file-").append(n).append(n % 3 == 0 ? ".js" : ".png");
+            }
+            if (path.equals("/wp-cron.php")) {
+                sb.append("?doing_wp_cron=").append(epochSecond).append(".2702050209045410156250");
+            }
+            return;
+        }
+        sb.append(SITE_PATHS[n % SITE_PATHS.length]);
+        if (n >= SITE_PATHS.length) {
+            sb.append("page-").append(n);
+        }
+        if (n % 7 == 0) {
+            sb.append("?ref=").append(n % 13).append("&utm_source=\\\"news\\\"");
+        }
+    }
+}
@@ -3,6 +3,15 @@ package com.s4apps.processlog;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +23,13 @@ public class ToolsAndConstants {
     // Define the correct data format string
     public static final String DATE_FORMAT_STRING = "yyyy-MM-dd HH:mm:ss";
 
+    // A missing date, response or size in the typed columns of a row
+    public static final long NO_DATE = Long.MIN_VALUE;
+    public static final int NO_RESPONSE = -1;
+    public static final long NO_SIZE = -1;
+
+    private static final int SECONDS_PER_DAY = 86400;
+
     // Reasons why a row should be ignored
     public static final int REASON_UNKNOWN = 1;
     public static final int REASON_IP = 2;
@@ -22,6 +38,9 @@ public class ToolsAndConstants {
     public static final int REASON_METHOD = 16;
     public static final int REASON_BOT = 32;
 
+    // The name of each reason, indexed by its bit number
+    public static final String[] REASON_NAMES = {"unknown", "ip", "url", "server", "method", "bot"};
+
     // How often should we commit changes to the database?
     public static final int COMMIT_FREQUENCY = 1000;
 
@@ -30,6 +49,123 @@ public class ToolsAndConstants {
     public static final int PROGRESS_FREQUENCY_SLOW = 50000;
     
     
+    /**
+     * Format a UTC time as DATE_FORMAT_STRING, without the cost of a
+     * DateTimeFormatter.
+     *
+     * @param epochSecond the time, or NO_DATE
+     * @return the text, or null for NO_DATE
+     */
+    public static String formatEpochSecond(long epochSecond) {
+        if (epochSecond == NO_DATE) {
+            return null;
+        }
+        long days = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        int secondOfDay = Math.floorMod(epochSecond, SECONDS_PER_DAY);
+
+        // Days to civil date, from Howard Hinnant's algorithms
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC)
+                    .format(DateTimeFormatter.ofPattern(DATE_FORMAT_STRING));
+        }
+
+        char[] text = new char[19];
+        put(text, 0, (int) year, 4);
+        text[4] = '-';
+        put(text, 5, month, 2);
+        text[7] = '-';
+        put(text, 8, day, 2);
+        text[10] = ' ';
+        put(text, 11, secondOfDay / 3600, 2);
+        text[13] = ':';
+        put(text, 14, secondOfDay / 60 % 60, 2);
+        text[16] = ':';
+        put(text, 17, secondOfDay % 60, 2);
+        return new String(text);
+    }
+
+    private static void put(char[] text, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            text[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Parse a UTC time in DATE_FORMAT_STRING form.
+     *
+     * @param text the text, which may be null
+     * @return the time, or NO_DATE if the text is missing or isn't a valid time
+     */
+    public static long parseEpochSecond(String text) {
+        if (text == null || text.length() != 19 || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || text.charAt(10) != ' ' || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return NO_DATE;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return NO_DATE;
+        }
+        return epochSecond(year, month, day, hour, minute, second);
+    }
+
+    /**
+     * The UTC time of a date and time of day, which must be valid.
+     *
+     * @return seconds since the epoch
+     */
+    public static long epochSecond(int year, int month, int day, int hour, int minute, int second) {
+        // Civil date to days, from Howard Hinnant's algorithms
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097 + doe - 719468;
+        return days * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second;
+    }
+
+    /**
+     * @return the number of days in the month
+     */
+    public static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * @return the decimal number in the characters, or -1 if any isn't a digit
+     */
+    public static int digits(CharSequence text, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char ch = text.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
     /**
      * Hash the value using SHA-256 and return the hex string. If the value is
      * null then null is returned. If SHA-256 is not available then a message is
@@ -96,6 +232,77 @@ public class ToolsAndConstants {
         return input;
     }
 
+    /**
+     * Find the smallest string that sorts after every string starting with the
+     * prefix, so that "starts with prefix" can be written as the index-friendly
+     * {@code col >= prefix AND col < successor}.
+     *
+     * Only a last character of 0-8 or a-y is incremented, as those sort in the
+     * same order under both binary and MySQL's case-insensitive collations. For
+     * anything else null is returned and the caller should fall back to LIKE.
+     *
+     * @param prefix the lowercase prefix
+     * @return the successor, or null if there isn't a safe one
+     */
+    public static String prefixSuccessor(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return null;
+        }
+        char last = prefix.charAt(prefix.length() - 1);
+        if ((last >= '0' && last <= '8') || (last >= 'a' && last <= 'y')) {
+            return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Reduce a list of prefix rules to the ones that matter: duplicates are
+     * removed, as is any rule that starts with a shorter rule (which already
+     * matches everything it would). The ranges of the rules left are disjoint,
+     * so counts over them can simply be added up.
+     *
+     * @param prefixes the prefix rules
+     * @return the minimal set of prefixes, sorted
+     */
+    public static List<String> minimalPrefixes(Collection<String> prefixes) {
+        List<String> minimal = new ArrayList<>();
+        for (String prefix : new TreeSet<>(prefixes)) {
+            // Sorted order puts a prefix straight before the strings it covers
+            if (minimal.isEmpty() || !prefix.startsWith(minimal.get(minimal.size() - 1))) {
+                minimal.add(prefix);
+            }
+        }
+        return minimal;
+    }
+
+    /**
+     * Escape a value for use in a LIKE pattern with ESCAPE '!'.
+     *
+     * @param value the literal text, e.g. a URL prefix rule
+     * @return the value with '!', '%' and '_' each preceded by '!'
+     */
+    public static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    /**
+     * Make an INSERT ... ON DUPLICATE KEY UPDATE. MySQL 8.0.19+ names the new
+     * row with an alias, as VALUES() in the update is deprecated; H2's MySQL
+     * mode (the tests and --embedded) only understands VALUES().
+     *
+     * @param connection the connection the statement is for
+     * @param insert     the INSERT ... VALUES (...) part
+     * @param updates    the assignments, referring to the new row as incoming.col
+     * @return the statement
+     * @throws SQLException if the database can't be identified
+     */
+    public static String upsert(Connection connection, String insert, String updates) throws SQLException {
+        if (connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql")) {
+            return insert + " AS incoming ON DUPLICATE KEY UPDATE " + updates;
+        }
+        return insert + " ON DUPLICATE KEY UPDATE " + updates.replaceAll("\\bincoming\\.(\\w+)", "VALUES($1)");
+    }
+
     private static String bytesToHex(byte[] hash) {
         StringBuilder hexString = new StringBuilder(2 * hash.length);
         for (int i = 0; i < hash.length; i++) {
@@ -0,0 +1,214 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reports unique visitors and top URLs and IPs over a range of days from the
+ * sketches in TrafficSketches, merging the stored sketches one at a time so
+ * memory stays the same however many days are asked for.
+ *
+ * @author mat
+ */
+public class TrafficReport {
+
+    /**
+     * Which rows to report on.
+     */
+    public enum Traffic {
+        NOT_IGNORED, IGNORED, ALL;
+
+        boolean includes(boolean ignored) {
+            return this == ALL || (this == IGNORED) == ignored;
+        }
+    }
+
+    /**
+     * The merged sketches.
+     */
+    public static class Result {
+        private final Map<String, HyperLogLog> ipsByServer = new TreeMap<>();
+        private final Map<String, HyperLogLog> agentsByServer = new TreeMap<>();
+        private final HyperLogLog ips = new HyperLogLog();
+        private final HyperLogLog agents = new HyperLogLog();
+        private final CountMinSketch topUrls = new CountMinSketch();
+        private final CountMinSketch topIps = new CountMinSketch();
+
+        public Map<String, HyperLogLog> getIpsByServer() {
+            return ipsByServer;
+        }
+
+        public Map<String, HyperLogLog> getAgentsByServer() {
+            return agentsByServer;
+        }
+
+        /**
+         * @return the distinct IPs over every server
+         */
+        public HyperLogLog getIps() {
+            return ips;
+        }
+
+        /**
+         * @return the distinct user agents over every server
+         */
+        public HyperLogLog getAgents() {
+            return agents;
+        }
+
+        public CountMinSketch getTopUrls() {
+            return topUrls;
+        }
+
+        public CountMinSketch getTopIps() {
+            return topIps;
+        }
+    }
+
+    private final JpaAccess jpaAccess;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Traffic traffic;
+
+    /**
+     * Entry point for the report.
+     *
+     * @param args the command line arguments, see TrafficReportOptions
+     */
+    public static void main(String[] args) {
+        TrafficReportOptions options = new TrafficReportOptions(args);
+
+        JpaAccess jpa = new JpaAccess();
+        try {
+            if (!jpa.tableExists(TrafficSketches.TABLE)) {
+                System.err.println("There is no " + TrafficSketches.TABLE + " table, see the README.");
+                System.exit(1);
+            }
+            TrafficReport report = new TrafficReport(jpa, options.getFrom(), options.getTo(), options.getTraffic());
+            report.print(report.run(), options.getTop());
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to run the report, got error: " + ex.getMessage());
+            System.exit(1);
+        } finally {
+            jpa.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param jpaAccess the database access object to read the sketches with
+     * @param from      the first day
+     * @param to        the last day
+     * @param traffic   which rows to report on
+     */
+    public TrafficReport(JpaAccess jpaAccess, LocalDate from, LocalDate to, Traffic traffic) {
+        if (jpaAccess == null) {
+            throw new IllegalArgumentException("JpaAccess cannot be null");
+        }
+        this.jpaAccess = jpaAccess;
+        this.from = from;
+        this.to = to;
+        this.traffic = traffic;
+    }
+
+    /**
+     * Read and merge the sketches.
+     *
+     * @return the merged sketches
+     */
+    public Result run() {
+        return jpaAccess.doReturningWork(connection -> merge(connection, from, to, traffic));
+    }
+
+    /**
+     * Merge the stored sketches of a range of days.
+     *
+     * @param connection
+     * @param from       the first day
+     * @param to         the last day
+     * @param traffic    which rows to include
+     * @return the merged sketches
+     * @throws SQLException
+     */
+    static Result merge(Connection connection, LocalDate from, LocalDate to, Traffic traffic) throws SQLException {
+        Result result = new Result();
+        try {
+            TrafficSketches.readSketches(connection, from, to, TrafficSketches.UNIQUE_IPS, entry -> {
+                if (traffic.includes(entry.getKey().ignored())) {
+                    HyperLogLog sketch = hyperLogLog(entry.getValue());
+                    result.ipsByServer.computeIfAbsent(entry.getKey().server(), k -> new HyperLogLog()).merge(sketch);
+                    result.ips.merge(sketch);
+                }
+            });
+            TrafficSketches.readSketches(connection, from, to, TrafficSketches.UNIQUE_AGENTS, entry -> {
+                if (traffic.includes(entry.getKey().ignored())) {
+                    HyperLogLog sketch = hyperLogLog(entry.getValue());
+                    result.agentsByServer.computeIfAbsent(entry.getKey().server(), k -> new HyperLogLog()).merge(sketch);
+                    result.agents.merge(sketch);
+                }
+            });
+            TrafficSketches.readSketches(connection, from, to, TrafficSketches.TOP_URLS, entry -> {
+                if (traffic.includes(entry.getKey().ignored())) {
+                    result.topUrls.merge(countMinSketch(entry.getValue()));
+                }
+            });
+            TrafficSketches.readSketches(connection, from, to, TrafficSketches.TOP_IPS, entry -> {
+                if (traffic.includes(entry.getKey().ignored())) {
+                    result.topIps.merge(countMinSketch(entry.getValue()));
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw new SQLException("Unable to read a stored sketch", ex.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * @param result the merged sketches
+     * @param top    how many URLs and IPs to list
+     */
+    public void print(Result result, int top) {
+        System.out.printf("Traffic from %s to %s (%s)%n%n", from, to, traffic.name().toLowerCase().replace('_', ' '));
+
+        System.out.printf("%-40s %15s %15s%n", "Server", "Unique IPs", "Unique agents");
+        for (Map.Entry<String, HyperLogLog> entry : result.getIpsByServer().entrySet()) {
+            HyperLogLog agents = result.getAgentsByServer().get(entry.getKey());
+            System.out.printf("%-40s %,15d %,15d%n", entry.getKey(), entry.getValue().estimate(),
+                    agents == null ? 0 : agents.estimate());
+        }
+        System.out.printf("%-40s %,15d %,15d%n", "(all servers)", result.getIps().estimate(), result.getAgents().estimate());
+
+        printTop("URLs", result.getTopUrls(), top);
+        printTop("IPs", result.getTopIps(), top);
+    }
+
+    private static void printTop(String label, CountMinSketch sketch, int top) {
+        System.out.printf("%nTop %d %s of %,d hits%n", top, label, sketch.getTotal());
+        List<Map.Entry<String, Long>> entries = sketch.top(top);
+        for (Map.Entry<String, Long> entry : entries) {
+            System.out.printf("%,15d  %s%n", entry.getValue(), entry.getKey());
+        }
+    }
+
+    private static HyperLogLog hyperLogLog(byte[] bytes) {
+        try {
+            return HyperLogLog.fromBytes(bytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static CountMinSketch countMinSketch(byte[] bytes) {
+        try {
+            return CountMinSketch.fromBytes(bytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.help.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionGroup;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Command-line options for TrafficReport.
+ *
+ * @author mat
+ */
+public class TrafficReportOptions {
+
+    private LocalDate to = LocalDate.now();
+    private LocalDate from = to.minusDays(6);
+    private TrafficReport.Traffic traffic = TrafficReport.Traffic.NOT_IGNORED;
+    private int top = 20;
+
+    /**
+     * Parse the CLI options. Exits the JVM on a parse error or --help, in the
+     * same way as CliOptions.
+     *
+     * @param args
+     */
+    public TrafficReportOptions(String[] args) {
+        Options options = new Options();
+        Option opt;
+
+        // Help message
+        opt = new Option("?", "help", false, "display this help message");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        // The days to report on
+        opt = new Option("f", "from", true, "the first day (default 6 days before --to)");
+        opt.setArgName("yyyy-MM-dd");
+        options.addOption(opt);
+
+        opt = new Option("t", "to", true, "the last day (default today)");
+        opt.setArgName("yyyy-MM-dd");
+        options.addOption(opt);
+
+        // Which traffic; not ignored by default
+        OptionGroup traffic = new OptionGroup();
+        opt = new Option("i", "ignored", false, "report on ignored traffic instead");
+        traffic.addOption(opt);
+        opt = new Option("a", "all", false, "report on all traffic, ignored or not");
+        traffic.addOption(opt);
+        options.addOptionGroup(traffic);
+
+        // How long the top lists are
+        opt = new Option("n", "top", true, "how many URLs and IPs to list (default " + top + ", at most "
+                + CountMinSketch.HEAVY_HITTERS + ")");
+        opt.setArgName("n");
+        options.addOption(opt);
+
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException ex) {
+            System.err.println("Error parsing command line");
+            System.err.println("Error was:" + ex.getMessage());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("?")) {
+            displayHelpMessage(options);
+            System.exit(0);
+        }
+
+        try {
+            if (cmd.hasOption("t")) {
+                to = LocalDate.parse(cmd.getOptionValue("t"));
+                from = to.minusDays(6);
+            }
+            if (cmd.hasOption("f")) {
+                from = LocalDate.parse(cmd.getOptionValue("f"));
+            }
+        } catch (DateTimeParseException ex) {
+            System.err.println("Dates must be yyyy-MM-dd: " + ex.getParsedString());
+            displayHelpMessage(options);
+            System.exit(1);
+        }
+
+        if (cmd.hasOption("i")) {
+            this.traffic = TrafficReport.Traffic.IGNORED;
+        } else if (cmd.hasOption("a")) {
+            this.traffic = TrafficReport.Traffic.ALL;
+        }
+
+        if (cmd.hasOption("n")) {
+            try {
+                top = Integer.parseInt(cmd.getOptionValue("n"));
+            } catch (NumberFormatException ex) {
+                top = 0;
+            }
+            if (top < 1 || top > CountMinSketch.HEAVY_HITTERS) {
+                System.err.println("--top must be between 1 and " + CountMinSketch.HEAVY_HITTERS);
+                System.exit(1);
+            }
+        }
+    }
+
+    private void displayHelpMessage(Options options) {
+        HelpFormatter formatter = HelpFormatter.builder().get();
+        try {
+            formatter.printHelp("TrafficReport [options]", null, options, null, true);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to render help output", ex);
+        }
+    }
+
+    /**
+     * @return the first day
+     */
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the last day
+     */
+    public LocalDate getTo() {
+        return to;
+    }
+
+    /**
+     * @return which traffic to report on
+     */
+    public TrafficReport.Traffic getTraffic() {
+        return traffic;
+    }
+
+    /**
+     * @return how many URLs and IPs to list
+     */
+    public int getTop() {
+        return top;
+    }
+}
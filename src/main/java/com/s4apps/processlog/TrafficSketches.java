@@ -0,0 +1,243 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the TrafficSketches table up to date as rows are imported: per day
+ * and per ignored/not ignored,
+ * - HyperLogLog sketches of the distinct IPs and user agents of each server;
+ * - Count-Min sketches of the URLs and IPs, with their heavy hitters.
+ * TrafficReport merges them to answer "unique visitors" and "top URLs" over
+ * any range of days without reading ApacheLogs.
+ *
+ * The table is optional and only maintained once it exists:
+ *
+ * CREATE TABLE TrafficSketches (
+ *     day DATE NOT NULL,
+ *     server VARCHAR(200) NOT NULL,
+ *     ignored BOOLEAN NOT NULL,
+ *     kind VARCHAR(16) NOT NULL,
+ *     sketch MEDIUMBLOB NOT NULL,
+ *     PRIMARY KEY (day, server, ignored, kind)
+ * );
+ *
+ * The Count-Min sketches cover every server, and are stored with an empty
+ * server. Servers are kept in lower case: the primary key compares them
+ * without case, so two spellings of one server would otherwise be the same
+ * row and one sketch would overwrite the other. Sketches can only be added
+ * to, so they describe the traffic as it was imported: rows deleted or
+ * re-flagged later are still counted, and only dropping whole days
+ * (partitions) removes them.
+ *
+ * @author mat
+ */
+public class TrafficSketches implements RowWriteListener {
+
+    public static final String TABLE = "TrafficSketches";
+
+    public static final String UNIQUE_IPS = "uniqueIps";
+    public static final String UNIQUE_AGENTS = "uniqueAgents";
+    public static final String TOP_URLS = "topUrls";
+    public static final String TOP_IPS = "topIps";
+
+    private static final int SERVER_LENGTH = 200;
+    private static final int URL_LENGTH = 500;
+    private static final String ALL_SERVERS = "";
+    private static final LocalDate NO_DATE = LocalDate.of(1970, 1, 1);
+
+    /**
+     * One row of the table.
+     */
+    public record Key(LocalDate day, String server, boolean ignored, String kind) implements Comparable<Key> {
+        @Override
+        public int compareTo(Key other) {
+            int c = day.compareTo(other.day);
+            if (c == 0) {
+                c = server.compareTo(other.server);
+            }
+            if (c == 0) {
+                c = Boolean.compare(ignored, other.ignored);
+            }
+            if (c == 0) {
+                c = kind.compareTo(other.kind);
+            }
+            return c;
+        }
+    }
+
+    // Sorted so that every writer locks the table's rows in the same order
+    private final Map<Key, HyperLogLog> uniques = new TreeMap<>();
+    private final Map<Key, CountMinSketch> tops = new TreeMap<>();
+    private LocalDateTime droppedBefore = null;
+
+    @Override
+    public void rowInserted(RowStringStorage row) {
+        LocalDate day = day(row);
+        boolean ignored = row.getIgnoreReason() != 0;
+        String server = row.getServer().toLowerCase(Locale.ROOT);
+        if (server.length() > SERVER_LENGTH) {
+            server = server.substring(0, SERVER_LENGTH);
+        }
+        String url = row.getUrl();
+        if (url.length() > URL_LENGTH) {
+            url = url.substring(0, URL_LENGTH);
+        }
+
+        uniques.computeIfAbsent(new Key(day, server, ignored, UNIQUE_IPS), k -> new HyperLogLog()).add(row.getIp());
+        uniques.computeIfAbsent(new Key(day, server, ignored, UNIQUE_AGENTS), k -> new HyperLogLog()).add(row.getBrowser());
+        tops.computeIfAbsent(new Key(day, ALL_SERVERS, ignored, TOP_URLS), k -> new CountMinSketch()).add(url);
+        tops.computeIfAbsent(new Key(day, ALL_SERVERS, ignored, TOP_IPS), k -> new CountMinSketch()).add(row.getIp());
+    }
+
+    @Override
+    public void rowDeleted(RowStringStorage row) {
+        // Sketches can't forget a value
+    }
+
+    @Override
+    public void rowFlagsChanged(RowStringStorage row, int ignoreReason) {
+        // Sketches can't move a value between ignored and not
+    }
+
+    @Override
+    public void rowsDroppedBefore(LocalDateTime bound) {
+        if (droppedBefore == null || bound.isAfter(droppedBefore)) {
+            droppedBefore = bound;
+        }
+    }
+
+    /**
+     * Merge the sketches collected since the last flush into the stored ones.
+     * Each stored sketch is read with FOR UPDATE, so concurrent imports merge
+     * rather than overwrite. The stored sketch is the one merged into, so if
+     * the transaction is rolled back and the flush retried the collected
+     * sketches are still only what was collected.
+     */
+    @Override
+    public void flush(Connection connection) throws SQLException {
+        if (droppedBefore != null) {
+            // Only days that have wholly gone, and never the rows without a date
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + TABLE
+                    + " WHERE day < ? AND day <> ?")) {
+                ps.setDate(1, Date.valueOf(droppedBefore.toLocalDate()));
+                ps.setDate(2, Date.valueOf(NO_DATE));
+                ps.executeUpdate();
+            }
+            droppedBefore = null;
+        }
+        if (uniques.isEmpty() && tops.isEmpty()) {
+            return;
+        }
+
+        Map<Key, byte[]> merged = new TreeMap<>();
+        try (PreparedStatement select = connection.prepareStatement("SELECT sketch FROM " + TABLE
+                + " WHERE day = ? AND server = ? AND ignored = ? AND kind = ? FOR UPDATE")) {
+            for (Map.Entry<Key, HyperLogLog> entry : uniques.entrySet()) {
+                byte[] stored = readSketch(select, entry.getKey());
+                if (stored == null) {
+                    merged.put(entry.getKey(), entry.getValue().toBytes());
+                } else {
+                    HyperLogLog sketch = HyperLogLog.fromBytes(stored);
+                    sketch.merge(entry.getValue());
+                    merged.put(entry.getKey(), sketch.toBytes());
+                }
+            }
+            for (Map.Entry<Key, CountMinSketch> entry : tops.entrySet()) {
+                byte[] stored = readSketch(select, entry.getKey());
+                if (stored == null) {
+                    merged.put(entry.getKey(), entry.getValue().toBytes());
+                } else {
+                    CountMinSketch sketch = CountMinSketch.fromBytes(stored);
+                    sketch.merge(entry.getValue());
+                    merged.put(entry.getKey(), sketch.toBytes());
+                }
+            }
+        } catch (IOException ex) {
+            throw new SQLException("Unable to read a stored sketch", ex);
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(ToolsAndConstants.upsert(connection,
+                "INSERT INTO " + TABLE + " (day, server, ignored, kind, sketch) VALUES (?, ?, ?, ?, ?)",
+                "sketch = incoming.sketch"))) {
+            for (Map.Entry<Key, byte[]> entry : merged.entrySet()) {
+                setKey(ps, entry.getKey());
+                ps.setBytes(5, entry.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        uniques.clear();
+        tops.clear();
+    }
+
+    /**
+     * Stream the stored sketches of a range of days, one row at a time so
+     * the caller can merge them in constant memory.
+     *
+     * @param connection
+     * @param from       the first day
+     * @param to         the last day
+     * @param kind       one of the kind constants
+     * @param consumer   given each key and its sketch's bytes
+     * @throws SQLException
+     */
+    public static void readSketches(Connection connection, LocalDate from, LocalDate to, String kind,
+            Consumer<Map.Entry<Key, byte[]>> consumer) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT day, server, ignored, sketch FROM " + TABLE
+                + " WHERE day >= ? AND day <= ? AND kind = ?")) {
+            ps.setDate(1, Date.valueOf(from));
+            ps.setDate(2, Date.valueOf(to));
+            ps.setString(3, kind);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Key key = new Key(rs.getDate(1).toLocalDate(), rs.getString(2), rs.getBoolean(3), kind);
+                    consumer.accept(Map.entry(key, rs.getBytes(4)));
+                }
+            }
+        }
+    }
+
+    /**
+     * The sketches collected since the last flush, for testing.
+     */
+    Map<Key, HyperLogLog> getUniques() {
+        return uniques;
+    }
+
+    /**
+     * The sketches collected since the last flush, for testing.
+     */
+    Map<Key, CountMinSketch> getTops() {
+        return tops;
+    }
+
+    private static byte[] readSketch(PreparedStatement select, Key key) throws SQLException {
+        setKey(select, key);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? rs.getBytes(1) : null;
+        }
+    }
+
+    private static void setKey(PreparedStatement ps, Key key) throws SQLException {
+        ps.setDate(1, Date.valueOf(key.day()));
+        ps.setString(2, key.server());
+        ps.setBoolean(3, key.ignored());
+        ps.setString(4, key.kind());
+    }
+
+    private static LocalDate day(RowStringStorage row) {
+        LocalDate day = row.getDay();
+        return day == null ? NO_DATE : day;
+    }
+}
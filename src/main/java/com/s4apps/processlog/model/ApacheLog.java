@@ -38,7 +38,7 @@ public class ApacheLog {
     private Integer response;
 
     @Column(name = "size")
-    private Integer size;
+    private Long size;
 
     @Column(name = "server", length = 200)
     private String server;
@@ -49,6 +49,17 @@ public class ApacheLog {
     @Column(name = "browser", length = 500)
     private String browser;
 
+    // In normalized storage the three values above are null and these hold
+    // their ids in the Server, Referer and UserAgent tables instead
+    @Column(name = "serverId")
+    private Integer serverId;
+
+    @Column(name = "server2Id")
+    private Integer server2Id;
+
+    @Column(name = "browserId")
+    private Integer browserId;
+
     @Column(name = "ignoreReason")
     private Integer ignoreReason;
 
@@ -124,11 +135,11 @@ public class ApacheLog {
         this.response = response;
     }
 
-    public Integer getSize() {
+    public Long getSize() {
         return size;
     }
 
-    public void setSize(Integer size) {
+    public void setSize(Long size) {
         this.size = size;
     }
 
@@ -156,6 +167,30 @@ public class ApacheLog {
         this.browser = browser;
     }
 
+    public Integer getServerId() {
+        return serverId;
+    }
+
+    public void setServerId(Integer serverId) {
+        this.serverId = serverId;
+    }
+
+    public Integer getServer2Id() {
+        return server2Id;
+    }
+
+    public void setServer2Id(Integer server2Id) {
+        this.server2Id = server2Id;
+    }
+
+    public Integer getBrowserId() {
+        return browserId;
+    }
+
+    public void setBrowserId(Integer browserId) {
+        this.browserId = browserId;
+    }
+
     public Integer getIgnoreReason() {
         return ignoreReason;
     }
@@ -218,6 +253,9 @@ public class ApacheLog {
                 ", server='" + server + '\'' +
                 ", server2='" + server2 + '\'' +
                 ", browser='" + browser + '\'' +
+                ", serverId=" + serverId +
+                ", server2Id=" + server2Id +
+                ", browserId=" + browserId +
                 ", ignoreReason=" + ignoreReason +
                 ", ignoreUrl=" + ignoreUrl +
                 ", ignoreServer=" + ignoreServer +
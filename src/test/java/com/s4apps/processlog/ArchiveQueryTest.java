@@ -0,0 +1,155 @@
+package com.s4apps.processlog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveQueryTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+    private static final int ROWS_PER_DAY = 20000;
+
+    @TempDir
+    Path dir;
+
+    private List<RowStringStorage> rows;
+    private List<Path> segments;
+
+    private RowStringStorage createRow(LocalDate day, int i) {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty());
+        row.pushCol("10.0.0." + (i % 5));
+        row.pushCol("-");
+        row.pushCol("-");
+        row.pushCol(day + String.format(" %02d:%02d:%02d", i / 3600 % 24, i / 60 % 60, i % 60));
+        row.pushCol("GET");
+        row.pushCol(i % 4 == 0 ? "/wp-admin/index.php" : "/blog/" + (i % 10));
+        row.pushCol("");
+        row.pushCol("HTTP/1.1");
+        row.pushCol(i % 7 == 0 ? "404" : "200");
+        row.pushCol("100");
+        row.pushCol(i % 2 == 0 ? "www.example.com" : "shop.example.com");
+        row.pushCol("-");
+        row.pushCol("Mozilla/5.0");
+        return row;
+    }
+
+    @BeforeEach
+    void writeSegments() throws Exception {
+        rows = new ArrayList<>();
+        for (int d = 0; d < 2; d++) {
+            for (int i = 0; i < ROWS_PER_DAY; i++) {
+                rows.add(createRow(FIRST_DAY.plusDays(d), i));
+            }
+        }
+        try (ArchiveSink sink = new ArchiveSink(dir)) {
+            sink.accept(rows);
+        }
+        segments = ArchiveQuery.listSegments(dir);
+        assertEquals(2, segments.size());
+    }
+
+    @Test
+    void filters_countTheSameRowsAsABruteForceScan() throws Exception {
+        ArchivePredicate predicate = new ArchivePredicate(null, null, 400, 499, Set.of("10.0.0.3"),
+                "WWW.", "/wp-", false);
+        ArchiveQuery.Result result = new ArchiveQuery(predicate, ConfigData.empty(), null).run(segments, 2);
+
+        long expected = rows.stream()
+                .filter(r -> r.getResponse().equals("404") && r.getIp().equals("10.0.0.3")
+                        && r.getServer().startsWith("www.") && r.getUrl().startsWith("/wp-"))
+                .count();
+        assertTrue(expected > 0);
+        assertEquals(expected, result.getRows());
+    }
+
+    @Test
+    void zoneMaps_skipSegmentsOutsideTheDates() throws Exception {
+        ArchivePredicate predicate = new ArchivePredicate(FIRST_DAY.plusDays(1).atStartOfDay(), null,
+                null, null, null, null, null, false);
+        ArchiveQuery.Result result = new ArchiveQuery(predicate, ConfigData.empty(), ArchiveQuery.Field.DAY)
+                .run(segments, 2);
+
+        assertEquals(ROWS_PER_DAY, result.getRows());
+        assertEquals(1, result.getSegmentsSkipped());
+        assertEquals(Map.of(FIRST_DAY.plusDays(1).toString(), (long) ROWS_PER_DAY), result.getGroups());
+    }
+
+    @Test
+    void dictionaries_skipBlocksWithoutTheValue() throws Exception {
+        ArchivePredicate predicate = new ArchivePredicate(null, null, null, null, Set.of("192.168.1.1"),
+                null, null, false);
+        ArchiveQuery.Result result = new ArchiveQuery(predicate, ConfigData.empty(), null).run(segments, 1);
+
+        assertEquals(0, result.getRows());
+        assertEquals(0, result.getBlocksRead());
+        assertEquals(4, result.getBlocksSkipped());
+    }
+
+    @Test
+    void notIgnored_appliesTheRulesAndTopOrdersByCount() throws Exception {
+        ConfigData cd = new ConfigData(List.of("10.0.0.0"), List.of(), List.of(), List.of("/wp-admin"),
+                List.of(), List.of(), List.of(), List.of());
+        ArchivePredicate predicate = new ArchivePredicate(null, null, null, null, null, null, null, true);
+        ArchiveQuery.Result result = new ArchiveQuery(predicate, cd, ArchiveQuery.Field.URL_PREFIX).run(segments, 2);
+
+        long expected = rows.stream()
+                .filter(r -> !r.getIp().equals("10.0.0.0") && !r.getUrl().startsWith("/wp-admin"))
+                .count();
+        assertEquals(expected, result.getRows());
+
+        List<Map.Entry<String, Long>> top = result.getTop(1);
+        assertEquals("/blog", top.get(0).getKey());
+        assertEquals(expected, top.get(0).getValue());
+    }
+
+    @Test
+    void reimportedRows_areCountedOnce() throws Exception {
+        // The first day imported again, as a grown access.log would be
+        try (ArchiveSink sink = new ArchiveSink(dir)) {
+            sink.accept(rows.subList(0, ROWS_PER_DAY));
+        }
+        List<Path> all = ArchiveQuery.listSegments(dir);
+        assertEquals(3, all.size());
+
+        ArchivePredicate predicate = new ArchivePredicate(null, null, 400, 499, null, null, null, false);
+        ArchiveQuery.Result result = new ArchiveQuery(predicate, ConfigData.empty(), ArchiveQuery.Field.DAY)
+                .run(all, 2);
+
+        long perDay = rows.subList(0, ROWS_PER_DAY).stream().filter(r -> r.getResponse().equals("404")).count();
+        assertEquals(2 * perDay, result.getRows());
+        assertEquals(Map.of(FIRST_DAY.toString(), perDay, FIRST_DAY.plusDays(1).toString(), perDay),
+                result.getGroups());
+    }
+
+    @Test
+    void archiveSink_onlyListsSegmentsOnceFlushed() throws Exception {
+        try (ArchiveSink sink = new ArchiveSink(dir)) {
+            sink.accept(rows.subList(0, 10));
+            // Half written, as during an import or after a killed one
+            assertEquals(segments, ArchiveQuery.listSegments(dir));
+
+            sink.flush();
+            List<Path> all = ArchiveQuery.listSegments(dir);
+            assertEquals(3, all.size());
+            ArchivePredicate predicate = new ArchivePredicate(null, null, null, null, null, null, null, false);
+            assertEquals(2 * ROWS_PER_DAY, new ArchiveQuery(predicate, ConfigData.empty(), null)
+                    .run(all, 2).getRows());
+
+            // The next file's rows go to a segment of their own
+            sink.accept(rows.subList(0, 10));
+        }
+        assertEquals(4, ArchiveQuery.listSegments(dir).size());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.noneMatch(f -> f.toString().endsWith(SegmentFormat.PARTIAL_SUFFIX)));
+        }
+    }
+}
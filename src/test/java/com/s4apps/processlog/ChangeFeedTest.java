@@ -0,0 +1,106 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTest {
+
+    private Connection createDatabase() throws Exception {
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:feed;MODE=MySQL");
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE " + ChangeFeed.TABLE + " (seq BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                    + " apacheLogId VARCHAR(64) NOT NULL, insertedAt DATETIME NOT NULL)");
+            st.execute("CREATE TABLE " + ChangeFeed.CONSUMERS_TABLE + " (consumer VARCHAR(64) NOT NULL PRIMARY KEY,"
+                    + " watermark BIGINT NOT NULL, updatedAt DATETIME NOT NULL)");
+        }
+        return connection;
+    }
+
+    private RowStringStorage createRow(String ip) {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty());
+        row.pushCol(ip);
+        row.pushCol("-");
+        row.pushCol("-");
+        row.pushCol("[10/Oct/2024:13:55:36 +0000]");
+        row.pushCol("GET");
+        row.pushCol("/index.html");
+        row.pushCol("");
+        row.pushCol("HTTP/1.1");
+        row.pushCol("200");
+        row.pushCol("100");
+        row.pushCol("example.com");
+        row.pushCol("-");
+        row.pushCol("Mozilla/5.0");
+        return row;
+    }
+
+    @Test
+    void flush_appendsInsertsInOrder() throws Exception {
+        try (Connection connection = createDatabase()) {
+            ChangeFeed feed = new ChangeFeed();
+            RowStringStorage first = createRow("10.0.0.1");
+            RowStringStorage second = createRow("10.0.0.2");
+            feed.rowInserted(first);
+            feed.rowDeleted(first);
+            feed.rowInserted(second);
+            feed.flush(connection);
+            assertTrue(feed.getInserted().isEmpty());
+
+            RowStringStorage third = createRow("10.0.0.3");
+            feed.rowInserted(third);
+            feed.flush(connection);
+            feed.flush(connection);
+
+            assertEquals(3, ChangeFeed.getHead(connection));
+            List<ChangeFeed.Entry> entries = ChangeFeed.readAfter(connection, 0, 10);
+            assertEquals(List.of(first.getId(), second.getId(), third.getId()),
+                    entries.stream().map(ChangeFeed.Entry::apacheLogId).toList());
+            assertTrue(entries.get(0).seq() < entries.get(1).seq());
+
+            List<ChangeFeed.Entry> after = ChangeFeed.readAfter(connection, entries.get(0).seq(), 1);
+            assertEquals(List.of(entries.get(1)), after);
+        }
+    }
+
+    @Test
+    void commitWatermark_onlyMovesForward() throws Exception {
+        try (Connection connection = createDatabase()) {
+            assertEquals(0, ChangeFeed.getWatermark(connection, "leads"));
+
+            ChangeFeed.commitWatermark(connection, "leads", 10);
+            ChangeFeed.commitWatermark(connection, "leads", 5);
+            ChangeFeed.commitWatermark(connection, "reports", 3);
+
+            assertEquals(10, ChangeFeed.getWatermark(connection, "leads"));
+            assertEquals(3, ChangeFeed.getWatermarks(connection).get("reports"));
+            assertEquals(2, ChangeFeed.getWatermarks(connection).size());
+        }
+    }
+
+    @Test
+    void prune_dropsWhatEveryConsumerHasHandledAndThePurgedRows() throws Exception {
+        try (Connection connection = createDatabase()) {
+            ChangeFeed feed = new ChangeFeed();
+            feed.rowInserted(createRow("10.0.0.1"));
+            feed.rowInserted(createRow("10.0.0.2"));
+            feed.rowInserted(createRow("10.0.0.3"));
+            feed.flush(connection);
+            assertEquals(0, ChangeFeed.prune(connection));
+
+            ChangeFeed.commitWatermark(connection, "leads", 2);
+            ChangeFeed.commitWatermark(connection, "reports", 1);
+            assertEquals(1, ChangeFeed.prune(connection));
+            assertEquals(2, ChangeFeed.readAfter(connection, 0, 10).size());
+
+            // Everything in the feed was imported before this cutoff
+            feed.rowsDroppedBefore(LocalDateTime.now().plusMinutes(1));
+            feed.flush(connection);
+            assertTrue(ChangeFeed.readAfter(connection, 0, 10).isEmpty());
+        }
+    }
+}
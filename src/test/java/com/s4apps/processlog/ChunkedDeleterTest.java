@@ -0,0 +1,120 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedDeleterTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Keeps the rows it is told were deleted, and how many went in each
+     * commit.
+     */
+    private static class DeletedRows implements RowWriteListener {
+        final List<RowStringStorage> rows = new ArrayList<>();
+        final List<Integer> slices = new ArrayList<>();
+        private int pending = 0;
+
+        @Override
+        public void rowInserted(RowStringStorage row) {
+        }
+
+        @Override
+        public void rowDeleted(RowStringStorage row) {
+            rows.add(row);
+            pending++;
+        }
+
+        @Override
+        public void rowFlagsChanged(RowStringStorage row, int ignoreReason) {
+        }
+
+        @Override
+        public void rowsDroppedBefore(LocalDateTime bound) {
+        }
+
+        @Override
+        public void flush(Connection connection) {
+            if (pending > 0) {
+                slices.add(pending);
+                pending = 0;
+            }
+        }
+    }
+
+    @Test
+    void deleteBefore_deletesOldestFirstASliceAtATime() {
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            // 300 rows over ten days, the newest first, and 20 to keep
+            for (int i = 0; i < 320; i++) {
+                ApacheLog log = TestRows.storedLog("10.0.0." + (i % 250), 0, false);
+                log.setId(String.format("row-%03d", i));
+                log.setDate(FIRST_DAY.plusDays(i < 300 ? 9 - i / 30 : 20).atTime(12, i % 60));
+                jpa.insertRow(new RowStringStorage(ConfigData.empty(), log));
+            }
+            jpa.commit();
+
+            DeletedRows deleted = new DeletedRows();
+            jpa.addListener(() -> deleted);
+            long start = System.nanoTime();
+            ChunkedDeleter deleter = new ChunkedDeleter(jpa, 25, 5, 0);
+            assertEquals(300, deleter.deleteBefore(FIRST_DAY.plusDays(10).atStartOfDay()));
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(20, jpa.countRows());
+            assertEquals(List.of(25, 25, 25, 25, 25, 25, 25, 25, 25, 25, 25, 25), deleted.slices);
+            assertTrue(millis >= 12 * 5, millis + " ms for 12 slices with a 5 ms pause");
+
+            // Each slice is no newer than the next
+            Set<String> ids = new HashSet<>();
+            String previousNewest = "";
+            int from = 0;
+            for (int slice : deleted.slices) {
+                List<RowStringStorage> rows = deleted.rows.subList(from, from + slice);
+                String oldest = rows.stream().map(RowStringStorage::getDate).min(String::compareTo).orElseThrow();
+                assertTrue(oldest.compareTo(previousNewest) >= 0, oldest + " after " + previousNewest);
+                previousNewest = rows.stream().map(RowStringStorage::getDate).max(String::compareTo).orElseThrow();
+                rows.forEach(row -> assertTrue(ids.add(row.getId()), row.getId()));
+                from += slice;
+            }
+            assertEquals(300, ids.size());
+        } finally {
+            jpa.close();
+        }
+    }
+
+    @Test
+    void nextChunkSize_halvesWhenSlowAndGrowsBackWhenQuick() {
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            ChunkedDeleter adaptive = new ChunkedDeleter(jpa, 1000, 0, 100);
+            assertEquals(500, adaptive.nextChunkSize(1000, 150));
+            assertEquals(125, adaptive.nextChunkSize(250, 150));
+            assertEquals(100, adaptive.nextChunkSize(125, 150));
+            // Between half the target and the target it stays put
+            assertEquals(125, adaptive.nextChunkSize(125, 60));
+            assertEquals(126, adaptive.nextChunkSize(100, 10));
+            assertEquals(1000, adaptive.nextChunkSize(900, 10));
+
+            ChunkedDeleter fixed = new ChunkedDeleter(jpa, 1000, 0, 0);
+            assertEquals(1000, fixed.nextChunkSize(1000, 5000));
+        } finally {
+            jpa.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.s4apps.processlog;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DaemonTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void isLogFile_skipsHiddenAndPartialFiles() {
+        assertTrue(Daemon.isLogFile(Paths.get("/logs/access.log.1")));
+        assertFalse(Daemon.isLogFile(Paths.get("/logs/.access.log.swp")));
+        assertFalse(Daemon.isLogFile(Paths.get("/logs/access.log.part")));
+        assertFalse(Daemon.isLogFile(Paths.get("/logs/access.log.tmp")));
+    }
+
+    @Test
+    void droppedFile_isImportedAndMoved() throws Exception {
+        Path drop = Files.createDirectory(dir.resolve("drop"));
+        Path done = dir.resolve("done");
+        Path socket = dir.resolve("d.sock");
+        DaemonOptions options = new DaemonOptions(new String[] {
+            "--watch", drop.toString(), "--done", done.toString(), "--settle", "0", "--socket", socket.toString()});
+
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            Daemon daemon = new Daemon(jpa, ConfigData.empty(), options);
+            Thread thread = new Thread(daemon::run);
+            thread.start();
+
+            // Written under another name and moved in, as a download would be
+            Path part = drop.resolve("access.log.part");
+            SyntheticLogGenerator.typical(3).write(part, 500);
+            Files.move(part, drop.resolve("access.log"), StandardCopyOption.ATOMIC_MOVE);
+
+            for (int i = 0; i < 300 && !Files.exists(done.resolve("access.log")); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(Files.exists(done.resolve("access.log")));
+            assertTrue(Daemon.send(socket, "status").startsWith("ok idle, 0 queued, 1 done, 0 failed"));
+            assertTrue(Daemon.send(socket, "bogus").startsWith("error unknown command 'bogus'"));
+            assertTrue(Daemon.send(socket, "import " + drop.resolve("missing.log")).startsWith("error no such file"));
+
+            assertEquals("ok stopping\n", Daemon.send(socket, "stop"));
+            thread.join(30_000);
+            assertFalse(thread.isAlive());
+            assertFalse(Files.exists(socket));
+            assertTrue(jpa.countRows() > 0);
+        } finally {
+            jpa.close();
+        }
+    }
+
+    @Test
+    void failedImport_isLeftAndTriedAgain() throws Exception {
+        Path drop = Files.createDirectory(dir.resolve("drop"));
+        Path done = dir.resolve("done");
+        Path socket = dir.resolve("d.sock");
+        DaemonOptions options = new DaemonOptions(new String[] {
+            "--watch", drop.toString(), "--done", done.toString(), "--settle", "0", "--socket", socket.toString()});
+
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            // Imports fail until the table is back
+            jpa.executeDdl("ALTER TABLE ApacheLogs RENAME TO ApacheLogsAway");
+            Daemon daemon = new Daemon(jpa, ConfigData.empty(), options);
+            Thread thread = new Thread(daemon::run);
+            thread.start();
+
+            SyntheticLogGenerator.typical(3).write(drop.resolve("access.log"), 500);
+            for (int i = 0; i < 300 && !Files.exists(socket); i++) {
+                Thread.sleep(100);
+            }
+            for (int i = 0; i < 300 && !Daemon.send(socket, "status").contains(" 0 done, 2 failed"); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(Daemon.send(socket, "status").contains(" 0 done, 2 failed"));
+            assertTrue(Files.exists(drop.resolve("access.log")));
+            assertFalse(Files.exists(done.resolve("access.log")));
+
+            jpa.executeDdl("ALTER TABLE ApacheLogsAway RENAME TO ApacheLogs");
+            for (int i = 0; i < 300 && !Files.exists(done.resolve("access.log")); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(Files.exists(done.resolve("access.log")));
+
+            daemon.stop();
+            thread.join(30_000);
+            assertTrue(jpa.countRows() > 0);
+        } finally {
+            jpa.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeleteOldTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void archive_carriesOnAfterARunStoppedBetweenExportAndDelete() throws Exception {
+        Path archive = dir.resolve("archive");
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            for (int d = 0; d < 2; d++) {
+                for (int i = 0; i < 5; i++) {
+                    ApacheLog log = TestRows.storedLog("10.0.0." + i, 0, false);
+                    log.setId("row-" + d + "-" + i);
+                    log.setDate(FIRST_DAY.plusDays(d).atTime(12, i));
+                    jpa.insertRow(new RowStringStorage(ConfigData.empty(), log));
+                }
+            }
+            jpa.commit();
+
+            // The first day exported, then the run stopped after deleting two of its rows
+            ArchiveExport export = new ArchiveExport(jpa, archive);
+            assertEquals(5, export.exportDay(FIRST_DAY));
+            jpa.executeNativeUpdate("DELETE FROM ApacheLogs WHERE id IN (?, ?)", "row-0-0", "row-0-1");
+            jpa.commit();
+            assertTrue(export.coversRemainingRows(FIRST_DAY));
+
+            DeleteOldOptions options = new DeleteOldOptions(new String[] {"--archive", archive.toString()});
+            new DeleteOld(jpa, options).run();
+
+            assertEquals(0, jpa.countRows());
+            assertEquals(5, export.archivedRows(FIRST_DAY));
+            assertEquals(5, export.archivedRows(FIRST_DAY.plusDays(1)));
+        } finally {
+            jpa.close();
+        }
+    }
+
+    @Test
+    void archive_addsRowsImportedSinceTheExportAndCarriesOn() throws Exception {
+        Path archive = dir.resolve("archive");
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            for (int i = 0; i < 3; i++) {
+                ApacheLog log = TestRows.storedLog("10.0.0." + i, 0, false);
+                log.setId("row-" + i);
+                log.setDate(FIRST_DAY.atTime(12, i));
+                jpa.insertRow(new RowStringStorage(ConfigData.empty(), log));
+            }
+            jpa.commit();
+            ArchiveExport export = new ArchiveExport(jpa, archive);
+            export.exportDay(FIRST_DAY);
+
+            // Two rows deleted and a late one imported since the export
+            jpa.executeNativeUpdate("DELETE FROM ApacheLogs WHERE id IN (?, ?)", "row-0", "row-1");
+            jpa.commit();
+            ApacheLog late = TestRows.storedLog("10.0.0.9", 0, false);
+            late.setId("late");
+            late.setDate(FIRST_DAY.atTime(23, 0));
+            jpa.insertRow(new RowStringStorage(ConfigData.empty(), late));
+            jpa.commit();
+            assertFalse(export.coversRemainingRows(FIRST_DAY));
+
+            DeleteOldOptions options = new DeleteOldOptions(new String[] {"--archive", archive.toString()});
+            new DeleteOld(jpa, options).run();
+
+            assertEquals(0, jpa.countRows());
+            assertEquals(4, export.archivedRows(FIRST_DAY));
+            assertTrue(Files.exists(archive.resolve(FIRST_DAY + "-1" + SegmentFormat.EXTENSION)));
+
+            // Each row once, however many segments the day has
+            ArchivePredicate all = new ArchivePredicate(null, null, null, null, null, null, null, false);
+            assertEquals(4, new ArchiveQuery(all, ConfigData.empty(), null)
+                    .run(ArchiveQuery.listSegments(archive), 1).getRows());
+        } finally {
+            jpa.close();
+        }
+    }
+}
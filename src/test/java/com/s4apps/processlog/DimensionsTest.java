@@ -0,0 +1,168 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DimensionsTest {
+
+    @TempDir
+    Path dir;
+
+    private ApacheLog newLog(String server, String referer, String userAgent) {
+        ApacheLog log = new ApacheLog();
+        log.setId("new-id");
+        log.setServer(server);
+        log.setServer2(referer);
+        log.setBrowser(userAgent);
+        return log;
+    }
+
+    @Test
+    void normalize_knownValues_replacedByIds() {
+        Dimensions dimensions = new Dimensions();
+        dimensions.getServers().put(1, "example.com");
+        dimensions.getReferers().put(7, "https://example.com/");
+        dimensions.getUserAgents().put(3, "Mozilla/5.0");
+
+        ApacheLog log = newLog("example.com", "https://example.com/", "Mozilla/5.0");
+        assertTrue(dimensions.normalize(log));
+
+        assertNull(log.getServer());
+        assertNull(log.getServer2());
+        assertNull(log.getBrowser());
+        assertEquals(1, log.getServerId());
+        assertEquals(7, log.getServer2Id());
+        assertEquals(3, log.getBrowserId());
+    }
+
+    @Test
+    void normalize_newValue_leftInline() {
+        Dimensions dimensions = new Dimensions();
+        dimensions.getServers().put(1, "example.com");
+
+        ApacheLog log = newLog("example.com", null, "curl/8.0");
+        assertFalse(dimensions.normalize(log));
+
+        assertEquals(1, log.getServerId());
+        assertEquals("curl/8.0", log.getBrowser());
+        assertNull(log.getBrowserId());
+    }
+
+    @Test
+    void resolve_fillsOnlyEmptyColumns() {
+        Dimensions dimensions = new Dimensions();
+        dimensions.getServers().put(1, "example.com");
+        dimensions.getUserAgents().put(3, "Mozilla/5.0");
+
+        RowStringStorage row = new RowStringStorage(ConfigData.empty(), newLog("inline.example.com", null, null));
+        assertTrue(dimensions.resolve(row, 1, null, 3));
+
+        assertEquals("inline.example.com", row.getServer());
+        assertEquals("Mozilla/5.0", row.getBrowser());
+        assertFalse(dimensions.resolve(row, null, 99, null));
+    }
+
+    @Test
+    void getIdsWithPrefix_comparesInLowerCase() {
+        DimensionDictionary servers = new DimensionDictionary(Dimensions.SERVER_TABLE, 200);
+        servers.put(1, "WWW.Example.com");
+        servers.put(2, "api.example.com");
+
+        assertEquals(List.of(1), servers.getIdsWithPrefix(List.of("www.")));
+    }
+
+    @Test
+    void addValues_idsOnlyKnownOncePublished() throws Exception {
+        Dimensions dimensions = new Dimensions();
+        try (Connection connection = DriverManager.getConnection(
+                "jdbc:h2:mem:dimensions;MODE=MySQL;NON_KEYWORDS=VALUE", "sa", "")) {
+            try (Statement st = connection.createStatement()) {
+                for (String table : List.of(Dimensions.SERVER_TABLE, Dimensions.REFERER_TABLE,
+                        Dimensions.USER_AGENT_TABLE)) {
+                    st.execute("CREATE TABLE " + table + " (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                            + " value VARCHAR(500) NOT NULL, UNIQUE KEY uk_" + table + " (value))");
+                }
+            }
+            ApacheLog log = newLog("example.com", null, "Mozilla/5.0");
+            assertFalse(dimensions.normalize(log));
+
+            Dimensions.NewValues added = dimensions.addValues(connection, List.of(log));
+            // Not yet committed, so other rows mustn't see the ids
+            assertNull(dimensions.getServers().getId("example.com"));
+
+            assertTrue(dimensions.normalize(log, added));
+            assertNotNull(log.getServerId());
+            assertNull(log.getServer());
+
+            dimensions.publish(added);
+            assertEquals(log.getServerId(), dimensions.getServers().getId("example.com"));
+            assertEquals(log.getBrowserId(), dimensions.getUserAgents().getId("Mozilla/5.0"));
+        }
+    }
+
+    @Test
+    void addValues_readsTheIdsBackInChunks() throws Exception {
+        DimensionDictionary referers = new DimensionDictionary(Dimensions.REFERER_TABLE, 500);
+        try (Connection connection = DriverManager.getConnection(
+                "jdbc:h2:mem:chunks;MODE=MySQL;NON_KEYWORDS=VALUE", "sa", "")) {
+            try (Statement st = connection.createStatement()) {
+                st.execute("CREATE TABLE " + Dimensions.REFERER_TABLE + " (id INT NOT NULL AUTO_INCREMENT"
+                        + " PRIMARY KEY, value VARCHAR(500) NOT NULL, UNIQUE KEY uk_referer (value))");
+            }
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < 2 * DimensionDictionary.IN_LIST_SIZE + 7; i++) {
+                values.add("https://example.com/page/" + i);
+            }
+
+            Map<String, Integer> ids = referers.addValues(connection, values);
+            assertEquals(values.size(), ids.size());
+            assertEquals(values.size(), new HashSet<>(ids.values()).size());
+        }
+    }
+
+    @Test
+    void insertRow_countsADuplicateAwaitingItsValuesAsSkipped() {
+        String url = "jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL;NON_KEYWORDS=VALUE;DATABASE_TO_UPPER=FALSE";
+        JpaAccess jpa = new JpaAccess(url, "sa", "", "create");
+        try {
+            for (String table : List.of(Dimensions.SERVER_TABLE, Dimensions.REFERER_TABLE,
+                    Dimensions.USER_AGENT_TABLE)) {
+                jpa.executeDdl("CREATE TABLE " + table + " (id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                        + " value VARCHAR(500) NOT NULL, UNIQUE KEY uk_" + table + " (value))");
+            }
+        } finally {
+            jpa.close();
+        }
+
+        jpa = new JpaAccess(url, "sa", "", "none");
+        try {
+            assertNotNull(jpa.getDimensions());
+            Metrics metrics = new Metrics("Test");
+            jpa.setMetrics(metrics);
+
+            // The row's values are new, so it waits for the commit to be persisted
+            RowStringStorage row = new RowStringStorage(ConfigData.empty(), TestRows.storedLog("1.2.3.4", 0, false));
+            assertEquals(1, jpa.insertRow(row));
+            assertEquals(0, jpa.insertRow(row));
+            jpa.commit();
+            assertEquals(0, jpa.insertRow(row));
+
+            assertEquals(1, metrics.counter("rows_inserted_total", "Rows inserted into ApacheLogs").get());
+            assertEquals(2, metrics.counter("rows_skipped_total",
+                    "Rows not inserted because they were already there").get());
+            assertEquals(1, jpa.countRows());
+        } finally {
+            jpa.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlagCountersTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 1, 1);
+
+    private ConfigData ignoreIp() {
+        return new ConfigData(
+                List.of("1.2.3.4"), List.of(), List.of(), List.of(),
+                List.of(), List.of(), List.of(), List.of());
+    }
+
+    @Test
+    void rowFlagsChanged_movesOneRowBetweenCells() {
+        FlagCounters counters = new FlagCounters();
+        RowStringStorage row = new RowStringStorage(ignoreIp(), TestRows.storedLog("1.2.3.4", 0, false));
+
+        counters.rowFlagsChanged(row, ToolsAndConstants.REASON_IP);
+
+        Map<FlagCounters.Key, Long> deltas = counters.getDeltas();
+        assertEquals(-1L, deltas.get(new FlagCounters.Key(DAY, 0, 0)));
+        assertEquals(1L, deltas.get(new FlagCounters.Key(DAY, ToolsAndConstants.REASON_IP, ToolsAndConstants.REASON_IP)));
+    }
+
+    @Test
+    void rowDeleted_nullReason_countedAgainstMinusOne() {
+        FlagCounters counters = new FlagCounters();
+        RowStringStorage row = new RowStringStorage(ConfigData.empty(), TestRows.storedLog("1.2.3.4", null, true));
+
+        counters.rowDeleted(row);
+
+        assertEquals(-1L, counters.getDeltas().get(new FlagCounters.Key(DAY, -1, ToolsAndConstants.REASON_IP)));
+    }
+
+    @Test
+    void insertThenDelete_cancelsOut() {
+        FlagCounters counters = new FlagCounters();
+        RowStringStorage row = new RowStringStorage(ConfigData.empty(), TestRows.storedLog("1.2.3.4", 0, false));
+
+        counters.rowInserted(row);
+        counters.rowDeleted(row);
+
+        assertEquals(0L, counters.getDeltas().get(new FlagCounters.Key(DAY, 0, 0)));
+    }
+
+    @Test
+    void countFlaggedAndMismatches_readFromCells() {
+        int ip = ToolsAndConstants.REASON_IP;
+        int bot = ToolsAndConstants.REASON_BOT;
+        Map<FlagCounters.Key, Long> counts = Map.of(
+                new FlagCounters.Key(DAY, ip, ip), 3L,
+                new FlagCounters.Key(DAY, ip + bot, ip + bot), 2L,
+                new FlagCounters.Key(DAY.plusDays(1), 0, bot), 5L);
+
+        assertEquals(5, FlagCounters.countFlagged(counts, ip));
+        assertEquals(7, FlagCounters.countFlagged(counts, bot));
+        assertEquals(5, FlagCounters.countReasonMismatches(counts));
+    }
+
+    @Test
+    void flush_droppedPartitionsKeepTheUndatedRows() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:flags;MODE=MySQL;NON_KEYWORDS=DAY");
+                Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE " + FlagCounters.TABLE + " (day DATE NOT NULL, ignoreReason INT NOT NULL,"
+                    + " flags INT NOT NULL, rowCount BIGINT NOT NULL, PRIMARY KEY (day, ignoreReason, flags))");
+            FlagCounters counters = new FlagCounters();
+            counters.rowInserted(new RowStringStorage(ConfigData.empty(), TestRows.storedLog("1.2.3.4", 0, false)));
+            counters.rowInserted(new RowStringStorage(ConfigData.empty(), undatedLog()));
+            counters.rowInserted(new RowStringStorage(ConfigData.empty(), undatedLog()));
+            counters.flush(connection);
+
+            counters.rowsDroppedBefore(DAY.plusDays(1).atStartOfDay());
+            counters.flush(connection);
+
+            try (ResultSet rs = statement.executeQuery("SELECT day, rowCount FROM " + FlagCounters.TABLE)) {
+                assertTrue(rs.next());
+                assertEquals(LocalDate.of(1970, 1, 1), rs.getObject(1, LocalDate.class));
+                assertEquals(2, rs.getLong(2));
+                assertFalse(rs.next());
+            }
+        }
+    }
+
+    private static ApacheLog undatedLog() {
+        ApacheLog log = TestRows.storedLog("1.2.3.4", 0, false);
+        log.setDate(null);
+        return log;
+    }
+}
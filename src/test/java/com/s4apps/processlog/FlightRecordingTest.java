@@ -0,0 +1,41 @@
+package com.s4apps.processlog;
+
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightRecordingTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void processLog_recordsTheFileAndSampledRules() throws Exception {
+        Path log = dir.resolve("access.log");
+        SyntheticLogGenerator.typical(1).write(log, 2500);
+        Path jfr = dir.resolve("run.jfr");
+
+        CliOptions options = new CliOptions(new String[] {
+            "--outfile", dir.resolve("out.csv").toString(), "--jfr", jfr.toString(), log.toString()});
+        new ProcessLog(options, ConfigData.empty()).run();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(jfr);
+        List<RecordedEvent> files = ofType(events, "com.s4apps.processlog.FileImport");
+        assertEquals(1, files.size());
+        assertEquals(log.toString(), files.get(0).getString("fileName"));
+        assertEquals(2500, files.get(0).getLong("linesRead"));
+        assertEquals(2500, files.get(0).getLong("rowsWritten"));
+        assertTrue(files.get(0).getLong("bytes") > 0);
+
+        // Rows 1, 1001 and 2001
+        assertEquals(3, ofType(events, "com.s4apps.processlog.RuleSample").size());
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).toList();
+    }
+}
@@ -0,0 +1,50 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HourlyRollupsTest {
+
+    private static final LocalDateTime HOUR = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    private ApacheLog storedLog() {
+        ApacheLog log = TestRows.storedLog("1.2.3.4", 0, false);
+        log.setDate(LocalDateTime.of(2024, 1, 1, 12, 34, 56));
+        log.setUrl("/wp-admin/index.php");
+        log.setResponse(404);
+        log.setSize(512L);
+        log.setServer("example.com");
+        return log;
+    }
+
+    @Test
+    void urlPrefix_isEverythingBeforeSecondSlash() {
+        assertEquals("/wp-admin", HourlyRollups.urlPrefix("/wp-admin/index.php"));
+        assertEquals("/", HourlyRollups.urlPrefix("/"));
+        assertEquals("/robots.txt", HourlyRollups.urlPrefix("/robots.txt"));
+        assertEquals("", HourlyRollups.urlPrefix(""));
+        assertEquals("*", HourlyRollups.urlPrefix("*"));
+    }
+
+    @Test
+    void rowFlagsChanged_movesHitsAndBytesToNewReason() {
+        ConfigData config = new ConfigData(
+                List.of("1.2.3.4"), List.of(), List.of(), List.of(),
+                List.of(), List.of(), List.of(), List.of());
+        HourlyRollups rollups = new HourlyRollups();
+
+        rollups.rowFlagsChanged(new RowStringStorage(config, storedLog()), ToolsAndConstants.REASON_IP);
+
+        HourlyRollups.Delta before = rollups.getDeltas().get(
+                new HourlyRollups.Key(HOUR, "example.com", "/wp-admin", 4, 0));
+        HourlyRollups.Delta after = rollups.getDeltas().get(
+                new HourlyRollups.Key(HOUR, "example.com", "/wp-admin", 4, ToolsAndConstants.REASON_IP));
+        assertEquals(-1, before.hits);
+        assertEquals(-512, before.bytes);
+        assertEquals(1, after.hits);
+        assertEquals(512, after.bytes);
+    }
+}
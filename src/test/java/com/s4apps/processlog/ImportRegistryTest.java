@@ -0,0 +1,119 @@
+package com.s4apps.processlog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportRegistryTest {
+
+    @TempDir
+    Path dir;
+
+    private Path writeLog(String name, int lines, String last) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("10.0.0.").append(i % 250).append(" - - [10/Oct/2024:13:55:36 +0000] \"GET /page/")
+                    .append(i).append(" HTTP/1.1\" 200 100 example.com \"-\" \"Mozilla/5.0\"\n");
+        }
+        sb.append(last).append('\n');
+        Path path = dir.resolve(name);
+        Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    void fingerprint_followsContentNotName() throws Exception {
+        Path rotated = writeLog("access.log.2", 5_000, "end");
+        Path renamed = writeLog("access.log.3", 5_000, "end");
+        Path changedTail = writeLog("access.log.4", 5_000, "END");
+        Path small = writeLog("access.log.5", 1, "end");
+
+        assertTrue(Files.size(rotated) > 2 * ImportRegistry.BLOCK_SIZE);
+        assertEquals(ImportRegistry.fingerprint(rotated), ImportRegistry.fingerprint(renamed));
+        assertNotEquals(ImportRegistry.fingerprint(rotated), ImportRegistry.fingerprint(changedTail));
+
+        ImportRegistry.Fingerprint fingerprint = ImportRegistry.fingerprint(small);
+        assertEquals(Files.size(small), fingerprint.size());
+        assertEquals(fingerprint.headHash(), fingerprint.tailHash());
+    }
+
+    @Test
+    void record_survivesReload() throws Exception {
+        Path log = writeLog("access.log.1", 100, "end");
+        Path grown = writeLog("access.log", 150, "end");
+        Path file = dir.resolve("registry.tsv");
+
+        ImportRegistry registry = new ImportRegistry(file);
+        assertEquals(0, registry.size());
+        registry.record(ImportRegistry.fingerprint(log), "database", "access.log.1", 101, 90);
+
+        ImportRegistry reloaded = new ImportRegistry(file);
+        ImportRegistry.Entry entry = reloaded.find(ImportRegistry.fingerprint(log), "database");
+        assertNotNull(entry);
+        assertEquals("access.log.1", entry.fileName());
+        assertEquals(101, entry.linesRead());
+        assertEquals(90, entry.rowsWritten());
+        assertNull(reloaded.find(ImportRegistry.fingerprint(grown), "database"));
+    }
+
+    @Test
+    void find_onlyMatchesTheSameOutputs() throws Exception {
+        Path log = writeLog("access.log.1", 100, "end");
+        Path file = dir.resolve("registry.tsv");
+        // A line from before the outputs were recorded
+        Files.writeString(file, "1\thead\ttail\t1\t1\t2024-01-01 00:00:00\told.log\n");
+
+        ImportRegistry registry = new ImportRegistry(file);
+        registry.record(ImportRegistry.fingerprint(log), "null", "access.log.1", 101, 101);
+        assertNull(registry.find(ImportRegistry.fingerprint(log), "database"));
+        registry.record(ImportRegistry.fingerprint(log), "database", "access.log.1", 101, 90);
+
+        ImportRegistry reloaded = new ImportRegistry(file);
+        assertEquals(3, reloaded.size());
+        assertEquals(101, reloaded.find(ImportRegistry.fingerprint(log), "null").rowsWritten());
+        assertEquals(90, reloaded.find(ImportRegistry.fingerprint(log), "database").rowsWritten());
+        assertNull(reloaded.find(new ImportRegistry.Fingerprint(1, "head", "tail"), "database"));
+    }
+
+    @Test
+    void recordedFile_isInACompleteSegmentWithoutClose() throws Exception {
+        Path log = writeLog("access.log.1", 100, "10.0.0.1 - - [10/Oct/2024:13:55:36 +0000] \"GET / HTTP/1.1\""
+                + " 200 100 example.com \"-\" \"Mozilla/5.0\"");
+        Path archive = dir.resolve("archive");
+        Path registryFile = dir.resolve("registry.tsv");
+        CliOptions options = new CliOptions(new String[] {
+            "--archive", archive.toString(), "--registry", registryFile.toString(), log.toString()});
+
+        // As if the run were killed after the file: the sink is never closed
+        ArchiveSink archiveSink = new ArchiveSink(archive);
+        LogSink unclosed = new LogSink() {
+            @Override
+            public int accept(List<RowStringStorage> rows) throws IOException {
+                return archiveSink.accept(rows);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                archiveSink.flush();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        new ProcessLog(options, ConfigData.empty(), unclosed).run();
+
+        ImportRegistry registry = new ImportRegistry(registryFile);
+        assertNotNull(registry.find(ImportRegistry.fingerprint(log), options.getOutputTarget()));
+        List<Path> segments = ArchiveQuery.listSegments(archive);
+        assertEquals(1, segments.size());
+        try (SegmentReader reader = new SegmentReader(segments.get(0))) {
+            assertEquals(101, reader.getRowCount());
+        }
+    }
+}
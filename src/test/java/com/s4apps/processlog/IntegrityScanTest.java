@@ -0,0 +1,91 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntegrityScanTest {
+
+    @TempDir
+    Path dir;
+
+    private int rows = 0;
+
+    /**
+     * Insert a row, then store the given flags whatever the rules say.
+     */
+    private void insert(JpaAccess jpa, String ip, String url, String method, int ignoreReason, boolean ignoreIp,
+            boolean ignoreUrl) {
+        ApacheLog log = TestRows.storedLog(ip, 0, false);
+        log.setId("row-" + rows++);
+        log.setUrl(url);
+        log.setMethod(method);
+        jpa.insertRow(new RowStringStorage(ConfigData.empty(), log));
+        jpa.commit();
+        jpa.executeNativeUpdate("UPDATE ApacheLogs SET ignoreReason = ?, ignoreIp = ?, ignoreUrl = ? WHERE id = ?",
+                ignoreReason, ignoreIp, ignoreUrl, log.getId());
+        jpa.commit();
+    }
+
+    @Test
+    void scan_countsTheSameAsTheQueries() {
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            jpa.executeNativeUpdate("INSERT INTO IgnoreIps (ip) VALUES (?)", "10.0.0.1");
+            jpa.executeNativeUpdate("INSERT INTO IgnoreUrls (url) VALUES (?)", "/wp-admin");
+            jpa.executeNativeUpdate("INSERT INTO DeleteIps (ip) VALUES (?)", "10.0.0.66");
+            jpa.executeNativeUpdate("INSERT INTO DeleteMethods (method) VALUES (?)", "OPTIONS");
+
+            int ip = ToolsAndConstants.REASON_IP;
+            int url = ToolsAndConstants.REASON_URL;
+            for (int i = 0; i < 5; i++) {
+                insert(jpa, "10.0.0.1", "/", "GET", ip, true, false);
+            }
+            // The ip flag missing, and set on a row the rules don't match
+            insert(jpa, "10.0.0.1", "/", "GET", 0, false, false);
+            insert(jpa, "10.0.0.2", "/", "GET", ip, true, false);
+            insert(jpa, "10.0.0.3", "/wp-admin/a", "GET", url, false, true);
+            insert(jpa, "10.0.0.3", "/wp-admin/b", "GET", url, false, true);
+            // An ignoreReason that isn't the sum of the flags
+            insert(jpa, "10.0.0.4", "/", "GET", ToolsAndConstants.REASON_SERVER, false, false);
+            // Rows a delete rule matches
+            insert(jpa, "10.0.0.66", "/", "GET", 0, false, false);
+            insert(jpa, "10.0.0.66", "/x", "GET", 0, false, false);
+            insert(jpa, "10.0.0.5", "/", "OPTIONS", 0, false, false);
+
+            IntegrityScan scan = new IntegrityScan(jpa, new ConfigRepository().load(jpa), null);
+            assertEquals(6, scan.run());
+
+            long[] deletes = scan.getDeleteMatches();
+            assertEquals(2, deletes[0]);
+            assertEquals(jpa.countDeleteIpMatches(), deletes[0]);
+            assertEquals(jpa.countDeleteUrlMatches(), deletes[1]);
+            assertEquals(jpa.countDeleteServerMatches(), deletes[2]);
+            assertEquals(1, deletes[3]);
+            assertEquals(jpa.countDeleteMethodMatches(), deletes[3]);
+
+            // Check compares the rows the rules match with the rows flagged
+            long[] flagged = scan.getFlagged();
+            long[] missing = scan.getFlagsMissing();
+            long[] extra = scan.getFlagsExtra();
+            assertEquals(1, missing[0]);
+            assertEquals(1, extra[0]);
+            assertEquals(jpa.countIgnoreIpFlagged(), flagged[0]);
+            assertEquals(jpa.countIgnoreIpMatches(), flagged[0] + missing[0] - extra[0]);
+            assertEquals(jpa.countIgnoreUrlFlagged(), flagged[1]);
+            assertEquals(jpa.countIgnoreUrlMatches(), flagged[1] + missing[1] - extra[1]);
+            assertEquals(jpa.countIgnoreServerFlagged(), flagged[2]);
+            assertEquals(jpa.countIgnoreServerMatches(), flagged[2] + missing[2] - extra[2]);
+            assertEquals(jpa.countIgnoreMethodFlagged(), flagged[3]);
+            assertEquals(jpa.countIgnoreMethodMatches(), flagged[3] + missing[3] - extra[3]);
+            assertEquals(jpa.countIgnoreBotFlagged(), flagged[4]);
+
+            assertEquals(1, scan.getReasonMismatches());
+            assertEquals(jpa.countIgnoreReasonMismatch(), scan.getReasonMismatches());
+        } finally {
+            jpa.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.s4apps.processlog;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentiles_areWithinABucketOfTheTruth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000_000L, histogram.getMaxNanos());
+        assertEquals(500_500_000_000L, histogram.getTotalNanos());
+        assertEquals(500_000_000L, histogram.getPercentile(50), 500_000_000L * 0.13);
+        assertEquals(990_000_000L, histogram.getPercentile(99), 990_000_000L * 0.13);
+        assertEquals(1_000_000_000L, histogram.getPercentile(100));
+        assertTrue(histogram.getPercentile(50) >= 500_000_000L);
+    }
+
+    @Test
+    void extremes_landInTheEndBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(10);
+        assertEquals(10, histogram.getPercentile(50));
+
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentile(100));
+
+        for (int bucket = 1; bucket < histogram.getBuckets(); bucket++) {
+            assertTrue(LatencyHistogram.upperBoundOf(bucket) > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.s4apps.processlog;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogLineTest {
+
+    private static final String LINE = "82.165.86.0 - - [22/Mar/2026:01:57:33 +0100] "
+            + "\"POST /wp-cron.php?doing_wp_cron=1774141053 HTTP/1.1\" 200 - 7upman.com \"-\" "
+            + "\"WordPress/6.9.4; http://7upman.com\" \"-\"";
+
+    private static ConfigData rules() {
+        return new ConfigData(
+                List.of("66.249.66.1"), List.of("HEAD"), List.of("staging."), List.of("/wp-login.php"),
+                List.of("82.165.86.1"), List.of("OPTIONS"), List.of("old.example.com"),
+                List.of("/wp-content/", "/wp-cron.php"));
+    }
+
+    @Test
+    void toRow_matchesTheEagerParser() {
+        ConfigData config = rules();
+        LogLine logLine = new LogLine();
+        String[] lines = SyntheticLogGenerator.typical(7).nextLines(2000);
+        for (String line : lines) {
+            logLine.parse(line);
+            RowStringStorage lazy = logLine.toRow(config);
+            RowStringStorage eager = new RowStringStorage(config);
+            logLine.pushTo(eager);
+
+            assertEquals(eager.isDeleteRow(), logLine.isDeleteRow(config), line);
+            assertEquals(eager.toString(), lazy.toString(), line);
+            assertEquals(eager.getId(), lazy.getId(), line);
+        }
+    }
+
+    @Test
+    void toRow_isUnaffectedByTheNextLine() {
+        LogLine logLine = new LogLine();
+        logLine.parse(LINE);
+        RowStringStorage row = logLine.toRow(ConfigData.empty());
+        logLine.parse("10.0.0.1 - - [01/Jan/2024:12:00:00 +0000] \"GET /other HTTP/1.1\" 404 10 x.com \"-\" \"-\"");
+
+        assertEquals("82.165.86.0", row.getIp());
+        assertEquals("2026-03-22 00:57:33", row.getDate());
+        assertEquals("POST", row.getMethod());
+        assertEquals("/wp-cron.php", row.getUrl());
+        assertEquals("doing_wp_cron=1774141053", row.getQueryString());
+        assertEquals("HTTP/1.1", row.getHttpVer());
+        assertEquals("7upman.com", row.getServer());
+        assertEquals("WordPress/6.9.4; http://7upman.com", row.getBrowser());
+    }
+
+    @Test
+    void isDeleteRow_checksTheSlicesIgnoringCase() {
+        LogLine logLine = new LogLine();
+        logLine.parse(LINE.replace("/wp-cron.php", "/WP-Content/uploads/a.png"));
+        assertTrue(logLine.isDeleteRow(rules()));
+
+        logLine.parse(LINE.replace("POST", "options"));
+        assertTrue(logLine.isDeleteRow(rules()));
+
+        // A prefix of the IP isn't a match
+        logLine.parse(LINE.replace("82.165.86.0", "82.165.86.10").replace("/wp-cron.php", "/"));
+        assertFalse(logLine.isDeleteRow(rules()));
+    }
+
+    @Test
+    void isDeleteRow_agreesWithTheRowForMixedCaseRules() {
+        // Rules as typed into the config tables, before any normalising
+        ConfigData config = new ConfigData(
+                List.of(), List.of(), List.of(), List.of(),
+                List.of("82.165.86.0", "2001:DB8::1"), List.of("OPTIONS", "Post"),
+                List.of("7UpMan.com", "old.example.com"), List.of("/WP-Cron.php", "/wp-login.php"));
+        String[] lines = {
+            LINE,
+            LINE.replace("82.165.86.0", "2001:db8::1"),
+            LINE.replace("82.165.86.0", "2001:DB8::1"),
+            LINE.replace("POST", "post").replace("7upman.com", "x.com"),
+            LINE.replace("POST", "options").replace("7upman.com", "x.com"),
+            LINE.replace("7upman.com", "7UPMAN.COM"),
+            LINE.replace("7upman.com", "OLD.example.com").replace("82.165.86.0", "10.0.0.1"),
+            LINE.replace("/wp-cron.php", "/WP-Login.php").replace("7upman.com", "x.com"),
+            LINE.replace("/wp-cron.php", "/WP-Cron.php").replace("7upman.com", "x.com"),
+        };
+        LogLine logLine = new LogLine();
+        for (String line : lines) {
+            logLine.parse(line);
+            assertEquals(logLine.toRow(config).isDeleteRow(), logLine.isDeleteRow(config), line);
+        }
+    }
+
+    @Test
+    void parse_copiesFieldsWithEscapes() {
+        LogLine logLine = new LogLine();
+        logLine.parse(LINE.replace("WordPress/6.9.4", "Word\\\"Press\\\""));
+        RowStringStorage row = logLine.toRow(ConfigData.empty());
+        assertEquals("Word\"Press\"; http://7upman.com", row.getBrowser());
+        assertEquals("/wp-cron.php", row.getUrl());
+    }
+
+    @Test
+    void typedColumns_areReadFromTheSlices() {
+        LogLine logLine = new LogLine();
+        logLine.parse(LINE.replace("200 -", "206 3000000000"));
+        assertEquals(OffsetDateTime.parse("2026-03-22T01:57:33+01:00").toEpochSecond(), logLine.getEpochSecond());
+        assertEquals(206, logLine.getResponseCode());
+        assertEquals(3_000_000_000L, logLine.getSizeBytes());
+
+        RowStringStorage row = logLine.toRow(ConfigData.empty());
+        assertEquals(LocalDateTime.of(2026, 3, 22, 0, 57, 33), row.getDateTime());
+        assertEquals("3000000000", row.getSize());
+
+        logLine.parse(LINE);
+        assertEquals(ToolsAndConstants.NO_SIZE, logLine.getSizeBytes());
+
+        // A date not in the usual form still goes through the formatter
+        logLine.parse(LINE.replace("[22/Mar/2026:01:57:33 +0100]", "[2/Mar/2026:01:57:33 +0100]"));
+        assertThrows(DateTimeParseException.class, logLine::getEpochSecond);
+    }
+}
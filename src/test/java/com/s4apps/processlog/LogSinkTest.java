@@ -0,0 +1,72 @@
+package com.s4apps.processlog;
+
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogSinkTest {
+
+    private RowStringStorage createRow(String ip, String url) {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty());
+        row.pushCol(ip);
+        row.pushCol("-");
+        row.pushCol("-");
+        row.pushCol("2024-01-01 12:00:00");
+        row.pushCol("GET");
+        row.pushCol(url);
+        row.pushCol("");
+        row.pushCol("HTTP/1.1");
+        row.pushCol("200");
+        row.pushCol("1234");
+        row.pushCol("example.com");
+        row.pushCol("-");
+        row.pushCol("Mozilla/5.0");
+        return row;
+    }
+
+    @Test
+    void csvSink_writesOneLinePerRow() throws Exception {
+        StringWriter out = new StringWriter();
+        try (CsvSink sink = new CsvSink(out, false)) {
+            assertEquals(2, sink.accept(List.of(createRow("1.2.3.4", "/a"), createRow("1.2.3.4", "/b"))));
+        }
+        assertEquals(2, out.toString().lines().count());
+    }
+
+    @Test
+    void compositeSink_writesToEverySink() throws Exception {
+        StringWriter first = new StringWriter();
+        StringWriter second = new StringWriter();
+        try (CompositeSink sink = new CompositeSink(List.of(
+                new CsvSink(first, true), new NullSink(), new CsvSink(second, true)))) {
+            assertEquals(1, sink.accept(List.of(createRow("1.2.3.4", "/a"))));
+        }
+        assertEquals(first.toString(), second.toString());
+        assertFalse(first.toString().isEmpty());
+    }
+
+    @Test
+    void embeddedDbSink_mergesOnId(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("logs").toString();
+        try (EmbeddedDbSink sink = new EmbeddedDbSink(file)) {
+            sink.accept(List.of(createRow("1.2.3.4", "/a"), createRow("1.2.3.4", "/b")));
+            sink.flush();
+            sink.accept(List.of(createRow("1.2.3.4", "/a")));
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:file:" + file);
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*), MAX(size) FROM ApacheLogs")) {
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertEquals(1234, rs.getLong(2));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.s4apps.processlog;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void write_usesThePrometheusTextFormat() throws Exception {
+        Metrics metrics = new Metrics("ProcessLog");
+        metrics.counter("lines_read_total", "Log lines read").add(42);
+        metrics.counter("rows_ignored_total", "Ignored rows", "reason", "bot").add(3);
+        metrics.counter("rows_ignored_total", "Ignored rows", "reason", "ip").inc();
+        metrics.gauge("lines_per_second", "Lines a second").set(1.5);
+        LatencyHistogram histogram = metrics.histogram("parse_seconds", "Parse time");
+        histogram.record(3_000);
+        histogram.record(5_000_000);
+
+        StringWriter out = new StringWriter();
+        metrics.write(out);
+        String text = out.toString();
+
+        assertTrue(text.contains("# TYPE processlog_lines_read_total counter\n"));
+        assertTrue(text.contains("processlog_lines_read_total{tool=\"ProcessLog\"} 42\n"));
+        assertTrue(text.contains("processlog_rows_ignored_total{tool=\"ProcessLog\",reason=\"bot\"} 3\n"));
+        assertTrue(text.contains("processlog_rows_ignored_total{tool=\"ProcessLog\",reason=\"ip\"} 1\n"));
+        assertEquals(1, text.split("# HELP processlog_rows_ignored_total", -1).length - 1);
+        assertTrue(text.contains("processlog_lines_per_second{tool=\"ProcessLog\"} 1.5\n"));
+        assertTrue(text.contains("processlog_parse_seconds_bucket{tool=\"ProcessLog\",le=\"1.6E-5\"} 1\n"));
+        assertTrue(text.contains("processlog_parse_seconds_bucket{tool=\"ProcessLog\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("processlog_parse_seconds_count{tool=\"ProcessLog\"} 2\n"));
+    }
+
+    @Test
+    void close_replacesTheFileWithTheFinalValues() throws Exception {
+        Path file = dir.resolve("processlog.prom");
+        Files.writeString(file, "old");
+
+        Metrics metrics = new Metrics("Rebuild");
+        metrics.startWriting(file, 3600);
+        metrics.counter("rebuild_rows_total", "Rows").add(7);
+        metrics.close();
+
+        String text = Files.readString(file);
+        assertTrue(text.contains("processlog_rebuild_rows_total{tool=\"Rebuild\"} 7\n"));
+        assertTrue(text.contains("processlog_run_duration_seconds{tool=\"Rebuild\"}"));
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        assertThrows(IllegalArgumentException.class, () -> metrics.gauge("rebuild_rows_total", "Rows"));
+    }
+}
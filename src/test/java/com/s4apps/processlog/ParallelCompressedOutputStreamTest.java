@@ -0,0 +1,76 @@
+package com.s4apps.processlog;
+
+import com.github.luben.zstd.ZstdInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelCompressedOutputStreamTest {
+
+    @TempDir
+    Path dir;
+
+    private byte[] createData() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("10.0.0.").append(i % 256).append(",GET,/page/").append(i).append(",200\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void write(Path file, ParallelCompressedOutputStream.Codec codec, byte[] data) throws Exception {
+        // Small blocks so the data spans many members/frames and threads
+        try (OutputStream out = new ParallelCompressedOutputStream(file, codec, 4096, 3)) {
+            out.write(data, 0, data.length / 2);
+            out.flush();
+            for (int i = data.length / 2; i < data.length; i++) {
+                out.write(data[i]);
+            }
+        }
+    }
+
+    @Test
+    void gzip_isReadAsOneStream() throws Exception {
+        byte[] data = createData();
+        Path file = dir.resolve("out.csv.gz");
+        write(file, ParallelCompressedOutputStream.Codec.GZIP, data);
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        assertTrue(Files.size(file) < data.length / 2);
+    }
+
+    @Test
+    void zstd_isReadAsOneStream() throws Exception {
+        byte[] data = createData();
+        Path file = dir.resolve("out.csv.zst");
+        write(file, ParallelCompressedOutputStream.Codec.ZSTD, data);
+
+        try (InputStream in = new ZstdInputStream(Files.newInputStream(file))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void csvSink_compressesByExtension() throws Exception {
+        Path file = dir.resolve("empty.csv.gz");
+        try (CsvSink sink = CsvSink.forFile(file.toString())) {
+            sink.accept(List.of());
+        }
+
+        // Even with no rows the file is valid gzip
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertEquals(0, in.readAllBytes().length);
+        }
+        assertEquals(ParallelCompressedOutputStream.Codec.ZSTD, ParallelCompressedOutputStream.Codec.forFile("x.CSV.ZST"));
+        assertNull(ParallelCompressedOutputStream.Codec.forFile("x.csv"));
+    }
+}
@@ -0,0 +1,143 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.PartitionManager.Granularity;
+import com.s4apps.processlog.PartitionManager.Partition;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionManagerTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 1, 1);
+    private static final LocalDate TODAY = LocalDate.of(2024, 10, 19);
+    private static final Partition START = partition("p_start", "'1970-01-02 00:00:00'");
+    private static final Partition FUTURE = partition("p_future", "MAXVALUE");
+
+    @Test
+    void daysToRecopy_findsImportedDeletedAndMissingDays() {
+        Map<LocalDate, Long> live = Map.of(DAY, 10L, DAY.plusDays(1), 12L, DAY.plusDays(2), 5L, DAY.plusDays(4), 1L);
+        Map<LocalDate, Long> copied = Map.of(DAY, 10L, DAY.plusDays(1), 11L, DAY.plusDays(2), 6L, DAY.plusDays(3), 2L);
+
+        // Rows imported into day 1, deleted from day 2 and day 3, and day 4 never copied
+        assertEquals(List.of(DAY.plusDays(1), DAY.plusDays(2), DAY.plusDays(3), DAY.plusDays(4)),
+                PartitionManager.daysToRecopy(live, copied));
+        assertEquals(List.of(), PartitionManager.daysToRecopy(live, live));
+    }
+
+    @Test
+    void parseBound_readsQuotedDatesAndMaxvalue() {
+        assertEquals(LocalDateTime.of(2026, 10, 20, 0, 0), PartitionManager.parseBound("'2026-10-20 00:00:00'"));
+        assertEquals(LocalDateTime.of(2026, 10, 20, 0, 0), PartitionManager.parseBound("'2026-10-20'"));
+        assertNull(PartitionManager.parseBound("MAXVALUE"));
+        assertNull(PartitionManager.parseBound(null));
+    }
+
+    @Test
+    void granularityOf_readsTheNameOfTheFirstPeriodPartition() {
+        assertEquals(Granularity.DAY, PartitionManager.granularityOf(dayPartitions(DAY, 2)));
+        assertEquals(Granularity.MONTH, PartitionManager.granularityOf(List.of(START,
+                partition("p_202401", "'2024-02-01 00:00:00'"), FUTURE)));
+        assertNull(PartitionManager.granularityOf(List.of(START, FUTURE)));
+    }
+
+    @Test
+    void futurePartitions_splitsOffEachDayUpToDaysAhead() {
+        // The last partition holds 2024-10-18, so 19th to 21st are missing
+        List<String> definitions = PartitionManager.futurePartitions(dayPartitions(LocalDate.of(2024, 10, 16), 3),
+                Granularity.DAY, TODAY, 2);
+
+        assertEquals(List.of(
+                "PARTITION p_20241019 VALUES LESS THAN ('2024-10-20 00:00:00')",
+                "PARTITION p_20241020 VALUES LESS THAN ('2024-10-21 00:00:00')",
+                "PARTITION p_20241021 VALUES LESS THAN ('2024-10-22 00:00:00')"), definitions);
+        assertEquals("ALTER TABLE ApacheLogs REORGANIZE PARTITION p_future INTO ("
+                + "PARTITION p_20241019 VALUES LESS THAN ('2024-10-20 00:00:00'), "
+                + "PARTITION p_20241020 VALUES LESS THAN ('2024-10-21 00:00:00'), "
+                + "PARTITION p_20241021 VALUES LESS THAN ('2024-10-22 00:00:00'), "
+                + "PARTITION p_future VALUES LESS THAN (MAXVALUE))", PartitionManager.reorganizeFuture(definitions));
+    }
+
+    @Test
+    void futurePartitions_isEmptyWhenAlreadyFarEnoughAhead() {
+        // Partitions up to and including 2024-10-21
+        List<Partition> partitions = dayPartitions(LocalDate.of(2024, 10, 16), 6);
+
+        assertEquals(List.of(), PartitionManager.futurePartitions(partitions, Granularity.DAY, TODAY, 2));
+        assertEquals(List.of("PARTITION p_20241022 VALUES LESS THAN ('2024-10-23 00:00:00')"),
+                PartitionManager.futurePartitions(partitions, Granularity.DAY, TODAY, 3));
+    }
+
+    @Test
+    void futurePartitions_startsFromTodayWithOnlyStartAndFuture() {
+        assertEquals(List.of(
+                "PARTITION p_202410 VALUES LESS THAN ('2024-11-01 00:00:00')",
+                "PARTITION p_202411 VALUES LESS THAN ('2024-12-01 00:00:00')"),
+                PartitionManager.futurePartitions(List.of(START, FUTURE), Granularity.MONTH, TODAY, 20));
+    }
+
+    @Test
+    void futurePartitions_switchingToMonthsCoversTheRestOfTheMonth() {
+        // Daily partitions up to 2024-10-19; the monthly one then holds 20th to 31st
+        assertEquals(List.of("PARTITION p_202410 VALUES LESS THAN ('2024-11-01 00:00:00')"),
+                PartitionManager.futurePartitions(dayPartitions(LocalDate.of(2024, 10, 17), 3),
+                        Granularity.MONTH, TODAY, 2));
+    }
+
+    @Test
+    void expiredPartitions_dropsOnlyWholePeriodsBeforeTheCutoff() {
+        // p_20240101 to p_20240103, the last ending at 2024-01-04 00:00
+        List<Partition> partitions = dayPartitions(DAY, 3);
+
+        assertEquals(List.of("p_20240101", "p_20240102"),
+                names(PartitionManager.expiredPartitions(partitions, LocalDateTime.of(2024, 1, 3, 0, 0))));
+        // p_20240102 still holds a row within retention
+        assertEquals(List.of("p_20240101"),
+                names(PartitionManager.expiredPartitions(partitions, LocalDateTime.of(2024, 1, 2, 23, 59, 59))));
+        assertEquals(List.of(),
+                names(PartitionManager.expiredPartitions(partitions, LocalDateTime.of(2024, 1, 1, 12, 0))));
+        // Never p_start or p_future, however old the cutoff makes them
+        List<Partition> all = PartitionManager.expiredPartitions(partitions, LocalDateTime.of(2030, 1, 1, 0, 0));
+        assertEquals(List.of("p_20240101", "p_20240102", "p_20240103"), names(all));
+        assertEquals(LocalDateTime.of(2024, 1, 4, 0, 0), all.get(all.size() - 1).upperBound());
+    }
+
+    @Test
+    void partitionNewTable_coversFromTheFirstRowToDaysAhead() {
+        assertEquals("ALTER TABLE ApacheLogs_new MODIFY date DATETIME NOT NULL, DROP PRIMARY KEY,"
+                + " ADD PRIMARY KEY (id, date) PARTITION BY RANGE COLUMNS(date) ("
+                + "PARTITION p_start VALUES LESS THAN ('1970-01-02 00:00:00'), "
+                + "PARTITION p_202408 VALUES LESS THAN ('2024-09-01 00:00:00'), "
+                + "PARTITION p_202409 VALUES LESS THAN ('2024-10-01 00:00:00'), "
+                + "PARTITION p_202410 VALUES LESS THAN ('2024-11-01 00:00:00'), "
+                + "PARTITION p_202411 VALUES LESS THAN ('2024-12-01 00:00:00'), "
+                + "PARTITION p_future VALUES LESS THAN (MAXVALUE))",
+                PartitionManager.partitionNewTable(Granularity.MONTH, LocalDate.of(2024, 8, 14), TODAY, 14));
+    }
+
+    /**
+     * @return p_start, a daily partition for each of count days from first,
+     *         then p_future, as information_schema describes them
+     */
+    private static List<Partition> dayPartitions(LocalDate first, int count) {
+        List<Partition> partitions = new ArrayList<>();
+        partitions.add(START);
+        for (int i = 0; i < count; i++) {
+            LocalDate day = first.plusDays(i);
+            partitions.add(partition(Granularity.DAY.partitionName(day), "'" + day.plusDays(1) + " 00:00:00'"));
+        }
+        partitions.add(FUTURE);
+        return partitions;
+    }
+
+    private static Partition partition(String name, String description) {
+        return new Partition(name, PartitionManager.parseBound(description));
+    }
+
+    private static List<String> names(List<Partition> partitions) {
+        return partitions.stream().map(Partition::name).toList();
+    }
+}
@@ -39,6 +39,12 @@ class ProcessLogParserTest {
         return row;
     }
 
+    @Test
+    void run_countsAFileThatCantBeRead() {
+        // dummy.log doesn't exist
+        assertEquals(1, processor.run());
+    }
+
     // -------------------------------------------------------------------------
     // Basic field extraction
     // -------------------------------------------------------------------------
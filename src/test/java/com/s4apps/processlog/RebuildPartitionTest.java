@@ -0,0 +1,174 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RebuildPartitionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void byIdPrefix_rangesMeetWithNoGapsOrOverlaps() {
+        List<RebuildPartition> partitions = RebuildPartition.byIdPrefix();
+        assertEquals(256, partitions.size());
+        assertNull(partitions.get(0).idFrom());
+        assertNull(partitions.get(255).idTo());
+        assertEquals("ff", partitions.get(255).idFrom());
+        for (int i = 0; i < partitions.size() - 1; i++) {
+            assertEquals(partitions.get(i).idTo(), partitions.get(i + 1).idFrom());
+            if (i > 0) {
+                assertTrue(partitions.get(i).idFrom().compareTo(partitions.get(i).idTo()) < 0);
+            }
+        }
+
+        // The edges of each prefix, and ids that aren't lowercase hex at all
+        String zeros = "0".repeat(62);
+        String fs = "f".repeat(62);
+        for (String id : List.of("00" + zeros, "0f" + fs, "10" + zeros, "9f" + fs, "a0" + zeros, "fe" + fs,
+                "ff" + zeros, "ff" + fs, "", "!", "FF", "g0", "~")) {
+            assertEquals(1, partitions.stream().filter(p -> containsId(p, id)).count(), id);
+        }
+    }
+
+    @Test
+    void byDay_daysMeetAndNullDatesHaveTheirOwn() {
+        List<RebuildPartition> partitions = RebuildPartition.byDay(LocalDate.of(2024, 2, 27), LocalDate.of(2024, 3, 1));
+        assertEquals(5, partitions.size());
+        assertEquals(LocalDate.of(2024, 2, 27).atStartOfDay(), partitions.get(0).dateFrom());
+        assertEquals(LocalDate.of(2024, 3, 2).atStartOfDay(), partitions.get(3).dateTo());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(partitions.get(i).dateTo(), partitions.get(i + 1).dateFrom());
+        }
+        assertTrue(partitions.get(4).nullDate());
+
+        assertEquals(List.of(RebuildPartition.byDay(null, null).get(0)),
+                RebuildPartition.byDay(null, null));
+    }
+
+    @Test
+    void rebuild_visitsEveryRowOnceInEitherMode() {
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        try {
+            LogLine logLine = new LogLine();
+            for (String line : SyntheticLogGenerator.typical(5).nextLines(1500)) {
+                logLine.parse(line);
+                jpa.insertRow(logLine.toRow(ConfigData.empty()));
+            }
+            ApacheLog undated = TestRows.storedLog("1.2.3.4", 0, false);
+            undated.setId("undated-id");
+            undated.setDate(null);
+            jpa.insertRow(new RowStringStorage(ConfigData.empty(), undated));
+            jpa.commit();
+            long rows = jpa.countRows();
+
+            for (String mode : List.of(RebuildOptions.PARTITION_ID, RebuildOptions.PARTITION_DAY)) {
+                Metrics metrics = new Metrics("Rebuild");
+                Rebuild rebuild = new Rebuild(jpa, ConfigData.empty(), 3, mode);
+                rebuild.setMetrics(metrics);
+                rebuild.run();
+                assertEquals(rows, metrics.counter("rebuild_rows_total", "Rows checked against the rules").get(), mode);
+            }
+        } finally {
+            jpa.close();
+        }
+    }
+
+    @Test
+    void rebuild_rewritesTheFlagsOfRowsTheNewRulesMatch() {
+        JpaAccess jpa = new JpaAccess("jdbc:h2:file:" + dir.resolve("db") + ";MODE=MySQL", "sa", "", "create");
+        PrintStream out = System.out;
+        try {
+            // Imported with no rules: more than one IN list of rows for the
+            // ip alone, some for the url alone, some for both and some for neither
+            int ipOnly = 2 * JpaAccess.IN_LIST_SIZE + 50;
+            int both = 30;
+            int urlOnly = 40;
+            int neither = 80;
+            for (int i = 0; i < ipOnly + both + urlOnly + neither; i++) {
+                ApacheLog log = TestRows.storedLog(i < ipOnly + both ? "10.0.0.1" : "10.0.0.2", 0, false);
+                log.setId(String.format("row-%04d", i));
+                boolean admin = i >= ipOnly && i < ipOnly + both + urlOnly;
+                log.setUrl(admin ? "/wp-admin/" + i : "/page/" + i);
+                jpa.insertRow(new RowStringStorage(ConfigData.empty(), log));
+            }
+            jpa.commit();
+
+            ConfigData rules = new ConfigData(List.of("10.0.0.1"), List.of(), List.of(), List.of("/wp-admin"),
+                    List.of(), List.of(), List.of(), List.of());
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+            new Rebuild(jpa, rules, 2, RebuildOptions.PARTITION_ID).run();
+            System.setOut(out);
+
+            int ip = ToolsAndConstants.REASON_IP;
+            int url = ToolsAndConstants.REASON_URL;
+            assertEquals(Map.of(ip + ",true,false", (long) ipOnly, (ip | url) + ",true,true", (long) both,
+                    url + ",false,true", (long) urlOnly, "0,false,false", (long) neither), storedFlags(jpa));
+
+            String report = printed.toString(StandardCharsets.UTF_8);
+            assertTrue(report.contains(String.format("Rows with changed flags: %,d (%,d unchanged)",
+                    ipOnly + both + urlOnly, neither)), report);
+            assertTrue(report.contains(String.format("- %-12s +%,d -0", "ignoreIp", ipOnly + both)), report);
+            assertTrue(report.contains(String.format("- %-12s +%,d -0", "ignoreUrl", both + urlOnly)), report);
+            assertTrue(report.contains(String.format("- %-12s +0 -0", "ignoreServer")), report);
+        } finally {
+            System.setOut(out);
+            jpa.close();
+        }
+    }
+
+    /**
+     * How many rows have each stored "ignoreReason,ignoreIp,ignoreUrl".
+     */
+    private static Map<String, Long> storedFlags(JpaAccess jpa) {
+        return jpa.doReturningWork(connection -> {
+            Map<String, Long> counts = new HashMap<>();
+            try (Statement st = connection.createStatement();
+                    ResultSet rs = st.executeQuery("SELECT ignoreReason, ignoreIp, ignoreUrl, COUNT(*) FROM ApacheLogs"
+                            + " GROUP BY ignoreReason, ignoreIp, ignoreUrl")) {
+                while (rs.next()) {
+                    counts.put(rs.getInt(1) + "," + rs.getBoolean(2) + "," + rs.getBoolean(3), rs.getLong(4));
+                }
+            }
+            return counts;
+        });
+    }
+
+    @Test
+    void progressReporter_addsUpAcrossThreads() throws Exception {
+        ProgressReporter progress = new ProgressReporter("rows", 4000);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    progress.add(1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, progress.getDone());
+        assertEquals("1h 01m 05s", ProgressReporter.formatDuration(3665));
+        assertEquals("0m 59s", ProgressReporter.formatDuration(59));
+    }
+
+    private static boolean containsId(RebuildPartition partition, String id) {
+        return (partition.idFrom() == null || id.compareTo(partition.idFrom()) >= 0)
+                && (partition.idTo() == null || id.compareTo(partition.idTo()) < 0);
+    }
+}
@@ -313,6 +313,19 @@ class RowStringStorageTest {
         assertFalse(row.isDeleteRow());
     }
 
+    @Test
+    void deleteChecks_reportOnlyTheRuleTypeThatMatched() {
+        ConfigData config = new ConfigData(
+                List.of(), List.of(), List.of(), List.of(),
+                List.of("9.9.9.9"), List.of("DELETE"), List.of("spam."), List.of("/wp-content"));
+
+        RowStringStorage row = createRow(config, "1.2.3.4", "GET", "/wp-content/img.png", "-");
+        assertFalse(row.deleteIp());
+        assertTrue(row.deleteUrl());
+        assertFalse(row.deleteServer());
+        assertFalse(row.deleteMethod());
+    }
+
     // -------------------------------------------------------------------------
     // getServer2() — truncation
     // -------------------------------------------------------------------------
@@ -375,4 +388,54 @@ class RowStringStorageTest {
         RowStringStorage row2 = createRow(ConfigData.empty(), "1.2.3.4", "GET", "/page2", "example.com");
         assertNotEquals(row1.getId(), row2.getId());
     }
+
+    // -------------------------------------------------------------------------
+    // flagsChanged() — rows read back from the database
+    // -------------------------------------------------------------------------
+
+    /** Builds a stored row for the given IP with the given stored flags. */
+    @Test
+    void flagsChanged_storedFlagsMatchRules_returnsFalse() {
+        ConfigData config = new ConfigData(
+                List.of("1.2.3.4"), List.of(), List.of(), List.of(),
+                List.of(), List.of(), List.of(), List.of());
+
+        RowStringStorage row = new RowStringStorage(config, TestRows.storedLog("1.2.3.4", 2, true));
+        assertFalse(row.flagsChanged());
+    }
+
+    @Test
+    void flagsChanged_ruleAdded_returnsTrue() {
+        ConfigData config = new ConfigData(
+                List.of("1.2.3.4"), List.of(), List.of(), List.of(),
+                List.of(), List.of(), List.of(), List.of());
+
+        RowStringStorage row = new RowStringStorage(config, TestRows.storedLog("1.2.3.4", 0, false));
+        assertTrue(row.flagsChanged());
+        assertEquals(0, row.getStoredFlags());
+    }
+
+    @Test
+    void flagsChanged_reasonDisagreesWithBooleans_returnsTrue() {
+        // ignoreReason says IP but the boolean column was never set
+        ConfigData config = new ConfigData(
+                List.of("1.2.3.4"), List.of(), List.of(), List.of(),
+                List.of(), List.of(), List.of(), List.of());
+
+        RowStringStorage row = new RowStringStorage(config, TestRows.storedLog("1.2.3.4", 2, false));
+        assertTrue(row.flagsChanged());
+    }
+
+    @Test
+    void flagsChanged_nullStoredReason_returnsTrue() {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty(), TestRows.storedLog("1.2.3.4", null, false));
+        assertTrue(row.flagsChanged());
+    }
+
+    @Test
+    void flagsChanged_parsedRow_alwaysTrue() {
+        RowStringStorage row = createRow(ConfigData.empty(), "1.2.3.4", "GET", "/", "-");
+        assertFalse(row.hasStoredFlags());
+        assertTrue(row.flagsChanged());
+    }
 }
@@ -0,0 +1,118 @@
+package com.s4apps.processlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 1, 1);
+
+    private static final String[] URLS = {"/", "/index.php", "/wp-login.php", "/about", "/contact",
+        "/blog/2023/12/a-post", "/blog/2024/01/another-post", "/favicon.ico", "/robots.txt", "/feed"};
+    private static final String[] AGENTS = {
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36",
+        "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.1 Safari/605.1.15",
+        "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+        "Mozilla/5.0 (X11; Linux x86_64; rv:121.0) Gecko/20100101 Firefox/121.0"};
+
+    private RowStringStorage createRow(int i) {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty());
+        row.pushCol("10.0." + (i % 7) + "." + (i % 50));
+        row.pushCol("-");
+        row.pushCol("-");
+        row.pushCol(String.format("2024-01-01 %02d:%02d:%02d", i / 3600 % 24, i / 60 % 60, i % 60));
+        row.pushCol(i % 20 == 0 ? "POST" : "GET");
+        row.pushCol(URLS[i % URLS.length]);
+        row.pushCol(i % 9 == 0 ? "?p=" + (i % 4) : "");
+        row.pushCol("HTTP/1.1");
+        row.pushCol(i % 13 == 0 ? "404" : "200");
+        row.pushCol(i % 11 == 0 ? "-" : String.valueOf(1000 + i % 300));
+        row.pushCol("www.example.com");
+        row.pushCol(i % 3 == 0 ? "-" : "https://www.google.com/");
+        row.pushCol(AGENTS[i % AGENTS.length]);
+        return row;
+    }
+
+    private List<RowStringStorage> createRows(int count) {
+        List<RowStringStorage> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(createRow(i));
+        }
+        return rows;
+    }
+
+    @Test
+    void roundTrip_keepsEveryValueAcrossBlocks(@TempDir Path dir) throws Exception {
+        List<RowStringStorage> rows = createRows(SegmentFormat.BLOCK_ROWS * 2 + 100);
+        Path file = SegmentFormat.newSegmentFile(dir, DAY.toString());
+        try (SegmentWriter writer = new SegmentWriter(file, DAY)) {
+            for (RowStringStorage row : rows) {
+                writer.add(row);
+            }
+        }
+
+        try (SegmentReader reader = new SegmentReader(file)) {
+            assertEquals(DAY, reader.getDay());
+            assertEquals(rows.size(), reader.getRowCount());
+            assertEquals(3, reader.getBlocks().size());
+            assertEquals(200, reader.getMinResponse());
+            assertEquals(404, reader.getMaxResponse());
+
+            List<RowStringStorage> read = reader.readAll(ConfigData.empty());
+            assertEquals(rows.size(), read.size());
+            for (int i = 0; i < rows.size(); i++) {
+                // A size of "-" is stored as null, as it is in ApacheLogs
+                String[] expected = rows.get(i).getStoredValues();
+                if ("-".equals(expected[SegmentFormat.VALUE_SIZE])) {
+                    expected[SegmentFormat.VALUE_SIZE] = null;
+                }
+                assertArrayEquals(expected, read.get(i).getStoredValues(), "row " + i);
+                assertEquals(rows.get(i).getIgnoreReason(), read.get(i).getStoredIgnoreReason());
+            }
+        }
+    }
+
+    @Test
+    void segment_isTenTimesSmallerThanCsv(@TempDir Path dir) throws Exception {
+        List<RowStringStorage> rows = createRows(50000);
+        StringWriter csv = new StringWriter();
+        try (CsvSink sink = new CsvSink(csv, false)) {
+            sink.accept(rows);
+        }
+        try (ArchiveSink sink = new ArchiveSink(dir)) {
+            sink.accept(rows);
+        }
+
+        long segmentSize = Files.size(dir.resolve(DAY + "-import" + SegmentFormat.EXTENSION));
+        long csvSize = csv.toString().length();
+        assertTrue(csvSize >= segmentSize * 10, "CSV " + csvSize + " bytes, segment " + segmentSize + " bytes");
+    }
+
+    @Test
+    void packed_roundTripsAnyRange() throws Exception {
+        long[][] cases = {
+            {5, 5, 5},
+            {0, 1, 2, 3, 255, 256},
+            {-7, 12, 1L << 40, -(1L << 40)},
+            {Long.MIN_VALUE, 0, Long.MAX_VALUE}
+        };
+        for (long[] values : cases) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            SegmentFormat.writePacked(new DataOutputStream(bytes), values, values.length);
+            long[] read = SegmentFormat.readPacked(
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), values.length);
+            assertArrayEquals(values, read);
+        }
+    }
+}
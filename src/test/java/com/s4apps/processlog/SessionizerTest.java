@@ -0,0 +1,151 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionizerTest {
+
+    private final List<Sessionizer.Session> closed = new ArrayList<>();
+
+    private RowStringStorage createRow(String ip, String time, String url, String agent) {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty());
+        row.pushCol(ip);
+        row.pushCol("-");
+        row.pushCol("-");
+        row.pushCol("2024-01-01 " + time);
+        row.pushCol("GET");
+        row.pushCol(url);
+        row.pushCol("");
+        row.pushCol("HTTP/1.1");
+        row.pushCol("200");
+        row.pushCol("100");
+        row.pushCol("example.com");
+        row.pushCol("-");
+        row.pushCol(agent);
+        return row;
+    }
+
+    @Test
+    void gap_splitsVisitsAndAgentsAreSeparate() {
+        Sessionizer sessionizer = new Sessionizer(Sessionizer.DEFAULT_GAP_SECONDS, 100, closed::add);
+        sessionizer.add(createRow("1.1.1.1", "10:00:00", "/", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "10:20:00", "/a", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "10:21:00", "/", "Googlebot"));
+        sessionizer.add(createRow("1.1.1.1", "11:00:00", "/b", "Firefox"));
+
+        // The first visit ends on the gap, the bot's on the time moving on
+        assertEquals(2, closed.size());
+        sessionizer.closeAll();
+
+        assertEquals(3, closed.size());
+        Sessionizer.Session first = closed.get(0);
+        assertEquals(2, first.getHits());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 10, 0), first.getStart());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 10, 20), first.getEnd());
+        assertEquals("/", first.getEntryUrl());
+        assertEquals("/a", first.getExitUrl());
+
+        Sessionizer.Session bot = closed.stream().filter(s -> s.getHits() == 1 && s.getEntryUrl().equals("/"))
+                .findFirst().orElseThrow();
+        assertEquals(1, bot.getIgnoredHits());
+        assertEquals(ToolsAndConstants.REASON_BOT, bot.getIgnoreReason());
+    }
+
+    @Test
+    void lateHit_joinsItsOpenSession() {
+        Sessionizer sessionizer = new Sessionizer(Sessionizer.DEFAULT_GAP_SECONDS, 100, closed::add);
+        // The end of one file, then the start of the next a little earlier
+        sessionizer.add(createRow("1.1.1.1", "10:05:00", "/b", "Firefox"));
+        sessionizer.add(createRow("2.2.2.2", "10:36:00", "/", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "10:04:00", "/a", "Firefox"));
+        assertTrue(closed.isEmpty());
+
+        // Well past the gap and the lateness allowance
+        sessionizer.add(createRow("2.2.2.2", "10:50:00", "/", "Firefox"));
+        assertEquals(1, closed.size());
+        Sessionizer.Session session = closed.get(0);
+        assertEquals(2, session.getHits());
+        assertEquals("/a", session.getEntryUrl());
+        assertEquals("/b", session.getExitUrl());
+    }
+
+    @Test
+    void maxOpen_closesTheLongestIdle() {
+        Sessionizer sessionizer = new Sessionizer(Sessionizer.DEFAULT_GAP_SECONDS, 2, closed::add);
+        sessionizer.add(createRow("1.1.1.1", "10:00:00", "/", "Firefox"));
+        sessionizer.add(createRow("2.2.2.2", "10:01:00", "/", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "10:02:00", "/", "Firefox"));
+        sessionizer.add(createRow("3.3.3.3", "10:03:00", "/", "Firefox"));
+
+        assertEquals(1, closed.size());
+        assertEquals("2.2.2.2", closed.get(0).getIp());
+        assertEquals(2, sessionizer.getOpenCount());
+        assertEquals(1, sessionizer.getEvictedCount());
+    }
+
+    @Test
+    void filesInReverseOrder_stillSplitOnTheGap() {
+        Sessionizer sessionizer = new Sessionizer(Sessionizer.DEFAULT_GAP_SECONDS, 100, closed::add);
+        // access.log, then the older access.log.1
+        sessionizer.add(createRow("1.1.1.1", "14:00:00", "/c", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "14:10:00", "/d", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "09:00:00", "/a", "Firefox"));
+        sessionizer.add(createRow("1.1.1.1", "09:15:00", "/b", "Firefox"));
+        sessionizer.closeAll();
+
+        assertEquals(2, closed.size());
+        Sessionizer.Session later = closed.get(0);
+        assertEquals(LocalDateTime.of(2024, 1, 1, 14, 0), later.getStart());
+        assertEquals(2, later.getHits());
+        Sessionizer.Session earlier = closed.get(1);
+        assertEquals(LocalDateTime.of(2024, 1, 1, 9, 0), earlier.getStart());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 9, 15), earlier.getEnd());
+        assertEquals("/a", earlier.getEntryUrl());
+        assertEquals("/b", earlier.getExitUrl());
+    }
+
+    @Test
+    void sessionSink_writesAVisitImportedTwiceOnce() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:sessions;MODE=MySQL")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE Sessions (id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                        + " ip VARCHAR(45) NOT NULL, agentHash BIGINT NOT NULL, server VARCHAR(200) NOT NULL,"
+                        + " startTime DATETIME NOT NULL, endTime DATETIME NOT NULL, hits INT NOT NULL,"
+                        + " ignoredHits INT NOT NULL, ignoreReason INT NOT NULL, entryUrl VARCHAR(500) NOT NULL,"
+                        + " exitUrl VARCHAR(500) NOT NULL, UNIQUE KEY uk_sessions_visit (ip, agentHash, startTime))");
+            }
+
+            // The live access.log imported, then again once it has grown
+            Sessionizer sessionizer = new Sessionizer(Sessionizer.DEFAULT_GAP_SECONDS, 100, closed::add);
+            sessionizer.add(createRow("1.1.1.1", "10:00:00", "/", "Firefox"));
+            sessionizer.closeAll();
+            SessionSink.insert(connection, closed);
+            closed.clear();
+            sessionizer.add(createRow("1.1.1.1", "10:00:00", "/", "Firefox"));
+            sessionizer.add(createRow("1.1.1.1", "10:05:00", "/a", "Firefox"));
+            sessionizer.closeAll();
+            SessionSink.insert(connection, closed);
+
+            // An older, shorter copy doesn't replace it
+            closed.clear();
+            sessionizer.add(createRow("1.1.1.1", "10:00:00", "/", "Firefox"));
+            sessionizer.closeAll();
+            SessionSink.insert(connection, closed);
+
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("SELECT COUNT(*), MAX(hits), MAX(exitUrl) FROM Sessions")) {
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+                assertEquals(2, rs.getInt(2));
+                assertEquals("/a", rs.getString(3));
+            }
+        }
+    }
+}
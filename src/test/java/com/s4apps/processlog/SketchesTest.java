@@ -0,0 +1,154 @@
+package com.s4apps.processlog;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SketchesTest {
+
+    private RowStringStorage createRow(String date, String ip, String url, String agent) {
+        return createRow(date, "example.com", ip, url, agent);
+    }
+
+    private RowStringStorage createRow(String date, String server, String ip, String url, String agent) {
+        RowStringStorage row = new RowStringStorage(ConfigData.empty());
+        row.pushCol(ip);
+        row.pushCol("-");
+        row.pushCol("-");
+        row.pushCol(date);
+        row.pushCol("GET");
+        row.pushCol(url);
+        row.pushCol("");
+        row.pushCol("HTTP/1.1");
+        row.pushCol("200");
+        row.pushCol("100");
+        row.pushCol(server);
+        row.pushCol("-");
+        row.pushCol(agent);
+        return row;
+    }
+
+    @Test
+    void hyperLogLog_estimatesAndMergesDistinctCounts() throws Exception {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        for (int i = 0; i < 100_000; i++) {
+            first.add("10." + (i >> 16) + "." + (i >> 8 & 255) + "." + (i & 255));
+            second.add("10." + ((i + 50_000) >> 16) + "." + ((i + 50_000) >> 8 & 255) + "." + ((i + 50_000) & 255));
+        }
+        assertEquals(100_000, first.estimate(), 3_000);
+
+        first.merge(HyperLogLog.fromBytes(second.toBytes()));
+        assertEquals(150_000, first.estimate(), 4_500);
+
+        HyperLogLog small = new HyperLogLog();
+        small.add("a");
+        small.add("b");
+        small.add("a");
+        assertEquals(2, small.estimate());
+    }
+
+    @Test
+    void countMinSketch_findsHeavyHittersAcrossMerges() throws Exception {
+        CountMinSketch first = new CountMinSketch();
+        CountMinSketch second = new CountMinSketch();
+        for (int i = 0; i < 50_000; i++) {
+            first.add("/page/" + i);
+            second.add("/other/" + i);
+            if (i % 10 == 0) {
+                first.add("/popular");
+                second.add("/popular");
+            }
+            if (i % 25 == 0) {
+                second.add("/second");
+            }
+        }
+
+        first.merge(CountMinSketch.fromBytes(second.toBytes()));
+        List<Map.Entry<String, Long>> top = first.top(2);
+        assertEquals("/popular", top.get(0).getKey());
+        assertTrue(top.get(0).getValue() >= 10_000);
+        assertEquals("/second", top.get(1).getKey());
+        assertTrue(first.estimate("/second") >= 2_000);
+        assertEquals(112_000, first.getTotal());
+    }
+
+    @Test
+    void trafficSketches_flushMergesIntoTheStoredSketches() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:sketches;MODE=MySQL;NON_KEYWORDS=DAY")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE TrafficSketches (day DATE NOT NULL, server VARCHAR(200) NOT NULL,"
+                        + " ignored BOOLEAN NOT NULL, kind VARCHAR(16) NOT NULL, sketch MEDIUMBLOB NOT NULL,"
+                        + " PRIMARY KEY (day, server, ignored, kind))");
+            }
+
+            // Two imports of the same day, with one IP in common
+            TrafficSketches listener = new TrafficSketches();
+            listener.rowInserted(createRow("2024-01-01 10:00:00", "1.1.1.1", "/a", "Firefox"));
+            listener.rowInserted(createRow("2024-01-01 11:00:00", "2.2.2.2", "/a", "Googlebot"));
+            assertEquals(4, listener.getUniques().size());
+            listener.flush(connection);
+            listener.rowInserted(createRow("2024-01-01 12:00:00", "2.2.2.2", "/b", "Firefox"));
+            listener.rowInserted(createRow("2024-01-02 12:00:00", "3.3.3.3", "/b", "Firefox"));
+            listener.flush(connection);
+            assertTrue(listener.getUniques().isEmpty());
+
+            TrafficReport.Result result = TrafficReport.merge(connection, LocalDate.of(2024, 1, 1),
+                    LocalDate.of(2024, 1, 1), TrafficReport.Traffic.ALL);
+            assertEquals(2, result.getIps().estimate());
+            assertEquals(2, result.getAgents().estimate());
+            assertEquals(3, result.getTopUrls().getTotal());
+            assertEquals("/a", result.getTopUrls().top(1).get(0).getKey());
+
+            // The bot's row was ignored, so it isn't in the not-ignored sketches
+            result = TrafficReport.merge(connection, LocalDate.of(2024, 1, 1),
+                    LocalDate.of(2024, 1, 2), TrafficReport.Traffic.NOT_IGNORED);
+            assertEquals(3, result.getIps().estimate());
+            assertEquals(1, result.getAgents().estimate());
+        }
+    }
+
+    @Test
+    void trafficSketches_retriedFlushDoesNotCountTheStoredSketchTwice() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:retry;MODE=MySQL;NON_KEYWORDS=DAY")) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE TrafficSketches (day DATE NOT NULL, server VARCHAR(200) NOT NULL,"
+                        + " ignored BOOLEAN NOT NULL, kind VARCHAR(16) NOT NULL, sketch MEDIUMBLOB NOT NULL,"
+                        + " PRIMARY KEY (day, server, ignored, kind))");
+            }
+            TrafficSketches listener = new TrafficSketches();
+            listener.rowInserted(createRow("2024-01-01 10:00:00", "Example.com", "1.1.1.1", "/a", "Firefox"));
+            listener.rowInserted(createRow("2024-01-01 11:00:00", "example.com", "1.1.1.1", "/a", "Firefox"));
+            // One server whatever its case, as the primary key would have it
+            assertEquals(2, listener.getUniques().size());
+            listener.flush(connection);
+
+            // The next flush fails on the second day's rows and is rolled back
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE TrafficSketches ADD CONSTRAINT not_jan_2 CHECK (day <> DATE '2024-01-02')");
+            }
+            connection.commit();
+            listener.rowInserted(createRow("2024-01-01 12:00:00", "1.1.1.1", "/a", "Firefox"));
+            listener.rowInserted(createRow("2024-01-02 12:00:00", "1.1.1.1", "/a", "Firefox"));
+            assertThrows(SQLException.class, () -> listener.flush(connection));
+            connection.rollback();
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE TrafficSketches DROP CONSTRAINT not_jan_2");
+            }
+            listener.flush(connection);
+            connection.commit();
+
+            TrafficReport.Result result = TrafficReport.merge(connection, LocalDate.of(2024, 1, 1),
+                    LocalDate.of(2024, 1, 1), TrafficReport.Traffic.ALL);
+            assertEquals(3, result.getTopUrls().getTotal());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.s4apps.processlog;
+
+import com.s4apps.processlog.model.ApacheLog;
+import java.time.LocalDateTime;
+
+/**
+ * Rows shared by the tests.
+ */
+final class TestRows {
+
+    private TestRows() {
+    }
+
+    /**
+     * A row as Rebuild would read it back from ApacheLogs: a GET of / at noon
+     * on 2024-01-01. Set anything else the test needs on the result.
+     *
+     * @param ip           the client IP
+     * @param ignoreReason the stored ignoreReason, or null
+     * @param ignoreIp     the stored ignoreIp flag
+     * @return the entity
+     */
+    static ApacheLog storedLog(String ip, Integer ignoreReason, boolean ignoreIp) {
+        ApacheLog log = new ApacheLog();
+        log.setId("stored-id");
+        log.setIp(ip);
+        log.setDate(LocalDateTime.of(2024, 1, 1, 12, 0));
+        log.setMethod("GET");
+        log.setUrl("/");
+        log.setBrowser("Mozilla/5.0");
+        log.setIgnoreReason(ignoreReason);
+        log.setIgnoreIp(ignoreIp);
+        return log;
+    }
+}
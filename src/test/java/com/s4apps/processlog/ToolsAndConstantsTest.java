@@ -1,5 +1,11 @@
 package com.s4apps.processlog;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -84,4 +90,85 @@ class ToolsAndConstantsTest {
     void nullToEmpty_value_returnsValue() {
         assertEquals("foo", ToolsAndConstants.nullToEmpty("foo"));
     }
+
+    // --- prefixSuccessor() ---
+
+    @Test
+    void prefixSuccessor_letter_incrementsLastChar() {
+        assertEquals("/wq", ToolsAndConstants.prefixSuccessor("/wp"));
+    }
+
+    @Test
+    void prefixSuccessor_digit_incrementsLastChar() {
+        assertEquals("10.0.1", ToolsAndConstants.prefixSuccessor("10.0.0"));
+    }
+
+    @Test
+    void prefixSuccessor_unsafeLastChar_returnsNull() {
+        // 'z', '9' and punctuation don't have a successor that sorts the same
+        // way in every collation
+        assertNull(ToolsAndConstants.prefixSuccessor("/wp-content/"));
+        assertNull(ToolsAndConstants.prefixSuccessor("/xyz"));
+        assertNull(ToolsAndConstants.prefixSuccessor("1.9"));
+    }
+
+    @Test
+    void prefixSuccessor_empty_returnsNull() {
+        assertNull(ToolsAndConstants.prefixSuccessor(""));
+        assertNull(ToolsAndConstants.prefixSuccessor(null));
+    }
+
+    // --- minimalPrefixes() ---
+
+    @Test
+    void minimalPrefixes_dropsCoveredAndDuplicateRules() {
+        assertEquals(List.of("/admin", "/wp"),
+                ToolsAndConstants.minimalPrefixes(List.of("/wp-content", "/wp", "/admin", "/wp", "/admin/users")));
+    }
+
+    @Test
+    void minimalPrefixes_keepsSiblings() {
+        assertEquals(List.of("/a", "/b"), ToolsAndConstants.minimalPrefixes(List.of("/b", "/a")));
+    }
+
+    // --- escapeLike() ---
+
+    @Test
+    void escapeLike_escapesWildcardsAndEscapeChar() {
+        assertEquals("a!%b!_c!!d", ToolsAndConstants.escapeLike("a%b_c!d"));
+    }
+
+    // --- upsert() ---
+
+    @Test
+    void upsert_usesValuesOutsideMySql() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:upsert;MODE=MySQL")) {
+            assertEquals("INSERT INTO t (a, n) VALUES (?, ?) ON DUPLICATE KEY UPDATE n = n + VALUES(n), a = VALUES(a)",
+                    ToolsAndConstants.upsert(connection, "INSERT INTO t (a, n) VALUES (?, ?)",
+                            "n = n + incoming.n, a = incoming.a"));
+        }
+    }
+
+    // --- formatEpochSecond() and parseEpochSecond() ---
+
+    @Test
+    void formatEpochSecond_matchesDateTimeFormatter() {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(ToolsAndConstants.DATE_FORMAT_STRING);
+        for (long time = -86400L * 800; time < 86400L * 40000; time += 86400L * 7 + 3611) {
+            String expected = LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC).format(format);
+            assertEquals(expected, ToolsAndConstants.formatEpochSecond(time));
+            assertEquals(time, ToolsAndConstants.parseEpochSecond(expected));
+        }
+        assertNull(ToolsAndConstants.formatEpochSecond(ToolsAndConstants.NO_DATE));
+    }
+
+    @Test
+    void parseEpochSecond_rejectsInvalidDates() {
+        assertEquals(ToolsAndConstants.NO_DATE, ToolsAndConstants.parseEpochSecond(null));
+        assertEquals(ToolsAndConstants.NO_DATE, ToolsAndConstants.parseEpochSecond("-"));
+        assertEquals(ToolsAndConstants.NO_DATE, ToolsAndConstants.parseEpochSecond("2026-02-29 00:00:00"));
+        assertEquals(ToolsAndConstants.NO_DATE, ToolsAndConstants.parseEpochSecond("2026-03-22 24:00:00"));
+        assertEquals(ToolsAndConstants.NO_DATE, ToolsAndConstants.parseEpochSecond("2026-03-22T00:00:00"));
+        assertEquals(951782400L, ToolsAndConstants.parseEpochSecond("2000-02-29 00:00:00"));
+    }
 }